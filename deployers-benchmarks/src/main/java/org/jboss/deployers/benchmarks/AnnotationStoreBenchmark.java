@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.deployers.plugins.annotations.ClassSignaturePair;
+import org.jboss.deployers.plugins.annotations.CompactAnnotationStore;
+import org.jboss.metadata.spi.signature.ConstructorParametersSignature;
+import org.jboss.metadata.spi.signature.ConstructorSignature;
+import org.jboss.metadata.spi.signature.FieldSignature;
+import org.jboss.metadata.spi.signature.MethodParametersSignature;
+import org.jboss.metadata.spi.signature.MethodSignature;
+import org.jboss.metadata.spi.signature.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Recording and querying annotation hits in the nested maps the annotation
+ * environment used to keep and in the {@link CompactAnnotationStore}.<p>
+ *
+ * The hits are random, about eight per class, over all signature kinds.
+ * Run with -prof gc, gc.alloc.rate.norm of record is the bytes allocated
+ * per environment; for the store that includes the arrays it outgrew.
+ * query copies the pairs into a set as getCSPairs does, so it also shows
+ * what the compact storage costs per query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AnnotationStoreBenchmark
+{
+   /** The annotations */
+   @SuppressWarnings("unchecked")
+   private static final Class<? extends Annotation>[] ANNOTATIONS = new Class[]
+   {
+      Retention.class, Target.class, Documented.class, Inherited.class,
+      Deprecated.class, Override.class, SuppressWarnings.class
+   };
+
+   /** The parameter types */
+   private static final String[] TYPES =
+   {
+      "java.lang.String", "int", "java.util.List", "java.lang.Object",
+      "long", "com.acme.Foo", "com.acme.Bar[]"
+   };
+
+   @Param({"maps", "compact"})
+   public String impl;
+
+   @Param({"10000", "100000"})
+   public int hits;
+
+   private Hit[] recorded;
+
+   private Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> env;
+
+   private CompactAnnotationStore store;
+
+   @Setup(Level.Trial)
+   public void setUp()
+   {
+      Random random = new Random(1);
+      recorded = new Hit[hits];
+      for (int i = 0; i < hits; ++i)
+         recorded[i] = createHit(random, hits / 8);
+
+      if ("compact".equals(impl))
+         store = recordCompact();
+      else
+         env = recordMaps(new HashSet<String>());
+   }
+
+   @Benchmark
+   public Object record()
+   {
+      if ("compact".equals(impl))
+         return recordCompact();
+      Set<String> checked = new HashSet<String>();
+      return new Object[] { recordMaps(checked), checked };
+   }
+
+   @Benchmark
+   public void query(Blackhole hole)
+   {
+      for (Class<? extends Annotation> annotation : ANNOTATIONS)
+      {
+         for (ElementType type : ElementType.values())
+         {
+            if (store != null)
+            {
+               List<ClassSignaturePair> pairs = store.getPairs(annotation, type);
+               hole.consume(pairs.isEmpty() ? Collections.<ClassSignaturePair>emptySet() : new HashSet<ClassSignaturePair>(pairs));
+            }
+            else
+            {
+               Map<ElementType, Set<ClassSignaturePair>> elements = env.get(annotation);
+               hole.consume(elements != null ? elements.get(type) : null);
+            }
+         }
+      }
+   }
+
+   private CompactAnnotationStore recordCompact()
+   {
+      CompactAnnotationStore result = new CompactAnnotationStore();
+      for (Hit hit : recorded)
+         result.add(hit.annotation, hit.type, hit.className, hit.signature, null);
+      return result;
+   }
+
+   private Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> recordMaps(Set<String> checked)
+   {
+      Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> result = new HashMap<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>>();
+      for (Hit hit : recorded)
+      {
+         checked.add(hit.className);
+         Map<ElementType, Set<ClassSignaturePair>> elements = result.get(hit.annotation);
+         if (elements == null)
+         {
+            elements = new HashMap<ElementType, Set<ClassSignaturePair>>();
+            result.put(hit.annotation, elements);
+         }
+         Set<ClassSignaturePair> pairs = elements.get(hit.type);
+         if (pairs == null)
+         {
+            pairs = new HashSet<ClassSignaturePair>();
+            elements.put(hit.type, pairs);
+         }
+         pairs.add(new ClassSignaturePair(hit.className, hit.signature));
+      }
+      return result;
+   }
+
+   /**
+    * Create a random hit, the names are new strings as a class reader creates them.
+    *
+    * @param random the random
+    * @param classes the number of classes
+    * @return the hit
+    */
+   private static Hit createHit(Random random, int classes)
+   {
+      int index = random.nextInt(classes);
+      String className = "com.acme.pkg" + (index % 50) + ".Class" + index;
+      Class<? extends Annotation> annotation = ANNOTATIONS[random.nextInt(ANNOTATIONS.length)];
+      String name = "m" + random.nextInt(30);
+      String[] parameters = new String[random.nextInt(4)];
+      for (int i = 0; i < parameters.length; ++i)
+         parameters[i] = new String(TYPES[random.nextInt(TYPES.length)]);
+
+      switch (random.nextInt(5))
+      {
+         case 0:
+            return new Hit(annotation, ElementType.TYPE, className, null);
+         case 1:
+            return new Hit(annotation, ElementType.FIELD, className, new FieldSignature(name));
+         case 2:
+            return new Hit(annotation, ElementType.CONSTRUCTOR, className, new ConstructorSignature(parameters));
+         case 3:
+            return new Hit(annotation, ElementType.METHOD, className, new MethodSignature(name, parameters));
+         default:
+            if (parameters.length == 0)
+               parameters = new String[] { new String("int") };
+            int param = random.nextInt(parameters.length);
+            if (random.nextBoolean())
+               return new Hit(annotation, ElementType.PARAMETER, className, new MethodParametersSignature(name, parameters, param));
+            return new Hit(annotation, ElementType.PARAMETER, className, new ConstructorParametersSignature(parameters, param));
+      }
+   }
+
+   /**
+    * An annotation hit.
+    */
+   private static class Hit
+   {
+      private final Class<? extends Annotation> annotation;
+      private final ElementType type;
+      private final String className;
+      private final Signature signature;
+
+      private Hit(Class<? extends Annotation> annotation, ElementType type, String className, Signature signature)
+      {
+         this.annotation = annotation;
+         this.type = type;
+         this.className = className;
+         this.signature = signature;
+      }
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.deployers.plugins.attachments.AttachmentsImpl;
+import org.jboss.deployers.plugins.attachments.SlotAttachmentsImpl;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Type and name based attachment access on the map based
+ * {@link AttachmentsImpl} and the slot based {@link SlotAttachmentsImpl}.<p>
+ *
+ * With otherTypes the slot registry first sees that many other types,
+ * so the measured types get high slots as they would in a full server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AttachmentsBenchmark
+{
+   /** The attachment types */
+   private static final Class<?>[] TYPES =
+   {
+      String.class, Integer.class, Long.class, Double.class,
+      StringBuilder.class, Thread.class, Object.class, Boolean.class
+   };
+
+   @Param({"map", "slots"})
+   public String impl;
+
+   @Param({"8"})
+   public int namedAttachments;
+
+   @Param({"0", "512"})
+   public int otherTypes;
+
+   private MutableAttachments populated;
+
+   private String[] names;
+
+   @Setup(Level.Trial)
+   public void setUp()
+   {
+      MutableAttachments other = create();
+      for (int i = 0; i < otherTypes; ++i)
+         add(other, otherType(i));
+
+      populated = create();
+      populate(populated);
+      names = new String[namedAttachments];
+      for (int i = 0; i < namedAttachments; ++i)
+         names[i] = "name" + i;
+   }
+
+   @Benchmark
+   public void getByType(Blackhole hole)
+   {
+      for (Class<?> type : TYPES)
+         hole.consume(populated.getAttachment(type));
+   }
+
+   @Benchmark
+   public void getByName(Blackhole hole)
+   {
+      for (String name : names)
+         hole.consume(populated.getAttachment(name));
+   }
+
+   @Benchmark
+   public void getMissingByType(Blackhole hole)
+   {
+      hole.consume(populated.getAttachment(Runnable.class));
+   }
+
+   @Benchmark
+   public MutableAttachments createAndPopulate()
+   {
+      MutableAttachments result = create();
+      populate(result);
+      return result;
+   }
+
+   @Benchmark
+   public void getAll(Blackhole hole)
+   {
+      hole.consume(populated.getAttachments());
+   }
+
+   private MutableAttachments create()
+   {
+      if ("slots".equals(impl))
+         return new SlotAttachmentsImpl();
+      return new AttachmentsImpl();
+   }
+
+   private void populate(MutableAttachments mutable)
+   {
+      for (Class<?> type : TYPES)
+         add(mutable, type);
+      for (int i = 0; i < namedAttachments; ++i)
+         mutable.addAttachment("name" + i, "value" + i);
+   }
+
+   private static <T> void add(MutableAttachments mutable, Class<T> type)
+   {
+      mutable.addAttachment(type, type.cast(value(type)));
+   }
+
+   /**
+    * Get another type, array types of increasing dimension
+    *
+    * @param i the index
+    * @return the type
+    */
+   private static Class<?> otherType(int i)
+   {
+      Class<?> base = TYPES[i % TYPES.length];
+      return Array.newInstance(base, new int[i / TYPES.length + 1]).getClass();
+   }
+
+   private static Object value(Class<?> type)
+   {
+      if (type == String.class)
+         return "string";
+      if (type == Integer.class)
+         return 1;
+      if (type == Long.class)
+         return 1L;
+      if (type == Double.class)
+         return 1.0;
+      if (type == StringBuilder.class)
+         return new StringBuilder();
+      if (type == Thread.class)
+         return Thread.currentThread();
+      if (type == Boolean.class)
+         return Boolean.TRUE;
+      if (type.isArray())
+         return Array.newInstance(type.getComponentType(), 0);
+      return new Object();
+   }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.deployers.plugins.attachments.AttachmentsImpl;
+import org.jboss.deployers.spi.DeploymentState;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.codec.DeploymentContextCodec;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes a deployment context tree with java serialization
+ * and with the {@link DeploymentContextCodec}. The metaData param adds
+ * java serialized attachments, which the codec cannot write compactly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContextCodecBenchmark
+{
+   @Param({"java", "codec"})
+   public String format;
+
+   @Param({"20"})
+   public int children;
+
+   @Param({"8"})
+   public int attachments;
+
+   @Param({"0", "4"})
+   public int metaData;
+
+   private DeploymentContextCodec codec;
+
+   private DeploymentContext context;
+
+   private byte[] encoded;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception
+   {
+      codec = new DeploymentContextCodec();
+      context = createTree();
+      encoded = encode();
+   }
+
+   @Benchmark
+   public byte[] encode() throws Exception
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      if ("codec".equals(format))
+      {
+         codec.writeDeploymentContext(context, baos);
+      }
+      else
+      {
+         ObjectOutputStream oos = new ObjectOutputStream(baos);
+         oos.writeObject(context);
+         oos.close();
+      }
+      return baos.toByteArray();
+   }
+
+   @Benchmark
+   public Object decode() throws Exception
+   {
+      ByteArrayInputStream bais = new ByteArrayInputStream(encoded);
+      if ("codec".equals(format))
+         return codec.readDeploymentContext(bais);
+
+      ObjectInputStream ois = new ObjectInputStream(bais);
+      return ois.readObject();
+   }
+
+   private DeploymentContext createTree()
+   {
+      AbstractDeploymentContext top = createContext("vfszip:/deploy/app.ear", "app.ear", "");
+      for (int i = 0; i < children; ++i)
+      {
+         AbstractDeploymentContext child = createContext("vfszip:/deploy/app.ear/module" + i + ".jar", "module" + i + ".jar", "/module" + i + ".jar");
+         child.setRelativeOrder(i);
+         child.setParent(top);
+         top.addChild(child);
+      }
+      return top;
+   }
+
+   private AbstractDeploymentContext createContext(String name, String simpleName, String relativePath)
+   {
+      AbstractDeploymentContext result = new AbstractDeploymentContext(name, simpleName, relativePath);
+      result.setState(DeploymentState.DEPLOYED);
+      AttachmentsImpl predetermined = new AttachmentsImpl();
+      for (int i = 0; i < attachments; ++i)
+         predetermined.addAttachment("org.jboss.test.Attachment" + i, "value" + i);
+      predetermined.addAttachment(Integer.class, attachments);
+      for (int i = 0; i < metaData; ++i)
+         predetermined.addAttachment("org.jboss.test.MetaData" + i, new SyntheticMetaData(simpleName + i, 5));
+      result.setPredeterminedManagedObjects(predetermined);
+      return result;
+   }
+}
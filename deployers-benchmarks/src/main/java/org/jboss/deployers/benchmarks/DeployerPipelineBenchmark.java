@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The full deployer pipeline: deploy, undeploy and redeploy cycles
+ * of a synthetic deployment tree through all the stages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DeployerPipelineBenchmark
+{
+   @Param({"4"})
+   public int width;
+
+   @Param({"2"})
+   public int depth;
+
+   @Param({"4"})
+   public int components;
+
+   @Param({"4"})
+   public int attachments;
+
+   @Param({"8"})
+   public int deployersPerStage;
+
+   @Param({"new", "dependencies"})
+   public String sorter;
+
+   @Param({"false", "true"})
+   public boolean attachmentDriven;
+
+   @Param({"false"})
+   public boolean vfs;
+
+   private SyntheticDeployments deployments;
+
+   private MainDeployerImpl main;
+
+   /** Deployed and undeployed by each invocation */
+   private Deployment cycle;
+
+   /** Kept deployed, each invocation redeploys it */
+   private Deployment redeploy;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception
+   {
+      deployments = new SyntheticDeployments();
+      deployments.setWidth(width);
+      deployments.setDepth(depth);
+      deployments.setComponents(components);
+      deployments.setAttachments(attachments);
+      deployments.setDeployersPerStage(deployersPerStage);
+      deployments.setSorter(sorter);
+      deployments.setAttachmentDriven(attachmentDriven);
+      deployments.setVfs(vfs);
+
+      main = deployments.createMainDeployer();
+      cycle = deployments.createDeployment("cycle");
+      redeploy = deployments.createDeployment("redeploy");
+      main.deploy(redeploy);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      main.shutdown();
+      deployments.releaseDeployment("cycle");
+      deployments.releaseDeployment("redeploy");
+   }
+
+   @Benchmark
+   public void deployUndeploy() throws Exception
+   {
+      main.deploy(cycle);
+      main.undeploy(cycle);
+   }
+
+   @Benchmark
+   public void addProcessRemove() throws Exception
+   {
+      main.addDeployment(cycle);
+      main.process();
+      main.removeDeployment(cycle);
+      main.process();
+   }
+
+   @Benchmark
+   public void redeploy() throws Exception
+   {
+      main.undeploy(redeploy);
+      main.deploy(redeploy);
+   }
+}
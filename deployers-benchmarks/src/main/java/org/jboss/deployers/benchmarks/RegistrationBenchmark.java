@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.dependency.plugins.AbstractController;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Registers a boot sized set of deployers one at a time
+ * and as a single batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RegistrationBenchmark
+{
+   @Param({"new", "dependencies", "kahn", "incremental"})
+   public String sorter;
+
+   @Param({"20"})
+   public int deployersPerStage;
+
+   @Param({"4"})
+   public int sparseDeployersPerStage;
+
+   private SyntheticDeployments deployments;
+
+   private List<Deployer> deployers;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception
+   {
+      deployments = new SyntheticDeployments();
+      deployments.setSorter(sorter);
+      deployments.setDeployersPerStage(deployersPerStage);
+      deployments.setSparseDeployersPerStage(sparseDeployersPerStage);
+      deployers = deployments.createDeployers();
+   }
+
+   @Benchmark
+   public DeployersImpl addOneByOne() throws Exception
+   {
+      DeployersImpl result = createDeployersImpl();
+      for (Deployer deployer : deployers)
+         result.addDeployer(deployer);
+      return result;
+   }
+
+   @Benchmark
+   public DeployersImpl addBatch() throws Exception
+   {
+      DeployersImpl result = createDeployersImpl();
+      result.addDeployers(deployers);
+      return result;
+   }
+
+   private DeployersImpl createDeployersImpl()
+   {
+      DeployersImpl result = new DeployersImpl(new AbstractController());
+      result.setDeployersByStage(deployments.createStagedSortedDeployers());
+      return result;
+   }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A wide deployment with many components and many deployers whose input
+ * is never present, so most of the time goes into relevance checks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RelevanceBenchmark
+{
+   @Param({"32"})
+   public int width;
+
+   @Param({"1"})
+   public int depth;
+
+   @Param({"16"})
+   public int components;
+
+   @Param({"2"})
+   public int deployersPerStage;
+
+   @Param({"32"})
+   public int sparseDeployersPerStage;
+
+   @Param({"false", "true"})
+   public boolean attachmentDriven;
+
+   private SyntheticDeployments deployments;
+
+   private MainDeployerImpl main;
+
+   private Deployment deployment;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception
+   {
+      deployments = new SyntheticDeployments();
+      deployments.setWidth(width);
+      deployments.setDepth(depth);
+      deployments.setComponents(components);
+      deployments.setAttachments(1);
+      deployments.setDeployersPerStage(deployersPerStage);
+      deployments.setSparseDeployersPerStage(sparseDeployersPerStage);
+      deployments.setAttachmentDriven(attachmentDriven);
+
+      main = deployments.createMainDeployer();
+      deployment = deployments.createDeployment("relevance");
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      main.shutdown();
+   }
+
+   @Benchmark
+   public void deployUndeploy() throws Exception
+   {
+      main.deploy(deployment);
+      main.undeploy(deployment);
+   }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import org.jboss.deployers.spi.deployer.DeploymentStage;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * SyntheticComponentDeployer.<p>
+ *
+ * Adds a fixed number of components to every non component unit.
+ */
+public class SyntheticComponentDeployer extends AbstractDeployer
+{
+   /** The number of components per unit */
+   private final int components;
+
+   /**
+    * Create a new SyntheticComponentDeployer.
+    *
+    * @param stage the stage
+    * @param components the number of components per unit
+    */
+   public SyntheticComponentDeployer(DeploymentStage stage, int components)
+   {
+      this.components = components;
+      setStage(stage);
+      setOutputs("component");
+   }
+
+   public void deploy(DeploymentUnit unit)
+   {
+      for (int i = 0; i < components; ++i)
+         unit.addComponent(getComponentName(unit, i));
+   }
+
+   @Override
+   public void undeploy(DeploymentUnit unit)
+   {
+      for (int i = components - 1; i >= 0; --i)
+         unit.removeComponent(getComponentName(unit, i));
+   }
+
+   private static String getComponentName(DeploymentUnit unit, int i)
+   {
+      return unit.getName() + "#component" + i;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "components";
+   }
+}
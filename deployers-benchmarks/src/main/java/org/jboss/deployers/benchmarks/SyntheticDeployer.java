@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import org.jboss.deployers.spi.deployer.DeploymentStage;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * SyntheticDeployer.<p>
+ *
+ * Consumes one attachment and produces another, so a set of these
+ * forms a chain the sorters have to order.
+ */
+public class SyntheticDeployer extends AbstractDeployer
+{
+   /** The name */
+   private final String name;
+
+   /** The produced attachment */
+   private final String output;
+
+   /**
+    * Create a new SyntheticDeployer.
+    *
+    * @param stage the stage
+    * @param input the required input or null
+    * @param output the produced attachment or null
+    */
+   public SyntheticDeployer(DeploymentStage stage, String input, String output)
+   {
+      this.name = output != null ? output : "consumer." + input;
+      this.output = output;
+      setStage(stage);
+      setWantComponents(true);
+      if (input != null)
+      {
+         setInputs(input);
+         addRequiredInput(input);
+      }
+      if (output != null)
+         setOutputs(output);
+   }
+
+   public void deploy(DeploymentUnit unit)
+   {
+      if (output != null)
+         unit.addAttachment(output, name);
+   }
+
+   @Override
+   public void undeploy(DeploymentUnit unit)
+   {
+      if (output != null)
+         unit.removeAttachment(output);
+   }
+
+   @Override
+   public String toString()
+   {
+      return name;
+   }
+}
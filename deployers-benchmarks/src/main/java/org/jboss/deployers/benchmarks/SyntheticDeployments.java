@@ -0,0 +1,365 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.dependency.plugins.AbstractController;
+import org.jboss.deployers.client.plugins.deployment.AbstractDeployment;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.client.spi.DeploymentFactory;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.jboss.deployers.plugins.managed.DefaultManagedDeploymentCreator;
+import org.jboss.deployers.plugins.sort.DependenciesTopologicalDeployerSorter;
+import org.jboss.deployers.plugins.sort.DeployerSorter;
+import org.jboss.deployers.plugins.sort.DominoDeployerSorter;
+import org.jboss.deployers.plugins.sort.InOutTopologicalDeployerSorter;
+import org.jboss.deployers.plugins.sort.IncrementalTopologicalDeployerSorter;
+import org.jboss.deployers.plugins.sort.KahnDeployerSorter;
+import org.jboss.deployers.plugins.sort.NewStagedSortedDeployers;
+import org.jboss.deployers.plugins.sort.OldStagedSortedDeployers;
+import org.jboss.deployers.plugins.sort.StagedSortedDeployers;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.attachments.PredeterminedManagedObjectAttachments;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.deployers.spi.deployer.DeploymentStage;
+import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.deployers.spi.deployer.helpers.DefaultManagedObjectCreator;
+import org.jboss.deployers.spi.structure.ContextInfo;
+import org.jboss.deployers.structure.spi.helpers.AbstractStructuralDeployers;
+import org.jboss.deployers.structure.spi.helpers.AbstractStructureBuilder;
+import org.jboss.deployers.vfs.plugins.structure.VFSStructuralDeployersImpl;
+import org.jboss.deployers.vfs.plugins.structure.VFSStructureBuilder;
+import org.jboss.deployers.vfs.spi.client.VFSDeploymentFactory;
+import org.jboss.virtual.VirtualFile;
+import org.jboss.virtual.plugins.context.memory.MemoryFileFactory;
+
+/**
+ * SyntheticDeployments.<p>
+ *
+ * Builds a main deployer with synthetic deployers and synthetic deployment trees.
+ * Everything is in memory, deployments with a VFS root use an in memory VFS,
+ * so runs do not depend on the file system or the network.<p>
+ *
+ * Each stage gets a chain of deployers, each one requiring the output
+ * of the previous one, plus a number of sparse deployers whose input
+ * is never produced. The sparse deployers only cost relevance checks.
+ */
+public class SyntheticDeployments
+{
+   /** The stages that get deployers */
+   private static final DeploymentStage[] STAGES =
+   {
+      DeploymentStages.PARSE,
+      DeploymentStages.POST_PARSE,
+      DeploymentStages.DESCRIBE,
+      DeploymentStages.CLASSLOADER,
+      DeploymentStages.POST_CLASSLOADER,
+      DeploymentStages.REAL
+   };
+
+   /** The deployment factory */
+   private final DeploymentFactory factory = new DeploymentFactory();
+
+   /** The number of children per context */
+   private int width = 4;
+
+   /** The depth of the tree below the top level */
+   private int depth = 2;
+
+   /** The number of components per context */
+   private int components = 4;
+
+   /** The number of predetermined attachments per context */
+   private int attachments = 4;
+
+   /** The number of chained deployers per stage */
+   private int deployersPerStage = 8;
+
+   /** The number of deployers per stage whose input is never present */
+   private int sparseDeployersPerStage = 0;
+
+   /** The sorter: new, dependencies, kahn, domino, inout or incremental */
+   private String sorter = "new";
+
+   /** Whether to use the attachment driven install */
+   private boolean attachmentDriven;
+
+   /** Whether deployments have an in memory VFS root */
+   private boolean vfs;
+
+   public int getWidth()
+   {
+      return width;
+   }
+
+   public void setWidth(int width)
+   {
+      this.width = width;
+   }
+
+   public int getDepth()
+   {
+      return depth;
+   }
+
+   public void setDepth(int depth)
+   {
+      this.depth = depth;
+   }
+
+   public int getComponents()
+   {
+      return components;
+   }
+
+   public void setComponents(int components)
+   {
+      this.components = components;
+   }
+
+   public int getAttachments()
+   {
+      return attachments;
+   }
+
+   public void setAttachments(int attachments)
+   {
+      this.attachments = attachments;
+   }
+
+   public int getDeployersPerStage()
+   {
+      return deployersPerStage;
+   }
+
+   public void setDeployersPerStage(int deployersPerStage)
+   {
+      this.deployersPerStage = deployersPerStage;
+   }
+
+   public int getSparseDeployersPerStage()
+   {
+      return sparseDeployersPerStage;
+   }
+
+   public void setSparseDeployersPerStage(int sparseDeployersPerStage)
+   {
+      this.sparseDeployersPerStage = sparseDeployersPerStage;
+   }
+
+   public String getSorter()
+   {
+      return sorter;
+   }
+
+   public void setSorter(String sorter)
+   {
+      this.sorter = sorter;
+   }
+
+   public boolean isAttachmentDriven()
+   {
+      return attachmentDriven;
+   }
+
+   public void setAttachmentDriven(boolean attachmentDriven)
+   {
+      this.attachmentDriven = attachmentDriven;
+   }
+
+   public boolean isVfs()
+   {
+      return vfs;
+   }
+
+   public void setVfs(boolean vfs)
+   {
+      this.vfs = vfs;
+   }
+
+   /**
+    * Create a main deployer with the synthetic deployers.
+    *
+    * @return the main deployer
+    */
+   public MainDeployerImpl createMainDeployer()
+   {
+      MainDeployerImpl main = new MainDeployerImpl();
+
+      AbstractStructuralDeployers structure;
+      if (vfs)
+      {
+         structure = new VFSStructuralDeployersImpl();
+         structure.setStructureBuilder(new VFSStructureBuilder());
+      }
+      else
+      {
+         structure = new AbstractStructuralDeployers();
+         structure.setStructureBuilder(new AbstractStructureBuilder());
+      }
+      main.setStructuralDeployers(structure);
+
+      DeployersImpl deployers = new DeployersImpl(new AbstractController());
+      deployers.setMgtObjectCreator(new DefaultManagedObjectCreator());
+      deployers.setDeployersByStage(createStagedSortedDeployers());
+      deployers.setAttachmentDriven(attachmentDriven);
+      deployers.addDeployers(createDeployers());
+      main.setDeployers(deployers);
+
+      main.setMgtDeploymentCreator(new DefaultManagedDeploymentCreator());
+      return main;
+   }
+
+   /**
+    * Create the staged sorted deployers for the configured sorter.
+    *
+    * @return the staged sorted deployers
+    */
+   protected StagedSortedDeployers createStagedSortedDeployers()
+   {
+      if ("new".equals(sorter))
+         return new NewStagedSortedDeployers();
+
+      DeployerSorter deployerSorter;
+      if ("dependencies".equals(sorter))
+         deployerSorter = new DependenciesTopologicalDeployerSorter();
+      else if ("kahn".equals(sorter))
+         deployerSorter = new KahnDeployerSorter();
+      else if ("domino".equals(sorter))
+         deployerSorter = new DominoDeployerSorter();
+      else if ("inout".equals(sorter))
+         deployerSorter = new InOutTopologicalDeployerSorter();
+      else if ("incremental".equals(sorter))
+         deployerSorter = new IncrementalTopologicalDeployerSorter();
+      else
+         throw new IllegalArgumentException("Unknown sorter: " + sorter);
+
+      OldStagedSortedDeployers result = new OldStagedSortedDeployers();
+      result.setSorter(deployerSorter);
+      return result;
+   }
+
+   /**
+    * Create the deployers.<p>
+    *
+    * The deployers are returned in reverse order of the chain
+    * so the sorters have some work to do.
+    *
+    * @return the deployers
+    */
+   public List<Deployer> createDeployers()
+   {
+      List<Deployer> result = new ArrayList<Deployer>();
+      String previous = attachments > 0 ? getAttachmentName(0) : null;
+      for (DeploymentStage stage : STAGES)
+      {
+         if (DeploymentStages.DESCRIBE.equals(stage) && components > 0)
+            result.add(new SyntheticComponentDeployer(stage, components));
+
+         for (int i = 0; i < deployersPerStage; ++i)
+         {
+            String output = stage.getName() + "." + i;
+            result.add(new SyntheticDeployer(stage, previous, output));
+            previous = output;
+         }
+         for (int i = 0; i < sparseDeployersPerStage; ++i)
+            result.add(new SyntheticDeployer(stage, "sparse." + stage.getName() + "." + i, null));
+      }
+      List<Deployer> reversed = new ArrayList<Deployer>(result.size());
+      for (int i = result.size() - 1; i >= 0; --i)
+         reversed.add(result.get(i));
+      return reversed;
+   }
+
+   /**
+    * Create a deployment tree
+    *
+    * @param name the name of the deployment
+    * @return the deployment
+    * @throws Exception for any error
+    */
+   public Deployment createDeployment(String name) throws Exception
+   {
+      Deployment deployment;
+      URL root = null;
+      if (vfs)
+      {
+         root = new URL("vfsmemory", name, "");
+         VirtualFile file = MemoryFileFactory.createRoot(root).getRoot();
+         deployment = VFSDeploymentFactory.getInstance().createVFSDeployment(file);
+      }
+      else
+      {
+         deployment = new AbstractDeployment(name);
+      }
+
+      ContextInfo top = factory.addContext(deployment, "");
+      addAttachments(top);
+      addChildren(top, root, "", 0);
+      return deployment;
+   }
+
+   /**
+    * Release a deployment created by {@link #createDeployment(String)}
+    *
+    * @param name the name of the deployment
+    * @throws Exception for any error
+    */
+   public void releaseDeployment(String name) throws Exception
+   {
+      if (vfs)
+         MemoryFileFactory.deleteRoot(new URL("vfsmemory", name, ""));
+   }
+
+   private void addChildren(ContextInfo parent, URL root, String parentPath, int level) throws Exception
+   {
+      if (level >= depth)
+         return;
+
+      for (int i = 0; i < width; ++i)
+      {
+         String path = "child" + i + ".jar";
+         String fullPath = parentPath + path + "/";
+         if (root != null)
+            MemoryFileFactory.putFile(new URL(root, fullPath + "marker"), new byte[0]);
+         ContextInfo child = factory.addContext(parent, path);
+         addAttachments(child);
+         addChildren(child, root, fullPath, level + 1);
+      }
+   }
+
+   private void addAttachments(PredeterminedManagedObjectAttachments context)
+   {
+      MutableAttachments predetermined = (MutableAttachments) context.getPredeterminedManagedObjects();
+      for (int i = 0; i < attachments; ++i)
+         predetermined.addAttachment(getAttachmentName(i), Integer.valueOf(i));
+   }
+
+   private static String getAttachmentName(int i)
+   {
+      return "attachment." + i;
+   }
+}
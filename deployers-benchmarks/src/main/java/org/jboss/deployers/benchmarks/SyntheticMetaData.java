@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.benchmarks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SyntheticMetaData.<p>
+ *
+ * Serializable metadata shaped like a parsed descriptor: a few nested
+ * beans with names, class names and properties.
+ */
+public class SyntheticMetaData implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** The name */
+   private final String name;
+
+   /** The beans */
+   private final List<Bean> beans = new ArrayList<Bean>();
+
+   /**
+    * Create a new SyntheticMetaData.
+    *
+    * @param name the name
+    * @param beans the number of beans
+    */
+   public SyntheticMetaData(String name, int beans)
+   {
+      this.name = name;
+      for (int i = 0; i < beans; ++i)
+      {
+         Bean bean = new Bean();
+         bean.name = name + ".bean" + i;
+         bean.className = "org.jboss.test.synthetic.Bean" + i;
+         bean.properties.put("jndiName", "java:/" + bean.name);
+         bean.properties.put("timeout", String.valueOf(i * 1000));
+         bean.depends.add(name + ".bean" + (i + 1));
+         this.beans.add(bean);
+      }
+   }
+
+   /**
+    * Get the name
+    *
+    * @return the name
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * Get the beans
+    *
+    * @return the beans
+    */
+   public List<Bean> getBeans()
+   {
+      return beans;
+   }
+
+   /**
+    * A bean of the metadata
+    */
+   public static class Bean implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      /** The name */
+      String name;
+
+      /** The class name */
+      String className;
+
+      /** The properties */
+      Map<String, String> properties = new LinkedHashMap<String, String>();
+
+      /** The dependencies */
+      List<String> depends = new ArrayList<String>();
+   }
+}
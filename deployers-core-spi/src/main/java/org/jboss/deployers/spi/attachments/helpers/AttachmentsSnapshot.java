@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.spi.attachments.helpers;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.attachments.SnapshotAttachments;
+
+/**
+ * An immutable point in time view of some attachments.
+ */
+public class AttachmentsSnapshot extends AbstractAttachments
+{
+   /** The serialVersionUID */
+   private static final long serialVersionUID = 1L;
+
+   /** The attachments */
+   private Map<String, Object> attachments;
+
+   /** The change count when the snapshot was taken */
+   private int changeCount;
+
+   /**
+    * Create a new empty AttachmentsSnapshot.
+    */
+   public AttachmentsSnapshot()
+   {
+      this(Collections.<String, Object>emptyMap(), 0);
+   }
+
+   /**
+    * Create a new AttachmentsSnapshot.
+    *
+    * @param attachments the attachments, they must not change afterwards
+    * @param changeCount the change count
+    */
+   public AttachmentsSnapshot(Map<String, Object> attachments, int changeCount)
+   {
+      if (attachments == null)
+         throw new IllegalArgumentException("Null attachments");
+      this.attachments = attachments;
+      this.changeCount = changeCount;
+   }
+
+   /**
+    * Take a snapshot of some attachments.<p>
+    *
+    * Attachments that are not {@link SnapshotAttachments} get copied.
+    *
+    * @param attachments the attachments
+    * @return the snapshot
+    */
+   public static Attachments snapshot(Attachments attachments)
+   {
+      if (attachments == null)
+         throw new IllegalArgumentException("Null attachments");
+      if (attachments instanceof SnapshotAttachments)
+         return ((SnapshotAttachments) attachments).getSnapshot();
+      int changeCount = 0;
+      if (attachments instanceof MutableAttachments)
+         changeCount = ((MutableAttachments) attachments).getChangeCount();
+      Map<String, Object> copy = new HashMap<String, Object>(attachments.getAttachments());
+      return new AttachmentsSnapshot(Collections.unmodifiableMap(copy), changeCount);
+   }
+
+   public Map<String, Object> getAttachments()
+   {
+      return attachments;
+   }
+
+   public Object getAttachment(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      return attachments.get(name);
+   }
+
+   public boolean isAttachmentPresent(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      return attachments.containsKey(name);
+   }
+
+   public boolean hasAttachments()
+   {
+      return attachments.isEmpty() == false;
+   }
+
+   /**
+    * Get the change count of the attachments when the snapshot was taken
+    *
+    * @return the change count
+    */
+   public int getChangeCount()
+   {
+      return changeCount;
+   }
+
+   @Override
+   public String toString()
+   {
+      return attachments.toString();
+   }
+
+   @SuppressWarnings("unchecked")
+   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+   {
+      super.readExternal(in);
+      attachments = Collections.unmodifiableMap((Map) in.readObject());
+      changeCount = in.readInt();
+   }
+
+   /**
+    * @serialData attachments from {@link #getAttachments()}
+    * @serialData changeCount from {@link #getChangeCount()}
+    * @param out the output
+    * @throws IOException for any error
+    */
+   public void writeExternal(ObjectOutput out) throws IOException
+   {
+      super.writeExternal(out);
+      out.writeObject(new HashMap<String, Object>(attachments));
+      out.writeInt(changeCount);
+   }
+}
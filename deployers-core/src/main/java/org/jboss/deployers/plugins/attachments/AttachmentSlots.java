@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.attachments;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The slots assigned to attachment types.<p>
+ *
+ * The slots are shared by all the slot attachments and are keyed by
+ * class name, the same key the type based attachment methods use,
+ * so a registered type does not keep its classloader alive.<p>
+ *
+ * The slot of a type is resolved by name once, after that it is found by the
+ * identity of the class in a small cache that only weakly references the class.
+ */
+final class AttachmentSlots
+{
+   /** The maximum number of slots, other types are kept by name */
+   static final int MAX_SLOTS = 1024;
+
+   /** The slots by class name */
+   private static final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+
+   /** The class names by slot */
+   private static final AtomicReferenceArray<String> names = new AtomicReferenceArray<String>(MAX_SLOTS);
+
+   /** The size of the type cache */
+   private static final int CACHE_SIZE = 1024;
+
+   /** The slots of the types seen, by identity hash */
+   private static final AtomicReferenceArray<CachedSlot> cache = new AtomicReferenceArray<CachedSlot>(CACHE_SIZE);
+
+   /** The next free slot */
+   private static int next;
+
+   private AttachmentSlots()
+   {
+   }
+
+   /**
+    * Get the slot of a type, assigning one when needed
+    *
+    * @param type the type
+    * @return the slot or -1 when all slots are taken
+    */
+   static int getSlot(Class<?> type)
+   {
+      int index = System.identityHashCode(type) & (CACHE_SIZE - 1);
+      CachedSlot cached = cache.get(index);
+      if (cached != null && cached.get() == type)
+         return cached.slot;
+
+      int result = getSlot(type.getName());
+      if (result >= 0)
+         cache.set(index, new CachedSlot(type, result));
+      return result;
+   }
+
+   /**
+    * Get the slot of a class name, assigning one when needed
+    *
+    * @param name the class name
+    * @return the slot or -1 when all slots are taken
+    */
+   private static int getSlot(String name)
+   {
+      Integer slot = slots.get(name);
+      if (slot != null)
+         return slot;
+      synchronized (slots)
+      {
+         slot = slots.get(name);
+         if (slot != null)
+            return slot;
+         if (next == MAX_SLOTS)
+            return -1;
+         slot = next++;
+         names.set(slot, name);
+         slots.put(name, slot);
+         return slot;
+      }
+   }
+
+   /**
+    * Find the slot of a type
+    *
+    * @param type the type
+    * @return the slot or -1 when the type has no slot
+    */
+   static int findSlot(Class<?> type)
+   {
+      int index = System.identityHashCode(type) & (CACHE_SIZE - 1);
+      CachedSlot cached = cache.get(index);
+      if (cached != null && cached.get() == type)
+         return cached.slot;
+
+      int result = findSlot(type.getName());
+      if (result >= 0)
+         cache.set(index, new CachedSlot(type, result));
+      return result;
+   }
+
+   /**
+    * Find the slot of an attachment name
+    *
+    * @param name the name
+    * @return the slot or -1 when the name has no slot
+    */
+   static int findSlot(String name)
+   {
+      Integer slot = slots.get(name);
+      if (slot == null)
+         return -1;
+      return slot;
+   }
+
+   /**
+    * Get the attachment name of a slot
+    *
+    * @param slot the slot
+    * @return the name
+    */
+   static String getName(int slot)
+   {
+      return names.get(slot);
+   }
+
+   /**
+    * The slot of a type, the type is only weakly referenced
+    */
+   private static class CachedSlot extends WeakReference<Class<?>>
+   {
+      /** The slot */
+      private final int slot;
+
+      private CachedSlot(Class<?> type, int slot)
+      {
+         super(type);
+         this.slot = slot;
+      }
+   }
+}
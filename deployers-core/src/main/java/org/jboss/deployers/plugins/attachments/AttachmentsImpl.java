@@ -61,7 +61,8 @@ public class AttachmentsImpl extends AbstractMutableAttachments
       
       attachments.clear();
       attachments.putAll(map);
-      changeCount.addAndGet(map.size());
+      // replacing with nothing still removes the previous attachments
+      changeCount.addAndGet(map.isEmpty() ? 1 : map.size());
    }
 
    public Object addAttachment(String name, Object attachment)
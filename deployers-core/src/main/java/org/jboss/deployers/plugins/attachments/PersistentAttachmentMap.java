@@ -0,0 +1,487 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.attachments;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable hash array mapped trie of attachments.<p>
+ *
+ * {@link #with(String, Object)} and {@link #without(String)} return a new map
+ * sharing all the nodes that did not change, so keeping an old version is free.
+ */
+final class PersistentAttachmentMap extends AbstractMap<String, Object>
+{
+   /** The empty map */
+   static final PersistentAttachmentMap EMPTY = new PersistentAttachmentMap(new BitmapNode(0, new Object[0]), 0);
+
+   /** The bits of the hash used at each level */
+   private static final int BITS = 5;
+
+   /** The deepest path, six full levels, the top two bits and the collisions */
+   private static final int MAX_DEPTH = 8;
+
+   /** The root */
+   private final Node root;
+
+   /** The size */
+   private final int size;
+
+   /** The entry set */
+   private transient Set<Map.Entry<String, Object>> entrySet;
+
+   private PersistentAttachmentMap(Node root, int size)
+   {
+      this.root = root;
+      this.size = size;
+   }
+
+   /**
+    * Get the map with an attachment added or replaced
+    *
+    * @param name the name
+    * @param value the value
+    * @return the new map, or this map if nothing changed
+    */
+   PersistentAttachmentMap with(String name, Object value)
+   {
+      boolean[] added = new boolean[1];
+      Node result = root.assoc(hash(name), 0, name, value, added);
+      if (result == root)
+         return this;
+      return new PersistentAttachmentMap(result, added[0] ? size + 1 : size);
+   }
+
+   /**
+    * Get the map with an attachment removed
+    *
+    * @param name the name
+    * @return the new map, or this map if there was no such attachment
+    */
+   PersistentAttachmentMap without(String name)
+   {
+      Node result = root.dissoc(hash(name), 0, name);
+      if (result == root)
+         return this;
+      if (result == null)
+         return EMPTY;
+      return new PersistentAttachmentMap(result, size - 1);
+   }
+
+   @Override
+   public Object get(Object key)
+   {
+      if (key instanceof String == false)
+         return null;
+      return root.find(hash(key), 0, key);
+   }
+
+   @Override
+   public boolean containsKey(Object key)
+   {
+      return get(key) != null;
+   }
+
+   @Override
+   public int size()
+   {
+      return size;
+   }
+
+   @Override
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   @Override
+   public Set<Map.Entry<String, Object>> entrySet()
+   {
+      if (entrySet == null)
+      {
+         entrySet = new AbstractSet<Map.Entry<String, Object>>()
+         {
+            public Iterator<Map.Entry<String, Object>> iterator()
+            {
+               return new EntryIterator(root);
+            }
+
+            public int size()
+            {
+               return size;
+            }
+         };
+      }
+      return entrySet;
+   }
+
+   /**
+    * Spread the hash of a key
+    *
+    * @param key the key
+    * @return the hash
+    */
+   static int hash(Object key)
+   {
+      int h = key.hashCode();
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * A node, pairs of key and value in the array, a null key means the value is a child node.
+    */
+   abstract static class Node
+   {
+      /** The pairs */
+      final Object[] array;
+
+      Node(Object[] array)
+      {
+         this.array = array;
+      }
+
+      abstract Object find(int hash, int shift, Object key);
+
+      abstract Node assoc(int hash, int shift, String key, Object value, boolean[] added);
+
+      abstract Node dissoc(int hash, int shift, String key);
+   }
+
+   /**
+    * A node holding the keys that share the hash bits above it, indexed by the next bits.
+    */
+   static final class BitmapNode extends Node
+   {
+      /** The bits in use */
+      final int bitmap;
+
+      BitmapNode(int bitmap, Object[] array)
+      {
+         super(array);
+         this.bitmap = bitmap;
+      }
+
+      Object find(int hash, int shift, Object key)
+      {
+         int bit = bit(hash, shift);
+         if ((bitmap & bit) == 0)
+            return null;
+         int i = index(bit);
+         Object k = array[i];
+         Object v = array[i + 1];
+         if (k == null)
+            return ((Node) v).find(hash, shift + BITS, key);
+         return key.equals(k) ? v : null;
+      }
+
+      Node assoc(int hash, int shift, String key, Object value, boolean[] added)
+      {
+         int bit = bit(hash, shift);
+         int i = index(bit);
+         if ((bitmap & bit) == 0)
+         {
+            Object[] result = new Object[array.length + 2];
+            System.arraycopy(array, 0, result, 0, i);
+            result[i] = key;
+            result[i + 1] = value;
+            System.arraycopy(array, i, result, i + 2, array.length - i);
+            added[0] = true;
+            return new BitmapNode(bitmap | bit, result);
+         }
+         Object k = array[i];
+         Object v = array[i + 1];
+         if (k == null)
+         {
+            Node child = (Node) v;
+            Node result = child.assoc(hash, shift + BITS, key, value, added);
+            if (result == child)
+               return this;
+            return replace(i, null, result);
+         }
+         if (key.equals(k))
+         {
+            if (v == value)
+               return this;
+            return replace(i, k, value);
+         }
+         added[0] = true;
+         return replace(i, null, createNode(shift + BITS, (String) k, v, hash, key, value));
+      }
+
+      Node dissoc(int hash, int shift, String key)
+      {
+         int bit = bit(hash, shift);
+         if ((bitmap & bit) == 0)
+            return this;
+         int i = index(bit);
+         Object k = array[i];
+         Object v = array[i + 1];
+         if (k == null)
+         {
+            Node child = (Node) v;
+            Node result = child.dissoc(hash, shift + BITS, key);
+            if (result == child)
+               return this;
+            if (result == null)
+               return remove(i, bit);
+            // pull a single remaining attachment up
+            if (result.array.length == 2 && result.array[0] != null)
+               return replace(i, result.array[0], result.array[1]);
+            return replace(i, null, result);
+         }
+         if (key.equals(k))
+            return remove(i, bit);
+         return this;
+      }
+
+      private Node replace(int i, Object key, Object value)
+      {
+         Object[] result = array.clone();
+         result[i] = key;
+         result[i + 1] = value;
+         return new BitmapNode(bitmap, result);
+      }
+
+      private Node remove(int i, int bit)
+      {
+         if (bitmap == bit)
+            return null;
+         Object[] result = new Object[array.length - 2];
+         System.arraycopy(array, 0, result, 0, i);
+         System.arraycopy(array, i + 2, result, i, array.length - i - 2);
+         return new BitmapNode(bitmap ^ bit, result);
+      }
+
+      private int index(int bit)
+      {
+         return Integer.bitCount(bitmap & (bit - 1)) * 2;
+      }
+
+      private static int bit(int hash, int shift)
+      {
+         return 1 << ((hash >>> shift) & 31);
+      }
+
+      private static Node createNode(int shift, String key1, Object value1, int hash2, String key2, Object value2)
+      {
+         int hash1 = hash(key1);
+         if (hash1 == hash2)
+            return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+         boolean[] added = new boolean[1];
+         Node result = new BitmapNode(0, new Object[0]);
+         result = result.assoc(hash1, shift, key1, value1, added);
+         return result.assoc(hash2, shift, key2, value2, added);
+      }
+   }
+
+   /**
+    * A node holding keys with the same hash.
+    */
+   static final class CollisionNode extends Node
+   {
+      /** The hash */
+      final int hash;
+
+      CollisionNode(int hash, Object[] array)
+      {
+         super(array);
+         this.hash = hash;
+      }
+
+      Object find(int hash, int shift, Object key)
+      {
+         int i = indexOf(key);
+         return i < 0 ? null : array[i + 1];
+      }
+
+      Node assoc(int hash, int shift, String key, Object value, boolean[] added)
+      {
+         if (hash != this.hash)
+         {
+            Node result = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[] { null, this });
+            return result.assoc(hash, shift, key, value, added);
+         }
+         int i = indexOf(key);
+         if (i >= 0)
+         {
+            if (array[i + 1] == value)
+               return this;
+            Object[] result = array.clone();
+            result[i + 1] = value;
+            return new CollisionNode(hash, result);
+         }
+         Object[] result = new Object[array.length + 2];
+         System.arraycopy(array, 0, result, 0, array.length);
+         result[array.length] = key;
+         result[array.length + 1] = value;
+         added[0] = true;
+         return new CollisionNode(hash, result);
+      }
+
+      Node dissoc(int hash, int shift, String key)
+      {
+         int i = indexOf(key);
+         if (i < 0)
+            return this;
+         if (array.length == 2)
+            return null;
+         Object[] result = new Object[array.length - 2];
+         System.arraycopy(array, 0, result, 0, i);
+         System.arraycopy(array, i + 2, result, i, array.length - i - 2);
+         return new CollisionNode(hash, result);
+      }
+
+      private int indexOf(Object key)
+      {
+         for (int i = 0; i < array.length; i += 2)
+         {
+            if (key.equals(array[i]))
+               return i;
+         }
+         return -1;
+      }
+   }
+
+   /**
+    * Walks the trie depth first.
+    */
+   private static final class EntryIterator implements Iterator<Map.Entry<String, Object>>
+   {
+      private final Node[] nodes = new Node[MAX_DEPTH];
+
+      private final int[] positions = new int[MAX_DEPTH];
+
+      private int depth;
+
+      private Map.Entry<String, Object> next;
+
+      EntryIterator(Node root)
+      {
+         nodes[0] = root;
+         advance();
+      }
+
+      private void advance()
+      {
+         next = null;
+         while (depth >= 0)
+         {
+            Node node = nodes[depth];
+            int position = positions[depth];
+            if (position >= node.array.length)
+            {
+               nodes[depth--] = null;
+               continue;
+            }
+            positions[depth] = position + 2;
+            Object key = node.array[position];
+            Object value = node.array[position + 1];
+            if (key == null)
+            {
+               nodes[++depth] = (Node) value;
+               positions[depth] = 0;
+            }
+            else
+            {
+               next = new Entry((String) key, value);
+               return;
+            }
+         }
+      }
+
+      public boolean hasNext()
+      {
+         return next != null;
+      }
+
+      public Map.Entry<String, Object> next()
+      {
+         if (next == null)
+            throw new NoSuchElementException();
+         Map.Entry<String, Object> result = next;
+         advance();
+         return result;
+      }
+
+      public void remove()
+      {
+         throw new UnsupportedOperationException("Immutable");
+      }
+   }
+
+   /**
+    * An immutable entry.
+    */
+   private static final class Entry implements Map.Entry<String, Object>
+   {
+      private final String key;
+
+      private final Object value;
+
+      Entry(String key, Object value)
+      {
+         this.key = key;
+         this.value = value;
+      }
+
+      public String getKey()
+      {
+         return key;
+      }
+
+      public Object getValue()
+      {
+         return value;
+      }
+
+      public Object setValue(Object value)
+      {
+         throw new UnsupportedOperationException("Immutable");
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (obj instanceof Map.Entry == false)
+            return false;
+         Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+         return key.equals(other.getKey()) && value.equals(other.getValue());
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return key.hashCode() ^ value.hashCode();
+      }
+
+      @Override
+      public String toString()
+      {
+         return key + "=" + value;
+      }
+   }
+}
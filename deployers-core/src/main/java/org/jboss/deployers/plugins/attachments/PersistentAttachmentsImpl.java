@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.attachments;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.SnapshotAttachments;
+import org.jboss.deployers.spi.attachments.helpers.AbstractMutableAttachments;
+import org.jboss.deployers.spi.attachments.helpers.AttachmentsSnapshot;
+
+/**
+ * Attachments held in a persistent map.<p>
+ *
+ * Every change publishes a new immutable map that shares the unchanged nodes
+ * with the previous one, so {@link #getAttachments()} and {@link #getSnapshot()}
+ * are point in time views that cost nothing to take.
+ */
+public class PersistentAttachmentsImpl extends AbstractMutableAttachments implements SnapshotAttachments
+{
+   /** The serialVersionUID */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The current state.
+    */
+   private static final class State
+   {
+      /** The attachments */
+      final PersistentAttachmentMap attachments;
+
+      /** The number of changes since construction or clearing of the change count */
+      final int changeCount;
+
+      State(PersistentAttachmentMap attachments, int changeCount)
+      {
+         this.attachments = attachments;
+         this.changeCount = changeCount;
+      }
+   }
+
+   /** The current state, replaced on every change */
+   private volatile State state = new State(PersistentAttachmentMap.EMPTY, 0);
+
+   public Map<String, Object> getAttachments()
+   {
+      return state.attachments;
+   }
+
+   public Attachments getSnapshot()
+   {
+      State current = state;
+      return new AttachmentsSnapshot(current.attachments, current.changeCount);
+   }
+
+   @Override
+   public synchronized void setAttachments(Map<String, Object> map)
+   {
+      if (map == null)
+         throw new IllegalArgumentException("Null map");
+
+      PersistentAttachmentMap attachments = PersistentAttachmentMap.EMPTY;
+      for (Map.Entry<String, Object> entry : map.entrySet())
+      {
+         String name = entry.getKey();
+         if (name == null)
+            throw new IllegalArgumentException("Null name");
+         if (entry.getValue() == null)
+            throw new IllegalArgumentException("Null attachment");
+         attachments = attachments.with(name, entry.getValue());
+      }
+      // replacing with nothing still removes the previous attachments
+      state = new State(attachments, state.changeCount + (map.isEmpty() ? 1 : map.size()));
+   }
+
+   public synchronized Object addAttachment(String name, Object attachment)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      if (attachment == null)
+         throw new IllegalArgumentException("Null attachment");
+      State current = state;
+      Object value = current.attachments.get(name);
+      state = new State(current.attachments.with(name, attachment), current.changeCount + 1);
+      return value;
+   }
+
+   public Object getAttachment(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      return state.attachments.get(name);
+   }
+
+   public boolean isAttachmentPresent(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      return state.attachments.containsKey(name);
+   }
+
+   public synchronized Object removeAttachment(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      State current = state;
+      Object value = current.attachments.get(name);
+      state = new State(current.attachments.without(name), current.changeCount + 1);
+      return value;
+   }
+
+   public synchronized void clear()
+   {
+      state = new State(PersistentAttachmentMap.EMPTY, state.changeCount + 1);
+   }
+
+   public boolean hasAttachments()
+   {
+      return state.attachments.isEmpty() == false;
+   }
+
+   public int getChangeCount()
+   {
+      return state.changeCount;
+   }
+
+   public synchronized void clearChangeCount()
+   {
+      state = new State(state.attachments, 0);
+   }
+
+   @Override
+   public String toString()
+   {
+      return state.attachments.toString();
+   }
+
+   @SuppressWarnings("unchecked")
+   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+   {
+      super.readExternal(in);
+      setAttachments((Map) in.readObject());
+      int changeCount = in.readInt();
+      synchronized (this)
+      {
+         state = new State(state.attachments, changeCount);
+      }
+   }
+
+   /**
+    * @serialData attachments from {@link #getAttachments()}
+    * @serialData changeCount from {@link #getChangeCount()}
+    * @param out the output
+    * @throws IOException for any error
+    */
+   public void writeExternal(ObjectOutput out) throws IOException
+   {
+      super.writeExternal(out);
+      State current = state;
+      out.writeObject(new HashMap<String, Object>(current.attachments));
+      out.writeInt(current.changeCount);
+   }
+}
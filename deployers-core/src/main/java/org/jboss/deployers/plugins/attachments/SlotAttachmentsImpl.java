@@ -0,0 +1,444 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.attachments;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jboss.deployers.spi.attachments.helpers.AbstractMutableAttachments;
+
+/**
+ * Attachments implementation that keeps the type based attachments
+ * in a table keyed by the slot of the type.<p>
+ *
+ * The table is sized by the slots the instance uses, not by the number of
+ * types with a slot, and the slot of a type is found by the identity of its class.
+ *
+ * Attachments added by name go to a map unless the name is that of a type
+ * with a slot, so the name and type based methods see the same attachments.
+ * Reads do not lock, writes are synchronized.
+ */
+public class SlotAttachmentsImpl extends AbstractMutableAttachments
+{
+   /** The serialVersionUID */
+   private static final long serialVersionUID = -2526203985553542380L;
+
+   /** The attachments by slot */
+   private volatile SlotTable slots = SlotTable.EMPTY;
+
+   /** The attachments without a slot */
+   private volatile ConcurrentMap<String, Object> named;
+
+   /** The number of changes since construction or clearing of the change count */
+   private AtomicInteger changeCount = new AtomicInteger();
+
+   public Map<String, Object> getAttachments()
+   {
+      Map<String, Object> result = new HashMap<String, Object>();
+      ConcurrentMap<String, Object> named = this.named;
+      if (named != null)
+         result.putAll(named);
+      SlotTable slots = this.slots;
+      for (int i = 0; i < slots.capacity(); ++i)
+      {
+         Object value = slots.getValue(i);
+         if (value != null)
+            result.put(AttachmentSlots.getName(slots.getSlot(i)), value);
+      }
+      return Collections.unmodifiableMap(result);
+   }
+
+   @Override
+   public synchronized void setAttachments(Map<String, Object> map)
+   {
+      if (map == null)
+         throw new IllegalArgumentException("Null map");
+
+      slots = SlotTable.EMPTY;
+      named = null;
+      for (Map.Entry<String, Object> entry : map.entrySet())
+      {
+         String name = entry.getKey();
+         if (name == null)
+            throw new IllegalArgumentException("Null name");
+         if (entry.getValue() == null)
+            throw new IllegalArgumentException("Null attachment");
+         put(name, AttachmentSlots.findSlot(name), entry.getValue());
+      }
+      // replacing with nothing still removes the previous attachments
+      changeCount.addAndGet(map.isEmpty() ? 1 : map.size());
+   }
+
+   public Object addAttachment(String name, Object attachment)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      if (attachment == null)
+         throw new IllegalArgumentException("Null attachment");
+      return add(name, AttachmentSlots.findSlot(name), attachment);
+   }
+
+   @Override
+   public <T> T addAttachment(Class<T> type, T attachment)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null type");
+      if (attachment == null)
+         throw new IllegalArgumentException("Null attachment");
+      Object result = add(type.getName(), AttachmentSlots.getSlot(type), attachment);
+      if (result == null)
+         return null;
+      if (type.isInstance(result) == false)
+         throw new IllegalArgumentException("Previous attachment not of the same type: expected=" + type + ", previous=" + result);
+      return type.cast(result);
+   }
+
+   public Object getAttachment(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      return get(name, AttachmentSlots.findSlot(name));
+   }
+
+   @Override
+   public <T> T getAttachment(Class<T> type)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null type");
+      return type.cast(get(type.getName(), AttachmentSlots.findSlot(type)));
+   }
+
+   public boolean isAttachmentPresent(String name)
+   {
+      return getAttachment(name) != null;
+   }
+
+   public Object removeAttachment(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      return remove(name, AttachmentSlots.findSlot(name));
+   }
+
+   @Override
+   public <T> T removeAttachment(Class<T> type)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null type");
+      Object result = remove(type.getName(), AttachmentSlots.findSlot(type));
+      if (result == null)
+         return null;
+      if (type.isInstance(result) == false)
+         throw new IllegalArgumentException("Removed attachment not of the same type: expected=" + type + ", removed=" + result);
+      return type.cast(result);
+   }
+
+   public synchronized void clear()
+   {
+      slots = SlotTable.EMPTY;
+      named = null;
+      changeCount.incrementAndGet();
+   }
+
+   public boolean hasAttachments()
+   {
+      ConcurrentMap<String, Object> named = this.named;
+      if (named != null && named.isEmpty() == false)
+         return true;
+      SlotTable slots = this.slots;
+      for (int i = 0; i < slots.capacity(); ++i)
+      {
+         if (slots.getValue(i) != null)
+            return true;
+      }
+      return false;
+   }
+
+   public int getChangeCount()
+   {
+      return changeCount.intValue();
+   }
+
+   public void clearChangeCount()
+   {
+      changeCount.set(0);
+   }
+
+   /**
+    * Get an attachment
+    *
+    * @param name the name
+    * @param slot the slot or -1 when the name has none
+    * @return the attachment or null if not present
+    */
+   private Object get(String name, int slot)
+   {
+      if (slot >= 0)
+      {
+         Object result = slots.get(slot);
+         if (result != null)
+            return result;
+      }
+      // The slot may have been assigned after the attachment was added by name
+      ConcurrentMap<String, Object> named = this.named;
+      if (named == null)
+         return null;
+      return named.get(name);
+   }
+
+   /**
+    * Add an attachment
+    *
+    * @param name the name
+    * @param slot the slot or -1 when the name has none
+    * @param attachment the attachment
+    * @return any previous attachment
+    */
+   private synchronized Object add(String name, int slot, Object attachment)
+   {
+      Object result = put(name, slot, attachment);
+      changeCount.incrementAndGet();
+      return result;
+   }
+
+   /**
+    * Put an attachment, the caller holds the lock
+    *
+    * @param name the name
+    * @param slot the slot or -1 when the name has none
+    * @param attachment the attachment
+    * @return any previous attachment
+    */
+   private Object put(String name, int slot, Object attachment)
+   {
+      if (slot < 0)
+      {
+         if (named == null)
+            named = new ConcurrentHashMap<String, Object>();
+         return named.put(name, attachment);
+      }
+
+      SlotTable slots = this.slots;
+      if (slots.isFull() && slots.indexOf(slot) < 0)
+      {
+         slots = slots.grow();
+         this.slots = slots;
+      }
+      Object result = slots.put(slot, attachment);
+      Object previous = removeNamed(name);
+      return result != null ? result : previous;
+   }
+
+   /**
+    * Remove an attachment
+    *
+    * @param name the name
+    * @param slot the slot or -1 when the name has none
+    * @return the attachment or null if not present
+    */
+   private synchronized Object remove(String name, int slot)
+   {
+      Object result = null;
+      if (slot >= 0)
+         result = slots.remove(slot);
+      Object previous = removeNamed(name);
+      if (result == null)
+         result = previous;
+      changeCount.incrementAndGet();
+      return result;
+   }
+
+   /**
+    * Remove an attachment kept by name, the caller holds the lock
+    *
+    * @param name the name
+    * @return the attachment or null if not present
+    */
+   private Object removeNamed(String name)
+   {
+      if (named == null)
+         return null;
+      return named.remove(name);
+   }
+
+   @Override
+   public String toString()
+   {
+      return getAttachments().toString();
+   }
+
+   @SuppressWarnings("unchecked")
+   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+   {
+      super.readExternal(in);
+      setAttachments((Map) in.readObject());
+      changeCount.set(in.readInt());
+   }
+
+   /**
+    * @serialData attachments from {@link #getAttachments()}, the slots are not serialized
+    * @serialData changeCount from {@link #getChangeCount()}
+    * @param out the output
+    * @throws IOException for any error
+    */
+   public void writeExternal(ObjectOutput out) throws IOException
+   {
+      super.writeExternal(out);
+      out.writeObject(getAttachments());
+      out.writeInt(changeCount.get());
+   }
+
+   /**
+    * An open addressing table from slot to attachment.<p>
+    *
+    * Reads do not lock. Writes hold the lock of the attachments, a removed
+    * attachment keeps its entry until the table grows.
+    */
+   private static class SlotTable
+   {
+      /** The empty table, it is always full so it is never written */
+      private static final SlotTable EMPTY = new SlotTable(1);
+
+      /** The slot plus one of each entry, zero when the entry is free */
+      private final AtomicIntegerArray keys;
+
+      /** The attachments */
+      private final AtomicReferenceArray<Object> values;
+
+      /** The mask of the capacity */
+      private final int mask;
+
+      /** The number of entries in use */
+      private int used;
+
+      private SlotTable(int capacity)
+      {
+         keys = new AtomicIntegerArray(capacity);
+         values = new AtomicReferenceArray<Object>(capacity);
+         mask = capacity - 1;
+      }
+
+      private int capacity()
+      {
+         return mask + 1;
+      }
+
+      private int getSlot(int index)
+      {
+         return keys.get(index) - 1;
+      }
+
+      private Object getValue(int index)
+      {
+         return values.get(index);
+      }
+
+      private int indexOf(int slot)
+      {
+         int key = slot + 1;
+         for (int i = slot & mask; ; i = (i + 1) & mask)
+         {
+            int current = keys.get(i);
+            if (current == key)
+               return i;
+            if (current == 0)
+               return -1;
+         }
+      }
+
+      private Object get(int slot)
+      {
+         int index = indexOf(slot);
+         return index < 0 ? null : values.get(index);
+      }
+
+      private Object put(int slot, Object value)
+      {
+         int key = slot + 1;
+         for (int i = slot & mask; ; i = (i + 1) & mask)
+         {
+            int current = keys.get(i);
+            if (current == key)
+               return values.getAndSet(i, value);
+            if (current == 0)
+            {
+               // the key first, a reader that sees the value also sees the key
+               keys.set(i, key);
+               values.set(i, value);
+               ++used;
+               return null;
+            }
+         }
+      }
+
+      private Object remove(int slot)
+      {
+         int index = indexOf(slot);
+         return index < 0 ? null : values.getAndSet(index, null);
+      }
+
+      /**
+       * Whether a new entry needs a bigger table, a quarter of the entries stays free
+       *
+       * @return true when full
+       */
+      private boolean isFull()
+      {
+         return (used + 1) * 4 > capacity() * 3;
+      }
+
+      /**
+       * Copy the attachments to a table with room for a new entry
+       *
+       * @return the new table
+       */
+      private SlotTable grow()
+      {
+         int count = 1;
+         for (int i = 0; i < capacity(); ++i)
+         {
+            if (values.get(i) != null)
+               ++count;
+         }
+         int capacity = 8;
+         while (count * 4 > capacity * 3)
+            capacity *= 2;
+         SlotTable result = new SlotTable(capacity);
+         for (int i = 0; i < capacity(); ++i)
+         {
+            Object value = values.get(i);
+            if (value != null)
+               result.put(keys.get(i) - 1, value);
+         }
+         return result;
+      }
+   }
+}
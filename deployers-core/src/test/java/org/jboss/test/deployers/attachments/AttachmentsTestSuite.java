@@ -33,6 +33,8 @@ import org.jboss.test.deployers.attachments.test.ManagedObjectsWithTransientAtta
 import org.jboss.test.deployers.attachments.test.ManagedObjectsWithTransientAttachmentsImplTransientManagedObjectUnitTestCase;
 import org.jboss.test.deployers.attachments.test.ManagedObjectsWithTransientAttachmentsImplUnitTestCase;
 import org.jboss.test.deployers.attachments.test.PredeterminedManagedObjectsAttachmentsImplUnitTestCase;
+import org.jboss.test.deployers.attachments.test.PersistentAttachmentsUnitTestCase;
+import org.jboss.test.deployers.attachments.test.SlotAttachmentsUnitTestCase;
 
 /**
  * Attachments Test Suite.
@@ -53,6 +55,8 @@ public class AttachmentsTestSuite extends TestSuite
 
       suite.addTest(AttachmentsUnitTestCase.suite());
       suite.addTest(AttachmentsFactoryUnitTestCase.suite());
+      suite.addTest(SlotAttachmentsUnitTestCase.suite());
+      suite.addTest(PersistentAttachmentsUnitTestCase.suite());
       suite.addTest(PredeterminedManagedObjectsAttachmentsImplUnitTestCase.suite());
       suite.addTest(ManagedObjectsAttachmentsImplPredeterminedUnitTestCase.suite());
       suite.addTest(ManagedObjectsAttachmentsImplTransientUnitTestCase.suite());
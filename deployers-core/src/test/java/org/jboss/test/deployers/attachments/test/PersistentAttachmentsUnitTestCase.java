@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.attachments.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.plugins.attachments.PersistentAttachmentsImpl;
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.attachments.helpers.AttachmentsSnapshot;
+
+/**
+ * PersistentAttachmentsUnitTestCase.
+ */
+public class PersistentAttachmentsUnitTestCase extends AttachmentsTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(PersistentAttachmentsUnitTestCase.class);
+   }
+   
+   private PersistentAttachmentsImpl impl = new PersistentAttachmentsImpl();
+   
+   public PersistentAttachmentsUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   protected Attachments getAttachments()
+   {
+      return impl;
+   }
+
+   protected MutableAttachments getMutable()
+   {
+      return impl;
+   }
+
+   public void testSnapshotIsPointInTime() throws Exception
+   {
+      impl.addAttachment("one", 1);
+      Attachments snapshot = impl.getSnapshot();
+      Map<String, Object> view = impl.getAttachments();
+      impl.addAttachment("two", 2);
+      impl.removeAttachment("one");
+
+      assertEquals(1, snapshot.getAttachment("one"));
+      assertFalse(snapshot.isAttachmentPresent("two"));
+      assertEquals(1, ((AttachmentsSnapshot) snapshot).getChangeCount());
+      assertEquals(1, view.size());
+      assertEquals(1, view.get("one"));
+
+      assertNull(impl.getAttachment("one"));
+      assertEquals(2, impl.getAttachment("two"));
+      assertEquals(3, impl.getChangeCount());
+   }
+
+   public void testSnapshotIsImmutable() throws Exception
+   {
+      impl.addAttachment("one", 1);
+      Map<String, Object> view = impl.getSnapshot().getAttachments();
+      try
+      {
+         view.put("two", 2);
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(UnsupportedOperationException.class, t);
+      }
+      try
+      {
+         view.entrySet().iterator().remove();
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(UnsupportedOperationException.class, t);
+      }
+   }
+
+   public void testSetAttachmentsNulls() throws Exception
+   {
+      impl.addAttachment("a", 1);
+      Map<String, Object> map = new HashMap<String, Object>();
+      map.put(null, 2);
+      try
+      {
+         impl.setAttachments(map);
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(IllegalArgumentException.class, t);
+      }
+      map.clear();
+      map.put("b", null);
+      try
+      {
+         impl.setAttachments(map);
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(IllegalArgumentException.class, t);
+      }
+      assertEquals(1, impl.getAttachment("a"));
+      assertEquals(1, impl.getAttachments().size());
+   }
+
+   public void testCollidingNames() throws Exception
+   {
+      // "Aa" and "BB" have the same hash code
+      impl.addAttachment("Aa", 1);
+      impl.addAttachment("BB", 2);
+      impl.addAttachment("AaAa", 3);
+      impl.addAttachment("BBBB", 4);
+      impl.addAttachment("AaBB", 5);
+      assertEquals(1, impl.getAttachment("Aa"));
+      assertEquals(2, impl.getAttachment("BB"));
+      assertEquals(5, impl.getAttachments().size());
+
+      assertEquals(1, impl.removeAttachment("Aa"));
+      assertNull(impl.getAttachment("Aa"));
+      assertEquals(2, impl.getAttachment("BB"));
+      assertEquals(3, impl.getAttachment("AaAa"));
+      assertEquals(4, impl.getAttachments().size());
+   }
+
+   public void testMatchesHashMap() throws Exception
+   {
+      Map<String, Object> expected = new HashMap<String, Object>();
+      Random random = new Random(1);
+      for (int i = 0; i < 20000; ++i)
+      {
+         String name = "attachment" + random.nextInt(500);
+         if (random.nextInt(3) == 0)
+            assertEquals(expected.remove(name), impl.removeAttachment(name));
+         else
+            assertEquals(expected.put(name, i), impl.addAttachment(name, i));
+      }
+      assertEquals(expected, impl.getAttachments());
+      assertEquals(impl.getAttachments(), expected);
+      assertEquals(expected.hashCode(), impl.getAttachments().hashCode());
+
+      int count = 0;
+      for (Map.Entry<String, Object> entry : impl.getAttachments().entrySet())
+      {
+         assertEquals(expected.get(entry.getKey()), entry.getValue());
+         ++count;
+      }
+      assertEquals(expected.size(), count);
+   }
+
+   public void testSerializeChangeCount() throws Exception
+   {
+      for (int i = 0; i < 300; ++i)
+         impl.addAttachment("name", i);
+      int changeCount = impl.getChangeCount();
+      assertTrue(changeCount > 255);
+
+      MutableAttachments copy = serializeDeserialize(impl, PersistentAttachmentsImpl.class);
+      assertEquals(changeCount, copy.getChangeCount());
+      assertEquals(299, copy.getAttachment("name"));
+   }
+}
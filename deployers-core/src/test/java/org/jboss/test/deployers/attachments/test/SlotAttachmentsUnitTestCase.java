@@ -0,0 +1,148 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2006, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.deployers.attachments.test;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.plugins.attachments.SlotAttachmentsImpl;
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+
+/**
+ * SlotAttachmentsUnitTestCase.
+ */
+public class SlotAttachmentsUnitTestCase extends AttachmentsTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(SlotAttachmentsUnitTestCase.class);
+   }
+   
+   private MutableAttachments impl = new SlotAttachmentsImpl();
+   
+   public SlotAttachmentsUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   protected Attachments getAttachments()
+   {
+      return impl;
+   }
+
+   protected MutableAttachments getMutable()
+   {
+      return impl;
+   }
+
+   public void testNameAddedBeforeSlot() throws Exception
+   {
+      MutableAttachments mutable = getMutable();
+      Late late = new Late();
+      assertNull(mutable.addAttachment(Late.class.getName(), late));
+      assertSame(late, mutable.getAttachment(Late.class));
+
+      Late other = new Late();
+      assertSame(late, mutable.addAttachment(Late.class, other));
+      assertSame(other, mutable.getAttachment(Late.class.getName()));
+      assertEquals(1, mutable.getAttachments().size());
+
+      assertSame(other, mutable.removeAttachment(Late.class.getName()));
+      assertNull(mutable.getAttachment(Late.class));
+      assertFalse(mutable.hasAttachments());
+   }
+
+   public void testNameAndTypeShareSlot() throws Exception
+   {
+      MutableAttachments mutable = getMutable();
+      mutable.addAttachment(Integer.class, 1);
+      assertEquals(1, mutable.addAttachment(Integer.class.getName(), 2));
+      assertEquals(2, mutable.getAttachment(Integer.class).intValue());
+      assertEquals(1, mutable.getAttachments().size());
+      assertEquals(2, mutable.removeAttachment(Integer.class).intValue());
+      assertFalse(mutable.isAttachmentPresent(Integer.class.getName()));
+   }
+
+   public void testManyTypes() throws Exception
+   {
+      Class<?>[] bases = { Late.class, Other.class };
+      Map<String, Object> expected = new HashMap<String, Object>();
+      MutableAttachments mutable = getMutable();
+      for (int i = 1; i <= 60; ++i)
+      {
+         for (Class<?> base : bases)
+         {
+            Class<?> type = Array.newInstance(base, new int[i]).getClass();
+            Object value = Array.newInstance(type.getComponentType(), 0);
+            add(mutable, type, value);
+            expected.put(type.getName(), value);
+            if (i % 3 == 0)
+            {
+               assertSame(value, mutable.removeAttachment(type));
+               expected.remove(type.getName());
+            }
+         }
+      }
+      assertEquals(expected, mutable.getAttachments());
+      for (Map.Entry<String, Object> entry : expected.entrySet())
+         assertSame(entry.getValue(), mutable.getAttachment(entry.getKey()));
+
+      // A new instance only holds what it uses
+      MutableAttachments other = new SlotAttachmentsImpl();
+      Class<?> type = Array.newInstance(Other.class, new int[59]).getClass();
+      add(other, type, expected.get(type.getName()));
+      assertEquals(1, other.getAttachments().size());
+      assertSame(expected.get(type.getName()), other.getAttachment(type));
+      assertNull(other.getAttachment(Array.newInstance(Late.class, new int[59]).getClass()));
+   }
+
+   public void testSerializeChangeCount() throws Exception
+   {
+      for (int i = 0; i < 300; ++i)
+         impl.addAttachment("name", i);
+      int changeCount = impl.getChangeCount();
+      assertTrue(changeCount > 255);
+
+      MutableAttachments copy = serializeDeserialize(impl, SlotAttachmentsImpl.class);
+      assertEquals(changeCount, copy.getChangeCount());
+      assertEquals(299, copy.getAttachment("name"));
+   }
+
+   @SuppressWarnings("unchecked")
+   private static void add(MutableAttachments mutable, Class<?> type, Object value)
+   {
+      mutable.addAttachment((Class<Object>) type, value);
+   }
+
+   private static class Other
+   {
+   }
+
+   private static class Late
+   {
+   }
+}
@@ -0,0 +1,417 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.annotations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.jboss.metadata.spi.signature.ConstructorParametersSignature;
+import org.jboss.metadata.spi.signature.ConstructorSignature;
+import org.jboss.metadata.spi.signature.FieldSignature;
+import org.jboss.metadata.spi.signature.MethodParametersSignature;
+import org.jboss.metadata.spi.signature.MethodSignature;
+import org.jboss.metadata.spi.signature.Signature;
+
+/**
+ * A directory of annotation indexes, one per classpath entry.<p>
+ *
+ * Each index is stored with the entry name and a fingerprint of its content,
+ * an index is only used while both still match. A missing, stale or corrupt
+ * index is reported as not loaded so the entry gets scanned and indexed again.
+ * Annotation values are not stored, the index is meant for environments
+ * that don't keep the annotations.
+ */
+public class AnnotationIndexCache
+{
+   /** The log */
+   private static final Logger log = Logger.getLogger(AnnotationIndexCache.class);
+
+   /** The index file magic */
+   private static final int MAGIC = 0x4A424149;
+
+   /** The index format version */
+   private static final int VERSION = 1;
+
+   /** The signature kinds */
+   private static final byte NONE = 0;
+   private static final byte FIELD = 1;
+   private static final byte CONSTRUCTOR = 2;
+   private static final byte METHOD = 3;
+   private static final byte CONSTRUCTOR_PARAMETER = 4;
+   private static final byte METHOD_PARAMETER = 5;
+
+   /** The element types by ordinal */
+   private static final ElementType[] ELEMENT_TYPES = ElementType.values();
+
+   /** The directory */
+   private final File directory;
+
+   /**
+    * Create a new AnnotationIndexCache.
+    *
+    * @param directory the directory holding the indexes
+    */
+   public AnnotationIndexCache(File directory)
+   {
+      if (directory == null)
+         throw new IllegalArgumentException("Null directory");
+      this.directory = directory;
+   }
+
+   /**
+    * Get the directory.
+    *
+    * @return the directory holding the indexes
+    */
+   public File getDirectory()
+   {
+      return directory;
+   }
+
+   /**
+    * Load the index of an entry into the visitor's environment.
+    *
+    * @param entryName the classpath entry name
+    * @param fingerprint the fingerprint of the entry content
+    * @param visitor the visitor
+    * @return true when the index was applied, false when the entry needs scanning
+    */
+   public boolean load(String entryName, long fingerprint, GenericAnnotationResourceVisitor visitor)
+   {
+      DefaultAnnotationEnvironment env = getEnvironment(visitor);
+      List<AnnotationIndexRecord> records = read(entryName, fingerprint);
+      if (records == null)
+         return false;
+
+      try
+      {
+         AnnotationIndexRecord.apply(records, env);
+      }
+      catch (ClassNotFoundException e)
+      {
+         if (log.isTraceEnabled())
+            log.trace("Annotation not available, rescanning " + entryName, e);
+         return false;
+      }
+      if (log.isTraceEnabled())
+         log.trace("Loaded " + records.size() + " annotations of " + entryName);
+      return true;
+   }
+
+   /**
+    * Read the index of an entry.
+    *
+    * @param entryName the classpath entry name
+    * @param fingerprint the fingerprint of the entry content
+    * @return the records or null if there is no matching index
+    */
+   List<AnnotationIndexRecord> read(String entryName, long fingerprint)
+   {
+      File file = getFile(entryName);
+      if (file.exists() == false)
+         return null;
+
+      try
+      {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         try
+         {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+               throw new IOException("Not an annotation index");
+            if (entryName.equals(in.readUTF()) == false || in.readLong() != fingerprint)
+            {
+               if (log.isTraceEnabled())
+                  log.trace("Stale annotation index for " + entryName);
+               return null;
+            }
+            return readRecords(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (Exception e)
+      {
+         log.debug("Ignoring corrupt annotation index " + file + " for " + entryName + ": " + e);
+         file.delete();
+         return null;
+      }
+   }
+
+   /**
+    * Start indexing an entry, call before scanning it.
+    *
+    * @param visitor the visitor
+    */
+   public void startIndexing(GenericAnnotationResourceVisitor visitor)
+   {
+      getEnvironment(visitor).startRecording();
+   }
+
+   /**
+    * Store the index of the entry scanned since {@link #startIndexing(GenericAnnotationResourceVisitor)}.
+    *
+    * @param entryName the classpath entry name
+    * @param fingerprint the fingerprint of the entry content
+    * @param visitor the visitor
+    */
+   public void store(String entryName, long fingerprint, GenericAnnotationResourceVisitor visitor)
+   {
+      List<CommitElement> recorded = getEnvironment(visitor).stopRecording();
+      store(entryName, fingerprint, AnnotationIndexRecord.create(recorded));
+   }
+
+   /**
+    * Store the index of an entry.
+    *
+    * @param entryName the classpath entry name
+    * @param fingerprint the fingerprint of the entry content
+    * @param records the records
+    */
+   void store(String entryName, long fingerprint, List<AnnotationIndexRecord> records)
+   {
+      File file = getFile(entryName);
+      File temp = new File(directory, file.getName() + ".tmp");
+      try
+      {
+         directory.mkdirs();
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+         try
+         {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(entryName);
+            out.writeLong(fingerprint);
+            writeRecords(out, records);
+         }
+         finally
+         {
+            out.close();
+         }
+         file.delete();
+         if (temp.renameTo(file) == false)
+            throw new IOException("Cannot rename " + temp + " to " + file);
+         if (log.isTraceEnabled())
+            log.trace("Stored " + records.size() + " annotations of " + entryName + " in " + file);
+      }
+      catch (IOException e)
+      {
+         log.debug("Unable to store annotation index for " + entryName + ": " + e);
+         temp.delete();
+      }
+   }
+
+   /**
+    * Get the index file of an entry.
+    *
+    * @param entryName the entry name
+    * @return the file
+    */
+   protected File getFile(String entryName)
+   {
+      // FNV-1a, the full name is checked when loading
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < entryName.length(); ++i)
+      {
+         hash ^= entryName.charAt(i);
+         hash *= 0x100000001b3L;
+      }
+      return new File(directory, Long.toHexString(hash) + ".idx");
+   }
+
+   /**
+    * Get the visitor's environment.
+    *
+    * @param visitor the visitor
+    * @return the environment
+    */
+   static DefaultAnnotationEnvironment getEnvironment(GenericAnnotationResourceVisitor visitor)
+   {
+      if (visitor == null)
+         throw new IllegalArgumentException("Null visitor");
+      return (DefaultAnnotationEnvironment) visitor.getEnv();
+   }
+
+   private static void writeRecords(DataOutputStream out, List<AnnotationIndexRecord> records) throws IOException
+   {
+      Map<String, Integer> strings = new HashMap<String, Integer>();
+      out.writeInt(records.size());
+      for (AnnotationIndexRecord record : records)
+      {
+         writeString(out, record.getAnnotationClassName(), strings);
+         out.writeByte(record.getType().ordinal());
+         writeString(out, record.getClassName(), strings);
+
+         Signature signature = record.getSignature();
+         if (signature == null)
+         {
+            out.writeByte(NONE);
+         }
+         else if (signature instanceof FieldSignature)
+         {
+            out.writeByte(FIELD);
+            writeString(out, signature.getName(), strings);
+         }
+         else if (signature instanceof ConstructorSignature)
+         {
+            out.writeByte(CONSTRUCTOR);
+            writeParameters(out, signature, strings);
+         }
+         else if (signature instanceof MethodSignature)
+         {
+            out.writeByte(METHOD);
+            writeString(out, signature.getName(), strings);
+            writeParameters(out, signature, strings);
+         }
+         else if (signature instanceof ConstructorParametersSignature)
+         {
+            out.writeByte(CONSTRUCTOR_PARAMETER);
+            writeParameters(out, signature, strings);
+            out.writeShort(((ConstructorParametersSignature) signature).getParam());
+         }
+         else if (signature instanceof MethodParametersSignature)
+         {
+            out.writeByte(METHOD_PARAMETER);
+            writeString(out, signature.getName(), strings);
+            writeParameters(out, signature, strings);
+            out.writeShort(((MethodParametersSignature) signature).getParam());
+         }
+         else
+         {
+            throw new IOException("Unsupported signature " + signature);
+         }
+      }
+   }
+
+   private static List<AnnotationIndexRecord> readRecords(DataInputStream in) throws IOException
+   {
+      List<String> strings = new ArrayList<String>();
+      int count = in.readInt();
+      List<AnnotationIndexRecord> records = new ArrayList<AnnotationIndexRecord>(count);
+      for (int i = 0; i < count; ++i)
+      {
+         String annotationClassName = readString(in, strings);
+         ElementType type = ELEMENT_TYPES[in.readByte()];
+         String className = readString(in, strings);
+
+         Signature signature;
+         byte kind = in.readByte();
+         switch (kind)
+         {
+            case NONE:
+               signature = null;
+               break;
+            case FIELD:
+               signature = new FieldSignature(readString(in, strings));
+               break;
+            case CONSTRUCTOR:
+               signature = new ConstructorSignature(readParameters(in, strings));
+               break;
+            case METHOD:
+            {
+               String name = readString(in, strings);
+               signature = new MethodSignature(name, readParameters(in, strings));
+               break;
+            }
+            case CONSTRUCTOR_PARAMETER:
+            {
+               String[] parameters = readParameters(in, strings);
+               signature = new ConstructorParametersSignature(parameters, in.readShort());
+               break;
+            }
+            case METHOD_PARAMETER:
+            {
+               String name = readString(in, strings);
+               String[] parameters = readParameters(in, strings);
+               signature = new MethodParametersSignature(name, parameters, in.readShort());
+               break;
+            }
+            default:
+               throw new IOException("Unknown signature kind " + kind);
+         }
+         records.add(new AnnotationIndexRecord(annotationClassName, type, className, signature));
+      }
+      return records;
+   }
+
+   private static void writeParameters(DataOutputStream out, Signature signature, Map<String, Integer> strings) throws IOException
+   {
+      String[] parameters = signature.getParameters();
+      out.writeShort(parameters.length);
+      for (String parameter : parameters)
+         writeString(out, parameter, strings);
+   }
+
+   private static String[] readParameters(DataInputStream in, List<String> strings) throws IOException
+   {
+      String[] parameters = new String[in.readUnsignedShort()];
+      for (int i = 0; i < parameters.length; ++i)
+         parameters[i] = readString(in, strings);
+      return parameters;
+   }
+
+   /**
+    * Write a string, repeated strings are written as their index.
+    *
+    * @param out the output
+    * @param string the string
+    * @param strings the strings written so far
+    * @throws IOException for any error
+    */
+   private static void writeString(DataOutputStream out, String string, Map<String, Integer> strings) throws IOException
+   {
+      Integer index = strings.get(string);
+      if (index != null)
+      {
+         out.writeInt(index);
+      }
+      else
+      {
+         out.writeInt(-1);
+         out.writeUTF(string);
+         strings.put(string, strings.size());
+      }
+   }
+
+   private static String readString(DataInputStream in, List<String> strings) throws IOException
+   {
+      int index = in.readInt();
+      if (index >= 0)
+         return strings.get(index);
+      String result = in.readUTF();
+      strings.add(result);
+      return result;
+   }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.annotations;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.metadata.spi.signature.Signature;
+
+/**
+ * An indexed annotation location.<p>
+ *
+ * Unlike a commit element it only holds names, so it doesn't
+ * reference any classloader and can be applied to any environment.
+ */
+class AnnotationIndexRecord
+{
+   private final String annotationClassName;
+   private final ElementType type;
+   private final String className;
+   private final Signature signature;
+
+   AnnotationIndexRecord(String annotationClassName, ElementType type, String className, Signature signature)
+   {
+      this.annotationClassName = annotationClassName;
+      this.type = type;
+      this.className = className;
+      this.signature = signature;
+   }
+
+   /**
+    * Create the records of the commit elements.
+    *
+    * @param elements the commit elements
+    * @return the records
+    */
+   static List<AnnotationIndexRecord> create(List<CommitElement> elements)
+   {
+      List<AnnotationIndexRecord> records = new ArrayList<AnnotationIndexRecord>(elements.size());
+      for (CommitElement ce : elements)
+      {
+         ClassFileAnnotation classFileAnnotation = ce.getClassFileAnnotation();
+         Class<? extends Annotation> annotationType = classFileAnnotation != null ? classFileAnnotation.getAnnotationType() : ce.getAnnotation().annotationType();
+         records.add(new AnnotationIndexRecord(annotationType.getName(), ce.getType(), ce.getClassName(), ce.getSignature()));
+      }
+      return records;
+   }
+
+   /**
+    * Put the records into the environment.
+    *
+    * All annotation types are resolved first,
+    * so nothing is put if one of them is missing.
+    *
+    * @param records the records
+    * @param env the environment
+    * @throws ClassNotFoundException when an annotation type cannot be loaded
+    */
+   @SuppressWarnings("unchecked")
+   static void apply(List<AnnotationIndexRecord> records, DefaultAnnotationEnvironment env) throws ClassNotFoundException
+   {
+      Map<String, ClassFileAnnotation> annotations = new HashMap<String, ClassFileAnnotation>();
+      for (AnnotationIndexRecord record : records)
+      {
+         String name = record.getAnnotationClassName();
+         if (annotations.containsKey(name) == false)
+         {
+            Class<?> annotationType = Class.forName(name, false, env.getClassLoader());
+            if (Annotation.class.isAssignableFrom(annotationType) == false)
+               throw new ClassNotFoundException("Not an annotation: " + name);
+            annotations.put(name, new ClassFileAnnotation((Class<? extends Annotation>) annotationType, null, null));
+         }
+      }
+
+      for (AnnotationIndexRecord record : records)
+      {
+         ClassFileAnnotation annotation = annotations.get(record.getAnnotationClassName());
+         env.putAnnotation(new CommitElement(annotation, record.getType(), record.getClassName(), record.getSignature()));
+      }
+   }
+
+   String getAnnotationClassName()
+   {
+      return annotationClassName;
+   }
+
+   ElementType getType()
+   {
+      return type;
+   }
+
+   String getClassName()
+   {
+      return className;
+   }
+
+   Signature getSignature()
+   {
+      return signature;
+   }
+}
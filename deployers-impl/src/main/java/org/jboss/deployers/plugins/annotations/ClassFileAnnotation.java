@@ -0,0 +1,366 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.annotations;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An annotation read from the class file.<p>
+ *
+ * Only the raw member values are kept, the annotation instance
+ * is created the first time it is asked for.
+ */
+class ClassFileAnnotation
+{
+   /** The annotation class name */
+   private final String annotationClassName;
+
+   /** The raw member values */
+   private final Map<String, Object> values;
+
+   /** The classloader resolving class values */
+   private volatile WeakReference<ClassLoader> classLoaderRef;
+
+   /** The annotation class */
+   private volatile Class<? extends Annotation> annotationType;
+
+   /** The annotation */
+   private volatile Annotation annotation;
+
+   /**
+    * Create a new ClassFileAnnotation.
+    *
+    * @param annotationClassName the annotation class name
+    * @param values the raw member values
+    */
+   ClassFileAnnotation(String annotationClassName, Map<String, Object> values)
+   {
+      this.annotationClassName = annotationClassName;
+      this.values = values;
+   }
+
+   /**
+    * Create a new ClassFileAnnotation.
+    *
+    * @param annotationType the annotation class
+    * @param values the raw member values
+    * @param classLoaderRef the classloader resolving class values
+    */
+   ClassFileAnnotation(Class<? extends Annotation> annotationType, Map<String, Object> values, WeakReference<ClassLoader> classLoaderRef)
+   {
+      this(annotationType.getName(), values);
+      this.annotationType = annotationType;
+      this.classLoaderRef = classLoaderRef;
+   }
+
+   /**
+    * Get the annotation class.
+    *
+    * @return the annotation class
+    */
+   Class<? extends Annotation> getAnnotationType()
+   {
+      return annotationType;
+   }
+
+   /**
+    * Get the annotation, creating it on first use.
+    *
+    * @return the annotation
+    */
+   Annotation getAnnotation()
+   {
+      Annotation result = annotation;
+      if (result == null)
+      {
+         Class<? extends Annotation> type = annotationType;
+         if (type == null)
+            throw new IllegalStateException("Unresolved annotation " + annotationClassName);
+         result = (Annotation) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new AnnotationHandler(type));
+         annotation = result;
+      }
+      return result;
+   }
+
+   /**
+    * Get a nested annotation.
+    *
+    * @param type the expected annotation class
+    * @param classLoaderRef the classloader resolving class values
+    * @return the annotation
+    */
+   private Annotation getAnnotation(Class<?> type, WeakReference<ClassLoader> classLoaderRef)
+   {
+      if (annotationClassName.equals(type.getName()) == false)
+         throw new IllegalArgumentException("Expected annotation " + type.getName() + " was " + annotationClassName);
+      this.classLoaderRef = classLoaderRef;
+      this.annotationType = type.asSubclass(Annotation.class);
+      return getAnnotation();
+   }
+
+   /**
+    * Convert a raw member value to the member type.
+    *
+    * @param raw the raw value
+    * @param type the member type
+    * @return the value
+    * @throws ClassNotFoundException if a class value cannot be loaded
+    */
+   @SuppressWarnings("unchecked")
+   private Object convert(Object raw, Class<?> type) throws ClassNotFoundException
+   {
+      if (type.isArray())
+      {
+         Class<?> componentType = type.getComponentType();
+         Object[] elements = (Object[]) raw;
+         Object result = Array.newInstance(componentType, elements.length);
+         for (int i = 0; i < elements.length; ++i)
+            Array.set(result, i, convert(elements[i], componentType));
+         return result;
+      }
+      if (raw instanceof EnumValue)
+         return Enum.valueOf((Class) type, ((EnumValue) raw).name);
+      if (raw instanceof ClassValue)
+         return ((ClassValue) raw).load(classLoaderRef);
+      if (raw instanceof ClassFileAnnotation)
+         return ((ClassFileAnnotation) raw).getAnnotation(type, classLoaderRef);
+      return raw;
+   }
+
+   /**
+    * Copy the arrays handed out.
+    *
+    * @param value the value
+    * @return the value or a copy of an array
+    */
+   private static Object copy(Object value)
+   {
+      if (value != null && value.getClass().isArray())
+      {
+         int length = Array.getLength(value);
+         Object result = Array.newInstance(value.getClass().getComponentType(), length);
+         System.arraycopy(value, 0, result, 0, length);
+         return result;
+      }
+      return value;
+   }
+
+   /**
+    * The annotation instance behaviour.
+    */
+   private class AnnotationHandler implements InvocationHandler
+   {
+      /** The annotation class */
+      private final Class<? extends Annotation> type;
+
+      /** The member values */
+      private final Map<String, Object> members = new HashMap<String, Object>();
+
+      private AnnotationHandler(Class<? extends Annotation> type)
+      {
+         this.type = type;
+         try
+         {
+            for (Method method : type.getDeclaredMethods())
+            {
+               String name = method.getName();
+               Object raw = values.get(name);
+               Object value = raw != null ? convert(raw, method.getReturnType()) : method.getDefaultValue();
+               if (value == null)
+                  throw new IllegalArgumentException("No value for " + type.getName() + "." + name);
+               members.put(name, value);
+            }
+         }
+         catch (ClassNotFoundException e)
+         {
+            throw new IllegalArgumentException("Cannot create annotation " + type.getName(), e);
+         }
+      }
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         String name = method.getName();
+         if (args != null && args.length == 1 && "equals".equals(name))
+            return equalTo(args[0]);
+         if (args == null || args.length == 0)
+         {
+            if ("annotationType".equals(name))
+               return type;
+            if ("hashCode".equals(name))
+               return hash();
+            if ("toString".equals(name))
+               return asString();
+            if (members.containsKey(name))
+               return copy(members.get(name));
+         }
+         throw new IllegalArgumentException("Unknown annotation method " + method);
+      }
+
+      private boolean equalTo(Object other) throws Exception
+      {
+         if (type.isInstance(other) == false)
+            return false;
+         for (Map.Entry<String, Object> entry : members.entrySet())
+         {
+            Method member = type.getDeclaredMethod(entry.getKey());
+            if (Modifier.isPublic(type.getModifiers()) == false)
+               member.setAccessible(true);
+            Object otherValue = member.invoke(other);
+            if (memberEquals(entry.getValue(), otherValue) == false)
+               return false;
+         }
+         return true;
+      }
+
+      private int hash()
+      {
+         int hash = 0;
+         for (Map.Entry<String, Object> entry : members.entrySet())
+            hash += (127 * entry.getKey().hashCode()) ^ memberHashCode(entry.getValue());
+         return hash;
+      }
+
+      private String asString()
+      {
+         StringBuilder builder = new StringBuilder();
+         builder.append('@').append(type.getName()).append('(');
+         boolean first = true;
+         for (Map.Entry<String, Object> entry : members.entrySet())
+         {
+            if (first == false)
+               builder.append(", ");
+            first = false;
+            builder.append(entry.getKey()).append('=');
+            Object value = entry.getValue();
+            if (value instanceof Object[])
+               builder.append(Arrays.asList((Object[]) value));
+            else if (value.getClass().isArray())
+               builder.append(Arrays.asList(box(value)));
+            else
+               builder.append(value);
+         }
+         return builder.append(')').toString();
+      }
+   }
+
+   private static boolean memberEquals(Object value, Object other)
+   {
+      if (value.getClass().isArray() && other != null && other.getClass().isArray())
+         return Arrays.deepEquals(box(value), box(other));
+      return value.equals(other);
+   }
+
+   private static int memberHashCode(Object value)
+   {
+      if (value.getClass().isArray())
+         return Arrays.hashCode(box(value));
+      return value.hashCode();
+   }
+
+   /**
+    * Box an array, primitive arrays hash and compare element wise like the boxed ones.
+    *
+    * @param array the array
+    * @return the boxed array
+    */
+   private static Object[] box(Object array)
+   {
+      if (array instanceof Object[])
+         return (Object[]) array;
+      int length = Array.getLength(array);
+      Object[] result = new Object[length];
+      for (int i = 0; i < length; ++i)
+         result[i] = Array.get(array, i);
+      return result;
+   }
+
+   /**
+    * An enum constant member value.
+    */
+   static class EnumValue
+   {
+      /** The constant name */
+      private final String name;
+
+      EnumValue(String name)
+      {
+         this.name = name;
+      }
+   }
+
+   /**
+    * A class member value.
+    */
+   static class ClassValue
+   {
+      /** The return descriptor */
+      private final String descriptor;
+
+      ClassValue(String descriptor)
+      {
+         this.descriptor = descriptor;
+      }
+
+      private Class<?> load(WeakReference<ClassLoader> classLoaderRef) throws ClassNotFoundException
+      {
+         String name = ClassFileAnnotationReader.toJavaName(descriptor);
+         Class<?> primitive = PRIMITIVES.get(name);
+         if (primitive != null)
+            return primitive;
+
+         int dimensions = 0;
+         while (descriptor.charAt(dimensions) == '[')
+            ++dimensions;
+         ClassLoader classLoader = classLoaderRef != null ? classLoaderRef.get() : null;
+         if (classLoader == null)
+            throw new ClassNotFoundException("ClassLoader was already garbage collected, cannot load " + name);
+         if (dimensions > 0)
+            return Class.forName(descriptor.replace('/', '.'), false, classLoader);
+         return Class.forName(name, false, classLoader);
+      }
+   }
+
+   /** The primitive classes by name */
+   private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+   static
+   {
+      PRIMITIVES.put("boolean", boolean.class);
+      PRIMITIVES.put("byte", byte.class);
+      PRIMITIVES.put("char", char.class);
+      PRIMITIVES.put("short", short.class);
+      PRIMITIVES.put("int", int.class);
+      PRIMITIVES.put("long", long.class);
+      PRIMITIVES.put("float", float.class);
+      PRIMITIVES.put("double", double.class);
+      PRIMITIVES.put("void", void.class);
+   }
+}
@@ -0,0 +1,632 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.annotations;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the annotations straight from the class file bytes.<p>
+ *
+ * Only the constant pool offsets are indexed up front, strings are decoded
+ * when asked for and everything but the annotation attributes is skipped.
+ * The runtime visible and invisible annotations are both reported, like javassist does.
+ */
+class ClassFileAnnotationReader
+{
+   /** The interface access flag */
+   private static final int ACC_INTERFACE = 0x0200;
+
+   /** The class file */
+   private final byte[] bytes;
+
+   /** The offsets of the constant pool entries */
+   private final int[] offsets;
+
+   /** The decoded utf8 constants */
+   private final String[] strings;
+
+   /** The access flags */
+   private final int access;
+
+   /** The class name */
+   private final String className;
+
+   /** The super class name */
+   private final String superClassName;
+
+   /** The interface names */
+   private final String[] interfaceNames;
+
+   /** The offset of the fields */
+   private final int membersOffset;
+
+   /**
+    * Handles the annotations found.
+    */
+   interface Handler
+   {
+      /**
+       * An annotation was found.
+       *
+       * @param type where we found the annotation
+       * @param name the member name, null for the class
+       * @param descriptor the member descriptor, null for the class
+       * @param parameter the parameter index or -1
+       * @param annotationClassName the annotation class name
+       * @param values the member values or null when they were not read
+       * @throws ClassNotFoundException for any annotation lookup problem
+       */
+      void annotation(ElementType type, String name, String descriptor, int parameter, String annotationClassName, Map<String, Object> values) throws ClassNotFoundException;
+   }
+
+   /**
+    * Create a new ClassFileAnnotationReader.
+    *
+    * @param bytes the class file
+    * @throws IOException if this is not a class file
+    */
+   ClassFileAnnotationReader(byte[] bytes) throws IOException
+   {
+      if (bytes == null)
+         throw new IllegalArgumentException("Null bytes");
+      this.bytes = bytes;
+      try
+      {
+         if (readInt(0) != 0xCAFEBABE)
+            throw new IOException("Not a class file");
+
+         int count = readUnsignedShort(8);
+         offsets = new int[count];
+         strings = new String[count];
+         int offset = 10;
+         for (int i = 1; i < count; ++i)
+         {
+            offsets[i] = offset + 1;
+            switch (bytes[offset])
+            {
+               case 1: // utf8
+                  offset += 3 + readUnsignedShort(offset + 1);
+                  break;
+               case 3: // integer
+               case 4: // float
+               case 9: // field ref
+               case 10: // method ref
+               case 11: // interface method ref
+               case 12: // name and type
+               case 17: // dynamic
+               case 18: // invoke dynamic
+                  offset += 5;
+                  break;
+               case 5: // long
+               case 6: // double
+                  offset += 9;
+                  ++i;
+                  break;
+               case 15: // method handle
+                  offset += 4;
+                  break;
+               case 7: // class
+               case 8: // string
+               case 16: // method type
+               case 19: // module
+               case 20: // package
+                  offset += 3;
+                  break;
+               default:
+                  throw new IOException("Unknown constant pool tag " + bytes[offset] + " at " + offset);
+            }
+         }
+
+         access = readUnsignedShort(offset);
+         className = getClassConstant(readUnsignedShort(offset + 2));
+         int superIndex = readUnsignedShort(offset + 4);
+         superClassName = superIndex == 0 ? null : getClassConstant(superIndex);
+         int interfaces = readUnsignedShort(offset + 6);
+         offset += 8;
+         interfaceNames = new String[interfaces];
+         for (int i = 0; i < interfaces; ++i, offset += 2)
+            interfaceNames[i] = getClassConstant(readUnsignedShort(offset));
+         membersOffset = offset;
+      }
+      catch (ArrayIndexOutOfBoundsException e)
+      {
+         throw new IOException("Truncated class file");
+      }
+   }
+
+   /**
+    * Get the class name.
+    *
+    * @return the class name
+    */
+   String getClassName()
+   {
+      return className;
+   }
+
+   /**
+    * Get the super class name.
+    *
+    * @return the super class name or null for java.lang.Object
+    */
+   String getSuperClassName()
+   {
+      return superClassName;
+   }
+
+   /**
+    * Get the interface names.
+    *
+    * @return the interface names
+    */
+   String[] getInterfaceNames()
+   {
+      return interfaceNames;
+   }
+
+   /**
+    * Is this an interface.
+    *
+    * @return true for an interface or annotation
+    */
+   boolean isInterface()
+   {
+      return (access & ACC_INTERFACE) != 0;
+   }
+
+   /**
+    * Report the annotations of the class, its constructors, methods, fields and parameters.
+    *
+    * @param handler the handler
+    * @param values whether to read the annotation member values
+    * @throws ClassNotFoundException for any annotation lookup problem
+    */
+   void readAnnotations(Handler handler, boolean values) throws ClassNotFoundException
+   {
+      int offset = membersOffset;
+      offset = readMembers(handler, values, offset, ElementType.FIELD);
+      offset = readMembers(handler, values, offset, ElementType.METHOD);
+      readAttributes(handler, values, offset, ElementType.TYPE, null, null);
+   }
+
+   /**
+    * Read the fields or methods.
+    *
+    * @param handler the handler
+    * @param values whether to read the member values
+    * @param offset the offset of the member count
+    * @param type the member type
+    * @return the offset after the members
+    * @throws ClassNotFoundException for any annotation lookup problem
+    */
+   private int readMembers(Handler handler, boolean values, int offset, ElementType type) throws ClassNotFoundException
+   {
+      int count = readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < count; ++i)
+      {
+         String name = getUtf8(readUnsignedShort(offset + 2));
+         String descriptor = getUtf8(readUnsignedShort(offset + 4));
+         ElementType memberType = type;
+         if (type == ElementType.METHOD)
+         {
+            if ("<init>".equals(name))
+               memberType = ElementType.CONSTRUCTOR;
+            else if ("<clinit>".equals(name))
+               memberType = null;
+         }
+         if (memberType != null)
+            offset = readAttributes(handler, values, offset + 6, memberType, name, descriptor);
+         else
+            offset = skipAttributes(offset + 6);
+      }
+      return offset;
+   }
+
+   /**
+    * Read the annotation attributes.
+    *
+    * @param handler the handler
+    * @param values whether to read the member values
+    * @param offset the offset of the attribute count
+    * @param type where the attributes are
+    * @param name the member name
+    * @param descriptor the member descriptor
+    * @return the offset after the attributes
+    * @throws ClassNotFoundException for any annotation lookup problem
+    */
+   private int readAttributes(Handler handler, boolean values, int offset, ElementType type, String name, String descriptor) throws ClassNotFoundException
+   {
+      int count = readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < count; ++i)
+      {
+         String attribute = getUtf8(readUnsignedShort(offset));
+         int length = readInt(offset + 2);
+         int start = offset + 6;
+         if ("RuntimeVisibleAnnotations".equals(attribute) || "RuntimeInvisibleAnnotations".equals(attribute))
+         {
+            readAnnotations(handler, values, start, type, name, descriptor, -1);
+         }
+         else if ("RuntimeVisibleParameterAnnotations".equals(attribute) || "RuntimeInvisibleParameterAnnotations".equals(attribute))
+         {
+            int parameters = bytes[start] & 0xFF;
+            int position = start + 1;
+            for (int parameter = 0; parameter < parameters; ++parameter)
+               position = readAnnotations(handler, values, position, ElementType.PARAMETER, name, descriptor, parameter);
+         }
+         offset = start + length;
+      }
+      return offset;
+   }
+
+   /**
+    * Read an annotations table.
+    *
+    * @param handler the handler
+    * @param values whether to read the member values
+    * @param offset the offset of the annotation count
+    * @param type where the annotations are
+    * @param name the member name
+    * @param descriptor the member descriptor
+    * @param parameter the parameter index or -1
+    * @return the offset after the annotations
+    * @throws ClassNotFoundException for any annotation lookup problem
+    */
+   private int readAnnotations(Handler handler, boolean values, int offset, ElementType type, String name, String descriptor, int parameter) throws ClassNotFoundException
+   {
+      int count = readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < count; ++i)
+      {
+         String annotationClassName = toClassName(getUtf8(readUnsignedShort(offset)));
+         Map<String, Object> memberValues = null;
+         if (values)
+         {
+            memberValues = new LinkedHashMap<String, Object>();
+            offset = readAnnotationValues(offset + 2, memberValues);
+         }
+         else
+         {
+            offset = skipAnnotation(offset);
+         }
+         handler.annotation(type, name, descriptor, parameter, annotationClassName, memberValues);
+      }
+      return offset;
+   }
+
+   /**
+    * Read the member values of an annotation.
+    *
+    * @param offset the offset of the pair count
+    * @param memberValues the values to fill in
+    * @return the offset after the annotation
+    */
+   private int readAnnotationValues(int offset, Map<String, Object> memberValues)
+   {
+      int pairs = readUnsignedShort(offset);
+      offset += 2;
+      Object[] value = new Object[1];
+      for (int i = 0; i < pairs; ++i)
+      {
+         String member = getUtf8(readUnsignedShort(offset));
+         offset = readElementValue(offset + 2, value);
+         memberValues.put(member, value[0]);
+      }
+      return offset;
+   }
+
+   /**
+    * Read an element value.
+    *
+    * @param offset the offset of the tag
+    * @param value where to put the value
+    * @return the offset after the value
+    */
+   private int readElementValue(int offset, Object[] value)
+   {
+      int tag = bytes[offset];
+      offset += 1;
+      switch (tag)
+      {
+         case 'B':
+            value[0] = (byte) readInt(offsets[readUnsignedShort(offset)]);
+            return offset + 2;
+         case 'C':
+            value[0] = (char) readInt(offsets[readUnsignedShort(offset)]);
+            return offset + 2;
+         case 'S':
+            value[0] = (short) readInt(offsets[readUnsignedShort(offset)]);
+            return offset + 2;
+         case 'Z':
+            value[0] = readInt(offsets[readUnsignedShort(offset)]) != 0;
+            return offset + 2;
+         case 'I':
+            value[0] = readInt(offsets[readUnsignedShort(offset)]);
+            return offset + 2;
+         case 'J':
+            value[0] = readLong(offsets[readUnsignedShort(offset)]);
+            return offset + 2;
+         case 'F':
+            value[0] = Float.intBitsToFloat(readInt(offsets[readUnsignedShort(offset)]));
+            return offset + 2;
+         case 'D':
+            value[0] = Double.longBitsToDouble(readLong(offsets[readUnsignedShort(offset)]));
+            return offset + 2;
+         case 's':
+            value[0] = getUtf8(readUnsignedShort(offset));
+            return offset + 2;
+         case 'e':
+            value[0] = new ClassFileAnnotation.EnumValue(getUtf8(readUnsignedShort(offset + 2)));
+            return offset + 4;
+         case 'c':
+            value[0] = new ClassFileAnnotation.ClassValue(getUtf8(readUnsignedShort(offset)));
+            return offset + 2;
+         case '@':
+         {
+            Map<String, Object> nested = new LinkedHashMap<String, Object>();
+            String nestedType = toClassName(getUtf8(readUnsignedShort(offset)));
+            offset = readAnnotationValues(offset + 2, nested);
+            value[0] = new ClassFileAnnotation(nestedType, nested);
+            return offset;
+         }
+         case '[':
+         {
+            int count = readUnsignedShort(offset);
+            offset += 2;
+            Object[] elements = new Object[count];
+            for (int i = 0; i < count; ++i)
+            {
+               offset = readElementValue(offset, value);
+               elements[i] = value[0];
+            }
+            value[0] = elements;
+            return offset;
+         }
+         default:
+            throw new IllegalArgumentException("Unknown element value tag " + (char) tag + " in " + className);
+      }
+   }
+
+   /**
+    * Skip an annotation.
+    *
+    * @param offset the offset of the type index
+    * @return the offset after the annotation
+    */
+   private int skipAnnotation(int offset)
+   {
+      int pairs = readUnsignedShort(offset + 2);
+      offset += 4;
+      for (int i = 0; i < pairs; ++i)
+         offset = skipElementValue(offset + 2);
+      return offset;
+   }
+
+   /**
+    * Skip an element value.
+    *
+    * @param offset the offset of the tag
+    * @return the offset after the value
+    */
+   private int skipElementValue(int offset)
+   {
+      int tag = bytes[offset];
+      offset += 1;
+      switch (tag)
+      {
+         case 'e':
+            return offset + 4;
+         case '@':
+            return skipAnnotation(offset);
+         case '[':
+         {
+            int count = readUnsignedShort(offset);
+            offset += 2;
+            for (int i = 0; i < count; ++i)
+               offset = skipElementValue(offset);
+            return offset;
+         }
+         default:
+            return offset + 2;
+      }
+   }
+
+   /**
+    * Skip the attributes.
+    *
+    * @param offset the offset of the attribute count
+    * @return the offset after the attributes
+    */
+   private int skipAttributes(int offset)
+   {
+      int count = readUnsignedShort(offset);
+      offset += 2;
+      for (int i = 0; i < count; ++i)
+         offset += 6 + readInt(offset + 2);
+      return offset;
+   }
+
+   /**
+    * Get the parameter type names of a method descriptor,
+    * in the same form as the javassist class names.
+    *
+    * @param descriptor the method descriptor
+    * @return the parameter type names
+    */
+   static String[] getParameterTypeNames(String descriptor)
+   {
+      List<String> names = new ArrayList<String>();
+      int i = 1;
+      while (descriptor.charAt(i) != ')')
+      {
+         int start = i;
+         while (descriptor.charAt(i) == '[')
+            ++i;
+         if (descriptor.charAt(i) == 'L')
+            i = descriptor.indexOf(';', i);
+         ++i;
+         names.add(toJavaName(descriptor.substring(start, i)));
+      }
+      return names.toArray(new String[names.size()]);
+   }
+
+   /**
+    * Get the java name of a field descriptor, e.g. int or java.lang.String[]
+    *
+    * @param descriptor the descriptor
+    * @return the java name
+    */
+   static String toJavaName(String descriptor)
+   {
+      int dimensions = 0;
+      while (descriptor.charAt(dimensions) == '[')
+         ++dimensions;
+
+      String name;
+      char c = descriptor.charAt(dimensions);
+      switch (c)
+      {
+         case 'L':
+            name = descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.');
+            break;
+         case 'B':
+            name = "byte";
+            break;
+         case 'C':
+            name = "char";
+            break;
+         case 'D':
+            name = "double";
+            break;
+         case 'F':
+            name = "float";
+            break;
+         case 'I':
+            name = "int";
+            break;
+         case 'J':
+            name = "long";
+            break;
+         case 'S':
+            name = "short";
+            break;
+         case 'Z':
+            name = "boolean";
+            break;
+         case 'V':
+            name = "void";
+            break;
+         default:
+            throw new IllegalArgumentException("Illegal descriptor " + descriptor);
+      }
+      if (dimensions == 0)
+         return name;
+
+      StringBuilder builder = new StringBuilder(name);
+      for (int i = 0; i < dimensions; ++i)
+         builder.append("[]");
+      return builder.toString();
+   }
+
+   /**
+    * Get the class name of an object type descriptor.
+    *
+    * @param descriptor the descriptor, e.g. Ljava/lang/Deprecated;
+    * @return the class name
+    */
+   private static String toClassName(String descriptor)
+   {
+      return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+   }
+
+   /**
+    * Get a class constant as a class name.
+    *
+    * @param index the constant index
+    * @return the class name
+    */
+   private String getClassConstant(int index)
+   {
+      return getUtf8(readUnsignedShort(offsets[index])).replace('/', '.');
+   }
+
+   /**
+    * Get a utf8 constant.
+    *
+    * @param index the constant index
+    * @return the string
+    */
+   private String getUtf8(int index)
+   {
+      String result = strings[index];
+      if (result != null)
+         return result;
+
+      int offset = offsets[index];
+      int length = readUnsignedShort(offset);
+      offset += 2;
+      int end = offset + length;
+      char[] chars = new char[length];
+      int count = 0;
+      while (offset < end)
+      {
+         int c = bytes[offset++] & 0xFF;
+         if (c < 0x80)
+         {
+            chars[count++] = (char) c;
+         }
+         else if (c < 0xE0)
+         {
+            chars[count++] = (char) (((c & 0x1F) << 6) | (bytes[offset++] & 0x3F));
+         }
+         else
+         {
+            chars[count++] = (char) (((c & 0x0F) << 12) | ((bytes[offset] & 0x3F) << 6) | (bytes[offset + 1] & 0x3F));
+            offset += 2;
+         }
+      }
+      result = new String(chars, 0, count);
+      strings[index] = result;
+      return result;
+   }
+
+   private int readUnsignedShort(int offset)
+   {
+      return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+   }
+
+   private int readInt(int offset)
+   {
+      return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+   }
+
+   private long readLong(int offset)
+   {
+      return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xFFFFFFFFL);
+   }
+}
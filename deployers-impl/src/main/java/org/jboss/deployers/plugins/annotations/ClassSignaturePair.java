@@ -31,7 +31,8 @@ import org.jboss.util.JBossObject;
  * With those two we can re-create annotation value.
  *
  * If the keepAnnotations flag is on in DefaultAnnotationEnvironment
- * we cache the annotation value from GenericAnnotationResourceVisitor.
+ * we cache the annotation value from GenericAnnotationResourceVisitor,
+ * an annotation read from the class file is only created on first use.
  *
  * @author <a href="mailto:ales.justin@jboss.com">Ales Justin</a>
  */
@@ -40,10 +41,11 @@ public class ClassSignaturePair extends JBossObject
    private String className;
    private Signature signature;
    private Annotation annotation;
+   private volatile ClassFileAnnotation classFileAnnotation;
 
    public ClassSignaturePair(String className, Signature signature)
    {
-      this(className, signature, null);
+      this(className, signature, (Annotation)null);
    }
 
    public ClassSignaturePair(String className, Signature signature, Annotation annotation)
@@ -56,6 +58,12 @@ public class ClassSignaturePair extends JBossObject
       this.annotation = annotation;
    }
 
+   ClassSignaturePair(String className, Signature signature, ClassFileAnnotation annotation)
+   {
+      this(className, signature, (Annotation)null);
+      this.classFileAnnotation = annotation;
+   }
+
    /**
     * Get the classname.
     *
@@ -83,6 +91,12 @@ public class ClassSignaturePair extends JBossObject
     */
    public Annotation getAnnotation()
    {
+      ClassFileAnnotation lazy = classFileAnnotation;
+      if (lazy != null)
+      {
+         annotation = lazy.getAnnotation();
+         classFileAnnotation = null;
+      }
       return annotation;
    }
 
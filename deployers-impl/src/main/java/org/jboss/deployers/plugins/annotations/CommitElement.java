@@ -37,6 +37,7 @@ import org.jboss.metadata.spi.signature.Signature;
 class CommitElement
 {
    private Annotation annotation;
+   private ClassFileAnnotation classFileAnnotation;
    private ElementType type;
    private String className;
    private Signature signature;
@@ -49,6 +50,12 @@ class CommitElement
       this.signature = signature;
    }
 
+   CommitElement(ClassFileAnnotation classFileAnnotation, ElementType type, String className, Signature signature)
+   {
+      this((Annotation)null, type, className, signature);
+      this.classFileAnnotation = classFileAnnotation;
+   }
+
    /**
     * Get the annotation.
     *
@@ -59,6 +66,16 @@ class CommitElement
       return annotation;
    }
 
+   /**
+    * Get the annotation read from the class file.
+    *
+    * @return the class file annotation or null
+    */
+   public ClassFileAnnotation getClassFileAnnotation()
+   {
+      return classFileAnnotation;
+   }
+
    /**
     * Get element type.
     *
@@ -0,0 +1,555 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.annotations;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.metadata.spi.signature.ConstructorParametersSignature;
+import org.jboss.metadata.spi.signature.ConstructorSignature;
+import org.jboss.metadata.spi.signature.FieldSignature;
+import org.jboss.metadata.spi.signature.MethodParametersSignature;
+import org.jboss.metadata.spi.signature.MethodSignature;
+import org.jboss.metadata.spi.signature.Signature;
+
+/**
+ * Compact storage of the annotation environment.<p>
+ *
+ * Class, member and parameter type names are interned in a single string table,
+ * signatures are encoded once into a shared byte arena and every annotation and
+ * element type has a postings list of (class name index, signature offset) ints.
+ * Class signature pairs are only created when queried.
+ *
+ * Not thread safe, the environment synchronizes the access.
+ */
+public class CompactAnnotationStore
+{
+   /** The signature offset of a missing signature */
+   private static final int NO_SIGNATURE = -1;
+
+   /** The signature kinds */
+   private static final byte FIELD = 1;
+   private static final byte CONSTRUCTOR = 2;
+   private static final byte METHOD = 3;
+   private static final byte CONSTRUCTOR_PARAMETER = 4;
+   private static final byte METHOD_PARAMETER = 5;
+   private static final byte OTHER = 6;
+
+   /** The element types by ordinal */
+   private static final ElementType[] ELEMENT_TYPES = ElementType.values();
+
+   /** The interned strings */
+   private String[] strings = new String[64];
+   private int stringCount;
+   /** The string hash table, holding string index + 1 */
+   private int[] stringSlots = new int[128];
+   /** The indexes of the strings used as annotated class names */
+   private final BitSet classNames = new BitSet();
+
+   /** The encoded signatures */
+   private byte[] arena = new byte[256];
+   private int arenaSize;
+   /** The signature hash table, holding offset + 1 and the hash */
+   private int[] signatureSlots = new int[64];
+   private int[] signatureHashes = new int[64];
+   private int signatureCount;
+   /** The signatures we don't know how to encode */
+   private List<Signature> otherSignatures;
+   /** The encoding buffer */
+   private byte[] buffer = new byte[64];
+   private int bufferSize;
+
+   /** The postings lists by annotation, indexed by element type ordinal */
+   private final Map<Class<? extends Annotation>, Postings[]> postings = new HashMap<Class<? extends Annotation>, Postings[]>();
+   /** The postings lists by id */
+   private final List<Postings> lists = new ArrayList<Postings>();
+   /** The postings hash table, holding list id + 1 and the position */
+   private int[] postingLists = new int[64];
+   private int[] postingPositions = new int[64];
+   private int postingCount;
+
+   /**
+    * Was the class name added as an annotated class.
+    *
+    * @param className the class name
+    * @return true if the class name is known
+    */
+   public boolean containsClassName(String className)
+   {
+      int index = indexOf(className);
+      return index >= 0 && classNames.get(index);
+   }
+
+   /**
+    * Add an annotated element.
+    *
+    * @param annClass the annotation class
+    * @param type the element type
+    * @param className the class name
+    * @param signature the signature or null
+    * @param annotation the kept annotation, either an annotation or class file annotation, or null
+    * @return false if the element was already added
+    */
+   public boolean add(Class<? extends Annotation> annClass, ElementType type, String className, Signature signature, Object annotation)
+   {
+      int classIndex = intern(className);
+      classNames.set(classIndex);
+      int offset = signature != null ? encode(signature) : NO_SIGNATURE;
+
+      Postings[] byType = postings.get(annClass);
+      if (byType == null)
+      {
+         byType = new Postings[ELEMENT_TYPES.length];
+         postings.put(annClass, byType);
+      }
+      Postings list = byType[type.ordinal()];
+      if (list == null)
+      {
+         list = new Postings(lists.size());
+         lists.add(list);
+         byType[type.ordinal()] = list;
+      }
+
+      int hash = hashPosting(list.id, classIndex, offset);
+      int mask = postingLists.length - 1;
+      for (int slot = hash & mask; postingLists[slot] != 0; slot = (slot + 1) & mask)
+      {
+         if (postingLists[slot] - 1 == list.id && list.matches(postingPositions[slot], classIndex, offset))
+            return false;
+      }
+
+      int position = list.add(classIndex, offset, annotation);
+      if (2 * (postingCount + 1) > postingLists.length)
+         rehashPostings(2 * postingLists.length);
+      insertPosting(hash, list.id, position);
+      postingCount++;
+      return true;
+   }
+
+   /**
+    * Get the number of elements.
+    *
+    * @param annClass the annotation class
+    * @param type the element type
+    * @return the number of elements
+    */
+   public int size(Class<? extends Annotation> annClass, ElementType type)
+   {
+      Postings list = getPostings(annClass, type);
+      return list != null ? list.size : 0;
+   }
+
+   /**
+    * Create the class signature pairs of the elements.
+    *
+    * @param annClass the annotation class
+    * @param type the element type
+    * @return the pairs
+    */
+   public List<ClassSignaturePair> getPairs(Class<? extends Annotation> annClass, ElementType type)
+   {
+      Postings list = getPostings(annClass, type);
+      if (list == null)
+         return Collections.emptyList();
+
+      List<ClassSignaturePair> pairs = new ArrayList<ClassSignaturePair>(list.size);
+      for (int i = 0; i < list.size; ++i)
+      {
+         String className = strings[list.data[2 * i]];
+         int offset = list.data[2 * i + 1];
+         Signature signature = offset != NO_SIGNATURE ? decode(offset) : null;
+         Object annotation = list.annotations != null ? list.annotations[i] : null;
+         if (annotation instanceof ClassFileAnnotation)
+            pairs.add(new ClassSignaturePair(className, signature, (ClassFileAnnotation) annotation));
+         else
+            pairs.add(new ClassSignaturePair(className, signature, (Annotation) annotation));
+      }
+      return pairs;
+   }
+
+   /**
+    * Get the annotation classes with elements.
+    *
+    * @return the annotation classes
+    */
+   public Set<Class<? extends Annotation>> getAnnotationClasses()
+   {
+      return postings.keySet();
+   }
+
+   private Postings getPostings(Class<? extends Annotation> annClass, ElementType type)
+   {
+      Postings[] byType = postings.get(annClass);
+      return byType != null ? byType[type.ordinal()] : null;
+   }
+
+   private int indexOf(String string)
+   {
+      int mask = stringSlots.length - 1;
+      for (int slot = spread(string.hashCode()) & mask; stringSlots[slot] != 0; slot = (slot + 1) & mask)
+      {
+         int index = stringSlots[slot] - 1;
+         if (strings[index].equals(string))
+            return index;
+      }
+      return -1;
+   }
+
+   private int intern(String string)
+   {
+      int index = indexOf(string);
+      if (index >= 0)
+         return index;
+
+      if (stringCount == strings.length)
+      {
+         String[] grown = new String[2 * strings.length];
+         System.arraycopy(strings, 0, grown, 0, stringCount);
+         strings = grown;
+      }
+      index = stringCount++;
+      strings[index] = string;
+
+      if (2 * stringCount > stringSlots.length)
+      {
+         stringSlots = new int[2 * stringSlots.length];
+         for (int i = 0; i < stringCount; ++i)
+            insertString(i);
+      }
+      else
+      {
+         insertString(index);
+      }
+      return index;
+   }
+
+   private void insertString(int index)
+   {
+      int mask = stringSlots.length - 1;
+      int slot = spread(strings[index].hashCode()) & mask;
+      while (stringSlots[slot] != 0)
+         slot = (slot + 1) & mask;
+      stringSlots[slot] = index + 1;
+   }
+
+   /**
+    * Encode the signature into the arena, unless it's already there.
+    *
+    * @param signature the signature
+    * @return the signature offset
+    */
+   private int encode(Signature signature)
+   {
+      bufferSize = 0;
+      // the parameter signatures first, in case they extend the plain ones
+      if (signature instanceof ConstructorParametersSignature)
+      {
+         writeByte(CONSTRUCTOR_PARAMETER);
+         writeParameters(signature);
+         writeInt(((ConstructorParametersSignature) signature).getParam());
+      }
+      else if (signature instanceof MethodParametersSignature)
+      {
+         writeByte(METHOD_PARAMETER);
+         writeInt(intern(signature.getName()));
+         writeParameters(signature);
+         writeInt(((MethodParametersSignature) signature).getParam());
+      }
+      else if (signature instanceof FieldSignature)
+      {
+         writeByte(FIELD);
+         writeInt(intern(signature.getName()));
+      }
+      else if (signature instanceof ConstructorSignature)
+      {
+         writeByte(CONSTRUCTOR);
+         writeParameters(signature);
+      }
+      else if (signature instanceof MethodSignature)
+      {
+         writeByte(METHOD);
+         writeInt(intern(signature.getName()));
+         writeParameters(signature);
+      }
+      else
+      {
+         if (otherSignatures == null)
+            otherSignatures = new ArrayList<Signature>();
+         int index = otherSignatures.indexOf(signature);
+         if (index < 0)
+         {
+            index = otherSignatures.size();
+            otherSignatures.add(signature);
+         }
+         writeByte(OTHER);
+         writeInt(index);
+      }
+
+      int hash = 0;
+      for (int i = 0; i < bufferSize; ++i)
+         hash = 31 * hash + buffer[i];
+
+      int mask = signatureSlots.length - 1;
+      int slot = spread(hash) & mask;
+      for (; signatureSlots[slot] != 0; slot = (slot + 1) & mask)
+      {
+         int offset = signatureSlots[slot] - 1;
+         if (signatureHashes[slot] == hash && matchesBuffer(offset))
+            return offset;
+      }
+
+      if (arenaSize + bufferSize > arena.length)
+      {
+         byte[] grown = new byte[Math.max(2 * arena.length, arenaSize + bufferSize)];
+         System.arraycopy(arena, 0, grown, 0, arenaSize);
+         arena = grown;
+      }
+      int offset = arenaSize;
+      System.arraycopy(buffer, 0, arena, offset, bufferSize);
+      arenaSize += bufferSize;
+
+      if (2 * (signatureCount + 1) > signatureSlots.length)
+      {
+         int[] oldSlots = signatureSlots;
+         int[] oldHashes = signatureHashes;
+         signatureSlots = new int[2 * oldSlots.length];
+         signatureHashes = new int[2 * oldSlots.length];
+         for (int i = 0; i < oldSlots.length; ++i)
+         {
+            if (oldSlots[i] != 0)
+               insertSignature(oldSlots[i] - 1, oldHashes[i]);
+         }
+      }
+      insertSignature(offset, hash);
+      signatureCount++;
+      return offset;
+   }
+
+   private void insertSignature(int offset, int hash)
+   {
+      int mask = signatureSlots.length - 1;
+      int slot = spread(hash) & mask;
+      while (signatureSlots[slot] != 0)
+         slot = (slot + 1) & mask;
+      signatureSlots[slot] = offset + 1;
+      signatureHashes[slot] = hash;
+   }
+
+   /**
+    * Does the arena hold the buffer at the offset.
+    * The encoding is self delimiting, so a match can't be a prefix of another signature.
+    *
+    * @param offset the offset
+    * @return true if it matches
+    */
+   private boolean matchesBuffer(int offset)
+   {
+      if (offset + bufferSize > arenaSize)
+         return false;
+      for (int i = 0; i < bufferSize; ++i)
+      {
+         if (arena[offset + i] != buffer[i])
+            return false;
+      }
+      return true;
+   }
+
+   private Signature decode(int offset)
+   {
+      int[] position = new int[] { offset + 1 };
+      byte kind = arena[offset];
+      switch (kind)
+      {
+         case FIELD:
+            return new FieldSignature(strings[readInt(position)]);
+         case CONSTRUCTOR:
+            return new ConstructorSignature(readParameters(position));
+         case METHOD:
+         {
+            String name = strings[readInt(position)];
+            return new MethodSignature(name, readParameters(position));
+         }
+         case CONSTRUCTOR_PARAMETER:
+         {
+            String[] parameters = readParameters(position);
+            return new ConstructorParametersSignature(parameters, readInt(position));
+         }
+         case METHOD_PARAMETER:
+         {
+            String name = strings[readInt(position)];
+            String[] parameters = readParameters(position);
+            return new MethodParametersSignature(name, parameters, readInt(position));
+         }
+         case OTHER:
+            return otherSignatures.get(readInt(position));
+         default:
+            throw new IllegalStateException("Unknown signature kind " + kind + " at " + offset);
+      }
+   }
+
+   private void writeParameters(Signature signature)
+   {
+      String[] parameters = signature.getParameters();
+      writeInt(parameters.length);
+      for (String parameter : parameters)
+         writeInt(intern(parameter));
+   }
+
+   private String[] readParameters(int[] position)
+   {
+      String[] parameters = new String[readInt(position)];
+      for (int i = 0; i < parameters.length; ++i)
+         parameters[i] = strings[readInt(position)];
+      return parameters;
+   }
+
+   private void writeByte(int value)
+   {
+      if (bufferSize == buffer.length)
+      {
+         byte[] grown = new byte[2 * buffer.length];
+         System.arraycopy(buffer, 0, grown, 0, bufferSize);
+         buffer = grown;
+      }
+      buffer[bufferSize++] = (byte) value;
+   }
+
+   /**
+    * Write a non negative int, seven bits at a time.
+    *
+    * @param value the value
+    */
+   private void writeInt(int value)
+   {
+      while ((value & ~0x7F) != 0)
+      {
+         writeByte((value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      writeByte(value);
+   }
+
+   private int readInt(int[] position)
+   {
+      int result = 0;
+      int shift = 0;
+      byte b;
+      do
+      {
+         b = arena[position[0]++];
+         result |= (b & 0x7F) << shift;
+         shift += 7;
+      }
+      while ((b & 0x80) != 0);
+      return result;
+   }
+
+   private void insertPosting(int hash, int listId, int position)
+   {
+      int mask = postingLists.length - 1;
+      int slot = hash & mask;
+      while (postingLists[slot] != 0)
+         slot = (slot + 1) & mask;
+      postingLists[slot] = listId + 1;
+      postingPositions[slot] = position;
+   }
+
+   private void rehashPostings(int capacity)
+   {
+      postingLists = new int[capacity];
+      postingPositions = new int[capacity];
+      for (Postings list : lists)
+      {
+         for (int i = 0; i < list.size; ++i)
+            insertPosting(hashPosting(list.id, list.data[2 * i], list.data[2 * i + 1]), list.id, i);
+      }
+   }
+
+   private static int hashPosting(int listId, int classIndex, int offset)
+   {
+      return spread((listId * 31 + classIndex) * 31 + offset);
+   }
+
+   private static int spread(int hash)
+   {
+      hash ^= (hash >>> 20) ^ (hash >>> 12);
+      return hash ^ (hash >>> 7) ^ (hash >>> 4);
+   }
+
+   /**
+    * The postings of an annotation and element type.
+    */
+   private static class Postings
+   {
+      private final int id;
+      /** The class name index and signature offset of each element */
+      private int[] data = new int[8];
+      /** The kept annotations, created on first use */
+      private Object[] annotations;
+      private int size;
+
+      private Postings(int id)
+      {
+         this.id = id;
+      }
+
+      private boolean matches(int position, int classIndex, int offset)
+      {
+         return data[2 * position] == classIndex && data[2 * position + 1] == offset;
+      }
+
+      private int add(int classIndex, int offset, Object annotation)
+      {
+         if (2 * size == data.length)
+         {
+            int[] grown = new int[2 * data.length];
+            System.arraycopy(data, 0, grown, 0, data.length);
+            data = grown;
+         }
+         data[2 * size] = classIndex;
+         data[2 * size + 1] = offset;
+
+         if (annotation != null || annotations != null)
+         {
+            if (annotations == null)
+            {
+               annotations = new Object[data.length / 2];
+            }
+            else if (annotations.length <= size)
+            {
+               Object[] grown = new Object[data.length / 2];
+               System.arraycopy(annotations, 0, grown, 0, annotations.length);
+               annotations = grown;
+            }
+            annotations[size] = annotation;
+         }
+         return size++;
+      }
+   }
+}
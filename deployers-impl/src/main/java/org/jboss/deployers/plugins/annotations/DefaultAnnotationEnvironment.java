@@ -28,9 +28,11 @@ import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,7 +40,6 @@ import org.jboss.deployers.spi.annotations.AnnotationEnvironment;
 import org.jboss.deployers.spi.annotations.Element;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.spi.signature.Signature;
-import org.jboss.util.collection.CollectionsFactory;
 
 /**
  * DefaultAnnotationEnvironment.
@@ -51,18 +52,19 @@ public class DefaultAnnotationEnvironment extends WeakClassLoaderHolder implemen
    private static final long serialVersionUID = 1L;
    /** The log */
    private static final Logger log = Logger.getLogger(DefaultAnnotationEnvironment.class);
-   /** The info map */
-   private transient Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> env;
-   /** The checked class names */
-   private transient Set<String> checkedClassNames;
+   /** The annotation info */
+   private transient CompactAnnotationStore store;
    /** Should we keep the annotation */
    private boolean keepAnnotations;
+   /** The recorded annotation info */
+   private transient List<CommitElement> recorded;
+   /** The class names checked while recording */
+   private transient Set<String> recordedClassNames;
 
    public DefaultAnnotationEnvironment(ClassLoader classLoader)
    {
       super(classLoader);
-      env = new HashMap<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>>();
-      checkedClassNames = new HashSet<String>();
+      store = new CompactAnnotationStore();
    }
 
    /**
@@ -76,16 +78,51 @@ public class DefaultAnnotationEnvironment extends WeakClassLoaderHolder implemen
    }
 
    /**
-    * Get env map.
+    * Do we keep the annotations.
+    *
+    * @return the keep annotations flag
+    */
+   boolean isKeepAnnotations()
+   {
+      return keepAnnotations;
+   }
+
+   /**
+    * Get a snapshot of the env map.
+    *
+    * The annotation info is stored compactly,
+    * this map is created on every call.
     *
     * @return the env map
     */
-   protected Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> getEnv()
+   protected synchronized Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> getEnv()
+   {
+      CompactAnnotationStore current = getStore();
+      Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> env = new HashMap<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>>();
+      for (Class<? extends Annotation> annClass : current.getAnnotationClasses())
+      {
+         Map<ElementType, Set<ClassSignaturePair>> elements = new HashMap<ElementType, Set<ClassSignaturePair>>();
+         for (ElementType type : ElementType.values())
+         {
+            if (current.size(annClass, type) > 0)
+               elements.put(type, new HashSet<ClassSignaturePair>(current.getPairs(annClass, type)));
+         }
+         env.put(annClass, elements);
+      }
+      return env;
+   }
+
+   /**
+    * Get the store.
+    *
+    * @return the store
+    */
+   private CompactAnnotationStore getStore()
    {
-      if (env == null)
+      if (store == null)
          throw new IllegalArgumentException("Null env, previously serialized?");
 
-      return env;
+      return store;
    }
 
    /**
@@ -94,51 +131,100 @@ public class DefaultAnnotationEnvironment extends WeakClassLoaderHolder implemen
     * @param className the class name
     * @return true if already checked, false otherwise
     */
-   boolean isAlreadyChecked(String className)
+   synchronized boolean isAlreadyChecked(String className)
+   {
+      if (recordedClassNames != null)
+         return recordedClassNames.contains(className);
+      return getStore().containsClassName(className);
+   }
+
+   /**
+    * Start recording the annotation info put.
+    *
+    * While recording a class is checked again even if it was checked
+    * before, so the recording is complete on its own.
+    */
+   synchronized void startRecording()
+   {
+      recorded = new ArrayList<CommitElement>();
+      recordedClassNames = new HashSet<String>();
+   }
+
+   /**
+    * Stop recording.
+    *
+    * @return the annotation info put since recording started
+    */
+   synchronized List<CommitElement> stopRecording()
+   {
+      List<CommitElement> result = recorded;
+      recorded = null;
+      recordedClassNames = null;
+      return result != null ? result : Collections.<CommitElement>emptyList();
+   }
+
+   /**
+    * Put the collected annotation info.
+    *
+    * @param ce the commit element
+    */
+   synchronized void putAnnotation(CommitElement ce)
    {
-      return checkedClassNames.contains(className);
+      if (recorded != null)
+         recorded.add(ce);
+      ClassFileAnnotation classFileAnnotation = ce.getClassFileAnnotation();
+      if (classFileAnnotation != null)
+         putAnnotation(classFileAnnotation, ce.getType(), ce.getClassName(), ce.getSignature());
+      else
+         putAnnotation(ce.getAnnotation(), ce.getType(), ce.getClassName(), ce.getSignature());
    }
 
    /**
     * Put the annotation info.
     *
+    * Synchronized as classes can be scanned in parallel.
+    *
+    * @param annotation the annotation
+    * @param type the annotation type
+    * @param className the class name
+    * @param signature the signature
+    */
+   synchronized void putAnnotation(Annotation annotation, ElementType type, String className, Signature signature)
+   {
+      putElement(annotation.annotationType(), type, className, signature, keepAnnotations ? annotation : null);
+   }
+
+   /**
+    * Put the annotation info read from the class file.
+    *
     * @param annotation the annotation
     * @param type the annotation type
     * @param className the class name
     * @param signature the signature
     */
-   void putAnnotation(Annotation annotation, ElementType type, String className, Signature signature)
+   synchronized void putAnnotation(ClassFileAnnotation annotation, ElementType type, String className, Signature signature)
    {
-      Class<? extends Annotation> annClass = annotation.annotationType();
+      putElement(annotation.getAnnotationType(), type, className, signature, keepAnnotations ? annotation : null);
+   }
 
+   /**
+    * Put the annotated element.
+    *
+    * @param annClass the annotation class
+    * @param type the annotation type
+    * @param className the class name
+    * @param signature the signature
+    * @param annotation the kept annotation or null
+    */
+   private void putElement(Class<? extends Annotation> annClass, ElementType type, String className, Signature signature, Object annotation)
+   {
       if (log.isTraceEnabled())
          log.trace("Adding annotation @" + annClass.getSimpleName() + " for " + className + " at type " + type + ", signature: " + signature);
 
-      // add to checked
-      checkedClassNames.add(className);
-
-      Map<Class<? extends Annotation>, Map<ElementType, Set<ClassSignaturePair>>> env = getEnv();
-
-      Map<ElementType, Set<ClassSignaturePair>> elements = env.get(annClass);
-      if (elements == null)
-      {
-         elements = new HashMap<ElementType, Set<ClassSignaturePair>>();
-         env.put(annClass, elements);
-      }
-
-      Set<ClassSignaturePair> classes = elements.get(type);
-      if (classes == null)
-      {
-         classes = CollectionsFactory.createLazySet();
-         elements.put(type, classes);
-      }
-
-      ClassSignaturePair pair;
-      if (keepAnnotations)
-         pair = new ClassSignaturePair(className, signature, annotation);
-      else
-         pair = new ClassSignaturePair(className, signature);
-      classes.add(pair);
+      // also marks the class as checked
+      getStore().add(annClass, type, className, signature, annotation);
+      if (recordedClassNames != null)
+         recordedClassNames.add(className);
    }
 
    /**
@@ -148,15 +234,13 @@ public class DefaultAnnotationEnvironment extends WeakClassLoaderHolder implemen
     * @param type the annotation type
     * @return class names
     */
-   protected Set<ClassSignaturePair> getCSPairs(Class<? extends Annotation> annClass, ElementType type)
+   protected synchronized Set<ClassSignaturePair> getCSPairs(Class<? extends Annotation> annClass, ElementType type)
    {
-      Set<ClassSignaturePair> pairs = null;
-
-      Map<ElementType, Set<ClassSignaturePair>> elements = getEnv().get(annClass);
-      if (elements != null)
-         pairs = elements.get(type);
+      List<ClassSignaturePair> pairs = getStore().getPairs(annClass, type);
+      if (pairs.isEmpty())
+         return Collections.emptySet();
 
-      return (pairs != null) ? pairs : Collections.<ClassSignaturePair>emptySet();
+      return new HashSet<ClassSignaturePair>(pairs);
    }
 
    /**
@@ -198,9 +282,9 @@ public class DefaultAnnotationEnvironment extends WeakClassLoaderHolder implemen
       return elements;
    }
 
-   public boolean hasClassAnnotatedWith(Class<? extends Annotation> annotation)
+   public synchronized boolean hasClassAnnotatedWith(Class<? extends Annotation> annotation)
    {
-      return getCSPairs(annotation, ElementType.TYPE).isEmpty() == false;
+      return getStore().size(annotation, ElementType.TYPE) > 0;
    }
 
    @SuppressWarnings("unchecked")
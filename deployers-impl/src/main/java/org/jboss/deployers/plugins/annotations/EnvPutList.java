@@ -41,7 +41,7 @@ class EnvPutList extends AbstractList<CommitElement>
 
    public boolean add(CommitElement ce)
    {
-      env.putAnnotation(ce.getAnnotation(), ce.getType(), ce.getClassName(), ce.getSignature());
+      env.putAnnotation(ce);
       return true;
    }
 
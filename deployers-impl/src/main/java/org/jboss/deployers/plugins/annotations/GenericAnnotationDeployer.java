@@ -22,6 +22,7 @@
 package org.jboss.deployers.plugins.annotations;
 
 import java.net.URL;
+import java.util.concurrent.Executor;
 
 import javassist.ClassPath;
 import javassist.ClassPool;
@@ -43,6 +44,8 @@ public class GenericAnnotationDeployer extends AbstractSimpleRealDeployer<Module
    private boolean forceAnnotations;
    private boolean keepAnnotations;
    private boolean checkInterfaces;
+   private Executor scanningExecutor;
+   private boolean useClassFileReader;
 
    public GenericAnnotationDeployer()
    {
@@ -82,6 +85,26 @@ public class GenericAnnotationDeployer extends AbstractSimpleRealDeployer<Module
       this.checkInterfaces = checkInterfaces;
    }
 
+   /**
+    * Set the executor scanning the classes in parallel.
+    *
+    * @param scanningExecutor the executor or null to scan in the deploying thread
+    */
+   public void setScanningExecutor(Executor scanningExecutor)
+   {
+      this.scanningExecutor = scanningExecutor;
+   }
+
+   /**
+    * Should we read the annotations straight from the class files instead of using javassist.
+    *
+    * @param useClassFileReader the use class file reader flag
+    */
+   public void setUseClassFileReader(boolean useClassFileReader)
+   {
+      this.useClassFileReader = useClassFileReader;
+   }
+
    /**
     * Create GenericAnnotationResourceVisitor.
     *
@@ -99,6 +122,8 @@ public class GenericAnnotationDeployer extends AbstractSimpleRealDeployer<Module
       visitor.setForceAnnotations(forceAnnotations);
       visitor.setKeepAnnotations(keepAnnotations);
       visitor.setCheckInterfaces(checkInterfaces);
+      visitor.setExecutor(scanningExecutor);
+      visitor.setUseClassFileReader(useClassFileReader);
       return visitor;
    }
 
@@ -157,6 +182,7 @@ public class GenericAnnotationDeployer extends AbstractSimpleRealDeployer<Module
       try
       {
          visitModule(unit, module, visitor);
+         visitor.complete();
       }
       finally
       {
@@ -21,12 +21,20 @@
 */
 package org.jboss.deployers.plugins.annotations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.annotation.ElementType;
+import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import javassist.ClassPool;
 import javassist.CtBehavior;
@@ -41,6 +49,11 @@ import org.jboss.classloading.spi.visitor.ResourceFilter;
 import org.jboss.classloading.spi.visitor.ResourceVisitor;
 import org.jboss.deployers.spi.annotations.AnnotationEnvironment;
 import org.jboss.logging.Logger;
+import org.jboss.metadata.spi.signature.ConstructorParametersSignature;
+import org.jboss.metadata.spi.signature.ConstructorSignature;
+import org.jboss.metadata.spi.signature.FieldSignature;
+import org.jboss.metadata.spi.signature.MethodParametersSignature;
+import org.jboss.metadata.spi.signature.MethodSignature;
 import org.jboss.metadata.spi.signature.Signature;
 import org.jboss.metadata.spi.signature.javassist.JavassistConstructorParametersSignature;
 import org.jboss.metadata.spi.signature.javassist.JavassistMethodParametersSignature;
@@ -49,12 +62,21 @@ import org.jboss.metadata.spi.signature.javassist.JavassistSignatureFactory;
 /**
  * Generic annotation scanner deployer.
  *
+ * When an executor is set the classes are parsed in parallel, each in its own
+ * child class pool, and {@link #complete()} must be invoked once the module was visited.
+ *
+ * With the class file reader the annotations are read straight from the class bytes,
+ * without building javassist classes.
+ *
  * @author <a href="mailto:ales.justin@jboss.com">Ales Justin</a>
  */
 public class GenericAnnotationResourceVisitor implements ResourceVisitor
 {
    private static final Logger log = Logger.getLogger(GenericAnnotationResourceVisitor.class);
 
+   /** The number of classes read ahead of the parallel scan */
+   private static final int MAX_PENDING_CLASSES = 256;
+
    private ResourceFilter resourceFilter = ClassFilter.INSTANCE;
    private ClassPool pool;
    private boolean forceAnnotations;
@@ -62,6 +84,13 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
    private boolean checkInterfaces = true;
    private DefaultAnnotationEnvironment env;
    private CtClass objectCtClass;
+   private ClassLoader classLoader;
+   private Executor executor;
+   private Semaphore pending;
+   private volatile Throwable failure;
+   private boolean useClassFileReader;
+   private WeakReference<ClassLoader> classLoaderRef;
+   private Map<String, Class<? extends Annotation>> annotationTypes;
 
    public GenericAnnotationResourceVisitor(ClassLoader classLoader)
    {
@@ -76,6 +105,8 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
          throw new IllegalArgumentException("Null classloader");
 
       this.pool = pool;
+      this.classLoader = classLoader;
+      this.classLoaderRef = new WeakReference<ClassLoader>(classLoader);
       this.env = new DefaultAnnotationEnvironment(classLoader);
       this.objectCtClass = pool.makeClass(Object.class.getName());
    }
@@ -87,6 +118,52 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
 
    public void visit(ResourceContext resource)
    {
+      if (executor != null)
+      {
+         visitInParallel(resource);
+         return;
+      }
+
+      try
+      {
+         InputStream stream = resource.getInputStream();
+         if (stream == null)
+            throw new IllegalArgumentException("Null resource input stream: " + resource);
+
+         try
+         {
+            scan(pool, stream);
+         }
+         finally
+         {
+            close(stream);
+         }
+      }
+      catch (ClassNotFoundException e)
+      {
+         if (forceAnnotations)
+            throw new RuntimeException(e);
+
+         logThrowable(resource, e);
+      }
+      catch (Throwable t)
+      {
+         logThrowable(resource, t);
+      }
+   }
+
+   /**
+    * Read the resource and hand it to the executor.
+    *
+    * @param resource the resource we're visiting
+    */
+   protected void visitInParallel(final ResourceContext resource)
+   {
+      // a forced annotation failed, the outcome is known
+      if (failure != null)
+         return;
+
+      final byte[] bytes;
       try
       {
          InputStream stream = resource.getInputStream();
@@ -95,45 +172,176 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
 
          try
          {
-            CtClass ctClass = pool.makeClass(stream);
+            bytes = readBytes(stream);
+         }
+         finally
+         {
+            close(stream);
+         }
+      }
+      catch (Throwable t)
+      {
+         logThrowable(resource, t);
+         return;
+      }
+
+      pending.acquireUninterruptibly();
+      Runnable task = new Runnable()
+      {
+         public void run()
+         {
+            // something in javassist uses TCL
+            Thread thread = Thread.currentThread();
+            ClassLoader tcl = thread.getContextClassLoader();
+            thread.setContextClassLoader(classLoader);
             try
             {
-               List<CommitElement> commit = createCommitList();
-               handleCtClass(ctClass, commit);
-               if (commit.isEmpty() == false)
+               if (useClassFileReader)
+                  scanClassFile(bytes);
+               else
+                  scan(new ClassPool(pool), new ByteArrayInputStream(bytes));
+            }
+            catch (ClassNotFoundException e)
+            {
+               if (forceAnnotations)
                {
-                  for (CommitElement ce : commit)
+                  synchronized (GenericAnnotationResourceVisitor.this)
                   {
-                     env.putAnnotation(ce.getAnnotation(), ce.getType(), ce.getClassName(), ce.getSignature());
+                     if (failure == null)
+                        failure = e;
                   }
                }
+               logThrowable(resource, e);
+            }
+            catch (Throwable t)
+            {
+               logThrowable(resource, t);
             }
             finally
             {
-               ctClass.detach();
+               thread.setContextClassLoader(tcl);
+               pending.release();
             }
          }
-         finally
+      };
+      try
+      {
+         executor.execute(task);
+      }
+      catch (RejectedExecutionException e)
+      {
+         if (log.isTraceEnabled())
+            log.trace("Executor rejected " + resource.getResourceName() + ", scanning it in the calling thread");
+         task.run();
+      }
+   }
+
+   /**
+    * Wait for the parallel scan to finish.
+    *
+    * Does nothing when the classes are scanned in the visiting thread.
+    *
+    * @throws RuntimeException wrapping the first annotation lookup problem when annotations are forced
+    */
+   public void complete()
+   {
+      if (executor == null)
+         return;
+
+      pending.acquireUninterruptibly(MAX_PENDING_CLASSES);
+      pending.release(MAX_PENDING_CLASSES);
+
+      Throwable t = failure;
+      if (t != null)
+      {
+         failure = null;
+         throw new RuntimeException(t);
+      }
+   }
+
+   /**
+    * Scan the class bytes for annotations.
+    *
+    * @param pool the class pool to parse with
+    * @param stream the class bytes
+    * @throws Exception for any error
+    */
+   protected void scan(ClassPool pool, InputStream stream) throws Exception
+   {
+      if (useClassFileReader)
+      {
+         scanClassFile(readBytes(stream));
+         return;
+      }
+
+      CtClass ctClass = pool.makeClass(stream);
+      try
+      {
+         List<CommitElement> commit = createCommitList();
+         handleCtClass(ctClass, commit);
+         if (commit.isEmpty() == false)
          {
-            try
-            {
-               stream.close();
-            }
-            catch (IOException ignored)
+            for (CommitElement ce : commit)
             {
+               env.putAnnotation(ce);
             }
          }
       }
-      catch (ClassNotFoundException e)
+      finally
       {
-         if (forceAnnotations)
-            throw new RuntimeException(e);
+         ctClass.detach();
+      }
+   }
 
-         logThrowable(resource, e);
+   /**
+    * Scan the class file for annotations, without javassist.
+    *
+    * @param bytes the class bytes
+    * @throws Exception for any error
+    */
+   protected void scanClassFile(byte[] bytes) throws Exception
+   {
+      List<CommitElement> commit = createCommitList();
+      handleClassFile(new ClassFileAnnotationReader(bytes), commit);
+      if (commit.isEmpty() == false)
+      {
+         for (CommitElement ce : commit)
+         {
+            env.putAnnotation(ce);
+         }
       }
-      catch (Throwable t)
+   }
+
+   /**
+    * Read the stream fully.
+    *
+    * @param stream the stream
+    * @return the bytes
+    * @throws IOException for any error
+    */
+   private static byte[] readBytes(InputStream stream) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = stream.read(buffer)) >= 0)
+         out.write(buffer, 0, read);
+      return out.toByteArray();
+   }
+
+   /**
+    * Close the stream quietly.
+    *
+    * @param stream the stream
+    */
+   private static void close(InputStream stream)
+   {
+      try
+      {
+         stream.close();
+      }
+      catch (IOException ignored)
       {
-         logThrowable(resource, t);
       }
    }
 
@@ -214,6 +422,151 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
       }
    }
 
+   /**
+    * Handle class file for annotations.
+    *
+    * @param reader the class file reader
+    * @param commit the commit list
+    * @throws ClassNotFoundException for any annotations lookup problems
+    * @throws IOException if a super class or interface cannot be read
+    */
+   void handleClassFile(ClassFileAnnotationReader reader, final List<CommitElement> commit) throws ClassNotFoundException, IOException
+   {
+      final String className = reader.getClassName();
+      if (Object.class.getName().equals(className))
+         return;
+
+      if (env.isAlreadyChecked(className))
+      {
+         if (log.isTraceEnabled())
+            log.trace("Skipping already checked class name: " + className);
+         return;
+      }
+
+      if (checkInterfaces == false && reader.isInterface())
+      {
+         if (log.isTraceEnabled())
+            log.trace("Skipping interface: " + className);
+         return;
+      }
+
+      if (log.isTraceEnabled())
+         log.trace("Scanning class file " + className + " for annotations");
+
+      ClassFileAnnotationReader.Handler handler = new ClassFileAnnotationReader.Handler()
+      {
+         public void annotation(ElementType type, String name, String descriptor, int parameter, String annotationClassName, Map<String, Object> values) throws ClassNotFoundException
+         {
+            Class<? extends Annotation> annotationType = getAnnotationType(annotationClassName);
+            if (annotationType != null)
+            {
+               ClassFileAnnotation annotation = new ClassFileAnnotation(annotationType, values, classLoaderRef);
+               commit.add(new CommitElement(annotation, type, className, getSignature(type, name, descriptor, parameter)));
+            }
+         }
+      };
+      reader.readAnnotations(handler, env.isKeepAnnotations());
+
+      if (checkSuper)
+      {
+         if (checkInterfaces)
+         {
+            // interfaces
+            for (String intf : reader.getInterfaceNames())
+               handleClassFile(readClassFile(intf), commit);
+         }
+         // super class
+         String superClassName = reader.getSuperClassName();
+         if (superClassName != null)
+            handleClassFile(readClassFile(superClassName), commit);
+      }
+   }
+
+   /**
+    * Read a class file from the classloader.
+    *
+    * @param className the class name
+    * @return the class file reader
+    * @throws IOException if the class cannot be read
+    */
+   private ClassFileAnnotationReader readClassFile(String className) throws IOException
+   {
+      InputStream stream = classLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+      if (stream == null)
+         throw new IOException("Class file not found: " + className);
+      try
+      {
+         return new ClassFileAnnotationReader(readBytes(stream));
+      }
+      finally
+      {
+         close(stream);
+      }
+   }
+
+   /**
+    * Get the annotation class.
+    *
+    * @param annotationClassName the annotation class name
+    * @return the annotation class or null if it is not available
+    * @throws ClassNotFoundException if it is not available and annotations are forced
+    */
+   private Class<? extends Annotation> getAnnotationType(String annotationClassName) throws ClassNotFoundException
+   {
+      Class<? extends Annotation> result = annotationTypes.get(annotationClassName);
+      if (result != null)
+         return result;
+
+      try
+      {
+         Class<?> clazz = Class.forName(annotationClassName, false, classLoader);
+         if (Annotation.class.isAssignableFrom(clazz) == false)
+            throw new ClassNotFoundException("Not an annotation: " + annotationClassName);
+         result = clazz.asSubclass(Annotation.class);
+         annotationTypes.put(annotationClassName, result);
+         return result;
+      }
+      catch (ClassNotFoundException e)
+      {
+         if (forceAnnotations)
+            throw e;
+         if (log.isTraceEnabled())
+            log.trace("Annotation not available: " + annotationClassName);
+         return null;
+      }
+   }
+
+   /**
+    * Get the signature of an annotated class file member.
+    *
+    * @param type where we found the annotation
+    * @param name the member name
+    * @param descriptor the member descriptor
+    * @param parameter the parameter index
+    * @return the signature, null for the class
+    */
+   protected static Signature getSignature(ElementType type, String name, String descriptor, int parameter)
+   {
+      switch (type)
+      {
+         case TYPE:
+            return null;
+         case FIELD:
+            return new FieldSignature(name);
+         case CONSTRUCTOR:
+            return new ConstructorSignature(ClassFileAnnotationReader.getParameterTypeNames(descriptor));
+         case METHOD:
+            return new MethodSignature(name, ClassFileAnnotationReader.getParameterTypeNames(descriptor));
+         case PARAMETER:
+            String[] parameters = ClassFileAnnotationReader.getParameterTypeNames(descriptor);
+            if ("<init>".equals(name))
+               return new ConstructorParametersSignature(parameters, parameter);
+            return new MethodParametersSignature(name, parameters, parameter);
+         default:
+            throw new IllegalArgumentException("Unexpected element type: " + type);
+      }
+   }
+
    /**
     * Handle CtMembers for annotations.
     *
@@ -327,6 +680,40 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
       this.forceAnnotations = forceAnnotations;
    }
 
+   /**
+    * Do we force all annotations to be available.
+    *
+    * @return the force annotations flag
+    */
+   public boolean isForceAnnotations()
+   {
+      return forceAnnotations;
+   }
+
+   /**
+    * Set the executor scanning the classes in parallel.
+    *
+    * @param executor the executor or null to scan in the visiting thread
+    */
+   public void setExecutor(Executor executor)
+   {
+      this.executor = executor;
+      if (executor != null && pending == null)
+         pending = new Semaphore(MAX_PENDING_CLASSES);
+   }
+
+   /**
+    * Should we read the annotations straight from the class files instead of using javassist.
+    *
+    * @param useClassFileReader the use class file reader flag
+    */
+   public void setUseClassFileReader(boolean useClassFileReader)
+   {
+      this.useClassFileReader = useClassFileReader;
+      if (useClassFileReader && annotationTypes == null)
+         annotationTypes = new ConcurrentHashMap<String, Class<? extends Annotation>>();
+   }
+
    /**
     * Set the keep annotations flag.
     *
@@ -347,6 +734,16 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
       this.checkSuper = checkSuper;
    }
 
+   /**
+    * Do we check super class for annotations as well.
+    *
+    * @return the check super flag
+    */
+   public boolean isCheckSuper()
+   {
+      return checkSuper;
+   }
+
    /**
     * Should we check interfaces for annotations as well.
     *
@@ -357,6 +754,16 @@ public class GenericAnnotationResourceVisitor implements ResourceVisitor
       this.checkInterfaces = checkInterfaces;
    }
 
+   /**
+    * Do we check interfaces for annotations as well.
+    *
+    * @return the check interfaces flag
+    */
+   public boolean isCheckInterfaces()
+   {
+      return checkInterfaces;
+   }
+
    /**
     * Get the built environment.
     *
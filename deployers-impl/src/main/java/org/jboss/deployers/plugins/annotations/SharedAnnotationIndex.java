@@ -0,0 +1,275 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.annotations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A process wide annotation index shared between deployments.<p>
+ *
+ * Entries are keyed by a hash of the classpath entry's content, so the same
+ * library bundled by several deployments is scanned once. Every deployment
+ * using an entry is registered as one of its owners and an entry is evicted
+ * once all its owners are released, which deployers do on undeploy.
+ * Only the annotation locations are shared, they are resolved against each
+ * deployment's own classloader; the index is meant for environments that
+ * don't keep the annotations and for deployers sharing the same configuration.
+ */
+public class SharedAnnotationIndex
+{
+   /** The log */
+   private static final Logger log = Logger.getLogger(SharedAnnotationIndex.class);
+
+   /** The entries by content key */
+   private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+   /** The content keys by owner */
+   private final Map<Object, List<String>> ownerKeys = new HashMap<Object, List<String>>();
+
+   /** The optional persistent index */
+   private AnnotationIndexCache annotationIndexCache;
+
+   /**
+    * Set the persistent index backing this one.
+    *
+    * Entries missing in memory are looked up there first
+    * and newly scanned entries are stored there as well.
+    *
+    * @param annotationIndexCache the annotation index cache or null
+    */
+   public void setAnnotationIndexCache(AnnotationIndexCache annotationIndexCache)
+   {
+      this.annotationIndexCache = annotationIndexCache;
+   }
+
+   /**
+    * Load a shared entry into the visitor's environment.
+    *
+    * On success the owner holds a reference to the entry until it's released.
+    *
+    * @param key the content key
+    * @param owner the owner, usually the deployment name
+    * @param visitor the visitor
+    * @return true when the entry was applied, false when it needs scanning
+    */
+   public boolean load(String key, Object owner, GenericAnnotationResourceVisitor visitor)
+   {
+      if (key == null)
+         throw new IllegalArgumentException("Null key");
+      if (owner == null)
+         throw new IllegalArgumentException("Null owner");
+      DefaultAnnotationEnvironment env = AnnotationIndexCache.getEnvironment(visitor);
+
+      List<AnnotationIndexRecord> records = acquire(key, owner);
+      if (records == null && annotationIndexCache != null)
+      {
+         records = annotationIndexCache.read(key, 0);
+         if (records != null)
+            records = register(key, owner, records);
+      }
+      if (records == null)
+         return false;
+
+      try
+      {
+         AnnotationIndexRecord.apply(records, env);
+      }
+      catch (ClassNotFoundException e)
+      {
+         if (log.isTraceEnabled())
+            log.trace("Annotation not available for " + owner + ", rescanning " + key, e);
+         release(key, owner);
+         return false;
+      }
+      if (log.isTraceEnabled())
+         log.trace("Shared " + records.size() + " annotations of " + key + " with " + owner);
+      return true;
+   }
+
+   /**
+    * Start indexing an entry, call before scanning it.
+    *
+    * @param visitor the visitor
+    */
+   public void startIndexing(GenericAnnotationResourceVisitor visitor)
+   {
+      AnnotationIndexCache.getEnvironment(visitor).startRecording();
+   }
+
+   /**
+    * Share the entry scanned since {@link #startIndexing(GenericAnnotationResourceVisitor)}.
+    *
+    * @param key the content key
+    * @param owner the owner, usually the deployment name
+    * @param visitor the visitor
+    */
+   public void store(String key, Object owner, GenericAnnotationResourceVisitor visitor)
+   {
+      if (key == null)
+         throw new IllegalArgumentException("Null key");
+      if (owner == null)
+         throw new IllegalArgumentException("Null owner");
+
+      List<CommitElement> recorded = AnnotationIndexCache.getEnvironment(visitor).stopRecording();
+      List<AnnotationIndexRecord> records = AnnotationIndexRecord.create(recorded);
+      // another deployment might have scanned the same content meanwhile
+      if (register(key, owner, records) == records && annotationIndexCache != null)
+         annotationIndexCache.store(key, 0, records);
+   }
+
+   /**
+    * Release all the entries held by an owner.
+    *
+    * @param owner the owner
+    */
+   public synchronized void release(Object owner)
+   {
+      List<String> keys = ownerKeys.remove(owner);
+      if (keys == null)
+         return;
+
+      for (String key : keys)
+      {
+         Entry entry = entries.get(key);
+         if (entry != null && entry.release(owner))
+            evict(key);
+      }
+   }
+
+   /**
+    * Get the number of shared entries.
+    *
+    * @return the number of entries
+    */
+   public synchronized int getEntryCount()
+   {
+      return entries.size();
+   }
+
+   /**
+    * Acquire an existing entry.
+    *
+    * @param key the content key
+    * @param owner the owner
+    * @return the entry's records or null if there is no such entry
+    */
+   private synchronized List<AnnotationIndexRecord> acquire(String key, Object owner)
+   {
+      Entry entry = entries.get(key);
+      if (entry == null)
+         return null;
+
+      addOwner(entry, key, owner);
+      return entry.records;
+   }
+
+   /**
+    * Register the records of an entry, unless the entry already exists.
+    *
+    * @param key the content key
+    * @param owner the owner
+    * @param records the records
+    * @return the entry's records
+    */
+   private synchronized List<AnnotationIndexRecord> register(String key, Object owner, List<AnnotationIndexRecord> records)
+   {
+      Entry entry = entries.get(key);
+      if (entry == null)
+      {
+         entry = new Entry(records);
+         entries.put(key, entry);
+      }
+      addOwner(entry, key, owner);
+      return entry.records;
+   }
+
+   /**
+    * Release a single reference.
+    *
+    * @param key the content key
+    * @param owner the owner
+    */
+   private synchronized void release(String key, Object owner)
+   {
+      List<String> keys = ownerKeys.get(owner);
+      if (keys != null)
+      {
+         keys.remove(key);
+         if (keys.isEmpty())
+            ownerKeys.remove(owner);
+      }
+
+      Entry entry = entries.get(key);
+      if (entry != null && entry.release(owner))
+         evict(key);
+   }
+
+   private void addOwner(Entry entry, String key, Object owner)
+   {
+      entry.owners.add(owner);
+      List<String> keys = ownerKeys.get(owner);
+      if (keys == null)
+      {
+         keys = new ArrayList<String>();
+         ownerKeys.put(owner, keys);
+      }
+      keys.add(key);
+   }
+
+   private void evict(String key)
+   {
+      entries.remove(key);
+      if (log.isTraceEnabled())
+         log.trace("Evicted shared annotation index " + key);
+   }
+
+   /**
+    * A shared entry, referenced once per use by an owner.
+    */
+   private static class Entry
+   {
+      private final List<AnnotationIndexRecord> records;
+      private final List<Object> owners = new ArrayList<Object>();
+
+      private Entry(List<AnnotationIndexRecord> records)
+      {
+         this.records = records;
+      }
+
+      /**
+       * Release one reference of the owner.
+       *
+       * @param owner the owner
+       * @return true when the entry isn't referenced anymore
+       */
+      private boolean release(Object owner)
+      {
+         owners.remove(owner);
+         return owners.isEmpty();
+      }
+   }
+}
@@ -21,6 +21,8 @@
 */
 package org.jboss.deployers.plugins.deployers;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * BasicStatistic.
  * 
@@ -33,7 +35,7 @@ class BasicStatistic implements Comparable<BasicStatistic>
    private String name;
    
    /** The total time */
-   private long time = 0;
+   private final AtomicLong time = new AtomicLong();
    
    /**
     * Create a new BasicStatistic.
@@ -54,7 +56,7 @@ class BasicStatistic implements Comparable<BasicStatistic>
    public BasicStatistic(String name, long time)
    {
       this.name = name;
-      this.time = time;
+      this.time.set(time);
    }
 
    /**
@@ -74,7 +76,7 @@ class BasicStatistic implements Comparable<BasicStatistic>
     */
    public long getTime()
    {
-      return time;
+      return time.get();
    }
    
    /**
@@ -84,11 +86,29 @@ class BasicStatistic implements Comparable<BasicStatistic>
     */
    public void addTime(long time)
    {
-      this.time += time;
+      this.time.addAndGet(time);
+   }
+
+   /**
+    * Halve the time
+    * 
+    * @return the new time
+    */
+   public long decay()
+   {
+      while (true)
+      {
+         long current = time.get();
+         long next = current / 2;
+         if (time.compareAndSet(current, next))
+            return next;
+      }
    }
 
    public int compareTo(BasicStatistic o)
    {
-      return (int) (o.getTime() - getTime());
+      long mine = getTime();
+      long other = o.getTime();
+      return mine < other ? 1 : (mine == other ? 0 : -1);
    }
 }
@@ -0,0 +1,209 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.deployers;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * DeployerRelevance.<p>
+ *
+ * The relevance criteria of a deployer captured when the relevance plan
+ * of its stage is built, so the relevance check does not have to ask
+ * the deployer for its flags and inputs on every unit.<p>
+ *
+ * Changes to the deployer's flags or inputs made afterwards are not seen
+ * until the plan is rebuilt, either because the deployers of the stage
+ * change or through {@link DeployersImpl#resetRelevancePlans()}.
+ */
+public class DeployerRelevance
+{
+   /** No triggers */
+   private static final String[] NO_TRIGGERS = new String[0];
+
+   /** The deployer */
+   private final Deployer deployer;
+
+   /** The position of the deployer in its stage */
+   private final int index;
+
+   /** Whether the deployer only wants top level deployments */
+   private final boolean topLevelOnly;
+
+   /** Whether the deployer only wants components */
+   private final boolean componentsOnly;
+
+   /** Whether the deployer wants components */
+   private final boolean wantComponents;
+
+   /** The input that must be present */
+   private final Class<?> input;
+
+   /** The explicitly required inputs */
+   private final String[] requiredInputs;
+
+   /** The attachments that must be present, the input first */
+   private final String[] triggers;
+
+   /**
+    * Create a new DeployerRelevance.
+    *
+    * @param deployer the deployer
+    * @param index the position of the deployer in its stage
+    */
+   public DeployerRelevance(Deployer deployer, int index)
+   {
+      if (deployer == null)
+         throw new IllegalArgumentException("Null deployer");
+      this.deployer = deployer;
+      this.index = index;
+      this.topLevelOnly = deployer.isTopLevelOnly();
+      this.componentsOnly = deployer.isComponentsOnly();
+      this.wantComponents = deployer.isWantComponents();
+
+      this.input = deployer.isAllInputs() ? null : deployer.getInput();
+
+      Set<String> required = deployer.getRequiredInputs();
+      if (required == null || required.isEmpty())
+         this.requiredInputs = NO_TRIGGERS;
+      else
+         this.requiredInputs = required.toArray(new String[required.size()]);
+
+      ArrayList<String> result = new ArrayList<String>();
+      if (input != null)
+         result.add(input.getName());
+      for (String requiredInput : requiredInputs)
+      {
+         if (result.contains(requiredInput) == false)
+            result.add(requiredInput);
+      }
+      this.triggers = result.isEmpty() ? NO_TRIGGERS : result.toArray(new String[result.size()]);
+   }
+
+   /**
+    * Get the deployer.
+    *
+    * @return the deployer
+    */
+   public Deployer getDeployer()
+   {
+      return deployer;
+   }
+
+   /**
+    * Get the position of the deployer in its stage.
+    *
+    * @return the index
+    */
+   public int getIndex()
+   {
+      return index;
+   }
+
+   /**
+    * Get the attachments that must be present for the deployer to be relevant.
+    *
+    * @return the trigger attachment names, never null
+    */
+   public String[] getTriggers()
+   {
+      return triggers;
+   }
+
+   /**
+    * Whether the deployer can be relevant for the children of a deployment.
+    *
+    * @return true when the children need to be visited
+    */
+   public boolean isVisitChildren()
+   {
+      return topLevelOnly == false;
+   }
+
+   /**
+    * Whether the deployer can be relevant for the components of a deployment.
+    *
+    * @return true when the components need to be visited
+    */
+   public boolean isVisitComponents()
+   {
+      return topLevelOnly == false && wantComponents;
+   }
+
+   /**
+    * Whether the structural criteria match, i.e. ignoring the attachments.
+    *
+    * @param isTopLevel whether this is a top level deployment
+    * @param isComponent whether this is a component
+    * @return true when the deployment has the right shape
+    */
+   public boolean isStructurallyRelevant(boolean isTopLevel, boolean isComponent)
+   {
+      // Deployer only wants top level
+      if (topLevelOnly && isTopLevel == false)
+         return false;
+
+      // Deployer only wants components
+      if (componentsOnly && isComponent == false)
+         return false;
+
+      // Deployer doesn't wants components
+      if (wantComponents == false && isComponent)
+         return false;
+
+      return true;
+   }
+
+   /**
+    * Test whether the deployer is relevant
+    *
+    * @param unit the deployment unit
+    * @param isTopLevel whether this is a top level deployment
+    * @param isComponent whether this is a component
+    * @return true when relevant
+    */
+   public boolean isRelevant(DeploymentUnit unit, boolean isTopLevel, boolean isComponent)
+   {
+      if (isStructurallyRelevant(isTopLevel, isComponent) == false)
+         return false;
+
+      // No attachment for the input type
+      if (input != null && unit.isAttachmentPresent(input) == false)
+         return false;
+
+      for (String requiredInput : requiredInputs)
+      {
+         if (unit.isAttachmentPresent(requiredInput) == false)
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.valueOf(deployer);
+   }
+}
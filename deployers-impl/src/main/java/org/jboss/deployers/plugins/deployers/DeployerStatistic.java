@@ -23,9 +23,16 @@ package org.jboss.deployers.plugins.deployers;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * DeployerStatistic.
+ * DeployerStatistic.<p>
+ * 
+ * Only the slowest deployments are kept as details, the time of
+ * the others is added to a single aggregate. With a decay window,
+ * the detail times are halved every window so old deployments
+ * make room for recent ones.
  * 
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  * @version $Revision: 1.1 $
@@ -33,7 +40,25 @@ import java.util.concurrent.ConcurrentHashMap;
 class DeployerStatistic extends BasicStatistic
 {
    /** The details */
-   private Map<String, BasicStatistic> details = new ConcurrentHashMap<String, BasicStatistic>();
+   private ConcurrentMap<String, BasicStatistic> details = new ConcurrentHashMap<String, BasicStatistic>();
+
+   /** The deploy times */
+   private final LatencyHistogram deployTimes = new LatencyHistogram();
+
+   /** The undeploy times */
+   private final LatencyHistogram undeployTimes = new LatencyHistogram();
+
+   /** The time of the deployments that are not kept as details */
+   private final BasicStatistic others = new BasicStatistic("(others)");
+
+   /** The retention settings */
+   private final DeployerStatistics owner;
+
+   /** New deployments at or below this time do not become details once full */
+   private volatile long threshold = 0;
+
+   /** The time of the last decay */
+   private final AtomicLong lastDecay = new AtomicLong(System.currentTimeMillis());
    
    /**
     * Create a new DeployerStatistic.
@@ -41,8 +66,20 @@ class DeployerStatistic extends BasicStatistic
     * @param name the name
     */
    public DeployerStatistic(String name)
+   {
+      this(name, null);
+   }
+
+   /**
+    * Create a new DeployerStatistic.
+    * 
+    * @param name the name
+    * @param owner the statistics holding the retention settings, null to keep every detail
+    */
+   public DeployerStatistic(String name, DeployerStatistics owner)
    {
       super(name);
+      this.owner = owner;
    }
 
    /**
@@ -55,19 +92,161 @@ class DeployerStatistic extends BasicStatistic
       return details;
    }
    
+   /**
+    * Get the deploy times.
+    * 
+    * @return the deploy times.
+    */
+   public LatencyHistogram getDeployTimes()
+   {
+      return deployTimes;
+   }
+
+   /**
+    * Get the undeploy times.
+    * 
+    * @return the undeploy times.
+    */
+   public LatencyHistogram getUndeployTimes()
+   {
+      return undeployTimes;
+   }
+
+   /**
+    * The total deploy time
+    * 
+    * @return the time in nanoseconds
+    */
+   @Override
+   public long getTime()
+   {
+      return deployTimes.getTotal();
+   }
+
+   @Override
+   public void addTime(long time)
+   {
+      deployTimes.record(time);
+   }
+
+   /**
+    * Get the time of the deployments that are not kept as details.
+    * 
+    * @return the others
+    */
+   public BasicStatistic getOthers()
+   {
+      return others;
+   }
+
    /**
     * Add a detail
     * 
     * @param name the name
-    * @param time the time
+    * @param time the time in nanoseconds
     */
-   public synchronized void addDetail(String name, long time)
+   public void addDetail(String name, long time)
    {
-      BasicStatistic previous = details.get(name);
-      if (previous != null)
-         previous.addTime(time);
-      else
-         details.put(name, new BasicStatistic(name, time));
       addTime(time);
+
+      if (owner != null)
+         decay(owner.getDecayWindow());
+
+      BasicStatistic detail = details.get(name);
+      if (detail != null)
+      {
+         detail.addTime(time);
+         return;
+      }
+
+      int maxDetails = owner != null ? owner.getMaxDetails() : Integer.MAX_VALUE;
+      if (details.size() >= maxDetails && time <= threshold)
+      {
+         others.addTime(time);
+         return;
+      }
+
+      synchronized (details)
+      {
+         detail = details.get(name);
+         if (detail != null)
+         {
+            detail.addTime(time);
+            return;
+         }
+
+         if (details.size() >= maxDetails)
+         {
+            BasicStatistic smallest = getSmallest();
+            if (smallest == null || smallest.getTime() >= time)
+            {
+               threshold = smallest != null ? smallest.getTime() : Long.MAX_VALUE;
+               others.addTime(time);
+               return;
+            }
+            details.remove(smallest.getName());
+            others.addTime(smallest.getTime());
+         }
+
+         details.put(name, new BasicStatistic(name, time));
+         if (details.size() >= maxDetails)
+         {
+            BasicStatistic smallest = getSmallest();
+            threshold = smallest != null ? smallest.getTime() : 0;
+         }
+      }
+   }
+
+   /**
+    * Get the detail with the smallest time
+    * 
+    * @return the detail or null if there are none
+    */
+   private BasicStatistic getSmallest()
+   {
+      BasicStatistic result = null;
+      for (BasicStatistic detail : details.values())
+      {
+         if (result == null || detail.getTime() < result.getTime())
+            result = detail;
+      }
+      return result;
+   }
+
+   /**
+    * Halve the detail times when the decay window elapsed
+    * 
+    * @param window the window in milliseconds, zero or less for no decay
+    */
+   private void decay(long window)
+   {
+      if (window <= 0)
+         return;
+
+      long now = System.currentTimeMillis();
+      long last = lastDecay.get();
+      if (now - last < window || lastDecay.compareAndSet(last, now) == false)
+         return;
+
+      synchronized (details)
+      {
+         for (BasicStatistic detail : details.values())
+         {
+            if (detail.decay() == 0)
+               details.remove(detail.getName());
+         }
+         others.decay();
+         threshold = 0;
+      }
+   }
+
+   /**
+    * Add an undeploy time
+    * 
+    * @param time the time in nanoseconds
+    */
+   public void addUndeploy(long time)
+   {
+      undeployTimes.record(time);
    }
 }
@@ -24,38 +24,268 @@ package org.jboss.deployers.plugins.deployers;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
 
 /**
- * DeployerStatistics.
+ * DeployerStatistics.<p>
+ * 
+ * Deploy and undeploy times in nanoseconds by deployer and by stage.
+ * Recording does not take any lock, except when a new deployment
+ * replaces one of the retained slowest deployments of a deployer.
  * 
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  * @version $Revision: 1.1 $
  */
 class DeployerStatistics
 {
+   /** The item names of a statistic row */
+   private static final String[] ITEM_NAMES =
+   {
+      "name",
+      "deployCount", "deployTotal", "deployP50", "deployP99", "deployMax",
+      "undeployCount", "undeployTotal", "undeployP50", "undeployP99", "undeployMax"
+   };
+
+   /** The item descriptions of a statistic row */
+   private static final String[] ITEM_DESCRIPTIONS =
+   {
+      "The deployer or stage name",
+      "The number of deploys", "The total deploy time (ns)", "The median deploy time (ns)",
+      "The 99th percentile deploy time (ns)", "The maximum deploy time (ns)",
+      "The number of undeploys", "The total undeploy time (ns)", "The median undeploy time (ns)",
+      "The 99th percentile undeploy time (ns)", "The maximum undeploy time (ns)"
+   };
+
+   /** The type of a statistic row */
+   static final CompositeType STATISTIC_TYPE;
+
+   /** The type of a statistics table */
+   static final TabularType STATISTICS_TYPE;
+
+   static
+   {
+      try
+      {
+         OpenType[] types = new OpenType[ITEM_NAMES.length];
+         types[0] = SimpleType.STRING;
+         for (int i = 1; i < types.length; ++i)
+            types[i] = SimpleType.LONG;
+         STATISTIC_TYPE = new CompositeType("DeployerStatistic", "Deploy and undeploy times", ITEM_NAMES, ITEM_DESCRIPTIONS, types);
+         STATISTICS_TYPE = new TabularType("DeployerStatistics", "Deploy and undeploy times by name", STATISTIC_TYPE, new String[] { "name" });
+      }
+      catch (OpenDataException e)
+      {
+         throw new RuntimeException("Error creating the statistics types", e);
+      }
+   }
+
+   /** The default number of deployments kept per deployer or stage */
+   public static final int DEFAULT_MAX_DETAILS = 50;
+
+   /** The number of deployments kept per deployer or stage */
+   private volatile int maxDetails = DEFAULT_MAX_DETAILS;
+
+   /** The decay window in milliseconds */
+   private volatile long decayWindow = 0;
+
    /** The deployer statistics */
-   private Map<String, DeployerStatistic> deployers = new ConcurrentHashMap<String, DeployerStatistic>();
-   
+   private ConcurrentMap<String, DeployerStatistic> deployers = new ConcurrentHashMap<String, DeployerStatistic>();
+
+   /** The stage statistics */
+   private ConcurrentMap<String, DeployerStatistic> stages = new ConcurrentHashMap<String, DeployerStatistic>();
+
+   /**
+    * Get the number of deployments kept per deployer or stage.
+    * 
+    * @return the maximum number of details
+    */
+   public int getMaxDetails()
+   {
+      return maxDetails;
+   }
+
+   /**
+    * Set the number of deployments kept per deployer or stage.<p>
+    * 
+    * The slowest deployments are kept, the others only count in the totals.
+    * 
+    * @param maxDetails the maximum number of details, zero for none
+    */
+   public void setMaxDetails(int maxDetails)
+   {
+      if (maxDetails < 0)
+         throw new IllegalArgumentException("Negative maxDetails: " + maxDetails);
+      this.maxDetails = maxDetails;
+   }
+
+   /**
+    * Get the decay window.
+    * 
+    * @return the window in milliseconds, zero for no decay
+    */
+   public long getDecayWindow()
+   {
+      return decayWindow;
+   }
+
+   /**
+    * Set the decay window.<p>
+    * 
+    * The detail times are halved each window.
+    * 
+    * @param decayWindow the window in milliseconds, zero for no decay
+    */
+   public void setDecayWindow(long decayWindow)
+   {
+      this.decayWindow = decayWindow;
+   }
+
+   /**
+    * Forget all statistics
+    */
+   public void reset()
+   {
+      deployers.clear();
+      stages.clear();
+   }
+
    /**
     * Add a statistic
     * 
     * @param deployerName the deployer name
     * @param unitName the unit name
-    * @param time the time
+    * @param time the time in nanoseconds
+    */
+   public void addStatistic(String deployerName, String unitName, long time)
+   {
+      getStatistic(deployers, deployerName).addDetail(unitName, time);
+   }
+
+   /**
+    * Add an undeploy statistic
+    * 
+    * @param deployerName the deployer name
+    * @param time the time in nanoseconds
     */
-   public synchronized void addStatistic(String deployerName, String unitName, long time)
+   public void addUndeployStatistic(String deployerName, long time)
    {
-      DeployerStatistic stat = deployers.get(deployerName);
+      getStatistic(deployers, deployerName).addUndeploy(time);
+   }
+
+   /**
+    * Add a stage statistic
+    * 
+    * @param stageName the stage name
+    * @param unitName the unit name
+    * @param time the time in nanoseconds
+    */
+   public void addStageStatistic(String stageName, String unitName, long time)
+   {
+      getStatistic(stages, stageName).addDetail(unitName, time);
+   }
+
+   /**
+    * Add a stage undeploy statistic
+    * 
+    * @param stageName the stage name
+    * @param time the time in nanoseconds
+    */
+   public void addStageUndeployStatistic(String stageName, long time)
+   {
+      getStatistic(stages, stageName).addUndeploy(time);
+   }
+
+   /**
+    * Whether nothing was recorded
+    * 
+    * @return true when empty
+    */
+   public boolean isEmpty()
+   {
+      return deployers.isEmpty() && stages.isEmpty();
+   }
+
+   /**
+    * Get or create a statistic
+    * 
+    * @param map the statistics
+    * @param name the name
+    * @return the statistic
+    */
+   private DeployerStatistic getStatistic(ConcurrentMap<String, DeployerStatistic> map, String name)
+   {
+      DeployerStatistic stat = map.get(name);
       if (stat == null)
       {
-         stat = new DeployerStatistic(deployerName);
-         deployers.put(deployerName, stat);
+         stat = new DeployerStatistic(name, this);
+         DeployerStatistic previous = map.putIfAbsent(name, stat);
+         if (previous != null)
+            stat = previous;
       }
-      stat.addDetail(unitName, time);
+      return stat;
    }
-   
+
+   /**
+    * Get the deployer statistics
+    * 
+    * @return the statistics by deployer name
+    */
+   public TabularData getDeployerStatistics()
+   {
+      return toTabularData(deployers);
+   }
+
+   /**
+    * Get the stage statistics
+    * 
+    * @return the statistics by stage name
+    */
+   public TabularData getStageStatistics()
+   {
+      return toTabularData(stages);
+   }
+
+   /**
+    * Convert statistics to open data
+    * 
+    * @param map the statistics
+    * @return the table
+    */
+   private static TabularData toTabularData(ConcurrentMap<String, DeployerStatistic> map)
+   {
+      TabularDataSupport result = new TabularDataSupport(STATISTICS_TYPE);
+      for (DeployerStatistic stat : map.values())
+      {
+         LatencyHistogram deploy = stat.getDeployTimes();
+         LatencyHistogram undeploy = stat.getUndeployTimes();
+         Object[] values =
+         {
+            stat.getName(),
+            deploy.getCount(), deploy.getTotal(), deploy.getPercentile(50), deploy.getPercentile(99), deploy.getMax(),
+            undeploy.getCount(), undeploy.getTotal(), undeploy.getPercentile(50), undeploy.getPercentile(99), undeploy.getMax()
+         };
+         try
+         {
+            result.put(new CompositeDataSupport(STATISTIC_TYPE, ITEM_NAMES, values));
+         }
+         catch (OpenDataException e)
+         {
+            throw new RuntimeException("Error creating statistic for " + stat.getName(), e);
+         }
+      }
+      return result;
+   }
+
    /**
     * List the times
     * 
@@ -73,17 +303,20 @@ class DeployerStatistics
       {
          builder.append("<tr>");
          builder.append("<td>").append(stat.getName()).append("</td>");
-         builder.append("<td>").append(stat.getTime()).append("</td>");
+         builder.append("<td>").append(toMillis(stat.getTime())).append("</td>");
          builder.append("</tr>");
          if (details)
          {
             List<BasicStatistic> list = new ArrayList<BasicStatistic>(stat.getDetails().values());
             Collections.sort(list);
+            BasicStatistic others = stat.getOthers();
+            if (others.getTime() > 0)
+               list.add(others);
             for (BasicStatistic detail : list)
             {
                builder.append("<tr>");
                builder.append("<td>`-- ").append(detail.getName()).append("</td>");
-               builder.append("<td>").append(detail.getTime()).append("</td>");
+               builder.append("<td>").append(toMillis(detail.getTime())).append("</td>");
                builder.append("</tr>");
             }
          }
@@ -92,4 +325,15 @@ class DeployerStatistics
       return builder.toString();
 
    }
+
+   /**
+    * Format nanoseconds as milliseconds
+    * 
+    * @param nanos the nanoseconds
+    * @return the milliseconds with three decimals
+    */
+   private static String toMillis(long nanos)
+   {
+      return String.format("%.3f", nanos / 1000000d);
+   }
 }
@@ -55,6 +55,12 @@ public class DeployerWrapper implements Deployer, ManagedObjectCreator
  
    /** The context classloader of the person registering the deployer */
    private ClassLoader classLoader;
+
+   /** The relevance criteria from the current stage plan */
+   private volatile DeployerRelevance relevance;
+
+   /** The name the statistics are kept under */
+   private volatile String statisticName;
    
    /**
     * Create a new DeployerWrapper.
@@ -72,6 +78,16 @@ public class DeployerWrapper implements Deployer, ManagedObjectCreator
       this.classLoader = SecurityActions.getContextClassLoader();
    }
    
+   /**
+    * Get the wrapped deployer.
+    * 
+    * @return the deployer
+    */
+   public Deployer getDeployer()
+   {
+      return deployer;
+   }
+
    /**
     * Get the managedObjectCreator.
     * 
@@ -92,6 +108,26 @@ public class DeployerWrapper implements Deployer, ManagedObjectCreator
       this.managedObjectCreator = managedObjectCreator;
    }
 
+   /**
+    * Get the relevance criteria.
+    * 
+    * @return the relevance or null if the deployer is not part of a plan
+    */
+   DeployerRelevance getRelevance()
+   {
+      return relevance;
+   }
+
+   /**
+    * Set the relevance criteria.
+    * 
+    * @param relevance the relevance
+    */
+   void setRelevance(DeployerRelevance relevance)
+   {
+      this.relevance = relevance;
+   }
+
    public int getRelativeOrder()
    {
       return deployer.getRelativeOrder();
@@ -171,7 +207,7 @@ public class DeployerWrapper implements Deployer, ManagedObjectCreator
       if (unit == null)
          throw new IllegalArgumentException("Null unit");
 
-      DeployerTracking.push(deployer.toString());
+      DeployerTracking.push(getStatisticName());
       ClassLoader previous = SecurityActions.setContextClassLoader(classLoader);
       try
       {
@@ -196,7 +232,7 @@ public class DeployerWrapper implements Deployer, ManagedObjectCreator
       if (unit == null)
          throw new IllegalArgumentException("Null unit");
 
-      DeployerTracking.push(deployer.toString());
+      DeployerTracking.push(getStatisticName());
       ClassLoader previous = SecurityActions.setContextClassLoader(classLoader);
       try
       {
@@ -256,6 +292,23 @@ public class DeployerWrapper implements Deployer, ManagedObjectCreator
       return deployer.hashCode();
    }
    
+   /**
+    * Get the name the statistics are kept under, computed once
+    * so recording a statistic does not build a string.
+    * 
+    * @return the name
+    */
+   String getStatisticName()
+   {
+      String result = statisticName;
+      if (result == null)
+      {
+         result = deployer.toString().intern();
+         statisticName = result;
+      }
+      return result;
+   }
+
    @Override
    public String toString()
    {
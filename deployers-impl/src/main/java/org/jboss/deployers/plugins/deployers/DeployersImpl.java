@@ -27,16 +27,26 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 
 import org.jboss.dependency.spi.Controller;
 import org.jboss.dependency.spi.ControllerContext;
@@ -54,11 +64,13 @@ import org.jboss.deployers.plugins.sort.DeployerSorterFactory;
 import org.jboss.deployers.plugins.sort.NewStagedSortedDeployers;
 import org.jboss.deployers.plugins.sort.StagedSortedDeployers;
 import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
 import org.jboss.deployers.spi.DeploymentState;
 import org.jboss.deployers.spi.deployer.Deployer;
 import org.jboss.deployers.spi.deployer.Deployers;
 import org.jboss.deployers.spi.deployer.DeploymentStage;
 import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.deployers.spi.deployer.helpers.AttachmentRetention;
 import org.jboss.deployers.spi.deployer.managed.ManagedObjectCreator;
 import org.jboss.deployers.structure.spi.DeploymentContext;
 import org.jboss.deployers.structure.spi.DeploymentMBean;
@@ -92,8 +104,11 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
    /** Whether to record statistics */
    private boolean collectStats = false;
 
+   /** Whether deployers are only dispatched to contexts that have their input */
+   private volatile boolean attachmentDriven = false;
+
    /** The deployment time stats */
-   private DeployerStatistics deploymentTimes;
+   private final DeployerStatistics deploymentTimes = new DeployerStatistics();
 
    /**
     * The dependency state machine
@@ -124,7 +139,10 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
    /**
     * The deployers by stage and type
     */
-   private StagedSortedDeployers deployersByStage = new NewStagedSortedDeployers();
+   private volatile StagedSortedDeployers deployersByStage = new NewStagedSortedDeployers();
+
+   /** The relevance plans by stage, rebuilt when the deployers of a stage change */
+   private Map<String, RelevancePlan> relevancePlans = new ConcurrentHashMap<String, RelevancePlan>();
 
    /**
     * The scope builder
@@ -134,6 +152,12 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
    /** The ManagedDeploymentCreator plugin */
    private ManagedObjectCreator mgtObjectCreator = null;
 
+   /** The executor used to move independent deployments through a stage in parallel, null means sequential */
+   private Executor deploymentExecutor;
+
+   /** The executor we created ourselves and have to shutdown */
+   private ExecutorService ownedExecutor;
+
    /**
     * Create a new DeployersImpl.
     *
@@ -178,7 +202,16 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
 
    public void shutdown()
    {
-      shutdown.set(true);
+      if (shutdown.getAndSet(true))
+         return;
+
+      StagedSortedDeployers sorted = deployersByStage;
+      if (sorted instanceof NewStagedSortedDeployers)
+         ((NewStagedSortedDeployers) sorted).stop();
+
+      ExecutorService executor = ownedExecutor;
+      if (executor != null)
+         executor.shutdown();
    }
 
    /**
@@ -210,6 +243,31 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
       this.collectStats = collectStats;
    }
 
+   /**
+    * Whether install is attachment driven.
+    *
+    * @return true when deployers whose input is not present anywhere are skipped
+    */
+   public boolean isAttachmentDriven()
+   {
+      return attachmentDriven;
+   }
+
+   /**
+    * Set whether install is attachment driven.<p>
+    *
+    * A context is always only offered the deployers whose input it holds and those
+    * without an input. When set, deployers whose input is not present anywhere
+    * in the deployment hierarchy are skipped without walking it.
+    * The deploy and undeploy order is the same as the default walk.
+    *
+    * @param attachmentDriven true for attachment driven install
+    */
+   public void setAttachmentDriven(boolean attachmentDriven)
+   {
+      this.attachmentDriven = attachmentDriven;
+   }
+
    /**
     * Get the deployers.
     *
@@ -240,8 +298,57 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
       // Add all the new deployers that were not already present
       HashSet<Deployer> newDeployers = new HashSet<Deployer>(deployers);
       newDeployers.removeAll(this.deployers);
-      for (Deployer deployer : newDeployers)
-         addDeployer(deployer);
+      addDeployers(newDeployers);
+   }
+
+   /**
+    * Add several deployers, each stage is only sorted once
+    *
+    * @param deployers the deployers
+    * @throws IllegalArgumentException for a null deployer or a deployer without a stage
+    */
+   public synchronized void addDeployers(Collection<? extends Deployer> deployers)
+   {
+      if (deployers == null)
+         throw new IllegalArgumentException("Null deployers");
+
+      Map<String, List<Deployer>> byStage = new LinkedHashMap<String, List<Deployer>>();
+      Set<DeployerWrapper> added = new HashSet<DeployerWrapper>();
+      for (Deployer deployer : deployers)
+      {
+         if (deployer == null)
+            throw new IllegalArgumentException("Null deployer");
+
+         DeploymentStage stage = deployer.getStage();
+         if (stage == null)
+            throw new IllegalArgumentException("Deployer has no stage: " + deployer);
+
+         DeployerWrapper wrapper = new DeployerWrapper(deployer);
+
+         // Ignore duplicates
+         if (this.deployers.contains(wrapper) || added.add(wrapper) == false)
+            continue;
+
+         List<Deployer> stageDeployers = byStage.get(stage.getName());
+         if (stageDeployers == null)
+         {
+            addDeploymentStage(stage);
+            stageDeployers = new ArrayList<Deployer>();
+            byStage.put(stage.getName(), stageDeployers);
+         }
+         stageDeployers.add(wrapper);
+      }
+
+      for (Map.Entry<String, List<Deployer>> entry : byStage.entrySet())
+      {
+         String stageName = entry.getKey();
+         deployersByStage.addDeployers(stageName, entry.getValue());
+         relevancePlans.remove(stageName);
+         for (Deployer wrapper : entry.getValue())
+            this.deployers.add((DeployerWrapper) wrapper);
+         if (log.isTraceEnabled())
+            log.trace("Added deployers " + entry.getValue() + " for stage " + stageName);
+      }
    }
 
    /**
@@ -268,6 +375,7 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
 
       String stageName = stage.getName();
       deployersByStage.addDeployer(stageName, wrapper);
+      relevancePlans.remove(stageName);
       this.deployers.add(wrapper);
 
       if (log.isTraceEnabled())
@@ -307,6 +415,7 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
 
       String stageName = stage.getName();
       deployersByStage.removeDeployer(stageName, wrapper);
+      relevancePlans.remove(stageName);
       if (log.isTraceEnabled())
          log.trace("Removed deployer " + deployer + " from stage " + stageName);
    }
@@ -432,9 +541,71 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     *
     * @param deployersByStage the stage sorted deployers
     */
-   public void setDeployersByStage(StagedSortedDeployers deployersByStage)
+   public synchronized void setDeployersByStage(StagedSortedDeployers deployersByStage)
    {
       this.deployersByStage = deployersByStage;
+      relevancePlans.clear();
+   }
+
+   /**
+    * Get the deployment executor.
+    *
+    * @return the executor or null if deployments are processed sequentially
+    */
+   public Executor getDeploymentExecutor()
+   {
+      return deploymentExecutor;
+   }
+
+   /**
+    * Set the deployment executor.<p>
+    *
+    * When set, the independent top level deployments passed to
+    * {@link #process(List, List)} are moved through each stage concurrently
+    * on this executor. All of them complete a stage before any of them enters the next one.
+    *
+    * @param deploymentExecutor the executor or null to process deployments sequentially
+    */
+   public synchronized void setDeploymentExecutor(Executor deploymentExecutor)
+   {
+      releaseOwnedExecutor();
+      this.deploymentExecutor = deploymentExecutor;
+   }
+
+   /**
+    * Set the number of threads used to process independent deployments in parallel.<p>
+    *
+    * This is a shortcut for {@link #setDeploymentExecutor(Executor)} with a bounded pool
+    * owned by this deployers instance, it is released on {@link #shutdown()}.
+    *
+    * @param threads the number of threads, one or less means sequential processing
+    */
+   public synchronized void setDeploymentThreads(int threads)
+   {
+      releaseOwnedExecutor();
+      if (threads > 1)
+      {
+         ownedExecutor = Executors.newFixedThreadPool(threads, new DeploymentThreadFactory());
+         deploymentExecutor = ownedExecutor;
+      }
+      else
+      {
+         deploymentExecutor = null;
+      }
+   }
+
+   /**
+    * Release the executor we created.
+    */
+   private void releaseOwnedExecutor()
+   {
+      if (ownedExecutor != null)
+      {
+         ownedExecutor.shutdown();
+         if (deploymentExecutor == ownedExecutor)
+            deploymentExecutor = null;
+         ownedExecutor = null;
+      }
    }
 
    public void start()
@@ -519,11 +690,46 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
 
    public String listDeployerTimes(boolean details)
    {
-      if (deploymentTimes == null)
+      if (deploymentTimes.isEmpty())
          return "No statistics available";
       return deploymentTimes.listTimes(details);
    }
 
+   public TabularData getDeployerStatistics()
+   {
+      return deploymentTimes.getDeployerStatistics();
+   }
+
+   public TabularData getStageStatistics()
+   {
+      return deploymentTimes.getStageStatistics();
+   }
+
+   public void resetStatistics()
+   {
+      deploymentTimes.reset();
+   }
+
+   public int getStatisticsDetails()
+   {
+      return deploymentTimes.getMaxDetails();
+   }
+
+   public void setStatisticsDetails(int details)
+   {
+      deploymentTimes.setMaxDetails(details);
+   }
+
+   public long getStatisticsDecayWindow()
+   {
+      return deploymentTimes.getDecayWindow();
+   }
+
+   public void setStatisticsDecayWindow(long window)
+   {
+      deploymentTimes.setDecayWindow(window);
+   }
+
    public String listDeployers(String stageName)
    {
       StringBuilder result = new StringBuilder();
@@ -659,6 +865,218 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
          throw DeploymentException.rethrowAsDeploymentException("Error changing to stage " + stage + " for " + context.getName(), problem);
    }
 
+   /**
+    * Redeploy only the deployers consuming the changed attachments.<p>
+    *
+    * The deployers of the stages already reached are affected when one of
+    * their inputs is in the changed set, the outputs of an affected deployer
+    * then count as changed for the deployers after it. Deployers that only
+    * declare all inputs are not affected.<p>
+    *
+    * The affected deployers are first undeployed in reverse order while the
+    * old attachments are still in place. The changes then replace the
+    * transient attachments in the transient managed objects, a null value
+    * removes the attachment, and the affected deployers are deployed again in
+    * order. This runs under the same
+    * deployers lock as the controller's install and uninstall of the deployment.<p>
+    *
+    * When an affected deployer fails, the deployers already deployed again are
+    * undeployed, the previous attachments are put back and all the affected
+    * deployers are deployed again with them. Only when that fails too is the
+    * deployment left in error.
+    *
+    * @param context the deployment context
+    * @param changes the changed attachments by name, e.g. from an AttachmentJournal
+    * @throws DeploymentException for any error
+    */
+   public void redeployChanged(DeploymentContext context, Map<String, Object> changes) throws DeploymentException
+   {
+      if (context == null)
+         throw new DeploymentException("Null context");
+      if (changes == null)
+         throw new DeploymentException("Null changes");
+      if (changes.isEmpty())
+         return;
+
+      DeploymentContext topLevel = context.getTopLevel();
+      DeploymentControllerContext deploymentControllerContext = topLevel.getTransientAttachments().getAttachment(ControllerContext.class.getName(), DeploymentControllerContext.class);
+      if (deploymentControllerContext == null)
+         throw new DeploymentException("Deployment " + topLevel.getName() + " has no deployment controller context");
+
+      checkShutdown();
+
+      Throwable problem = null;
+      Lock lock = deploymentControllerContext.getDeployersLock();
+      lock.lock();
+      try
+      {
+         ControllerState current = deploymentControllerContext.getState();
+         if (ControllerState.ERROR.equals(current))
+            throw new DeploymentException("Deployment " + topLevel.getName() + " is in error");
+
+         List<Deployer> affected = getAffectedDeployers(current, changes.keySet());
+         if (log.isTraceEnabled())
+            log.trace("Redeploying " + affected + " for " + context.getName() + " changed=" + changes.keySet());
+
+         DeploymentState state = context.getState();
+         MutableAttachments transientAttachments = context.getTransientAttachments();
+         MutableAttachments managedObjects = context.getTransientManagedObjects();
+         Map<String, Object> previousAttachments = new HashMap<String, Object>();
+         Map<String, Object> previousManagedObjects = new HashMap<String, Object>();
+         int installed = 0;
+         try
+         {
+            for (int i = affected.size() - 1; i >= 0; --i)
+               uninstallDeployer(affected.get(i), context);
+
+            for (Map.Entry<String, Object> change : changes.entrySet())
+            {
+               String name = change.getKey();
+               Object value = change.getValue();
+               previousAttachments.put(name, transientAttachments.removeAttachment(name));
+               if (value == null)
+                  previousManagedObjects.put(name, managedObjects.removeAttachment(name));
+               else
+                  previousManagedObjects.put(name, managedObjects.addAttachment(name, value));
+            }
+
+            for (Deployer deployer : affected)
+            {
+               installDeployer(deployer, context);
+               ++installed;
+            }
+         }
+         catch (Throwable t)
+         {
+            problem = t;
+            log.debug("Error redeploying changes " + changes.keySet() + " for " + context.getName() + ", restoring the previous attachments: " + t);
+
+            // Unwind the deployers already deployed again
+            for (int i = installed - 1; i >= 0; --i)
+               uninstallDeployer(affected.get(i), context);
+
+            for (Map.Entry<String, Object> previous : previousManagedObjects.entrySet())
+            {
+               String name = previous.getKey();
+               if (previous.getValue() == null)
+                  managedObjects.removeAttachment(name);
+               else
+                  managedObjects.addAttachment(name, previous.getValue());
+               Object attachment = previousAttachments.get(name);
+               if (attachment != null)
+                  transientAttachments.addAttachment(name, attachment);
+            }
+            clearProblem(context, state);
+
+            try
+            {
+               for (Deployer deployer : affected)
+                  installDeployer(deployer, context);
+            }
+            catch (Throwable e)
+            {
+               log.warn("Error restoring " + context.getName() + " after a failed redeploy", e);
+               context.setState(DeploymentState.ERROR);
+               context.setProblem(t);
+            }
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+      if (problem != null)
+         throw DeploymentException.rethrowAsDeploymentException("Error redeploying changes " + changes.keySet() + " for " + context.getName(), problem);
+   }
+
+   /**
+    * Deploy a single deployer over a deployment
+    *
+    * @param deployer the deployer
+    * @param context the deployment context
+    * @throws Throwable for any error, what the deployer deployed is unwound
+    */
+   private void installDeployer(Deployer deployer, DeploymentContext context) throws Throwable
+   {
+      if (deployer.isParentFirst())
+         doInstallParentFirst(deployer, context);
+      else
+         doInstallParentLast(deployer, context);
+   }
+
+   /**
+    * Undeploy a single deployer from a deployment
+    *
+    * @param deployer the deployer
+    * @param context the deployment context
+    */
+   private void uninstallDeployer(Deployer deployer, DeploymentContext context)
+   {
+      if (deployer.isParentFirst())
+         doUninstallParentLast(deployer, context, true, true);
+      else
+         doUninstallParentFirst(deployer, context, true, true);
+   }
+
+   /**
+    * Clear the error a failed deployer left on a context and its children
+    *
+    * @param context the context
+    * @param state the state to go back to
+    */
+   private static void clearProblem(DeploymentContext context, DeploymentState state)
+   {
+      if (DeploymentState.ERROR.equals(context.getState()))
+      {
+         context.setState(state);
+         context.setProblem(null);
+      }
+      List<DeploymentContext> children = context.getChildren();
+      if (children != null && children.isEmpty() == false)
+      {
+         for (DeploymentContext child : children)
+            clearProblem(child, state);
+      }
+   }
+
+   /**
+    * Get the deployers, in deploy order, of the stages up to the current state
+    * that consume a changed attachment directly or through an affected deployer's outputs.
+    *
+    * @param current the current state
+    * @param changed the changed attachment names
+    * @return the affected deployers
+    */
+   private List<Deployer> getAffectedDeployers(ControllerState current, Set<String> changed)
+   {
+      List<Deployer> affected = new ArrayList<Deployer>();
+      Set<String> dirty = new HashSet<String>(changed);
+      ControllerStateModel states = controller.getStates();
+      ListIterator<ControllerState> iter = states.listIteraror();
+      while (iter.hasNext())
+      {
+         ControllerState state = iter.next();
+         if (states.isAfterState(state, current))
+            break;
+         String stageName = state.getStateString();
+         if (stages.containsKey(stageName) == false)
+            continue;
+
+         for (Deployer deployer : getRelevancePlan(stageName).getDeployers())
+         {
+            Set<String> inputs = deployer.getInputs();
+            if (inputs == null || Collections.disjoint(inputs, dirty))
+               continue;
+
+            affected.add(deployer);
+            Set<String> outputs = deployer.getOutputs();
+            if (outputs != null)
+               dirty.addAll(outputs);
+         }
+      }
+      return affected;
+   }
+
    public void process(List<DeploymentContext> deploy, List<DeploymentContext> undeploy)
    {
       boolean trace = log.isTraceEnabled();
@@ -777,31 +1195,226 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
          ControllerStateModel states = controller.getStates();
          for (ControllerState state : states)
          {
-            for (DeploymentContext context : deploy)
+            Executor executor = deploymentExecutor;
+            if (executor == null || deploy.size() < 2)
             {
-               DeploymentControllerContext deploymentControllerContext = context.getTransientAttachments().getAttachment(ControllerContext.class.getName(), DeploymentControllerContext.class);
-               ControllerState current = deploymentControllerContext.getState();
-               if (ControllerState.ERROR.equals(current) == false && states.isBeforeState(current, state) && current.getStateString().equals(context.getRequiredStage().getName()) == false)
+               for (DeploymentContext context : deploy)
+                  changeState(context, state, states, trace);
+            }
+            else
+            {
+               changeStateInParallel(executor, deploy, state, states, trace);
+            }
+         }
+      }
+   }
+
+   /**
+    * Move a deployment to the given state if it is not already there
+    *
+    * @param context the deployment context
+    * @param state the state
+    * @param states the controller states
+    * @param trace whether trace is enabled
+    */
+   protected void changeState(DeploymentContext context, ControllerState state, ControllerStateModel states, boolean trace)
+   {
+      DeploymentControllerContext deploymentControllerContext = getDeploymentControllerContext(context);
+      if (isChangeNeeded(deploymentControllerContext, state, states))
+      {
+         checkShutdown();
+         try
+         {
+            controller.change(deploymentControllerContext, state);
+         }
+         catch (Throwable t)
+         {
+            context.setState(DeploymentState.ERROR);
+            context.setProblem(t);
+         }
+      }
+      else
+      {
+         if (trace)
+            log.trace("Not moving " + deploymentControllerContext + " to state " + state + " it is at " + deploymentControllerContext.getState());
+      }
+   }
+
+   /**
+    * Get the controller context of a deployment
+    *
+    * @param context the deployment context
+    * @return the controller context
+    */
+   private static DeploymentControllerContext getDeploymentControllerContext(DeploymentContext context)
+   {
+      return context.getTransientAttachments().getAttachment(ControllerContext.class.getName(), DeploymentControllerContext.class);
+   }
+
+   /**
+    * Does the deployment still have to move to the given state
+    *
+    * @param deploymentControllerContext the controller context
+    * @param state the state
+    * @param states the controller states
+    * @return true when the deployment has to move
+    */
+   private static boolean isChangeNeeded(DeploymentControllerContext deploymentControllerContext, ControllerState state, ControllerStateModel states)
+   {
+      ControllerState current = deploymentControllerContext.getState();
+      String requiredStage = deploymentControllerContext.getDeploymentContext().getRequiredStage().getName();
+      return ControllerState.ERROR.equals(current) == false && states.isBeforeState(current, state) && current.getStateString().equals(requiredStage) == false;
+   }
+
+   /**
+    * Move the deployments to the given state, running the deployers of the independent ones in parallel.<p>
+    *
+    * The controller serializes state changes, so the deployers of the independent deployments
+    * run first in the executor, outside the controller. The controller then moves all the
+    * deployments in their original order and picks up the work that was already done,
+    * work it doesn't pick up, e.g. when we are shutdown meanwhile, is undone.
+    *
+    * @param executor the executor
+    * @param contexts the deployment contexts
+    * @param state the state
+    * @param states the controller states
+    * @param trace whether trace is enabled
+    */
+   protected void changeStateInParallel(Executor executor, List<DeploymentContext> contexts, final ControllerState state, ControllerStateModel states, final boolean trace)
+   {
+      List<DeploymentControllerContext> independent = new ArrayList<DeploymentControllerContext>(contexts.size());
+      for (DeploymentContext context : contexts)
+      {
+         DeploymentControllerContext deploymentControllerContext = getDeploymentControllerContext(context);
+         if (isIndependent(context) && isChangeNeeded(deploymentControllerContext, state, states))
+            independent.add(deploymentControllerContext);
+      }
+
+      try
+      {
+         if (independent.size() > 1)
+            preinstall(executor, independent, state, trace);
+
+         for (DeploymentContext context : contexts)
+            changeState(context, state, states, trace);
+      }
+      finally
+      {
+         for (DeploymentControllerContext deploymentControllerContext : independent)
+            undoPreinstall(deploymentControllerContext, state);
+      }
+   }
+
+   /**
+    * Run the deployers of a state for the deployments in parallel.
+    *
+    * @param executor the executor
+    * @param contexts the controller contexts
+    * @param state the state
+    * @param trace whether trace is enabled
+    */
+   private void preinstall(Executor executor, List<DeploymentControllerContext> contexts, final ControllerState state, boolean trace)
+   {
+      checkShutdown();
+
+      final CountDownLatch latch = new CountDownLatch(contexts.size());
+      final ClassLoader classLoader = SecurityActions.getContextClassLoader();
+      for (final DeploymentControllerContext deploymentControllerContext : contexts)
+      {
+         Runnable task = new Runnable()
+         {
+            public void run()
+            {
+               ClassLoader previous = SecurityActions.setContextClassLoader(classLoader);
+               try
                {
-                  checkShutdown();
-                  try
-                  {
-                     controller.change(deploymentControllerContext, state);
-                  }
-                  catch (Throwable t)
+                  // Outstanding work is abandoned once we are shutdown
+                  if (shutdown.get() == false)
                   {
-                     context.setState(DeploymentState.ERROR);
-                     context.setProblem(t);
+                     Throwable failure = null;
+                     try
+                     {
+                        installStage(deploymentControllerContext, state);
+                     }
+                     catch (Throwable t)
+                     {
+                        failure = t;
+                     }
+                     deploymentControllerContext.setPreinstalled(state, failure);
                   }
                }
-               else
+               finally
                {
-                  if (trace)
-                     log.trace("Not moving " + deploymentControllerContext + " to state " + state + " it is at " + current);
+                  SecurityActions.resetContextClassLoader(previous);
+                  latch.countDown();
                }
             }
+         };
+         try
+         {
+            executor.execute(task);
+         }
+         catch (RejectedExecutionException e)
+         {
+            if (trace)
+               log.trace("Executor rejected " + deploymentControllerContext.getName() + ", moving it to state " + state + " in the calling thread");
+            task.run();
+         }
+      }
+
+      // Wait for the whole stage before the controller moves the deployments
+      boolean interrupted = false;
+      while (true)
+      {
+         try
+         {
+            latch.await();
+            break;
+         }
+         catch (InterruptedException e)
+         {
+            interrupted = true;
          }
       }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Undo the deployers that ran in parallel when the controller didn't move the deployment.
+    *
+    * @param deploymentControllerContext the controller context
+    * @param state the state
+    */
+   private void undoPreinstall(DeploymentControllerContext deploymentControllerContext, ControllerState state)
+   {
+      if (state.equals(deploymentControllerContext.getPreinstalled()) == false)
+         return;
+
+      Throwable failure = deploymentControllerContext.getPreinstallFailure();
+      deploymentControllerContext.clearPreinstalled();
+      // a failure was already unwound
+      if (failure == null)
+      {
+         if (log.isTraceEnabled())
+            log.trace("Undoing the " + state.getStateString() + " deployers of " + deploymentControllerContext.getName());
+         uninstall(deploymentControllerContext, state, deploymentControllerContext.getState());
+      }
+   }
+
+   /**
+    * Whether a deployment can be moved through a stage concurrently with the others.
+    *
+    * @param context the deployment context
+    * @return true when the deployment has no explicit dependencies
+    */
+   protected boolean isIndependent(DeploymentContext context)
+   {
+      DependencyInfo info = context.getDependencyInfo();
+      if (info == null)
+         return true;
+      Set<DependencyItem> iDependOn = info.getIDependOn(null);
+      return iDependOn == null || iDependOn.isEmpty();
    }
 
    /**
@@ -1091,28 +1704,82 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
    public void install(ControllerContext context, ControllerState fromState, ControllerState toState) throws Throwable
    {
       DeploymentControllerContext deploymentControllerContext = (DeploymentControllerContext)context;
+      if (toState.equals(deploymentControllerContext.getPreinstalled()))
+      {
+         // The deployers already ran, see changeStateInParallel
+         Throwable failure = deploymentControllerContext.getPreinstallFailure();
+         deploymentControllerContext.clearPreinstalled();
+         if (failure != null)
+            throw failure;
+         return;
+      }
+      installStage(deploymentControllerContext, toState);
+   }
+
+   /**
+    * Run the deployers of a stage
+    *
+    * @param deploymentControllerContext the controller context
+    * @param toState the state of the stage
+    * @throws Throwable for any error
+    */
+   protected void installStage(DeploymentControllerContext deploymentControllerContext, ControllerState toState) throws Throwable
+   {
+      Lock lock = deploymentControllerContext.getDeployersLock();
+      lock.lock();
+      try
+      {
+         runStage(deploymentControllerContext, toState);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Run the deployers of a stage, the caller holds the deployers lock
+    *
+    * @param deploymentControllerContext the controller context
+    * @param toState the state of the stage
+    * @throws Throwable for any error
+    */
+   private void runStage(DeploymentControllerContext deploymentControllerContext, ControllerState toState) throws Throwable
+   {
       String stageName = toState.getStateString();
 
       DeploymentContext deploymentContext = deploymentControllerContext.getDeploymentContext();
+      long time = 0;
+      boolean collectStats = this.collectStats;
+      if (collectStats)
+         time = System.nanoTime();
       try
       {
-         List<Deployer> theDeployers = getDeployersList(stageName);
+         RelevancePlan plan = getRelevancePlan(stageName);
+         List<Deployer> theDeployers = plan.getDeployers();
 
          if (log.isTraceEnabled())
             log.trace("Deployers for " + stageName + " " + theDeployers);
 
          if (theDeployers.isEmpty() == false)
          {
+            StageAttachmentIndex index = new StageAttachmentIndex(deploymentContext, plan);
+
             int i = 0;
             try
             {
                while (i < theDeployers.size())
                {
                   Deployer deployer = theDeployers.get(i);
-                  if (deployer.isParentFirst())
-                     doInstallParentFirst(deployer, deploymentContext);
+                  if (attachmentDriven && index.hasCandidates(plan.getRelevance(i)) == false)
+                  {
+                     if (log.isTraceEnabled())
+                        log.trace("Deployer " + deployer + " has no input in " + deploymentContext.getName());
+                  }
+                  else if (deployer.isParentFirst())
+                     doInstallParentFirst(deployer, deploymentContext, index);
                   else
-                     doInstallParentLast(deployer, deploymentContext);
+                     doInstallParentLast(deployer, deploymentContext, index);
                   ++i;
                }
             }
@@ -1137,17 +1804,70 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
                throw t;
             }
          }
+         if (AttachmentRetention.isPending(deploymentContext.getDeploymentUnit()))
+            releaseAttachments(deploymentContext, toState);
       }
       finally
       {
+         if (collectStats)
+            deploymentTimes.addStageStatistic(stageName, deploymentContext.getName(), System.nanoTime() - time);
          if (ControllerState.INSTALLED.equals(toState) && DeploymentState.DEPLOYING.equals(deploymentContext.getState()))
          {
-            log.debug("Fully Deployed " + context.getName());
+            log.debug("Fully Deployed " + deploymentControllerContext.getName());
             setState(deploymentContext, DeploymentState.DEPLOYED, null);
          }
       }
    }
 
+   /**
+    * Release the attachments declared for the stages reached
+    *
+    * @param context the top level context
+    * @param toState the state of the stage reached
+    * @see AttachmentRetention
+    */
+   protected void releaseAttachments(DeploymentContext context, ControllerState toState)
+   {
+      // A release declared for a stage that already passed happens now
+      Set<String> reached = new HashSet<String>();
+      ListIterator<ControllerState> iter = controller.getStates().listIteraror();
+      while (iter.hasNext())
+      {
+         ControllerState state = iter.next();
+         reached.add(state.getStateString());
+         if (state.equals(toState))
+            break;
+      }
+      if (releaseReached(context, reached) == false)
+         AttachmentRetention.clearPending(context.getDeploymentUnit());
+   }
+
+   /**
+    * Release the attachments declared for the stages reached
+    *
+    * @param context the context
+    * @param reached the names of the stages reached
+    * @return whether releases for later stages are still pending
+    */
+   private boolean releaseReached(DeploymentContext context, Set<String> reached)
+   {
+      boolean pending = false;
+      DeploymentUnit unit = context.getDeploymentUnit();
+      AttachmentRetention retention = AttachmentRetention.getAttachmentRetention(unit);
+      if (retention != null)
+      {
+         int released = retention.release(unit, reached);
+         if (released > 0 && log.isTraceEnabled())
+            log.trace("Released " + released + " attachments of " + context.getName() + " at " + reached);
+         pending = retention.hasPendingReleases();
+      }
+      for (DeploymentContext component : context.getComponents())
+         pending |= releaseReached(component, reached);
+      for (DeploymentContext child : context.getChildren())
+         pending |= releaseReached(child, reached);
+      return pending;
+   }
+
    /**
     * Do the install parent first
     *
@@ -1157,7 +1877,23 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     */
    protected void doInstallParentFirst(Deployer deployer, DeploymentContext context) throws Throwable
    {
-      List<DeploymentContext> currentComponents = context.getComponents();
+      doInstallParentFirst(deployer, context, null);
+   }
+
+   /**
+    * Do the install parent first
+    *
+    * @param deployer the deployer
+    * @param context  the context
+    * @param index    the attachment index or null to offer every context
+    * @throws Throwable for any problem
+    */
+   protected void doInstallParentFirst(Deployer deployer, DeploymentContext context, StageAttachmentIndex index) throws Throwable
+   {
+      DeployerRelevance relevance = getRelevance(deployer);
+      List<DeploymentContext> currentComponents = null;
+      if (relevance == null || relevance.isVisitComponents())
+         currentComponents = context.getComponents();
       // Take a copy of the components so we don't start looping on newly added components
       // in the component deployers
       List<DeploymentContext> components = null;
@@ -1165,11 +1901,13 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
          components = new ArrayList<DeploymentContext>(currentComponents);
 
       DeploymentUnit unit = context.getDeploymentUnit();
-      if (isRelevant(deployer, unit, context.isTopLevel(), context.isComponent()))
+      if (isDispatched(relevance, context, index) && isRelevant(deployer, unit, context.isTopLevel(), context.isComponent()))
       {
          try
          {
             doDeploy(deployer, unit);
+            if (index != null)
+               index.deployed(context);
          }
          catch (DeploymentException e)
          {
@@ -1190,7 +1928,7 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
                DeploymentContext component = components.get(i);
                try
                {
-                  doInstallParentFirst(deployer, component);
+                  doInstallParentFirst(deployer, component, index);
                }
                catch (DeploymentException e)
                {
@@ -1212,7 +1950,9 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
          }
       }
 
-      List<DeploymentContext> children = context.getChildren();
+      List<DeploymentContext> children = null;
+      if (relevance == null || relevance.isVisitChildren())
+         children = context.getChildren();
       if (children != null)
       {
          try
@@ -1222,7 +1962,7 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
                DeploymentContext child = children.get(i);
                try
                {
-                  doInstallParentFirst(deployer, child);
+                  doInstallParentFirst(deployer, child, index);
                }
                catch (DeploymentException e)
                {
@@ -1254,13 +1994,29 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     */
    protected void doInstallParentLast(Deployer deployer, DeploymentContext context) throws Throwable
    {
-      List<DeploymentContext> children = context.getChildren();
+      doInstallParentLast(deployer, context, null);
+   }
+
+   /**
+    * Do the install parent last
+    *
+    * @param deployer the deployer
+    * @param context  the context
+    * @param index    the attachment index or null to offer every context
+    * @throws Throwable for any problem
+    */
+   protected void doInstallParentLast(Deployer deployer, DeploymentContext context, StageAttachmentIndex index) throws Throwable
+   {
+      DeployerRelevance relevance = getRelevance(deployer);
+      List<DeploymentContext> children = Collections.emptyList();
+      if (relevance == null || relevance.isVisitChildren())
+         children = context.getChildren();
       for (int i = 0; i < children.size(); ++i)
       {
          DeploymentContext child = children.get(i);
          try
          {
-            doInstallParentLast(deployer, child);
+            doInstallParentLast(deployer, child, index);
          }
          catch (DeploymentException e)
          {
@@ -1274,7 +2030,9 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
          }
       }
 
-      List<DeploymentContext> components = context.getComponents();
+      List<DeploymentContext> components = null;
+      if (relevance == null || relevance.isVisitComponents())
+         components = context.getComponents();
       if (components != null)
       {
          try
@@ -1284,7 +2042,7 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
                DeploymentContext component = components.get(i);
                try
                {
-                  doInstallParentLast(deployer, component);
+                  doInstallParentLast(deployer, component, index);
                }
                catch (DeploymentException e)
                {
@@ -1307,11 +2065,13 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
       }
 
       DeploymentUnit unit = context.getDeploymentUnit();
-      if (isRelevant(deployer, unit, context.isTopLevel(), context.isComponent()))
+      if (isDispatched(relevance, context, index) && isRelevant(deployer, unit, context.isTopLevel(), context.isComponent()))
       {
          try
          {
             doDeploy(deployer, unit);
+            if (index != null)
+               index.deployed(context);
          }
          catch (DeploymentException e)
          {
@@ -1329,23 +2089,55 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
    public void uninstall(ControllerContext context, ControllerState fromState, ControllerState toState)
    {
       DeploymentControllerContext deploymentControllerContext = (DeploymentControllerContext)context;
+      Lock lock = deploymentControllerContext.getDeployersLock();
+      lock.lock();
+      try
+      {
+         uninstallStage(deploymentControllerContext, fromState);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Undeploy the deployers of a stage, the caller holds the deployers lock
+    *
+    * @param deploymentControllerContext the controller context
+    * @param fromState the state of the stage
+    */
+   private void uninstallStage(DeploymentControllerContext deploymentControllerContext, ControllerState fromState)
+   {
       String stageName = fromState.getStateString();
 
       DeploymentContext deploymentContext = deploymentControllerContext.getDeploymentContext();
-      List<Deployer> theDeployers = getDeployersList(stageName);
+      List<Deployer> theDeployers = getRelevancePlan(stageName).getDeployers();
 
       if (log.isTraceEnabled())
          log.trace("Deployers for " + stageName + " " + theDeployers);
 
       if (theDeployers.isEmpty() == false)
       {
-         for (int i = theDeployers.size() - 1; i >= 0; --i)
+         long time = 0;
+         boolean collectStats = this.collectStats;
+         if (collectStats)
+            time = System.nanoTime();
+         try
          {
-            Deployer deployer = theDeployers.get(i);
-            if (deployer.isParentFirst())
-               doUninstallParentLast(deployer, deploymentContext, true, true);
-            else
-               doUninstallParentFirst(deployer, deploymentContext, true, true);
+            for (int i = theDeployers.size() - 1; i >= 0; --i)
+            {
+               Deployer deployer = theDeployers.get(i);
+               if (deployer.isParentFirst())
+                  doUninstallParentLast(deployer, deploymentContext, true, true);
+               else
+                  doUninstallParentFirst(deployer, deploymentContext, true, true);
+            }
+         }
+         finally
+         {
+            if (collectStats)
+               deploymentTimes.addStageUndeployStatistic(stageName, System.nanoTime() - time);
          }
       }
    }
@@ -1360,6 +2152,13 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     */
    protected void doUninstallParentLast(Deployer deployer, DeploymentContext context, boolean doChildren, boolean doComponents)
    {
+      DeployerRelevance relevance = getRelevance(deployer);
+      if (relevance != null)
+      {
+         doChildren &= relevance.isVisitChildren();
+         doComponents &= relevance.isVisitComponents();
+      }
+
       if (doChildren)
       {
          List<DeploymentContext> children = context.getChildren();
@@ -1403,6 +2202,14 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     */
    protected void doUninstallParentFirst(Deployer deployer, DeploymentContext context, boolean doContext, boolean doComponents)
    {
+      DeployerRelevance relevance = getRelevance(deployer);
+      boolean doChildren = true;
+      if (relevance != null)
+      {
+         doChildren = relevance.isVisitChildren();
+         doComponents &= relevance.isVisitComponents();
+      }
+
       if (doContext)
       {
          DeploymentUnit unit = context.getDeploymentUnit();
@@ -1425,6 +2232,9 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
          }
       }
 
+      if (doChildren == false)
+         return;
+
       List<DeploymentContext> children = context.getChildren();
       if (children != null && children.isEmpty() == false)
       {
@@ -1448,7 +2258,7 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
       long time = 0;
       boolean collectStats = this.collectStats;
       if (collectStats)
-         time = System.currentTimeMillis();
+         time = System.nanoTime();
       try
       {
          deployer.deploy(unit);
@@ -1456,23 +2266,23 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
       finally
       {
          if (collectStats)
-         {
-            time = System.currentTimeMillis() - time;
-            if (time > 0)
-            {
-               synchronized (this)
-               {
-                  if (deploymentTimes == null)
-                     deploymentTimes = new DeployerStatistics();
-                  String deployerName = deployer.toString();
-                  String deploymentName = unit.getName();
-                  deploymentTimes.addStatistic(deployerName, deploymentName, time);
-               }
-            }
-         }
+            deploymentTimes.addStatistic(getStatisticName(deployer), unit.getName(), System.nanoTime() - time);
       }
    }
 
+   /**
+    * Get the name the statistics of a deployer are kept under
+    *
+    * @param deployer the deployer
+    * @return the name
+    */
+   private static String getStatisticName(Deployer deployer)
+   {
+      if (deployer instanceof DeployerWrapper)
+         return ((DeployerWrapper) deployer).getStatisticName();
+      return deployer.toString();
+   }
+
    /**
     * Do an undeployment
     *
@@ -1481,16 +2291,29 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     */
    protected void doUndeploy(Deployer deployer, DeploymentUnit unit)
    {
-      deployer.undeploy(unit);
+      long time = 0;
+      boolean collectStats = this.collectStats;
+      if (collectStats)
+         time = System.nanoTime();
+      try
+      {
+         deployer.undeploy(unit);
+      }
+      finally
+      {
+         if (collectStats)
+            deploymentTimes.addUndeployStatistic(getStatisticName(deployer), System.nanoTime() - time);
+      }
    }
 
    /**
-    * Build a list of  deployers for this stage
+    * Build a list of  deployers for this stage,
+    * the list is a snapshot so no lock is taken
     *
     * @param stageName the stage name
     * @return the deployers
     */
-   protected synchronized List<Deployer> getDeployersList(String stageName)
+   protected List<Deployer> getDeployersList(String stageName)
    {
       List<Deployer> deployers = deployersByStage.getDeployerList(stageName);
       if (deployers == null || deployers.isEmpty())
@@ -1499,6 +2322,80 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
       return deployers;
    }
 
+   /**
+    * Rebuild the relevance plans.<p>
+    *
+    * The flags and inputs of the deployers are captured when the plan of their
+    * stage is built, call this after changing them on a registered deployer.
+    */
+   public synchronized void resetRelevancePlans()
+   {
+      relevancePlans.clear();
+   }
+
+   /**
+    * Get the relevance plan for a stage
+    *
+    * @param stageName the stage name
+    * @return the plan
+    */
+   protected RelevancePlan getRelevancePlan(String stageName)
+   {
+      RelevancePlan plan = relevancePlans.get(stageName);
+      if (plan != null)
+         return plan;
+
+      synchronized (this)
+      {
+         plan = relevancePlans.get(stageName);
+         if (plan == null)
+         {
+            List<Deployer> deployers = getDeployersList(stageName);
+            if (deployers.isEmpty())
+               plan = RelevancePlan.EMPTY;
+            else
+               plan = new RelevancePlan(new ArrayList<Deployer>(deployers));
+            for (int i = 0; i < plan.size(); ++i)
+            {
+               DeployerRelevance relevance = plan.getRelevance(i);
+               Deployer deployer = relevance.getDeployer();
+               if (deployer instanceof DeployerWrapper)
+                  ((DeployerWrapper) deployer).setRelevance(relevance);
+            }
+            relevancePlans.put(stageName, plan);
+         }
+         return plan;
+      }
+   }
+
+   /**
+    * Get the precomputed relevance of a deployer
+    *
+    * @param deployer the deployer
+    * @return the relevance or null if there is none
+    */
+   private static DeployerRelevance getRelevance(Deployer deployer)
+   {
+      if (deployer instanceof DeployerWrapper)
+         return ((DeployerWrapper) deployer).getRelevance();
+      return null;
+   }
+
+   /**
+    * Whether a deployer is dispatched to a context
+    *
+    * @param relevance the deployer relevance or null
+    * @param context the context
+    * @param index the attachment index or null
+    * @return false when the index shows the deployer cannot be relevant
+    */
+   private static boolean isDispatched(DeployerRelevance relevance, DeploymentContext context, StageAttachmentIndex index)
+   {
+      if (index == null || relevance == null)
+         return true;
+      return index.isCandidate(relevance, context);
+   }
+
    /**
     * Test whether a deployer is relevant
     *
@@ -1510,6 +2407,10 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
     */
    protected boolean isRelevant(Deployer deployer, DeploymentUnit unit, boolean isTopLevel, boolean isComponent)
    {
+      DeployerRelevance relevance = getRelevance(deployer);
+      if (relevance != null)
+         return relevance.isRelevant(unit, isTopLevel, isComponent);
+
       // Deployer only wants top level
       if (deployer.isTopLevelOnly() && isTopLevel == false)
          return false;
@@ -1673,4 +2574,20 @@ public class DeployersImpl implements Deployers, ControllerContextActions,
    public void postDeregister()
    {
    }
+
+   /**
+    * The thread factory for the parallel deployment threads.
+    */
+   private static class DeploymentThreadFactory implements ThreadFactory
+   {
+      /** The thread number */
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable)
+      {
+         Thread thread = new Thread(runnable, "DeployersImpl-" + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
 }
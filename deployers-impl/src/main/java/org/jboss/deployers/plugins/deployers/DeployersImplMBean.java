@@ -21,6 +21,8 @@
 */
 package org.jboss.deployers.plugins.deployers;
 
+import javax.management.openmbean.TabularData;
+
 /**
  * DeployersImplMBean.
  * 
@@ -37,6 +39,62 @@ public interface DeployersImplMBean
     */
    String listDeployerTimes(boolean details);
 
+   /**
+    * Get the deploy and undeploy times of each deployer.<p>
+    * 
+    * Each row has the name, the count, total, median, 99th percentile
+    * and maximum for deploy and undeploy, times are in nanoseconds.
+    * Times are only recorded when collectStats is enabled.
+    * 
+    * @return the statistics indexed by deployer name
+    */
+   TabularData getDeployerStatistics();
+
+   /**
+    * Get the deploy and undeploy times of each stage.<p>
+    * 
+    * The time of a stage is the time it took to run all its deployers
+    * over a deployment, the rows are the same as {@link #getDeployerStatistics()}.
+    * 
+    * @return the statistics indexed by stage name
+    */
+   TabularData getStageStatistics();
+
+   /**
+    * Forget the deployer and stage statistics
+    */
+   void resetStatistics();
+
+   /**
+    * Get the number of deployments kept per deployer or stage
+    * 
+    * @return the number of slowest deployments listed in the details
+    */
+   int getStatisticsDetails();
+
+   /**
+    * Set the number of deployments kept per deployer or stage,
+    * the time of the others is listed as a single (others) entry
+    * 
+    * @param details the number of slowest deployments listed in the details
+    */
+   void setStatisticsDetails(int details);
+
+   /**
+    * Get the statistics decay window
+    * 
+    * @return the window in milliseconds, zero when there is no decay
+    */
+   long getStatisticsDecayWindow();
+
+   /**
+    * Set the statistics decay window, the detail times are halved
+    * each window so recent deployments replace old ones
+    * 
+    * @param window the window in milliseconds, zero for no decay
+    */
+   void setStatisticsDecayWindow(long window);
+
    /**
     * List the deployers for each stage in order
     * 
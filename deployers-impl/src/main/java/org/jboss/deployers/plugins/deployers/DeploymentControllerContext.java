@@ -21,8 +21,12 @@
  */
 package org.jboss.deployers.plugins.deployers;
 
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.jboss.dependency.plugins.AbstractControllerContext;
 import org.jboss.dependency.spi.ControllerMode;
+import org.jboss.dependency.spi.ControllerState;
 import org.jboss.deployers.structure.spi.DeploymentContext;
 
 /**
@@ -35,6 +39,15 @@ public class DeploymentControllerContext extends AbstractControllerContext
 {
    /** The deployment context */
    private DeploymentContext deploymentContext;
+
+   /** The state whose deployers already ran outside the controller */
+   private volatile ControllerState preinstalled;
+
+   /** The failure of those deployers */
+   private volatile Throwable preinstallFailure;
+
+   /** The lock the deployers of the deployment run under */
+   private final ReentrantLock deployersLock = new ReentrantLock();
    
    /**
     * Create a new DeploymentControllerContext.
@@ -58,4 +71,55 @@ public class DeploymentControllerContext extends AbstractControllerContext
    {
       return deploymentContext;
    }
+
+   /**
+    * Get the lock the deployers of the deployment run under.
+    *
+    * @return the lock
+    */
+   Lock getDeployersLock()
+   {
+      return deployersLock;
+   }
+
+   /**
+    * Record that the deployers of a state already ran.
+    *
+    * @param state the state
+    * @param failure the failure or null if they succeeded
+    */
+   void setPreinstalled(ControllerState state, Throwable failure)
+   {
+      preinstallFailure = failure;
+      preinstalled = state;
+   }
+
+   /**
+    * Get the state whose deployers already ran.
+    *
+    * @return the state or null
+    */
+   ControllerState getPreinstalled()
+   {
+      return preinstalled;
+   }
+
+   /**
+    * Get the failure of the deployers that already ran.
+    *
+    * @return the failure or null
+    */
+   Throwable getPreinstallFailure()
+   {
+      return preinstallFailure;
+   }
+
+   /**
+    * Forget the deployers that already ran.
+    */
+   void clearPreinstalled()
+   {
+      preinstalled = null;
+      preinstallFailure = null;
+   }
 }
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.deployers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram.<p>
+ *
+ * A lock free histogram of nanosecond timings. Values are counted in
+ * logarithmic buckets with four sub-buckets per power of two, so a percentile
+ * is reported within 25% of the real value. The total is kept in striped
+ * cells to avoid a single contended counter when deployments run in parallel.
+ */
+class LatencyHistogram
+{
+   /** The number of sub-bucket bits */
+   private static final int SUB_BITS = 2;
+
+   /** The number of sub-buckets per power of two */
+   private static final int SUB = 1 << SUB_BITS;
+
+   /** The number of buckets */
+   private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+   /** The number of stripes for the total */
+   private static final int STRIPES = 16;
+
+   /** The spacing between stripes to keep them on different cache lines */
+   private static final int PADDING = 8;
+
+   /** The buckets */
+   private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+   /** The striped totals */
+   private final AtomicLongArray totals = new AtomicLongArray(STRIPES * PADDING);
+
+   /** The maximum */
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Record a value
+    *
+    * @param nanos the value in nanoseconds
+    */
+   public void record(long nanos)
+   {
+      if (nanos < 0)
+         nanos = 0;
+
+      buckets.incrementAndGet(getBucket(nanos));
+      int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+      totals.addAndGet(stripe * PADDING, nanos);
+
+      long current = max.get();
+      while (nanos > current && max.compareAndSet(current, nanos) == false)
+         current = max.get();
+   }
+
+   /**
+    * Get the number of recorded values
+    *
+    * @return the count
+    */
+   public long getCount()
+   {
+      long result = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         result += buckets.get(i);
+      return result;
+   }
+
+   /**
+    * Get the sum of the recorded values
+    *
+    * @return the total in nanoseconds
+    */
+   public long getTotal()
+   {
+      long result = 0;
+      for (int i = 0; i < STRIPES; ++i)
+         result += totals.get(i * PADDING);
+      return result;
+   }
+
+   /**
+    * Get the largest recorded value
+    *
+    * @return the maximum in nanoseconds
+    */
+   public long getMax()
+   {
+      return max.get();
+   }
+
+   /**
+    * Get a percentile
+    *
+    * @param percentile the percentile between 0 and 100
+    * @return the upper bound of the bucket holding the percentile in nanoseconds, 0 when empty
+    */
+   public long getPercentile(double percentile)
+   {
+      long[] counts = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+      {
+         counts[i] = buckets.get(i);
+         count += counts[i];
+      }
+      if (count == 0)
+         return 0;
+
+      long rank = (long) Math.ceil(count * percentile / 100);
+      if (rank < 1)
+         rank = 1;
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+      {
+         seen += counts[i];
+         if (seen >= rank)
+            return Math.min(getUpperBound(i), getMax());
+      }
+      return getMax();
+   }
+
+   /**
+    * Forget all recorded values
+    */
+   public void reset()
+   {
+      for (int i = 0; i < BUCKETS; ++i)
+         buckets.set(i, 0);
+      for (int i = 0; i < STRIPES; ++i)
+         totals.set(i * PADDING, 0);
+      max.set(0);
+   }
+
+   /**
+    * Get the bucket for a value
+    *
+    * @param value the value
+    * @return the bucket index
+    */
+   static int getBucket(long value)
+   {
+      if (value < SUB)
+         return (int) value;
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+      return (exponent - SUB_BITS + 1) * SUB + sub;
+   }
+
+   /**
+    * Get the largest value that goes into a bucket
+    *
+    * @param bucket the bucket index
+    * @return the upper bound
+    */
+   static long getUpperBound(int bucket)
+   {
+      if (bucket < SUB)
+         return bucket;
+      int exponent = bucket / SUB + SUB_BITS - 1;
+      int sub = bucket % SUB;
+      long width = 1L << (exponent - SUB_BITS);
+      return ((SUB + sub) * width) + width - 1;
+   }
+}
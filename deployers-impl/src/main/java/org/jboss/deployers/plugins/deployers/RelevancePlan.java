@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.deployers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.deployers.spi.deployer.Deployer;
+
+/**
+ * RelevancePlan.<p>
+ *
+ * The relevance criteria of all the deployers of a stage, in stage order
+ * and grouped by the attachment that triggers them, so a context is only
+ * offered the deployers whose input it holds and those without an input.
+ * A plan is immutable, it is rebuilt when the deployers of the stage change
+ * or when {@link DeployersImpl#resetRelevancePlans()} is called.
+ */
+public class RelevancePlan
+{
+   /** The empty plan */
+   public static final RelevancePlan EMPTY = new RelevancePlan(Collections.<Deployer>emptyList());
+
+   /** The deployers in stage order */
+   private final List<Deployer> deployers;
+
+   /** The relevance in stage order */
+   private final DeployerRelevance[] relevances;
+
+   /** The deployers without trigger attachments */
+   private final List<DeployerRelevance> untriggered;
+
+   /** The deployers by their first trigger attachment */
+   private final Map<String, List<DeployerRelevance>> byTrigger;
+
+   /**
+    * Create a new RelevancePlan.
+    *
+    * @param deployers the sorted deployers of the stage
+    */
+   public RelevancePlan(List<Deployer> deployers)
+   {
+      if (deployers == null)
+         throw new IllegalArgumentException("Null deployers");
+
+      this.deployers = deployers;
+      this.relevances = new DeployerRelevance[deployers.size()];
+      List<DeployerRelevance> untriggered = new ArrayList<DeployerRelevance>();
+      Map<String, List<DeployerRelevance>> byTrigger = new HashMap<String, List<DeployerRelevance>>();
+      for (int i = 0; i < relevances.length; ++i)
+      {
+         DeployerRelevance relevance = new DeployerRelevance(deployers.get(i), i);
+         relevances[i] = relevance;
+         String[] triggers = relevance.getTriggers();
+         if (triggers.length == 0)
+         {
+            untriggered.add(relevance);
+         }
+         else
+         {
+            // the other triggers are checked by the relevance itself
+            List<DeployerRelevance> list = byTrigger.get(triggers[0]);
+            if (list == null)
+            {
+               list = new ArrayList<DeployerRelevance>();
+               byTrigger.put(triggers[0], list);
+            }
+            list.add(relevance);
+         }
+      }
+      this.untriggered = Collections.unmodifiableList(untriggered);
+      this.byTrigger = byTrigger;
+   }
+
+   /**
+    * Get the deployers in stage order.
+    *
+    * @return the deployers
+    */
+   public List<Deployer> getDeployers()
+   {
+      return deployers;
+   }
+
+   /**
+    * Get the number of deployers.
+    *
+    * @return the size
+    */
+   public int size()
+   {
+      return relevances.length;
+   }
+
+   /**
+    * Get the relevance of the deployer at the given stage position.
+    *
+    * @param index the index
+    * @return the relevance
+    */
+   public DeployerRelevance getRelevance(int index)
+   {
+      return relevances[index];
+   }
+
+   /**
+    * Whether the relevance belongs to this plan.
+    *
+    * @param relevance the relevance
+    * @return true when it is the relevance at its position in this plan
+    */
+   public boolean contains(DeployerRelevance relevance)
+   {
+      int index = relevance.getIndex();
+      return index >= 0 && index < relevances.length && relevances[index] == relevance;
+   }
+
+   /**
+    * Get the deployers that have no trigger attachments.
+    *
+    * @return the deployers in stage order
+    */
+   public List<DeployerRelevance> getUntriggered()
+   {
+      return untriggered;
+   }
+
+   /**
+    * Get the deployers whose first trigger is an attachment.
+    *
+    * @param name the attachment name
+    * @return the deployers in stage order, never null
+    */
+   public List<DeployerRelevance> getTriggered(String name)
+   {
+      List<DeployerRelevance> result = byTrigger.get(name);
+      if (result == null)
+         return Collections.emptyList();
+      return Collections.unmodifiableList(result);
+   }
+
+   /**
+    * Get the deployers a context holding the given attachments is offered,
+    * those without trigger attachments and those triggered by one of the keys.
+    *
+    * @param keys the attachment names present in the context
+    * @return the stage positions of the deployers
+    */
+   public BitSet getCandidates(Set<String> keys)
+   {
+      BitSet result = new BitSet(relevances.length);
+      for (DeployerRelevance relevance : untriggered)
+         result.set(relevance.getIndex());
+      for (String key : keys)
+      {
+         List<DeployerRelevance> list = byTrigger.get(key);
+         if (list != null)
+         {
+            for (DeployerRelevance relevance : list)
+               result.set(relevance.getIndex());
+         }
+      }
+      return result;
+   }
+}
@@ -0,0 +1,423 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.deployers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.TrackingMutableAttachments;
+
+/**
+ * StageAttachmentIndex.<p>
+ *
+ * The attachment keys present in each context of a deployment hierarchy
+ * while a stage is being installed. A deployer is only dispatched to a context
+ * when its input is present, deployers whose input is not present anywhere
+ * in the hierarchy need not be dispatched at all. With the relevance plan of
+ * the stage, a context is offered the deployers grouped under the keys it holds.<p>
+ *
+ * The hierarchy is read once, after that a context is only read again when the
+ * version of one of its attachment layers moved. Before answering whether a key
+ * is present anywhere every context of the hierarchy is checked, since a deployer
+ * can write to any unit. Between deployers only the contexts reported through
+ * {@link #deployed(DeploymentContext)} and the context offered are checked:
+ * the context itself, its components, for a component its parent and siblings,
+ * and the top context.
+ * An index is used by a single thread for the install of a single stage.
+ */
+public class StageAttachmentIndex
+{
+   /** No contexts */
+   private static final DeploymentContext[] NO_CONTEXTS = new DeploymentContext[0];
+
+   /** The top context */
+   private final DeploymentContext top;
+
+   /** The relevance plan of the stage or null */
+   private final RelevancePlan plan;
+
+   /** The contexts */
+   private final Map<DeploymentContext, Node> nodes = new IdentityHashMap<DeploymentContext, Node>();
+
+   /** The number of contexts each key is present in */
+   private final Map<String, int[]> counts = new HashMap<String, int[]>();
+
+   /** The contexts deployed since the last update */
+   private final List<DeploymentContext> deployed = new ArrayList<DeploymentContext>();
+
+   /** Whether the hierarchy has been read */
+   private boolean initialized = false;
+
+   /**
+    * Create a new StageAttachmentIndex.
+    *
+    * @param top the context being installed
+    */
+   public StageAttachmentIndex(DeploymentContext top)
+   {
+      this(top, null);
+   }
+
+   /**
+    * Create a new StageAttachmentIndex.
+    *
+    * @param top the context being installed
+    * @param plan the relevance plan of the stage or null
+    */
+   public StageAttachmentIndex(DeploymentContext top, RelevancePlan plan)
+   {
+      if (top == null)
+         throw new IllegalArgumentException("Null context");
+      this.top = top;
+      this.plan = plan;
+   }
+
+   /**
+    * A deployer deployed a context, its attachments and components might have changed.
+    *
+    * @param context the context
+    */
+   public void deployed(DeploymentContext context)
+   {
+      if (context == null)
+         throw new IllegalArgumentException("Null context");
+      deployed.add(context);
+   }
+
+   /**
+    * Whether the deployer can be relevant for any context in the hierarchy.
+    *
+    * @param relevance the deployer relevance
+    * @return false when the deployer's input is not present anywhere
+    */
+   public boolean hasCandidates(DeployerRelevance relevance)
+   {
+      String[] triggers = relevance.getTriggers();
+      if (triggers.length == 0)
+         return true;
+
+      refreshAll();
+      return counts.containsKey(triggers[0]);
+   }
+
+   /**
+    * Whether the deployer needs to be offered a context.<p>
+    *
+    * This is the point where the classic relevance check stops probing
+    * attachments, a context that passes still goes through the full check.
+    *
+    * @param relevance the deployer relevance
+    * @param context the context
+    * @return false when the deployer cannot be relevant
+    */
+   public boolean isCandidate(DeployerRelevance relevance, DeploymentContext context)
+   {
+      if (relevance.isStructurallyRelevant(context.isTopLevel(), context.isComponent()) == false)
+         return false;
+
+      String[] triggers = relevance.getTriggers();
+      if (triggers.length == 0)
+         return true;
+
+      update();
+      Node node = getNode(context);
+      if (plan != null && plan.contains(relevance))
+         return node.getCandidates(plan).get(relevance.getIndex());
+      return node.keys.contains(triggers[0]);
+   }
+
+   /**
+    * Check every context of the hierarchy
+    */
+   private void refreshAll()
+   {
+      refreshHierarchy(top);
+      initialized = true;
+      deployed.clear();
+   }
+
+   /**
+    * Read the hierarchy the first time, afterwards only what was deployed
+    */
+   private void update()
+   {
+      if (initialized == false)
+      {
+         refreshHierarchy(top);
+         initialized = true;
+         deployed.clear();
+         return;
+      }
+      if (deployed.isEmpty())
+         return;
+
+      for (int i = 0; i < deployed.size(); ++i)
+      {
+         DeploymentContext context = deployed.get(i);
+         DeploymentContext parent = context.getParent();
+         if (context.isComponent() && parent != null)
+            refreshComponents(parent);
+         else
+            refreshComponents(context);
+      }
+      deployed.clear();
+      getNode(top);
+   }
+
+   /**
+    * Refresh a context and its children and components
+    *
+    * @param context the context
+    */
+   private void refreshHierarchy(DeploymentContext context)
+   {
+      refreshComponents(context);
+
+      List<DeploymentContext> children = context.getChildren();
+      if (children != null)
+      {
+         for (int i = 0; i < children.size(); ++i)
+            refreshHierarchy(children.get(i));
+      }
+   }
+
+   /**
+    * Refresh a context and its components, forgetting removed components
+    *
+    * @param context the context
+    */
+   private void refreshComponents(DeploymentContext context)
+   {
+      Node node = getNode(context);
+
+      List<DeploymentContext> components = context.getComponents();
+      if (isSame(node.components, components) == false)
+      {
+         DeploymentContext[] current = NO_CONTEXTS;
+         if (components != null && components.isEmpty() == false)
+            current = components.toArray(new DeploymentContext[components.size()]);
+
+         for (DeploymentContext old : node.components)
+         {
+            if (contains(current, old) == false)
+               forget(old);
+         }
+         node.components = current;
+      }
+
+      for (DeploymentContext component : node.components)
+         refreshComponents(component);
+   }
+
+   /**
+    * Forget a removed component and its components
+    *
+    * @param context the context
+    */
+   private void forget(DeploymentContext context)
+   {
+      Node node = nodes.remove(context);
+      if (node == null)
+         return;
+      for (String key : node.keys)
+         decrement(key);
+      for (DeploymentContext component : node.components)
+         forget(component);
+   }
+
+   private static boolean isSame(DeploymentContext[] contexts, List<DeploymentContext> list)
+   {
+      int size = list != null ? list.size() : 0;
+      if (contexts.length != size)
+         return false;
+      for (int i = 0; i < size; ++i)
+      {
+         if (contexts[i] != list.get(i))
+            return false;
+      }
+      return true;
+   }
+
+   private static boolean contains(DeploymentContext[] contexts, DeploymentContext context)
+   {
+      for (DeploymentContext element : contexts)
+      {
+         if (element == context)
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Get the up to date node for a context
+    *
+    * @param context the context
+    * @return the node
+    */
+   private Node getNode(DeploymentContext context)
+   {
+      Node node = nodes.get(context);
+      if (node == null)
+      {
+         node = new Node(context);
+         nodes.put(context, node);
+      }
+      if (node.isStale())
+      {
+         for (String key : node.keys)
+            decrement(key);
+         node.update();
+         for (String key : node.keys)
+            increment(key);
+      }
+      return node;
+   }
+
+   private void increment(String key)
+   {
+      int[] count = counts.get(key);
+      if (count == null)
+         counts.put(key, new int[] { 1 });
+      else
+         ++count[0];
+   }
+
+   private void decrement(String key)
+   {
+      int[] count = counts.get(key);
+      if (count != null && --count[0] == 0)
+         counts.remove(key);
+   }
+
+   /**
+    * The keys present in a context, its own and those a component sees of its parent
+    */
+   private static class Node
+   {
+      /** The context */
+      private final DeploymentContext context;
+
+      /** The layers read at the last update */
+      private Attachments[] layers;
+
+      /** The versions at the last update */
+      private int[] versions;
+
+      /** The keys */
+      private Set<String> keys = new HashSet<String>();
+
+      /** The components at the last refresh */
+      private DeploymentContext[] components = NO_CONTEXTS;
+
+      /** The deployers offered the keys or null when not computed */
+      private BitSet candidates;
+
+      private Node(DeploymentContext context)
+      {
+         this.context = context;
+      }
+
+      private int getLayerCount()
+      {
+         if (context.isComponent() && context.getParent() != null)
+            return 6;
+         return 3;
+      }
+
+      private Attachments getLayer(int i)
+      {
+         DeploymentContext owner = i < 3 ? context : context.getParent();
+         switch (i % 3)
+         {
+            case 0:
+               return owner.getPredeterminedManagedObjects();
+            case 1:
+               return owner.getTransientManagedObjects();
+            default:
+               return owner.getTransientAttachments();
+         }
+      }
+
+      /**
+       * Get the version of a layer, the change count for a layer that does not track one
+       *
+       * @param attachments the layer
+       * @return the version
+       */
+      private static int getVersion(Attachments attachments)
+      {
+         if (attachments instanceof TrackingMutableAttachments)
+            return ((TrackingMutableAttachments) attachments).getVersion();
+         if (attachments instanceof MutableAttachments)
+            return ((MutableAttachments) attachments).getChangeCount();
+         return 0;
+      }
+
+      private boolean isStale()
+      {
+         if (layers == null || layers.length != getLayerCount())
+            return true;
+
+         for (int i = 0; i < layers.length; ++i)
+         {
+            Attachments layer = getLayer(i);
+            if (layer != layers[i] || getVersion(layer) != versions[i])
+               return true;
+         }
+         return false;
+      }
+
+      private void update()
+      {
+         layers = new Attachments[getLayerCount()];
+         versions = new int[layers.length];
+         Set<String> keys = new HashSet<String>();
+         for (int i = 0; i < layers.length; ++i)
+         {
+            Attachments layer = getLayer(i);
+            layers[i] = layer;
+            if (layer == null)
+               continue;
+            versions[i] = getVersion(layer);
+            keys.addAll(layer.getAttachments().keySet());
+         }
+         this.keys = keys;
+         this.candidates = null;
+      }
+
+      private BitSet getCandidates(RelevancePlan plan)
+      {
+         if (candidates == null)
+            candidates = plan.getCandidates(keys);
+         return candidates;
+      }
+   }
+}
@@ -21,6 +21,7 @@
  */
 package org.jboss.deployers.plugins.sort;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -49,17 +50,23 @@ public class DependenciesTopologicalDeployerSorter implements DeployerSorter
 
    public List<Deployer> sortDeployers(List<Deployer> registeredDeployers, Deployer newDeployer)
    {
-      return this.createOrientedGraph(registeredDeployers, newDeployer).sort();
+      return this.createOrientedGraph(registeredDeployers, Collections.singletonList(newDeployer)).sort();
    }
 
-   private Graph createOrientedGraph(final List<Deployer> deployers, final Deployer newDeployer)
+   public List<Deployer> sortDeployers(List<Deployer> registeredDeployers, Collection<Deployer> newDeployers)
+   {
+      return this.createOrientedGraph(registeredDeployers, newDeployers).sort();
+   }
+
+   private Graph createOrientedGraph(final List<Deployer> deployers, final Collection<Deployer> newDeployers)
    {
       final Graph graph = new Graph();
 
       for (final Deployer deployer : deployers)
          graph.addVertex(deployer);
 
-      graph.addVertex(newDeployer);
+      for (final Deployer deployer : newDeployers)
+         graph.addVertex(deployer);
       graph.createEdges();
 
       return graph;
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.sort;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jboss.deployers.plugins.deployers.DeployerWrapper;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.logging.Logger;
+
+/**
+ * The sorted deployer order of each stage saved in a local file.<p>
+ *
+ * Each deployer is described by its class, relative order, inputs, outputs and stage.
+ * A stage is only saved when the descriptions of its deployers are unique,
+ * it is saved with a fingerprint of its descriptions that is checked when loading.
+ */
+public class DeployerSortCache
+{
+   /** The log */
+   private static final Logger log = Logger.getLogger(DeployerSortCache.class);
+
+   /** The file format version */
+   private static final String VERSION = "1";
+
+   /** The file */
+   private File file;
+
+   /** The saved orders by stage */
+   private Map<String, List<String>> orders;
+
+   /**
+    * Create a new DeployerSortCache.
+    *
+    * @param file the file
+    */
+   public DeployerSortCache(File file)
+   {
+      if (file == null)
+         throw new IllegalArgumentException("Null file");
+      this.file = file;
+   }
+
+   /**
+    * Get the file.
+    *
+    * @return the file
+    */
+   public File getFile()
+   {
+      return file;
+   }
+
+   /**
+    * Get the saved order of a stage
+    *
+    * @param stageName the stage name
+    * @return the deployer descriptions in order or null if the stage was not saved
+    */
+   public synchronized List<String> getOrder(String stageName)
+   {
+      if (orders == null)
+         orders = load();
+      return orders.get(stageName);
+   }
+
+   /**
+    * Save the order of the stages
+    *
+    * @param deployersByStage the sorted deployers by stage
+    * @throws IOException for any error writing the file
+    */
+   public synchronized void store(Map<String, List<Deployer>> deployersByStage) throws IOException
+   {
+      Properties properties = new Properties();
+      properties.setProperty("version", VERSION);
+      Map<String, List<String>> stored = new HashMap<String, List<String>>();
+      for (Map.Entry<String, List<Deployer>> entry : deployersByStage.entrySet())
+      {
+         String stageName = entry.getKey();
+         List<String> descriptions = new ArrayList<String>();
+         for (Deployer deployer : entry.getValue())
+            descriptions.add(describe(stageName, deployer));
+         if (descriptions.isEmpty() || new HashSet<String>(descriptions).size() != descriptions.size())
+            continue;
+
+         properties.setProperty(stageName + ".fingerprint", fingerprint(stageName, descriptions));
+         properties.setProperty(stageName + ".count", Integer.toString(descriptions.size()));
+         for (int i = 0; i < descriptions.size(); ++i)
+            properties.setProperty(stageName + "." + i, descriptions.get(i));
+         stored.put(stageName, descriptions);
+      }
+
+      File parent = file.getParentFile();
+      if (parent != null && parent.exists() == false)
+         parent.mkdirs();
+      OutputStream os = new FileOutputStream(file);
+      try
+      {
+         properties.store(os, "Sorted deployers");
+      }
+      finally
+      {
+         os.close();
+      }
+      orders = stored;
+   }
+
+   /**
+    * Load the file, stages that do not match their fingerprint are ignored
+    *
+    * @return the orders by stage
+    */
+   protected Map<String, List<String>> load()
+   {
+      Map<String, List<String>> result = new HashMap<String, List<String>>();
+      if (file.exists() == false)
+         return result;
+
+      Properties properties = new Properties();
+      try
+      {
+         InputStream is = new FileInputStream(file);
+         try
+         {
+            properties.load(is);
+         }
+         finally
+         {
+            is.close();
+         }
+      }
+      catch (IOException e)
+      {
+         log.warn("Unable to read deployer sort cache " + file + ": " + e);
+         return result;
+      }
+
+      if (VERSION.equals(properties.getProperty("version")) == false)
+         return result;
+
+      for (Object name : properties.keySet())
+      {
+         String key = (String) name;
+         if (key.endsWith(".fingerprint") == false)
+            continue;
+
+         String stageName = key.substring(0, key.length() - ".fingerprint".length());
+         try
+         {
+            int count = Integer.parseInt(properties.getProperty(stageName + ".count"));
+            List<String> descriptions = new ArrayList<String>(count);
+            for (int i = 0; i < count; ++i)
+            {
+               String description = properties.getProperty(stageName + "." + i);
+               if (description == null)
+                  throw new IllegalArgumentException("Missing deployer " + i);
+               descriptions.add(description);
+            }
+            if (fingerprint(stageName, descriptions).equals(properties.getProperty(key)) == false)
+               throw new IllegalArgumentException("Fingerprint mismatch");
+            result.put(stageName, Collections.unmodifiableList(descriptions));
+         }
+         catch (RuntimeException e)
+         {
+            log.debug("Ignoring deployer sort cache for stage " + stageName + ": " + e);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Describe a deployer
+    *
+    * @param stageName the stage name
+    * @param deployer the deployer
+    * @return the description
+    */
+   public static String describe(String stageName, Deployer deployer)
+   {
+      Deployer target = deployer;
+      if (target instanceof DeployerWrapper)
+         target = ((DeployerWrapper) target).getDeployer();
+
+      StringBuilder builder = new StringBuilder();
+      builder.append(target.getClass().getName());
+      builder.append(';').append(deployer.getRelativeOrder());
+      builder.append(';').append(sorted(deployer.getInputs()));
+      builder.append(';').append(sorted(deployer.getOutputs()));
+      builder.append(';').append(stageName);
+      return builder.toString();
+   }
+
+   /**
+    * Sort attachment names, null is no names
+    *
+    * @param names the names or null
+    * @return the sorted names
+    */
+   private static Set<String> sorted(Set<String> names)
+   {
+      if (names == null)
+         return new TreeSet<String>();
+      return new TreeSet<String>(names);
+   }
+
+   /**
+    * The fingerprint of a stage
+    *
+    * @param stageName the stage name
+    * @param descriptions the deployer descriptions in order
+    * @return the fingerprint
+    */
+   protected static String fingerprint(String stageName, List<String> descriptions)
+   {
+      try
+      {
+         MessageDigest digest = MessageDigest.getInstance("SHA-1");
+         digest.update(stageName.getBytes("UTF-8"));
+         for (String description : descriptions)
+         {
+            digest.update((byte) '\n');
+            digest.update(description.getBytes("UTF-8"));
+         }
+         StringBuilder builder = new StringBuilder();
+         for (byte b : digest.digest())
+         {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+         }
+         return builder.toString();
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new RuntimeException(e);
+      }
+      catch (IOException e)
+      {
+         throw new RuntimeException(e);
+      }
+   }
+}
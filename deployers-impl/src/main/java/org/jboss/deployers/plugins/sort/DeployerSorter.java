@@ -21,6 +21,7 @@
 */
 package org.jboss.deployers.plugins.sort;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.jboss.deployers.spi.deployer.Deployer;
@@ -41,4 +42,14 @@ public interface DeployerSorter
     * @throws IllegalStateException on found cycle
     */
    List<Deployer> sortDeployers(List<Deployer> original, Deployer newDeployer);
+
+   /**
+    * Sort original + newDeployers in a single pass.
+    *
+    * @param original the original
+    * @param newDeployers the new deployers to insert
+    * @return sorted deployers
+    * @throws IllegalStateException on found cycle
+    */
+   List<Deployer> sortDeployers(List<Deployer> original, Collection<Deployer> newDeployers);
 }
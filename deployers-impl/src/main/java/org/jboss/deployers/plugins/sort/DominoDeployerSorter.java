@@ -22,6 +22,7 @@
 package org.jboss.deployers.plugins.sort;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.jboss.deployers.spi.deployer.Deployer;
@@ -35,15 +36,34 @@ public class DominoDeployerSorter implements DeployerSorter
 {
    public List<Deployer> sortDeployers(List<Deployer> original, Deployer newDeployer)
    {
-      int capacity = original.size() + 1;
+      return sortDeployers(original, new Deployer[] { newDeployer }, newDeployer);
+   }
+
+   public List<Deployer> sortDeployers(List<Deployer> original, Collection<Deployer> newDeployers)
+   {
+      return sortDeployers(original, newDeployers.toArray(new Deployer[newDeployers.size()]), newDeployers);
+   }
+
+   /**
+    * Sort original + newDeployers.
+    *
+    * @param original the original
+    * @param newDeployers the new deployers
+    * @param cause the possible cycle cause
+    * @return sorted deployers
+    */
+   protected List<Deployer> sortDeployers(List<Deployer> original, Deployer[] newDeployers, Object cause)
+   {
+      int capacity = original.size() + newDeployers.length;
 
       List<DeployerDomino> dominoes = new ArrayList<DeployerDomino>(capacity);
       for (Deployer deployer : original)
          dominoes.add(new DeployerDomino(deployer));
-      dominoes.add(new DeployerDomino(newDeployer));
+      for (Deployer deployer : newDeployers)
+         dominoes.add(new DeployerDomino(deployer));
 
       DominoOrdering<DeployerDomino> sorter = new DominoOrdering<DeployerDomino>("Cannot add %1s it will cause a loop\n");
-      dominoes = sorter.orderDominoes(dominoes, newDeployer);
+      dominoes = sorter.orderDominoes(dominoes, cause);
 
       List<Deployer> deployers = new ArrayList<Deployer>(capacity);
       for (DeployerDomino domino : dominoes)
@@ -24,6 +24,7 @@ package org.jboss.deployers.plugins.sort;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
@@ -52,12 +53,17 @@ import org.jboss.util.graph.Vertex;
  */
 public class InOutTopologicalDeployerSorter implements DeployerSorter
 {
-   @SuppressWarnings({"unchecked"})
    public List<Deployer> sortDeployers(List<Deployer> original, Deployer newDeployer)
+   {
+      return sortDeployers(original, Collections.singletonList(newDeployer));
+   }
+
+   @SuppressWarnings({"unchecked"})
+   public List<Deployer> sortDeployers(List<Deployer> original, Collection<Deployer> newDeployers)
    {
       Graph<Integer> graph = new Graph<Integer>();
       Map<String, Set<Deployer>> output2deployer = new HashMap<String, Set<Deployer>>();
-      List<Deployer> splitList = new SplitList<Deployer>(original, newDeployer);
+      List<Deployer> splitList = new SplitList<Deployer>(original, new ArrayList<Deployer>(newDeployers));
       Set<Deployer> notUsed = new TreeSet<Deployer>(Ordered.COMPARATOR);
       for (Deployer deployer : splitList)
       {
@@ -114,7 +120,7 @@ public class InOutTopologicalDeployerSorter implements DeployerSorter
          }
       }
       if (graph.getEdges().isEmpty() == false)
-         throw new IllegalStateException("We have a cycle: " + newDeployer + ", previous: " + original);
+         throw new IllegalStateException("We have a cycle: " + newDeployers + ", previous: " + original);
 
       Set<Deployer> sortedDeployers = new LinkedHashSet<Deployer>();
       for (Vertex<Integer> v : sorted)
@@ -168,10 +174,10 @@ public class InOutTopologicalDeployerSorter implements DeployerSorter
       private List<T> head;
       private List<T> tail;
 
-      private SplitList(List<T> head, T tail)
+      private SplitList(List<T> head, List<T> tail)
       {
          this.head = head;
-         this.tail = Collections.singletonList(tail);
+         this.tail = tail;
       }
 
       @Override
@@ -0,0 +1,583 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.plugins.sort;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jboss.deployers.spi.Ordered;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.deployers.spi.deployer.DeploymentStage;
+
+/**
+ * Topological sorting over a dependency graph that is kept between calls.<p>
+ *
+ * The producer/modifier/consumer graph of {@link DependenciesTopologicalDeployerSorter}
+ * is kept per stage. Adding a deployer only links the dependencies it takes part in,
+ * a topological index is maintained with the Pearce-Kelly algorithm so a cycle is found
+ * when the offending edge is added and the deployer is rolled back.
+ * {@link #removeDeployer(Deployer)} unlinks a deployer removed from its stage, deployers
+ * missing from the original list or whose inputs or outputs changed are unlinked when
+ * the graph is checked against the original list.<p>
+ *
+ * Only the graph is maintained incrementally, the order is not. Every call checks
+ * the original list against the graph and walks the whole graph level by level with
+ * the same tie breaks as {@link DependenciesTopologicalDeployerSorter}, so both sorters
+ * give the same order. The topological index is only used to find cycles.
+ */
+public class IncrementalTopologicalDeployerSorter implements DeployerSorter
+{
+   /** The graphs by stage name */
+   private Map<String, Graph> graphs = new HashMap<String, Graph>();
+
+   public List<Deployer> sortDeployers(List<Deployer> original, Deployer newDeployer)
+   {
+      return sortDeployers(original, Collections.singletonList(newDeployer));
+   }
+
+   public synchronized List<Deployer> sortDeployers(List<Deployer> original, Collection<Deployer> newDeployers)
+   {
+      Graph graph = null;
+      for (Deployer deployer : newDeployers)
+      {
+         graph = getGraph(deployer);
+         break;
+      }
+      if (graph == null)
+         return new ArrayList<Deployer>(original);
+
+      graph.synchronize(original);
+      for (Deployer deployer : newDeployers)
+         graph.addVertex(deployer);
+      return graph.sort();
+   }
+
+   /**
+    * Unlink a deployer removed from its stage
+    *
+    * @param deployer the deployer
+    */
+   public synchronized void removeDeployer(Deployer deployer)
+   {
+      String stageName = getStageName(deployer);
+      Graph graph = graphs.get(stageName);
+      if (graph == null)
+         return;
+      graph.removeDeployer(deployer);
+      if (graph.isEmpty())
+         graphs.remove(stageName);
+   }
+
+   /**
+    * Get the number of deployers linked into the graphs
+    *
+    * @return the number of deployers
+    */
+   public synchronized int getDeployerCount()
+   {
+      int result = 0;
+      for (Graph graph : graphs.values())
+         result += graph.vertices.size();
+      return result;
+   }
+
+   /**
+    * Get the stage name of a deployer
+    *
+    * @param deployer the deployer
+    * @return the stage name
+    */
+   private static String getStageName(Deployer deployer)
+   {
+      DeploymentStage stage = deployer.getStage();
+      return stage != null ? stage.getName() : null;
+   }
+
+   /**
+    * Get the graph for the stage of a deployer
+    *
+    * @param deployer the deployer
+    * @return the graph
+    */
+   private Graph getGraph(Deployer deployer)
+   {
+      String stageName = getStageName(deployer);
+      Graph graph = graphs.get(stageName);
+      if (graph == null)
+      {
+         graph = new Graph();
+         graphs.put(stageName, graph);
+      }
+      return graph;
+   }
+
+   private static class Graph
+   {
+      /** The roles of a vertex in a dependency */
+      private static final int CONSUMER = 0;
+      private static final int MODIFIER = 1;
+      private static final int PRODUCER = 2;
+
+      /** The vertices by deployer, a wrapper finds the vertex of the wrapper it equals */
+      private Map<Deployer, Vertex> vertices = new HashMap<Deployer, Vertex>();
+
+      /** The dependencies by name */
+      private Map<String, Dependency> dependencies = new HashMap<String, Dependency>();
+
+      /** The next topological index */
+      private int nextIndex;
+
+      /**
+       * Bring the graph in line with the deployers, they are known to be acyclic
+       *
+       * @param deployers the deployers
+       */
+      public void synchronize(List<Deployer> deployers)
+      {
+         Set<Deployer> present = new HashSet<Deployer>(deployers);
+         for (Vertex vertex : new ArrayList<Vertex>(vertices.values()))
+         {
+            if (present.contains(vertex.deployer) == false || vertex.isChanged())
+               removeVertex(vertex);
+         }
+         for (Deployer deployer : deployers)
+         {
+            if (vertices.containsKey(deployer) == false)
+               addVertex(deployer);
+         }
+      }
+
+      /**
+       * Add a deployer
+       *
+       * @param deployer the deployer
+       * @throws IllegalStateException when the deployer would create a cycle
+       */
+      public void addVertex(Deployer deployer)
+      {
+         if (vertices.containsKey(deployer))
+            return;
+
+         Vertex vertex = new Vertex(deployer);
+         vertex.index = nextIndex++;
+         vertices.put(deployer, vertex);
+         try
+         {
+            for (String name : vertex.consumes)
+               add(name, vertex, CONSUMER);
+            for (String name : vertex.modifies)
+               add(name, vertex, MODIFIER);
+            for (String name : vertex.produces)
+               add(name, vertex, PRODUCER);
+         }
+         catch (IllegalStateException e)
+         {
+            removeVertex(vertex);
+            throw e;
+         }
+      }
+
+      /**
+       * Remove a deployer
+       *
+       * @param deployer the deployer
+       */
+      public void removeDeployer(Deployer deployer)
+      {
+         Vertex vertex = vertices.get(deployer);
+         if (vertex != null)
+            removeVertex(vertex);
+      }
+
+      /**
+       * Whether the graph has no deployers
+       *
+       * @return true when empty
+       */
+      public boolean isEmpty()
+      {
+         return vertices.isEmpty();
+      }
+
+      /**
+       * Remove a deployer
+       *
+       * @param vertex the vertex
+       */
+      public void removeVertex(Vertex vertex)
+      {
+         for (String name : vertex.consumes)
+            remove(name, vertex);
+         for (String name : vertex.modifies)
+            remove(name, vertex);
+         for (String name : vertex.produces)
+            remove(name, vertex);
+         vertices.remove(vertex.deployer);
+      }
+
+      /**
+       * Walk the graph level by level
+       *
+       * @return the sorted deployers
+       */
+      public List<Deployer> sort()
+      {
+         List<Deployer> result = new ArrayList<Deployer>(vertices.size());
+         List<Vertex> roots = new LinkedList<Vertex>();
+         for (Vertex vertex : vertices.values())
+         {
+            vertex.pending = vertex.degree;
+            if (vertex.pending == 0)
+               roots.add(vertex);
+         }
+         // ensure backward compatibility
+         Collections.sort(roots, Ordered.COMPARATOR);
+
+         while (roots.isEmpty() == false)
+         {
+            Vertex root = roots.remove(0);
+            result.add(root.deployer);
+            if (root.consumers.isEmpty() == false)
+            {
+               Set<Vertex> nextLevel = new TreeSet<Vertex>(LEVEL);
+               for (Map.Entry<Vertex, int[]> entry : root.consumers.entrySet())
+               {
+                  Vertex consumer = entry.getKey();
+                  consumer.pending -= entry.getValue()[0];
+                  if (consumer.pending == 0)
+                     nextLevel.add(consumer);
+               }
+               roots.addAll(nextLevel);
+            }
+         }
+
+         if (result.size() != vertices.size())
+            throw new IllegalStateException("Cycle detected in subgraph: " + vertices.values());
+         return result;
+      }
+
+      private void add(String name, Vertex vertex, int role)
+      {
+         Dependency dependency = dependencies.get(name);
+         if (dependency == null)
+         {
+            dependency = new Dependency();
+            dependencies.put(name, dependency);
+         }
+         dependency.add(vertex, role);
+      }
+
+      private void remove(String name, Vertex vertex)
+      {
+         Dependency dependency = dependencies.get(name);
+         if (dependency == null)
+            return;
+         dependency.remove(vertex);
+         if (dependency.isEmpty())
+            dependencies.remove(name);
+      }
+
+      private class Dependency
+      {
+         // deployers creating this dependency
+         private List<Vertex> producers = new ArrayList<Vertex>();
+         // deployers modifying this dependency
+         private List<Vertex> modifiers = new ArrayList<Vertex>();
+         // deployers consuming this dependency
+         private List<Vertex> consumers = new ArrayList<Vertex>();
+         // the edges added for this dependency
+         private List<Vertex[]> edges = new ArrayList<Vertex[]>();
+
+         public void add(Vertex vertex, int role)
+         {
+            unlink();
+            if (role == CONSUMER)
+               consumers.add(vertex);
+            else if (role == MODIFIER)
+               modifiers.add(vertex);
+            else
+               producers.add(vertex);
+            link();
+         }
+
+         public void remove(Vertex vertex)
+         {
+            if (producers.contains(vertex) == false && modifiers.contains(vertex) == false && consumers.contains(vertex) == false)
+               return;
+            unlink();
+            producers.remove(vertex);
+            modifiers.remove(vertex);
+            consumers.remove(vertex);
+            link();
+         }
+
+         public boolean isEmpty()
+         {
+            return producers.isEmpty() && modifiers.isEmpty() && consumers.isEmpty();
+         }
+
+         private void link()
+         {
+            if (modifiers.isEmpty() == false)
+            {
+               link(producers, modifiers);
+               link(modifiers, consumers);
+            }
+            else
+            {
+               link(producers, consumers);
+            }
+         }
+
+         private void link(List<Vertex> from, List<Vertex> to)
+         {
+            for (Vertex producer : from)
+            {
+               for (Vertex consumer : to)
+               {
+                  addEdge(producer, consumer);
+                  edges.add(new Vertex[] { producer, consumer });
+               }
+            }
+         }
+
+         private void unlink()
+         {
+            for (Vertex[] edge : edges)
+               removeEdge(edge[0], edge[1]);
+            edges.clear();
+         }
+      }
+
+      /**
+       * Add an edge, reordering the affected region when it breaks the topological index
+       *
+       * @param from the producer
+       * @param to the consumer
+       * @throws IllegalStateException when the edge creates a cycle
+       */
+      private void addEdge(Vertex from, Vertex to)
+      {
+         int[] count = from.consumers.get(to);
+         if (count == null)
+         {
+            if (from == to || from.index > to.index)
+               reorder(from, to);
+            count = new int[1];
+            from.consumers.put(to, count);
+            to.producers.put(from, count);
+         }
+         count[0]++;
+         to.degree++;
+      }
+
+      private void removeEdge(Vertex from, Vertex to)
+      {
+         int[] count = from.consumers.get(to);
+         if (count == null)
+            return;
+         if (--count[0] == 0)
+         {
+            from.consumers.remove(to);
+            to.producers.remove(from);
+         }
+         to.degree--;
+      }
+
+      /**
+       * Pearce-Kelly: find what is reachable from the consumer below the producer's index
+       * and what reaches the producer above the consumer's index, then give the second set
+       * the lower indexes.
+       *
+       * @param from the producer
+       * @param to the consumer
+       * @throws IllegalStateException when the producer is reachable from the consumer
+       */
+      private void reorder(Vertex from, Vertex to)
+      {
+         List<Vertex> forward = new ArrayList<Vertex>();
+         List<Vertex> backward = new ArrayList<Vertex>();
+         try
+         {
+            if (from == to || visitForward(to, from, forward) == false)
+               throw new IllegalStateException("Cycle detected adding " + from + " -> " + to + " in subgraph: " + vertices.values());
+            visitBackward(from, to.index, backward);
+         }
+         finally
+         {
+            for (Vertex vertex : forward)
+               vertex.visited = false;
+            for (Vertex vertex : backward)
+               vertex.visited = false;
+         }
+
+         Collections.sort(forward, INDEX);
+         Collections.sort(backward, INDEX);
+         List<Integer> indexes = new ArrayList<Integer>(forward.size() + backward.size());
+         for (Vertex vertex : backward)
+            indexes.add(vertex.index);
+         for (Vertex vertex : forward)
+            indexes.add(vertex.index);
+         Collections.sort(indexes);
+
+         int i = 0;
+         for (Vertex vertex : backward)
+            vertex.index = indexes.get(i++);
+         for (Vertex vertex : forward)
+            vertex.index = indexes.get(i++);
+      }
+
+      private boolean visitForward(Vertex vertex, Vertex target, List<Vertex> result)
+      {
+         vertex.visited = true;
+         result.add(vertex);
+         for (Vertex consumer : vertex.consumers.keySet())
+         {
+            if (consumer == target)
+               return false;
+            if (consumer.visited == false && consumer.index < target.index && visitForward(consumer, target, result) == false)
+               return false;
+         }
+         return true;
+      }
+
+      private void visitBackward(Vertex vertex, int lowerBound, List<Vertex> result)
+      {
+         vertex.visited = true;
+         result.add(vertex);
+         for (Vertex producer : vertex.producers.keySet())
+         {
+            if (producer.visited == false && producer.index > lowerBound)
+               visitBackward(producer, lowerBound, result);
+         }
+      }
+   }
+
+   /** Orders a level like the other sorters, deployers that compare equal are all kept */
+   private static final Comparator<Vertex> LEVEL = new Comparator<Vertex>()
+   {
+      public int compare(Vertex v1, Vertex v2)
+      {
+         int result = Ordered.COMPARATOR.compare(v1, v2);
+         if (result != 0)
+            return result;
+         return INDEX.compare(v1, v2);
+      }
+   };
+
+   /** Orders vertices by topological index */
+   private static final Comparator<Vertex> INDEX = new Comparator<Vertex>()
+   {
+      public int compare(Vertex v1, Vertex v2)
+      {
+         return v1.index < v2.index ? -1 : (v1.index == v2.index ? 0 : 1);
+      }
+   };
+
+   private static class Vertex implements Ordered
+   {
+      // Wrapped deployer
+      private Deployer deployer;
+      // The inputs and outputs the vertex was linked with
+      private Set<String> inputs;
+      private Set<String> outputs;
+      // Disjunct roles
+      private Set<String> consumes;
+      private Set<String> modifies = new HashSet<String>();
+      private Set<String> produces;
+      // Topological index
+      private int index;
+      // Incoming edges
+      private int degree;
+      // Incoming edges left while sorting
+      private int pending;
+      // Whether the vertex was seen by the current search
+      private boolean visited;
+      // Edges with their multiplicity
+      private Map<Vertex, int[]> consumers = new LinkedHashMap<Vertex, int[]>();
+      private Map<Vertex, int[]> producers = new LinkedHashMap<Vertex, int[]>();
+
+      public Vertex(Deployer deployer)
+      {
+         this.deployer = deployer;
+         inputs = toSet(deployer.getInputs());
+         outputs = toSet(deployer.getOutputs());
+         consumes = new HashSet<String>(inputs);
+         produces = new HashSet<String>(outputs);
+         for (String input : inputs)
+         {
+            if (outputs.contains(input))
+               modifies.add(input);
+         }
+         consumes.removeAll(modifies);
+         produces.removeAll(modifies);
+      }
+
+      /**
+       * Whether the deployer inputs or outputs changed since it was linked
+       *
+       * @return true when changed
+       */
+      public boolean isChanged()
+      {
+         return inputs.equals(toSet(deployer.getInputs())) == false || outputs.equals(toSet(deployer.getOutputs())) == false;
+      }
+
+      /**
+       * Copy the names, null is empty
+       *
+       * @param names the names or null
+       * @return the copy
+       */
+      private static Set<String> toSet(Set<String> names)
+      {
+         if (names == null)
+            return new HashSet<String>();
+         return new HashSet<String>(names);
+      }
+
+      public int getRelativeOrder()
+      {
+         return deployer.getRelativeOrder();
+      }
+
+      public void setRelativeOrder(int order)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      public String toString()
+      {
+         return deployer.toString();
+      }
+   }
+}
@@ -315,6 +315,11 @@ public class KahnDeployerSorter implements DeployerSorter
    }
 
    public List<Deployer> sortDeployers(List<Deployer> original, Deployer newDeployer)
+   {
+      return sortDeployers(original, Collections.singletonList(newDeployer));
+   }
+
+   public List<Deployer> sortDeployers(List<Deployer> original, Collection<Deployer> newDeployers)
    {
       List<Deployer> result = new ArrayList<Deployer>();
       // S ? Set of all nodes with no incoming edges
@@ -327,7 +332,10 @@ public class KahnDeployerSorter implements DeployerSorter
       {
          process(deployer, s, inputCache, edgeCache, outputs, outputCache);
       }
-      process(newDeployer, s, inputCache, edgeCache, outputs, outputCache);
+      for(Deployer deployer : newDeployers)
+      {
+         process(deployer, s, inputCache, edgeCache, outputs, outputCache);
+      }
 
       // find transient deployers and sort them out
       processTransientDeployers(s, inputCache, outputCache, edgeCache);
@@ -366,7 +374,7 @@ public class KahnDeployerSorter implements DeployerSorter
       if(message.length() > 0)
          throw new IllegalStateException(message);
 
-      assert result.size() == original.size() + 1 : "not all deployers made it";
+      assert result.size() == original.size() + newDeployers.size() : "not all deployers made it";
       return result;
    }
 }
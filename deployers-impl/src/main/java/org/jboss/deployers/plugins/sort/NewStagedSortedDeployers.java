@@ -1,21 +1,131 @@
 package org.jboss.deployers.plugins.sort;
 
 import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.logging.Logger;
 
-import java.util.List;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Registration re-sorts the stage under the lock of this object,
+ * the deployer lists are published as immutable snapshots
+ * so reading them does not lock.<p>
+ *
+ * With a sort cache, the order saved by a previous run is reused for
+ * the deployers it knows about, the sorter only runs once a stage
+ * gets a deployer the cache does not know.
+ *
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
  * @version $Revision: 1 $
  */
 public class NewStagedSortedDeployers implements StagedSortedDeployers
 {
-   private Map<String, SortedDeployers> deployersByStage = new HashMap<String, SortedDeployers>();
+   /** The log */
+   private static final Logger log = Logger.getLogger(NewStagedSortedDeployers.class);
+
+   private ConcurrentMap<String, SortedDeployers> deployersByStage = new ConcurrentHashMap<String, SortedDeployers>();
+
+   /** The sort cache */
+   private DeployerSortCache sortCache;
+
+   /** The stages still following the sort cache */
+   private Map<String, CachedStage> cachedStages = new HashMap<String, CachedStage>();
+
+   /**
+    * Get the sort cache file.
+    *
+    * @return the file or null if there is no sort cache
+    */
+   public File getSortCache()
+   {
+      DeployerSortCache cache = sortCache;
+      return cache != null ? cache.getFile() : null;
+   }
+
+   /**
+    * Set the sort cache file, the order of the stages is
+    * saved by {@link #storeSortCache()}, which runs when the deployers
+    * are shut down, and reused on the next run.
+    *
+    * @param file the file or null for no sort cache
+    */
+   public synchronized void setSortCache(File file)
+   {
+      sortCache = file != null ? new DeployerSortCache(file) : null;
+      cachedStages.clear();
+   }
+
+   /**
+    * Save the current order of the stages in the sort cache
+    *
+    * @throws IOException for any error writing the cache
+    */
+   public synchronized void storeSortCache() throws IOException
+   {
+      if (sortCache == null)
+         return;
+
+      Map<String, List<Deployer>> orders = new HashMap<String, List<Deployer>>();
+      for (Map.Entry<String, SortedDeployers> entry : deployersByStage.entrySet())
+         orders.put(entry.getKey(), entry.getValue().getDeployers());
+      sortCache.store(orders);
+   }
+
+   /**
+    * Save the sort cache
+    */
+   public void stop()
+   {
+      try
+      {
+         storeSortCache();
+      }
+      catch (IOException e)
+      {
+         log.warn("Unable to save deployer sort cache " + getSortCache() + ": " + e);
+      }
+   }
+
+   public synchronized void addDeployer(String stageName, Deployer deployer)
+   {
+      SortedDeployers deployers = getSortedDeployers(stageName);
+      if (insertCached(stageName, deployers, deployer) == false)
+         deployers.sort(deployer);
+   }
+
+   public synchronized void addDeployers(String stageName, Collection<Deployer> deployers)
+   {
+      SortedDeployers sorted = getSortedDeployers(stageName);
+      if (cachedStages.containsKey(stageName) == false)
+      {
+         sorted.sort(deployers);
+         return;
+      }
+
+      for (Deployer deployer : deployers)
+      {
+         if (insertCached(stageName, sorted, deployer) == false)
+            sorted.sort(deployer);
+      }
+   }
 
-   public void addDeployer(String stageName, Deployer deployer)
+   /**
+    * Get the sorted deployers of a stage, a new stage follows
+    * the sort cache when it has an order for it
+    *
+    * @param stageName the stage name
+    * @return the sorted deployers
+    */
+   private SortedDeployers getSortedDeployers(String stageName)
    {
       SortedDeployers deployers = deployersByStage.get(stageName);
       if (deployers == null)
@@ -23,8 +133,47 @@ public class NewStagedSortedDeployers implements StagedSortedDeployers
          deployers = new SortedDeployers();
          deployersByStage.put(stageName, deployers);
       }
-      deployers.sort(deployer);
+      if (sortCache != null && deployers.getDeployers().isEmpty())
+      {
+         List<String> order = sortCache.getOrder(stageName);
+         if (order != null)
+            cachedStages.put(stageName, new CachedStage(order));
+      }
+      return deployers;
+   }
+
+   /**
+    * Insert a deployer at the position the sort cache gives it
+    *
+    * @param stageName the stage name
+    * @param deployers the sorted deployers
+    * @param deployer the deployer
+    * @return false when the stage does not follow the cache or the cache does not know the deployer
+    */
+   private boolean insertCached(String stageName, SortedDeployers deployers, Deployer deployer)
+   {
+      CachedStage cached = cachedStages.get(stageName);
+      if (cached == null)
+         return false;
+
+      Integer rank = cached.ranks.get(DeployerSortCache.describe(stageName, deployer));
+      if (rank == null || cached.used.add(rank) == false)
+      {
+         cachedStages.remove(stageName);
+         if (log.isTraceEnabled())
+            log.trace("Deployer sort cache does not know " + deployer + " for stage " + stageName);
+         return false;
+      }
 
+      int index = 0;
+      for (Deployer current : deployers.getDeployers())
+      {
+         if (cached.placed.get(current) < rank)
+            ++index;
+      }
+      cached.placed.put(deployer, rank);
+      deployers.insert(deployer, index);
+      return true;
    }
 
    public List<Deployer> getDeployerList(String stageName)
@@ -36,10 +185,39 @@ public class NewStagedSortedDeployers implements StagedSortedDeployers
       return deployers.getDeployers();
    }
 
-   public void removeDeployer(String stageName, Deployer deployer)
+   public synchronized void removeDeployer(String stageName, Deployer deployer)
    {
       SortedDeployers deployers = deployersByStage.get(stageName);
       if (deployers != null)
          deployers.removeDeployer(deployer);
+
+      CachedStage cached = cachedStages.get(stageName);
+      if (cached != null)
+      {
+         Integer rank = cached.placed.remove(deployer);
+         if (rank != null)
+            cached.used.remove(rank);
+      }
+   }
+
+   /**
+    * A stage whose deployers are placed by the sort cache
+    */
+   private static class CachedStage
+   {
+      /** The position of each description in the saved order */
+      private Map<String, Integer> ranks = new HashMap<String, Integer>();
+
+      /** The positions in use */
+      private Set<Integer> used = new HashSet<Integer>();
+
+      /** The position of each placed deployer */
+      private Map<Deployer, Integer> placed = new HashMap<Deployer, Integer>();
+
+      private CachedStage(List<String> order)
+      {
+         for (int i = 0; i < order.size(); ++i)
+            ranks.put(order.get(i), i);
+      }
    }
 }
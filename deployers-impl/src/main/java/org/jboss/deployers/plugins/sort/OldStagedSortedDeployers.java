@@ -2,10 +2,12 @@ package org.jboss.deployers.plugins.sort;
 
 import org.jboss.deployers.spi.deployer.Deployer;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author <a href="mailto:bill@burkecentral.com">Bill Burke</a>
@@ -14,19 +16,28 @@ import java.util.Collections;
  */
 public class OldStagedSortedDeployers implements StagedSortedDeployers
 {
-   private Map<String, List<Deployer>> deployersByStage = new HashMap<String, List<Deployer>>();
+   private ConcurrentMap<String, List<Deployer>> deployersByStage = new ConcurrentHashMap<String, List<Deployer>>();
    private DeployerSorter sorter;
 
-   public void addDeployer(String stageName, Deployer deployer)
+   public synchronized void addDeployer(String stageName, Deployer deployer)
    {
       List<Deployer> deployers = deployersByStage.get(stageName);
       if (deployers == null)
          deployers = Collections.emptyList();
       deployers = insert(deployers, deployer);
-      deployersByStage.put(stageName, deployers);
+      deployersByStage.put(stageName, Collections.unmodifiableList(new ArrayList<Deployer>(deployers)));
 
    }
 
+   public synchronized void addDeployers(String stageName, Collection<Deployer> newDeployers)
+   {
+      List<Deployer> deployers = deployersByStage.get(stageName);
+      if (deployers == null)
+         deployers = Collections.emptyList();
+      deployers = insert(deployers, newDeployers);
+      deployersByStage.put(stageName, Collections.unmodifiableList(new ArrayList<Deployer>(deployers)));
+   }
+
    public List<Deployer> getDeployerList(String stageName)
    {
       List<Deployer> deployers = deployersByStage.get(stageName);
@@ -36,15 +47,25 @@ public class OldStagedSortedDeployers implements StagedSortedDeployers
       return deployers;
    }
 
-   public void removeDeployer(String stageName, Deployer deployer)
+   public synchronized void removeDeployer(String stageName, Deployer deployer)
    {
       List<Deployer> deployers = deployersByStage.get(stageName);
       if (deployers == null)
          return;
 
-      deployers.remove(deployer);
+      int index = deployers.indexOf(deployer);
+      if (index < 0)
+         return;
+
+      deployers = new ArrayList<Deployer>(deployers);
+      // the sorter knows the instance that was added, not the one we were passed
+      Deployer removed = deployers.remove(index);
+      if (sorter instanceof IncrementalTopologicalDeployerSorter)
+         ((IncrementalTopologicalDeployerSorter) sorter).removeDeployer(removed);
       if (deployers.isEmpty())
          deployersByStage.remove(stageName);
+      else
+         deployersByStage.put(stageName, Collections.unmodifiableList(deployers));
    }
 
    /**
@@ -63,6 +84,22 @@ public class OldStagedSortedDeployers implements StagedSortedDeployers
       return sorter.sortDeployers(original, newDeployer);
    }
 
+   /**
+    * Insert the new Deployers.
+    *
+    * @param original     the original deployers
+    * @param newDeployers the new deployers
+    * @return the sorted deployers
+    */
+   protected List<Deployer> insert(List<Deployer> original, Collection<Deployer> newDeployers)
+   {
+      DeployerSorter sorter = this.sorter;
+      if (sorter == null)
+         sorter = DeployerSorterFactory.newSorter();
+
+      return sorter.sortDeployers(original, newDeployers);
+   }
+
    /**
     * The deployer sorter.
     *
@@ -22,6 +22,7 @@
 package org.jboss.deployers.plugins.sort;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
@@ -88,7 +89,7 @@ public class SortedDeployers
    Map<String, List<Entry>> outputMap = new HashMap<String, List<Entry>>();
    Map<String, List<Entry>> inputMap = new HashMap<String, List<Entry>>();
    List<Entry> entries = new ArrayList<Entry>();
-   volatile List<Deployer> deployers = new ArrayList<Deployer>();
+   volatile List<Deployer> deployers = Collections.emptyList();
 
    public void addOutputs(Entry deployer)
    {
@@ -122,19 +123,59 @@ public class SortedDeployers
 
    public void sort(Deployer d)
    {
-      Entry n = new Entry(d);
+      insert(new Entry(d));
+
+      // For some reason, something depends on a new list within MC/VDF
+      // be careful if you change this
+      publish();
+   }
+
+   /**
+    * Sort several deployers, in the order given, exactly as adding them one at a time would.<p>
+    *
+    * The list is only published once, and a cyclic dependency
+    * leaves the deployers as they were before the call.
+    *
+    * @param ds the deployers
+    * @throws IllegalStateException for a cyclic dependency, the deployers are not added
+    */
+   public void sort(Collection<Deployer> ds)
+   {
+      if (ds.isEmpty())
+         return;
+
+      List<Entry> saved = new ArrayList<Entry>(entries);
+      List<Entry> added = new ArrayList<Entry>(ds.size());
+      try
+      {
+         for (Deployer d : ds)
+         {
+            Entry n = new Entry(d);
+            added.add(n);
+            insert(n);
+         }
+      }
+      catch (IllegalStateException e)
+      {
+         entries.clear();
+         entries.addAll(saved);
+         for (int i = 0; i < entries.size(); i++)
+            entries.get(i).setIndex(i);
+         for (Entry n : added)
+            removeInputsOutputs(n);
+         throw e;
+      }
+      publish();
+   }
+
+   private void insert(Entry n)
+   {
       addOutputs(n);
       addInputs(n);
 
       if (entries.size() == 0)
       {
          insertAt(n);
-         List<Deployer> copy = new ArrayList<Deployer>();
-         for (Entry entry : entries)
-         {
-            copy.add(entry.deployer);
-         }
-         deployers = copy;
          return;
       }
 
@@ -142,15 +183,22 @@ public class SortedDeployers
       IdentityHashMap<Entry, Entry> visited = new IdentityHashMap<Entry, Entry>();
       traverseOutputs(n, visited);
       relativeOrdering();
+   }
 
-      // For some reason, something depends on a new list within MC/VDF
-      // be careful if you change this
-      List<Deployer> copy = new ArrayList<Deployer>();
-      for (Entry entry : entries)
-      {
-         copy.add(entry.deployer);
-      }
-      deployers = copy;
+   /**
+    * Insert a deployer at a known position without sorting.
+    *
+    * @param d the deployer
+    * @param index the position
+    */
+   public void insert(Deployer d, int index)
+   {
+      Entry n = new Entry(d);
+      n.setIndex(index);
+      addOutputs(n);
+      addInputs(n);
+      insertAt(n);
+      publish();
    }
 
    public void removeDeployer(Deployer d)
@@ -167,39 +215,48 @@ public class SortedDeployers
             break;
          }
       }
-      if (removed != null && d.getInputs() != null)
+      if (removed != null)
+         removeInputsOutputs(removed);
+      publish();
+   }
+
+   private void removeInputsOutputs(Entry removed)
+   {
+      for (String input : removed.getInputs())
       {
-         for (String input : d.getInputs())
+         List<Entry> list = inputMap.get(input);
+         if (list != null)
          {
-            List<Entry> list = inputMap.get(input);
-            if (list != null)
-            {
-               list.remove(removed);
-            }
+            list.remove(removed);
          }
       }
-      if (removed != null && d.getOutputs() != null)
+      for (String output : removed.getOutputs())
       {
-         for (String output : d.getOutputs())
+         List<Entry> list = outputMap.get(output);
+         if (list != null)
          {
-            List<Entry> list = outputMap.get(output);
-            if (list != null)
-            {
-               list.remove(removed);
-            }
+            list.remove(removed);
          }
       }
-      List<Deployer> copy = new ArrayList<Deployer>();
-      for (Entry entry : entries)
-      {
-         copy.add(entry.deployer);
-      }
-      deployers = copy;
    }
 
    public List<Deployer> getDeployers()
    {
-      return Collections.unmodifiableList(deployers);
+      return deployers;
+   }
+
+   /**
+    * Publish an immutable snapshot of the sorted deployers,
+    * readers keep iterating the previous one.
+    */
+   private void publish()
+   {
+      List<Deployer> copy = new ArrayList<Deployer>(entries.size());
+      for (Entry entry : entries)
+      {
+         copy.add(entry.deployer);
+      }
+      deployers = Collections.unmodifiableList(copy);
    }
 
    private void traverseOutputs(Entry n, IdentityHashMap<Entry, Entry> visited)
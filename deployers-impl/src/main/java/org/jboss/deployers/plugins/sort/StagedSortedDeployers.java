@@ -2,6 +2,7 @@ package org.jboss.deployers.plugins.sort;
 
 import org.jboss.deployers.spi.deployer.Deployer;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -21,9 +22,20 @@ public interface StagedSortedDeployers
     */
    void addDeployer(String stageName, Deployer deployer);
 
+   /**
+    * Add several deployers to a stage, the stage is sorted once.
+    *
+    * @param stageName the stage name
+    * @param deployers the deployers
+    */
+   void addDeployers(String stageName, Collection<Deployer> deployers);
+
    /**
     * The deployer list for stage.
     *
+    * The list is an immutable snapshot, it does not change
+    * when deployers are added or removed later.
+    *
     * @param stageName the stage name
     * @return matching deployer per stage
     */
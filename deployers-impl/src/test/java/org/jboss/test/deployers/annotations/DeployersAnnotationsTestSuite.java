@@ -24,8 +24,13 @@ package org.jboss.test.deployers.annotations;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
+import org.jboss.test.deployers.annotations.test.AnnotationEnvClassFileReaderTestCase;
 import org.jboss.test.deployers.annotations.test.AnnotationEnvKeepTestCase;
+import org.jboss.test.deployers.annotations.test.AnnotationEnvParallelTestCase;
 import org.jboss.test.deployers.annotations.test.AnnotationEnvTestCase;
+import org.jboss.test.deployers.annotations.test.AnnotationIndexCacheUnitTestCase;
+import org.jboss.test.deployers.annotations.test.CompactAnnotationStoreUnitTestCase;
+import org.jboss.test.deployers.annotations.test.SharedAnnotationIndexUnitTestCase;
 
 /**
  * Annotations scanning Test Suite.
@@ -45,6 +50,11 @@ public class DeployersAnnotationsTestSuite extends TestSuite
 
       suite.addTest(AnnotationEnvTestCase.suite());
       suite.addTest(AnnotationEnvKeepTestCase.suite());
+      suite.addTest(AnnotationEnvParallelTestCase.suite());
+      suite.addTest(AnnotationEnvClassFileReaderTestCase.suite());
+      suite.addTest(AnnotationIndexCacheUnitTestCase.suite());
+      suite.addTest(SharedAnnotationIndexUnitTestCase.suite());
+      suite.addTest(CompactAnnotationStoreUnitTestCase.suite());
 
       return suite;
    }
@@ -0,0 +1,165 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2006, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.deployers.annotations.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.jboss.classloader.plugins.ClassLoaderUtils;
+import org.jboss.classloading.plugins.visitor.DefaultResourceContext;
+import org.jboss.deployers.plugins.annotations.AnnotationIndexCache;
+import org.jboss.deployers.plugins.annotations.GenericAnnotationResourceVisitor;
+import org.jboss.deployers.spi.annotations.AnnotationEnvironment;
+import org.jboss.deployers.spi.annotations.Element;
+import org.jboss.test.BaseTestCase;
+import org.jboss.test.deployers.annotations.support.AnnotationsHolder;
+import org.jboss.test.deployers.annotations.support.TestAnnotation;
+
+/**
+ * AnnotationIndexCacheUnitTestCase.
+ * The index written for a scanned entry must rebuild the same environment.
+ */
+public class AnnotationIndexCacheUnitTestCase extends BaseTestCase
+{
+   private static final String ENTRY = "file:/test/annotations.jar";
+
+   private File directory;
+
+   public static Test suite()
+   {
+      return new TestSuite(AnnotationIndexCacheUnitTestCase.class);
+   }
+
+   public AnnotationIndexCacheUnitTestCase(String name) throws Exception
+   {
+      super(name);
+      directory = File.createTempFile("deployers", ".index");
+      directory.delete();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      File[] files = directory.listFiles();
+      if (files != null)
+      {
+         for (File file : files)
+            file.delete();
+      }
+      directory.delete();
+      super.tearDown();
+   }
+
+   public void testStoreAndLoad() throws Exception
+   {
+      AnnotationIndexCache cache = new AnnotationIndexCache(directory);
+      GenericAnnotationResourceVisitor scanned = createVisitor();
+      cache.startIndexing(scanned);
+      visitHolder(scanned);
+      cache.store(ENTRY, 1, scanned);
+
+      GenericAnnotationResourceVisitor loaded = createVisitor();
+      assertTrue(cache.load(ENTRY, 1, loaded));
+
+      AnnotationEnvironment expected = scanned.getEnv();
+      AnnotationEnvironment actual = loaded.getEnv();
+      assertElements(expected.classIsAnnotatedWith(TestAnnotation.class), actual.classIsAnnotatedWith(TestAnnotation.class), Class.class);
+      assertElements(expected.classHasConstructorAnnotatedWith(TestAnnotation.class), actual.classHasConstructorAnnotatedWith(TestAnnotation.class), Constructor.class);
+      assertElements(expected.classHasFieldAnnotatedWith(TestAnnotation.class), actual.classHasFieldAnnotatedWith(TestAnnotation.class), Field.class);
+      assertElements(expected.classHasMethodAnnotatedWith(TestAnnotation.class), actual.classHasMethodAnnotatedWith(TestAnnotation.class), Method.class);
+      assertElements(expected.classHasParameterAnnotatedWith(TestAnnotation.class), actual.classHasParameterAnnotatedWith(TestAnnotation.class), AnnotatedElement.class);
+   }
+
+   public void testStaleFingerprint() throws Exception
+   {
+      AnnotationIndexCache cache = new AnnotationIndexCache(directory);
+      GenericAnnotationResourceVisitor scanned = createVisitor();
+      cache.startIndexing(scanned);
+      visitHolder(scanned);
+      cache.store(ENTRY, 1, scanned);
+
+      assertFalse(cache.load(ENTRY, 2, createVisitor()));
+      assertFalse(cache.load("file:/test/other.jar", 1, createVisitor()));
+   }
+
+   public void testCorruptIndex() throws Exception
+   {
+      AnnotationIndexCache cache = new AnnotationIndexCache(directory);
+      GenericAnnotationResourceVisitor scanned = createVisitor();
+      cache.startIndexing(scanned);
+      visitHolder(scanned);
+      cache.store(ENTRY, 1, scanned);
+
+      File[] files = directory.listFiles();
+      assertNotNull(files);
+      assertEquals(1, files.length);
+      FileOutputStream out = new FileOutputStream(files[0]);
+      try
+      {
+         out.write(new byte[]{1, 2, 3});
+      }
+      finally
+      {
+         out.close();
+      }
+
+      assertFalse(cache.load(ENTRY, 1, createVisitor()));
+      assertFalse(files[0].exists());
+   }
+
+   protected GenericAnnotationResourceVisitor createVisitor()
+   {
+      GenericAnnotationResourceVisitor visitor = new GenericAnnotationResourceVisitor(AnnotationIndexCacheUnitTestCase.class.getClassLoader());
+      visitor.setUseClassFileReader(true);
+      return visitor;
+   }
+
+   protected void visitHolder(GenericAnnotationResourceVisitor visitor)
+   {
+      ClassLoader cl = AnnotationIndexCacheUnitTestCase.class.getClassLoader();
+      String path = ClassLoaderUtils.classNameToPath(AnnotationsHolder.class.getName());
+      URL url = cl.getResource(path);
+      assertNotNull(url);
+      visitor.visit(new DefaultResourceContext(url, path, cl));
+   }
+
+   protected <T extends AnnotatedElement> void assertElements(Set<? extends Element<TestAnnotation, ? extends T>> expected, Set<? extends Element<TestAnnotation, ? extends T>> actual, Class<T> type) throws Exception
+   {
+      assertNotNull(actual);
+      assertFalse(expected.isEmpty());
+      assertEquals(expected.size(), actual.size());
+      for (Element<TestAnnotation, ? extends T> element : actual)
+      {
+         assertEquals(AnnotationsHolder.class.getName(), element.getOwnerClassName());
+         assertInstanceOf(element.getAnnotatedElement(), type, false);
+         assertNotNull(element.getAnnotation());
+      }
+   }
+}
@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.annotations.test;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.jboss.deployers.plugins.annotations.ClassSignaturePair;
+import org.jboss.deployers.plugins.annotations.CompactAnnotationStore;
+import org.jboss.metadata.spi.signature.ConstructorParametersSignature;
+import org.jboss.metadata.spi.signature.ConstructorSignature;
+import org.jboss.metadata.spi.signature.FieldSignature;
+import org.jboss.metadata.spi.signature.MethodParametersSignature;
+import org.jboss.metadata.spi.signature.MethodSignature;
+import org.jboss.metadata.spi.signature.Signature;
+import org.jboss.test.BaseTestCase;
+import org.jboss.test.deployers.annotations.support.AnnotationsHolder;
+import org.jboss.test.deployers.annotations.support.TestAnnotation;
+
+/**
+ * CompactAnnotationStoreUnitTestCase.
+ * Every signature kind must decode as it was added, also after the tables grow.
+ */
+public class CompactAnnotationStoreUnitTestCase extends BaseTestCase
+{
+   public static Test suite()
+   {
+      return new TestSuite(CompactAnnotationStoreUnitTestCase.class);
+   }
+
+   public CompactAnnotationStoreUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testSignatureKinds() throws Exception
+   {
+      String[] parameters = { "java.lang.String", "int[]" };
+      assertRoundTrip(ElementType.TYPE, null);
+      assertRoundTrip(ElementType.FIELD, new FieldSignature("field"));
+      assertRoundTrip(ElementType.CONSTRUCTOR, new ConstructorSignature(parameters));
+      assertRoundTrip(ElementType.CONSTRUCTOR, new ConstructorSignature());
+      assertRoundTrip(ElementType.METHOD, new MethodSignature("method", parameters));
+      assertRoundTrip(ElementType.METHOD, new MethodSignature("method"));
+      assertRoundTrip(ElementType.PARAMETER, new ConstructorParametersSignature(parameters, 1));
+      assertRoundTrip(ElementType.PARAMETER, new MethodParametersSignature("method", parameters, 1));
+      assertRoundTrip(ElementType.METHOD, new Signature("other", parameters));
+   }
+
+   public void testKindsAreDistinct() throws Exception
+   {
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      String[] parameters = { "int" };
+      List<Signature> signatures = new ArrayList<Signature>();
+      signatures.add(new FieldSignature("name"));
+      signatures.add(new MethodSignature("name"));
+      signatures.add(new MethodSignature("name", parameters));
+      signatures.add(new MethodParametersSignature("name", parameters, 0));
+      signatures.add(new ConstructorSignature(parameters));
+      signatures.add(new ConstructorParametersSignature(parameters, 0));
+      signatures.add(new Signature("name"));
+      for (Signature signature : signatures)
+         assertTrue(signature.toString(), store.add(TestAnnotation.class, ElementType.METHOD, "a.B", signature, null));
+      for (Signature signature : signatures)
+         assertFalse(signature.toString(), store.add(TestAnnotation.class, ElementType.METHOD, "a.B", signature, null));
+
+      assertEquals(signatures.size(), store.size(TestAnnotation.class, ElementType.METHOD));
+      assertEquals(signatures, getSignatures(store.getPairs(TestAnnotation.class, ElementType.METHOD)));
+   }
+
+   public void testDuplicates() throws Exception
+   {
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      assertTrue(store.add(TestAnnotation.class, ElementType.METHOD, "a.B", new MethodSignature("m", "int"), null));
+      assertFalse(store.add(TestAnnotation.class, ElementType.METHOD, "a.B", new MethodSignature("m", "int"), null));
+      assertTrue(store.add(TestAnnotation.class, ElementType.METHOD, "a.C", new MethodSignature("m", "int"), null));
+      assertTrue(store.add(Deprecated.class, ElementType.METHOD, "a.B", new MethodSignature("m", "int"), null));
+      assertTrue(store.add(TestAnnotation.class, ElementType.PARAMETER, "a.B", new MethodParametersSignature("m", new String[] { "int" }, 0), null));
+      assertFalse(store.add(TestAnnotation.class, ElementType.PARAMETER, "a.B", new MethodParametersSignature("m", new String[] { "int" }, 0), null));
+      assertTrue(store.add(TestAnnotation.class, ElementType.TYPE, "a.B", null, null));
+      assertFalse(store.add(TestAnnotation.class, ElementType.TYPE, "a.B", null, null));
+
+      assertEquals(2, store.size(TestAnnotation.class, ElementType.METHOD));
+      assertEquals(1, store.size(Deprecated.class, ElementType.METHOD));
+      assertEquals(0, store.size(Deprecated.class, ElementType.FIELD));
+      assertEquals(0, store.size(Override.class, ElementType.METHOD));
+      assertTrue(store.getPairs(Override.class, ElementType.METHOD).isEmpty());
+      assertEquals(2, store.getAnnotationClasses().size());
+   }
+
+   public void testStringTableGrowth() throws Exception
+   {
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      int count = 1000;
+      for (int i = 0; i < count; ++i)
+      {
+         assertTrue(store.add(TestAnnotation.class, ElementType.TYPE, "org.acme.Class" + i, null, null));
+         assertTrue(store.add(TestAnnotation.class, ElementType.FIELD, "org.acme.Class" + i, new FieldSignature("field" + i), null));
+      }
+
+      for (int i = 0; i < count; ++i)
+      {
+         assertTrue(store.containsClassName("org.acme.Class" + i));
+         assertFalse(store.containsClassName("field" + i));
+      }
+      assertFalse(store.containsClassName("org.acme.Class" + count));
+
+      List<ClassSignaturePair> pairs = store.getPairs(TestAnnotation.class, ElementType.FIELD);
+      assertEquals(count, pairs.size());
+      for (int i = 0; i < count; ++i)
+      {
+         assertEquals("org.acme.Class" + i, pairs.get(i).getClassName());
+         assertEquals(new FieldSignature("field" + i), pairs.get(i).getSignature());
+      }
+   }
+
+   public void testSignatureGrowth() throws Exception
+   {
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      List<Signature> expected = new ArrayList<Signature>();
+      for (int i = 0; i < 300; ++i)
+      {
+         // enough parameters to outgrow the encoding buffer too
+         String[] parameters = new String[i % 50];
+         for (int j = 0; j < parameters.length; ++j)
+            parameters[j] = "org.acme.Type" + ((i + j) % 70);
+         Signature signature = i % 2 == 0 ? new MethodSignature("method" + i, parameters) : new ConstructorSignature(parameters);
+         expected.add(signature);
+         assertTrue(store.add(TestAnnotation.class, ElementType.METHOD, "a.B", signature, null));
+      }
+      for (Signature signature : expected)
+         assertFalse(signature.toString(), store.add(TestAnnotation.class, ElementType.METHOD, "a.B", signature, null));
+
+      assertEquals(expected, getSignatures(store.getPairs(TestAnnotation.class, ElementType.METHOD)));
+   }
+
+   public void testPostingsGrowth() throws Exception
+   {
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      ElementType[] types = { ElementType.TYPE, ElementType.FIELD, ElementType.METHOD };
+      int count = 200;
+      for (int i = 0; i < count; ++i)
+      {
+         for (ElementType type : types)
+         {
+            assertTrue(store.add(TestAnnotation.class, type, "a.Class" + i, null, null));
+            assertTrue(store.add(Deprecated.class, type, "a.Class" + (count - i), null, null));
+         }
+      }
+      for (int i = 0; i < count; ++i)
+      {
+         for (ElementType type : types)
+         {
+            assertFalse(store.add(TestAnnotation.class, type, "a.Class" + i, null, null));
+            assertFalse(store.add(Deprecated.class, type, "a.Class" + (count - i), null, null));
+         }
+      }
+
+      for (ElementType type : types)
+      {
+         List<ClassSignaturePair> pairs = store.getPairs(TestAnnotation.class, type);
+         assertEquals(count, pairs.size());
+         assertEquals(count, store.size(Deprecated.class, type));
+         for (int i = 0; i < count; ++i)
+            assertEquals("a.Class" + i, pairs.get(i).getClassName());
+      }
+   }
+
+   public void testKeptAnnotations() throws Exception
+   {
+      Annotation annotation = AnnotationsHolder.class.getAnnotation(TestAnnotation.class);
+      assertNotNull(annotation);
+
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      int count = 50;
+      for (int i = 0; i < count; ++i)
+         store.add(TestAnnotation.class, ElementType.TYPE, "a.Class" + i, null, i % 3 == 1 ? annotation : null);
+
+      List<ClassSignaturePair> pairs = store.getPairs(TestAnnotation.class, ElementType.TYPE);
+      assertEquals(count, pairs.size());
+      for (int i = 0; i < count; ++i)
+         assertSame(i % 3 == 1 ? annotation : null, pairs.get(i).getAnnotation());
+   }
+
+   protected void assertRoundTrip(ElementType type, Signature signature)
+   {
+      CompactAnnotationStore store = new CompactAnnotationStore();
+      assertTrue(store.add(TestAnnotation.class, type, "a.B", signature, null));
+      assertTrue(store.containsClassName("a.B"));
+
+      List<ClassSignaturePair> pairs = store.getPairs(TestAnnotation.class, type);
+      assertEquals(1, pairs.size());
+      ClassSignaturePair pair = pairs.get(0);
+      assertEquals("a.B", pair.getClassName());
+      if (signature == null)
+      {
+         assertNull(pair.getSignature());
+         return;
+      }
+
+      Signature result = pair.getSignature();
+      assertEquals(signature.getClass(), result.getClass());
+      assertEquals(signature, result);
+      assertEquals(signature.getName(), result.getName());
+      assertEquals(signature.getParameters().length, result.getParameters().length);
+      if (signature instanceof MethodParametersSignature)
+         assertEquals(((MethodParametersSignature) signature).getParam(), ((MethodParametersSignature) result).getParam());
+      if (signature instanceof ConstructorParametersSignature)
+         assertEquals(((ConstructorParametersSignature) signature).getParam(), ((ConstructorParametersSignature) result).getParam());
+   }
+
+   protected List<Signature> getSignatures(List<ClassSignaturePair> pairs)
+   {
+      List<Signature> result = new ArrayList<Signature>();
+      for (ClassSignaturePair pair : pairs)
+         result.add(pair.getSignature());
+      return result;
+   }
+}
@@ -0,0 +1,153 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2006, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.deployers.annotations.test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.jboss.classloader.plugins.ClassLoaderUtils;
+import org.jboss.classloading.plugins.visitor.DefaultResourceContext;
+import org.jboss.deployers.plugins.annotations.AnnotationIndexCache;
+import org.jboss.deployers.plugins.annotations.GenericAnnotationResourceVisitor;
+import org.jboss.deployers.plugins.annotations.SharedAnnotationIndex;
+import org.jboss.deployers.spi.annotations.Element;
+import org.jboss.test.BaseTestCase;
+import org.jboss.test.deployers.annotations.support.AnnotationsHolder;
+import org.jboss.test.deployers.annotations.support.TestAnnotation;
+
+/**
+ * SharedAnnotationIndexUnitTestCase.
+ * Deployments with the same library share its scan until all of them are released.
+ */
+public class SharedAnnotationIndexUnitTestCase extends BaseTestCase
+{
+   private static final String KEY = "0123456789abcdef";
+
+   public static Test suite()
+   {
+      return new TestSuite(SharedAnnotationIndexUnitTestCase.class);
+   }
+
+   public SharedAnnotationIndexUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testShareAndEvict() throws Exception
+   {
+      SharedAnnotationIndex index = new SharedAnnotationIndex();
+      GenericAnnotationResourceVisitor first = createVisitor();
+      assertFalse(index.load(KEY, "first", first));
+      index.startIndexing(first);
+      visitHolder(first);
+      index.store(KEY, "first", first);
+      assertEquals(1, index.getEntryCount());
+
+      GenericAnnotationResourceVisitor second = createVisitor();
+      assertTrue(index.load(KEY, "second", second));
+      Set<Element<TestAnnotation, Method>> methods = second.getEnv().classHasMethodAnnotatedWith(TestAnnotation.class);
+      assertEquals(1, methods.size());
+      Element<TestAnnotation, Method> em = methods.iterator().next();
+      assertEquals(AnnotationsHolder.class.getName(), em.getOwnerClassName());
+      assertEquals("something", em.getAnnotatedElement().getName());
+      assertEquals(first.getEnv().classHasParameterAnnotatedWith(TestAnnotation.class).size(), second.getEnv().classHasParameterAnnotatedWith(TestAnnotation.class).size());
+
+      index.release("first");
+      assertEquals(1, index.getEntryCount());
+      index.release("second");
+      assertEquals(0, index.getEntryCount());
+      assertFalse(index.load(KEY, "third", createVisitor()));
+   }
+
+   public void testSameEntryTwice() throws Exception
+   {
+      SharedAnnotationIndex index = new SharedAnnotationIndex();
+      GenericAnnotationResourceVisitor visitor = createVisitor();
+      index.startIndexing(visitor);
+      visitHolder(visitor);
+      index.store(KEY, "first", visitor);
+
+      assertTrue(index.load(KEY, "first", visitor));
+      assertTrue(visitor.getEnv().hasClassAnnotatedWith(TestAnnotation.class));
+      assertEquals(1, visitor.getEnv().classIsAnnotatedWith(TestAnnotation.class).size());
+      assertEquals(1, visitor.getEnv().classHasFieldAnnotatedWith(TestAnnotation.class).size());
+      assertEquals(2, visitor.getEnv().classHasParameterAnnotatedWith(TestAnnotation.class).size());
+      assertFalse(visitor.getEnv().hasClassAnnotatedWith(Deprecated.class));
+
+      index.release("first");
+      assertEquals(0, index.getEntryCount());
+   }
+
+   public void testBackedByIndexCache() throws Exception
+   {
+      File directory = File.createTempFile("deployers", ".index");
+      directory.delete();
+      try
+      {
+         SharedAnnotationIndex index = new SharedAnnotationIndex();
+         index.setAnnotationIndexCache(new AnnotationIndexCache(directory));
+         GenericAnnotationResourceVisitor first = createVisitor();
+         index.startIndexing(first);
+         visitHolder(first);
+         index.store(KEY, "first", first);
+         index.release("first");
+         assertEquals(0, index.getEntryCount());
+
+         SharedAnnotationIndex restarted = new SharedAnnotationIndex();
+         restarted.setAnnotationIndexCache(new AnnotationIndexCache(directory));
+         GenericAnnotationResourceVisitor second = createVisitor();
+         assertTrue(restarted.load(KEY, "second", second));
+         assertEquals(1, restarted.getEntryCount());
+         assertEquals(1, second.getEnv().classIsAnnotatedWith(TestAnnotation.class).size());
+      }
+      finally
+      {
+         File[] files = directory.listFiles();
+         if (files != null)
+         {
+            for (File file : files)
+               file.delete();
+         }
+         directory.delete();
+      }
+   }
+
+   protected GenericAnnotationResourceVisitor createVisitor()
+   {
+      GenericAnnotationResourceVisitor visitor = new GenericAnnotationResourceVisitor(SharedAnnotationIndexUnitTestCase.class.getClassLoader());
+      visitor.setUseClassFileReader(true);
+      return visitor;
+   }
+
+   protected void visitHolder(GenericAnnotationResourceVisitor visitor)
+   {
+      ClassLoader cl = SharedAnnotationIndexUnitTestCase.class.getClassLoader();
+      String path = ClassLoaderUtils.classNameToPath(AnnotationsHolder.class.getName());
+      URL url = cl.getResource(path);
+      assertNotNull(url);
+      visitor.visit(new DefaultResourceContext(url, path, cl));
+   }
+}
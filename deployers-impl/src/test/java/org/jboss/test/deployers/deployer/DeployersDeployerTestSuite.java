@@ -57,8 +57,12 @@ public class DeployersDeployerTestSuite extends TestSuite
       suite.addTest(HeuristicRussionDollUnitTestCase.suite());
       suite.addTest(DeployerContextClassLoaderUnitTestCase.suite());
       suite.addTest(DeployerRequiredStageUnitTestCase.suite());
+      suite.addTest(AttachmentRetentionUnitTestCase.suite());
       suite.addTest(DeployerRequiredInputsUnitTestCase.suite());
       suite.addTest(DynamicRelativeOrderUnitTestCase.suite());
+      suite.addTest(ParallelDeploymentUnitTestCase.suite());
+      suite.addTest(RelevancePlanUnitTestCase.suite());
+      suite.addTest(DeployerStatisticsUnitTestCase.suite());
 
       // sorting tests
       suite.addTest(DeployerFlowUnitTestCase.suite());
@@ -67,6 +71,12 @@ public class DeployersDeployerTestSuite extends TestSuite
       suite.addTest(InOutTopologicalOrderingUnitTestCase.suite());
       suite.addTest(IndexingOrderingUnitTestCase.suite());
       suite.addTest(DependenciesTopologicalOrderingUnitTestCase.suite());
+      suite.addTest(IncrementalTopologicalOrderingUnitTestCase.suite());
+      suite.addTest(StagedSortedDeployersUnitTestCase.suite());
+      suite.addTest(DeployerSortCacheUnitTestCase.suite());
+      suite.addTest(AttachmentDrivenFlowUnitTestCase.suite());
+      suite.addTest(AttachmentDrivenOrderingUnitTestCase.suite());
+      suite.addTest(RedeployChangedUnitTestCase.suite());
 
       // helper deployers
       suite.addTest(ExactAttachmentDeployerWithVisitorTestCase.suite());
@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.support;
+
+import java.util.Set;
+
+import org.jboss.deployers.spi.deployer.helpers.AbstractParsingDeployerWithOutput;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * CountingParsingDeployer.
+ */
+public class CountingParsingDeployer extends AbstractParsingDeployerWithOutput<StringBuilder>
+{
+   /** The number of parses */
+   public int parsed;
+
+   public CountingParsingDeployer()
+   {
+      super(StringBuilder.class);
+      setName("counting.xml");
+   }
+
+   protected StringBuilder parse(DeploymentUnit unit, String name, StringBuilder root) throws Exception
+   {
+      ++parsed;
+      return new StringBuilder(unit.getName());
+   }
+
+   protected StringBuilder parse(DeploymentUnit unit, Set<String> names, StringBuilder root) throws Exception
+   {
+      return parse(unit, names.iterator().next(), root);
+   }
+
+   protected StringBuilder parse(DeploymentUnit unit, String name, String suffix, StringBuilder root) throws Exception
+   {
+      return parse(unit, name, root);
+   }
+
+   protected StringBuilder parse(DeploymentUnit unit, Set<String> names, String suffix, StringBuilder root) throws Exception
+   {
+      return parse(unit, names.iterator().next(), root);
+   }
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.support;
+
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.spi.deployer.helpers.AttachmentRetention;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * ReleasingDeployer.
+ */
+public class ReleasingDeployer extends AbstractDeployer
+{
+   public ReleasingDeployer()
+   {
+      setStage(DeploymentStages.POST_PARSE);
+   }
+
+   public void deploy(DeploymentUnit unit) throws DeploymentException
+   {
+      unit.getTransientManagedObjects().addAttachment("Soft", new StringBuilder("soft"));
+      AttachmentRetention.releaseAt(unit, "Soft", DeploymentStages.DESCRIBE, true);
+      unit.addAttachment("Hard", "hard");
+      AttachmentRetention.releaseAt(unit, "Hard", DeploymentStages.DESCRIBE, false);
+      unit.addAttachment("Kept", "kept");
+      // the stage already passed, released at the end of this one
+      unit.addAttachment("Late", "late");
+      AttachmentRetention.releaseAt(unit, "Late", DeploymentStages.PARSE, false);
+   }
+}
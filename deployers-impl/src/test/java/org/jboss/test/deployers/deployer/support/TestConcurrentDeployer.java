@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.support;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.deployer.helpers.AbstractRealDeployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * TestConcurrentDeployer.<p>
+ *
+ * Records the deploying thread and the maximum number
+ * of deployments it was processing at the same time.
+ */
+public class TestConcurrentDeployer extends AbstractRealDeployer
+{
+   private Map<String, String> deployed = new ConcurrentHashMap<String, String>();
+   private Map<String, String> undeployed = new ConcurrentHashMap<String, String>();
+
+   private AtomicInteger active = new AtomicInteger();
+   private AtomicInteger maxActive = new AtomicInteger();
+
+   private long sleep;
+
+   public TestConcurrentDeployer(long sleep)
+   {
+      this.sleep = sleep;
+   }
+
+   public Set<String> getDeployedUnits()
+   {
+      return deployed.keySet();
+   }
+
+   public Set<String> getUndeployedUnits()
+   {
+      return undeployed.keySet();
+   }
+
+   public Map<String, String> getDeployed()
+   {
+      return deployed;
+   }
+
+   public int getMaxActive()
+   {
+      return maxActive.get();
+   }
+
+   public void internalDeploy(DeploymentUnit unit) throws DeploymentException
+   {
+      int current = active.incrementAndGet();
+      try
+      {
+         int max = maxActive.get();
+         while (current > max && maxActive.compareAndSet(max, current) == false)
+            max = maxActive.get();
+
+         deployed.put(unit.getName(), Thread.currentThread().getName());
+         if (this.equals(unit.getAttachment("fail")))
+            throw new DeploymentException("Asked to fail");
+
+         if (sleep > 0)
+            Thread.sleep(sleep);
+      }
+      catch (InterruptedException e)
+      {
+         throw DeploymentException.rethrowAsDeploymentException("Interrupted", e);
+      }
+      finally
+      {
+         active.decrementAndGet();
+      }
+   }
+
+   public void internalUndeploy(DeploymentUnit unit)
+   {
+      undeployed.put(unit.getName(), Thread.currentThread().getName());
+   }
+}
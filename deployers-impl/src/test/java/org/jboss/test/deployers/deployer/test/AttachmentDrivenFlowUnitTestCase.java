@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.spi.structure.ContextInfo;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * Deployer flow with the attachment driven install.
+ */
+public class AttachmentDrivenFlowUnitTestCase extends AbstractDeployerFlowUnitTest
+{
+   public AttachmentDrivenFlowUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public static Test suite()
+   {
+      return new TestSuite(AttachmentDrivenFlowUnitTestCase.class);
+   }
+
+   @Override
+   protected void applySortingChanges(DeployersImpl deployers)
+   {
+      deployers.setAttachmentDriven(true);
+   }
+
+   public void testComponentAddedDuringStage() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      AbstractDeployer adder = new AbstractDeployer()
+      {
+         public void deploy(DeploymentUnit unit) throws DeploymentException
+         {
+            unit.addComponent("component").addAttachment(Integer.class, 1);
+         }
+      };
+      adder.setTopLevelOnly(true);
+      adder.setOutputs(Integer.class);
+      addDeployer(main, adder);
+      RecordingDeployer consumer = new RecordingDeployer(Integer.class);
+      consumer.setComponentsOnly(true);
+      addDeployer(main, consumer);
+
+      main.addDeployment(createSimpleDeployment("component"));
+      main.process();
+
+      assertEquals(1, consumer.deployed.size());
+      assertTrue(consumer.deployed.get(0).isComponent());
+   }
+
+   public void testParentChangedByComponent() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      AbstractDeployer adder = new AbstractDeployer()
+      {
+         public void deploy(DeploymentUnit unit) throws DeploymentException
+         {
+            unit.addComponent("component").addAttachment(Integer.class, 1);
+         }
+      };
+      adder.setTopLevelOnly(true);
+      adder.setOutputs(Integer.class);
+      addDeployer(main, adder);
+      AbstractDeployer writer = new AbstractDeployer()
+      {
+         public void deploy(DeploymentUnit unit) throws DeploymentException
+         {
+            unit.getParent().addAttachment(Long.class, 1L);
+         }
+      };
+      writer.setInput(Integer.class);
+      writer.setComponentsOnly(true);
+      writer.setOutputs(Long.class);
+      addDeployer(main, writer);
+      RecordingDeployer consumer = new RecordingDeployer(Long.class);
+      consumer.setTopLevelOnly(true);
+      addDeployer(main, consumer);
+
+      main.addDeployment(createSimpleDeployment("parent"));
+      main.process();
+
+      assertEquals(1, consumer.deployed.size());
+      assertTrue(consumer.deployed.get(0).isTopLevel());
+   }
+
+   public void testSiblingChangedByChild() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      AbstractDeployer writer = new AbstractDeployer()
+      {
+         public void deploy(DeploymentUnit unit) throws DeploymentException
+         {
+            for (DeploymentUnit sibling : unit.getParent().getChildren())
+            {
+               if (sibling != unit)
+                  sibling.addAttachment(Long.class, 1L);
+            }
+         }
+      };
+      writer.setInput(Integer.class);
+      writer.setOutputs(Long.class);
+      addDeployer(main, writer);
+      RecordingDeployer consumer = new RecordingDeployer(Long.class);
+      addDeployer(main, consumer);
+
+      Deployment deployment = createSimpleDeployment("sibling");
+      ContextInfo child1 = addChild(deployment, "child1");
+      ((MutableAttachments) child1.getPredeterminedManagedObjects()).addAttachment(Integer.class, 1);
+      addChild(deployment, "child2");
+      main.addDeployment(deployment);
+      main.process();
+
+      assertEquals(1, consumer.deployed.size());
+      assertTrue(consumer.deployed.get(0).getRelativePath().contains("child2"));
+   }
+
+   private static class RecordingDeployer extends AbstractDeployer
+   {
+      private List<DeploymentUnit> deployed = new ArrayList<DeploymentUnit>();
+
+      private RecordingDeployer(Class<?> input)
+      {
+         setInput(input);
+      }
+
+      public void deploy(DeploymentUnit unit) throws DeploymentException
+      {
+         deployed.add(unit);
+      }
+   }
+}
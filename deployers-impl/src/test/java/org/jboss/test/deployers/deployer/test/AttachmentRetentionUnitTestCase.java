@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.deployer.DeploymentStage;
+import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.deployers.spi.deployer.helpers.AttachmentRetention;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentUnit;
+import org.jboss.test.deployers.AbstractDeployerTest;
+import org.jboss.test.deployers.deployer.support.CountingParsingDeployer;
+import org.jboss.test.deployers.deployer.support.ReleasingDeployer;
+import org.jboss.test.deployers.deployer.support.RequiredStageDeployer;
+
+/**
+ * AttachmentRetentionUnitTestCase.
+ */
+public class AttachmentRetentionUnitTestCase extends AbstractDeployerTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(AttachmentRetentionUnitTestCase.class);
+   }
+   
+   public AttachmentRetentionUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testReleasedAtStage() throws Exception
+   {
+      RequiredStageDeployer stageDeployer = new RequiredStageDeployer();
+      stageDeployer.setStage(DeploymentStages.PARSE);
+      DeployerClient main = createMainDeployer(stageDeployer, new ReleasingDeployer());
+
+      String name = "simple";
+      Deployment deployment = createSimpleDeployment(name);
+      MutableAttachments attachments = (MutableAttachments) deployment.getPredeterminedManagedObjects();
+      attachments.addAttachment(DeploymentStage.class, DeploymentStages.POST_PARSE);
+
+      main.deploy(deployment);
+      try
+      {
+         DeploymentUnit unit = getDeploymentUnit(main, name);
+         AbstractDeploymentContext context = (AbstractDeploymentContext) getDeploymentContext(main, name);
+         assertEquals("soft", unit.getAttachment("Soft").toString());
+         assertEquals("hard", unit.getAttachment("Hard"));
+         assertNull(unit.getAttachment("Late"));
+         assertTrue(AttachmentRetention.isPending(unit));
+         int before = context.getRetainedAttachmentCount();
+         long bytes = context.getRetainedAttachmentBytes();
+         assertTrue("Expected some bytes " + bytes, bytes > 0);
+
+         main.change(name, DeploymentStages.INSTALLED);
+         assertNull(unit.getAttachment("Soft"));
+         assertNull(unit.getAttachment("Hard"));
+         assertEquals("kept", unit.getAttachment("Kept"));
+         assertEquals(before - 2, context.getRetainedAttachmentCount());
+
+         assertEquals("soft", AttachmentRetention.getReleased(unit, "Soft").toString());
+         assertNull(AttachmentRetention.getReleased(unit, "Hard"));
+         assertFalse(AttachmentRetention.getAttachmentRetention(unit).hasPendingReleases());
+         assertFalse(AttachmentRetention.isPending(unit));
+      }
+      finally
+      {
+         main.undeploy(deployment);
+      }
+   }
+
+   public void testSoftReleaseRestored() throws Exception
+   {
+      CountingParsingDeployer parser = new CountingParsingDeployer();
+      parser.setReleaseStage(DeploymentStages.DESCRIBE);
+      parser.setSoftRelease(true);
+      DeployerClient main = createMainDeployer(parser);
+
+      String name = "simple";
+      Deployment deployment = createSimpleDeployment(name);
+      main.deploy(deployment);
+      try
+      {
+         DeploymentUnit unit = getDeploymentUnit(main, name);
+         assertNull(unit.getAttachment(StringBuilder.class));
+         StringBuilder released = AttachmentRetention.getReleased(unit, StringBuilder.class.getName(), StringBuilder.class);
+         assertNotNull(released);
+         assertEquals(1, parser.parsed);
+
+         main.change(name, DeploymentStages.PRE_PARSE);
+         main.change(name, DeploymentStages.POST_PARSE);
+         assertSame(released, unit.getAttachment(StringBuilder.class));
+         assertEquals(1, parser.parsed);
+
+         main.change(name, DeploymentStages.INSTALLED);
+         assertNull(unit.getAttachment(StringBuilder.class));
+         assertSame(released, AttachmentRetention.getReleased(unit, StringBuilder.class.getName()));
+      }
+      finally
+      {
+         main.undeploy(deployment);
+      }
+   }
+
+   public void testRetainedAttachments() throws Exception
+   {
+      AbstractDeploymentContext top = new AbstractDeploymentContext("top", "");
+      top.setDeploymentUnit(new AbstractDeploymentUnit(top));
+      AbstractDeploymentContext child = new AbstractDeploymentContext("top/child", "child");
+      child.setDeploymentUnit(new AbstractDeploymentUnit(child));
+      child.setParent(top);
+      top.addChild(child);
+      DeploymentUnit component = top.getDeploymentUnit().addComponent("component");
+      int count = top.getRetainedAttachmentCount();
+      int childCount = child.getRetainedAttachmentCount();
+      long bytes = top.getRetainedAttachmentBytes();
+
+      top.getTransientManagedObjects().addAttachment("a", "a");
+      child.getDeploymentUnit().addAttachment("b", new byte[10000]);
+      component.addAttachment("c", "c");
+      assertEquals(count + 3, top.getRetainedAttachmentCount());
+      assertEquals(childCount + 1, child.getRetainedAttachmentCount());
+      long withArray = top.getRetainedAttachmentBytes();
+      assertTrue("Expected the array to count " + bytes + " " + withArray, withArray - bytes >= 10000);
+
+      child.getDeploymentUnit().removeAttachment("b");
+      assertEquals(count + 2, top.getRetainedAttachmentCount());
+      assertTrue("Expected less without the array " + withArray, top.getRetainedAttachmentBytes() < withArray - 10000);
+   }
+}
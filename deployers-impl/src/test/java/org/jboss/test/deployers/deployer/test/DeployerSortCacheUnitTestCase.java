@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.dependency.plugins.AbstractController;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.sort.DeployerSortCache;
+import org.jboss.deployers.plugins.sort.NewStagedSortedDeployers;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.test.BaseTestCase;
+import org.jboss.test.deployers.deployer.support.TestFlowDeployer;
+
+/**
+ * DeployerSortCacheUnitTestCase.
+ */
+public class DeployerSortCacheUnitTestCase extends BaseTestCase
+{
+   private File file;
+
+   public static Test suite()
+   {
+      return new TestSuite(DeployerSortCacheUnitTestCase.class);
+   }
+
+   public DeployerSortCacheUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      file = File.createTempFile("deployers", ".sort");
+      file.delete();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      file.delete();
+      super.tearDown();
+   }
+
+   public void testReuseOrder() throws Exception
+   {
+      NewStagedSortedDeployers first = new NewStagedSortedDeployers();
+      first.setSortCache(file);
+      TestFlowDeployer[] deployers = createDeployers();
+      for (TestFlowDeployer deployer : deployers)
+         first.addDeployer("stage", deployer);
+      List<Deployer> expected = first.getDeployerList("stage");
+      first.storeSortCache();
+      assertTrue(file.exists());
+
+      NewStagedSortedDeployers second = new NewStagedSortedDeployers();
+      second.setSortCache(file);
+      for (int i = deployers.length - 1; i >= 0; --i)
+         second.addDeployer("stage", deployers[i]);
+      assertEquals(expected, second.getDeployerList("stage"));
+
+      NewStagedSortedDeployers partial = new NewStagedSortedDeployers();
+      partial.setSortCache(file);
+      partial.addDeployer("stage", deployers[3]);
+      partial.addDeployer("stage", deployers[0]);
+      List<Deployer> result = partial.getDeployerList("stage");
+      assertEquals(2, result.size());
+      assertSame(deployers[0], result.get(0));
+      assertSame(deployers[3], result.get(1));
+   }
+
+   public void testStoredOnShutdown() throws Exception
+   {
+      NewStagedSortedDeployers sorted = new NewStagedSortedDeployers();
+      sorted.setSortCache(file);
+      DeployersImpl deployers = new DeployersImpl(new AbstractController());
+      deployers.setDeployersByStage(sorted);
+      for (TestFlowDeployer deployer : createDeployers())
+         deployers.addDeployer(deployer);
+      assertFalse(file.exists());
+
+      deployers.shutdown();
+      assertTrue(file.exists());
+   }
+
+   public void testUnknownDeployer() throws Exception
+   {
+      NewStagedSortedDeployers first = new NewStagedSortedDeployers();
+      first.setSortCache(file);
+      TestFlowDeployer[] deployers = createDeployers();
+      for (TestFlowDeployer deployer : deployers)
+         first.addDeployer("stage", deployer);
+      first.storeSortCache();
+
+      NewStagedSortedDeployers second = new NewStagedSortedDeployers();
+      second.setSortCache(file);
+      second.addDeployer("stage", deployers[1]);
+      TestFlowDeployer unknown = new TestFlowDeployer("unknown");
+      unknown.setInputs("B");
+      unknown.setOutputs("C", "D");
+      second.addDeployer("stage", unknown);
+      second.addDeployer("stage", deployers[0]);
+      second.addDeployer("stage", deployers[3]);
+
+      List<Deployer> result = second.getDeployerList("stage");
+      assertEquals(4, result.size());
+      assertTrue(result.indexOf(deployers[0]) < result.indexOf(deployers[1]));
+      assertTrue(result.indexOf(deployers[1]) < result.indexOf(unknown));
+      assertTrue(result.indexOf(unknown) < result.indexOf(deployers[3]));
+   }
+
+   public void testNullInputsOutputs() throws Exception
+   {
+      TestFlowDeployer deployer = new TestFlowDeployer("null")
+      {
+         public Set<String> getInputs()
+         {
+            return null;
+         }
+
+         public Set<String> getOutputs()
+         {
+            return null;
+         }
+      };
+      String description = DeployerSortCache.describe("stage", deployer);
+      assertTrue(description, description.endsWith(";[];[];stage"));
+   }
+
+   public void testFingerprintMismatch() throws Exception
+   {
+      NewStagedSortedDeployers first = new NewStagedSortedDeployers();
+      first.setSortCache(file);
+      TestFlowDeployer[] deployers = createDeployers();
+      for (TestFlowDeployer deployer : deployers)
+         first.addDeployer("stage", deployer);
+      List<Deployer> expected = first.getDeployerList("stage");
+      first.storeSortCache();
+
+      Properties properties = new Properties();
+      FileInputStream is = new FileInputStream(file);
+      try
+      {
+         properties.load(is);
+      }
+      finally
+      {
+         is.close();
+      }
+      String last = properties.getProperty("stage.3");
+      properties.setProperty("stage.3", properties.getProperty("stage.0"));
+      properties.setProperty("stage.0", last);
+      FileOutputStream os = new FileOutputStream(file);
+      try
+      {
+         properties.store(os, null);
+      }
+      finally
+      {
+         os.close();
+      }
+
+      NewStagedSortedDeployers second = new NewStagedSortedDeployers();
+      second.setSortCache(file);
+      for (TestFlowDeployer deployer : deployers)
+         second.addDeployer("stage", deployer);
+      assertEquals(expected, second.getDeployerList("stage"));
+   }
+
+   protected TestFlowDeployer[] createDeployers()
+   {
+      TestFlowDeployer deployer0 = new TestFlowDeployer("0");
+      deployer0.setOutputs("A");
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setInputs("A");
+      deployer1.setOutputs("B");
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("B");
+      deployer2.setOutputs("C");
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("C");
+      return new TestFlowDeployer[] { deployer0, deployer1, deployer2, deployer3 };
+   }
+}
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.test.deployers.AbstractDeployerTest;
+import org.jboss.test.deployers.deployer.support.TestFlowDeployer;
+
+/**
+ * DeployerStatisticsUnitTestCase.
+ */
+public class DeployerStatisticsUnitTestCase extends AbstractDeployerTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(DeployerStatisticsUnitTestCase.class);
+   }
+
+   public DeployerStatisticsUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testNoStatistics() throws Exception
+   {
+      TestFlowDeployer deployer = new TestFlowDeployer("deployer");
+      DeployerClient main = createMainDeployer(deployer);
+      DeployersImpl deployers = getDeployersImpl(main);
+
+      Deployment deployment = createSimpleDeployment("nostats");
+      main.deploy(deployment);
+      main.undeploy(deployment);
+
+      assertTrue(deployers.getDeployerStatistics().isEmpty());
+      assertTrue(deployers.getStageStatistics().isEmpty());
+      assertEquals("No statistics available", deployers.listDeployerTimes(true));
+   }
+
+   public void testStatistics() throws Exception
+   {
+      TestFlowDeployer deployer = new TestFlowDeployer("deployer");
+      DeployerClient main = createMainDeployer(deployer);
+      DeployersImpl deployers = getDeployersImpl(main);
+      deployers.setCollectStats(true);
+
+      Deployment deployment1 = createSimpleDeployment("stats1");
+      Deployment deployment2 = createSimpleDeployment("stats2");
+      main.deploy(deployment1, deployment2);
+      main.undeploy(deployment1);
+
+      TabularData table = deployers.getDeployerStatistics();
+      CompositeData row = table.get(new Object[] { "deployer" });
+      assertNotNull(row);
+      assertEquals(2L, row.get("deployCount"));
+      assertEquals(1L, row.get("undeployCount"));
+      long max = (Long) row.get("deployMax");
+      long p50 = (Long) row.get("deployP50");
+      long p99 = (Long) row.get("deployP99");
+      long total = (Long) row.get("deployTotal");
+      assertTrue(p50 <= p99);
+      assertTrue(p99 <= max);
+      assertTrue(max <= total);
+
+      table = deployers.getStageStatistics();
+      row = table.get(new Object[] { DeploymentStages.REAL.getName() });
+      assertNotNull(row);
+      assertEquals(2L, row.get("deployCount"));
+      assertEquals(1L, row.get("undeployCount"));
+
+      String times = deployers.listDeployerTimes(true);
+      assertTrue(times, times.indexOf("deployer") >= 0);
+      assertTrue(times, times.indexOf("stats1") >= 0);
+      assertTrue(times, times.indexOf("stats2") >= 0);
+   }
+
+   public void testBoundedDetails() throws Exception
+   {
+      TestFlowDeployer deployer = new TestFlowDeployer("deployer");
+      DeployerClient main = createMainDeployer(deployer);
+      DeployersImpl deployers = getDeployersImpl(main);
+      deployers.setCollectStats(true);
+      deployers.setStatisticsDetails(1);
+      assertEquals(1, deployers.getStatisticsDetails());
+
+      main.deploy(createSimpleDeployment("bounded1"), createSimpleDeployment("bounded2"), createSimpleDeployment("bounded3"));
+
+      CompositeData row = deployers.getDeployerStatistics().get(new Object[] { "deployer" });
+      assertEquals(3L, row.get("deployCount"));
+
+      String times = deployers.listDeployerTimes(true);
+      int count = 0;
+      for (int i = 1; i <= 3; ++i)
+      {
+         if (times.indexOf("bounded" + i) >= 0)
+            ++count;
+      }
+      assertEquals(times, 1, count);
+   }
+
+   public void testNoDetails() throws Exception
+   {
+      TestFlowDeployer deployer = new TestFlowDeployer("deployer");
+      DeployerClient main = createMainDeployer(deployer);
+      DeployersImpl deployers = getDeployersImpl(main);
+      deployers.setCollectStats(true);
+      deployers.setStatisticsDetails(0);
+
+      main.deploy(createSimpleDeployment("nodetails1"), createSimpleDeployment("nodetails2"));
+
+      String times = deployers.listDeployerTimes(true);
+      assertTrue(times, times.indexOf("deployer") >= 0);
+      assertTrue(times, times.indexOf("nodetails") < 0);
+   }
+
+   public void testResetStatistics() throws Exception
+   {
+      TestFlowDeployer deployer = new TestFlowDeployer("deployer");
+      DeployerClient main = createMainDeployer(deployer);
+      DeployersImpl deployers = getDeployersImpl(main);
+      deployers.setCollectStats(true);
+
+      main.deploy(createSimpleDeployment("reset"));
+      assertFalse(deployers.getDeployerStatistics().isEmpty());
+
+      deployers.resetStatistics();
+      assertTrue(deployers.getDeployerStatistics().isEmpty());
+      assertTrue(deployers.getStageStatistics().isEmpty());
+      assertEquals("No statistics available", deployers.listDeployerTimes(true));
+   }
+
+   protected DeployersImpl getDeployersImpl(DeployerClient main)
+   {
+      return (DeployersImpl) ((MainDeployerImpl) main).getDeployers();
+   }
+}
@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.sort.DeployerSorter;
+import org.jboss.deployers.plugins.sort.IncrementalTopologicalDeployerSorter;
+import org.jboss.test.deployers.deployer.support.TestFlowDeployer;
+
+/**
+ * Tests incremental topological sorting.
+ */
+public class IncrementalTopologicalOrderingUnitTestCase extends AbstractSorterOrderingUnitTest
+{
+   public IncrementalTopologicalOrderingUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public static Test suite()
+   {
+      return new TestSuite(IncrementalTopologicalOrderingUnitTestCase.class);
+   }
+
+   private IncrementalTopologicalDeployerSorter sorter;
+
+   @Override
+   protected DeployerSorter createSorter()
+   {
+      sorter = new IncrementalTopologicalDeployerSorter();
+      return sorter;
+   }
+
+   public void testCycleIsRolledBack() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setInputs("A");
+      deployer1.setOutputs("B");
+      addDeployer(main, deployer1);
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("B");
+      deployer2.setOutputs("C");
+      addDeployer(main, deployer2);
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("C");
+      deployer3.setOutputs("A");
+      try
+      {
+         addDeployer(main, deployer3);
+         fail("Should not be here!");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(IllegalStateException.class, t);
+      }
+
+      TestFlowDeployer deployer4 = new TestFlowDeployer("4");
+      deployer4.setInputs("C");
+      addDeployer(main, deployer4);
+      TestFlowDeployer deployer0 = new TestFlowDeployer("0");
+      deployer0.setOutputs("A");
+      addDeployer(main, deployer0);
+
+      Deployment deployment = createSimpleDeployment("rolledBack");
+      main.addDeployment(deployment);
+      main.process();
+
+      assertEquals(1, deployer0.getDeployOrder());
+      assertEquals(2, deployer1.getDeployOrder());
+      assertEquals(3, deployer2.getDeployOrder());
+      assertEquals(-1, deployer3.getDeployOrder());
+      assertEquals(4, deployer4.getDeployOrder());
+   }
+
+   public void testRemovedDeployerIsUnlinked() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setOutputs("A");
+      addDeployer(main, deployer1);
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("A");
+      deployer2.setOutputs("A");
+      addDeployer(main, deployer2);
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("A");
+      addDeployer(main, deployer3);
+      removeDeployer(main, deployer2);
+      TestFlowDeployer deployer4 = new TestFlowDeployer("4");
+      deployer4.setInputs("A");
+      deployer4.setOutputs("B");
+      addDeployer(main, deployer4);
+
+      Deployment deployment = createSimpleDeployment("unlinked");
+      main.addDeployment(deployment);
+      main.process();
+
+      assertEquals(1, deployer1.getDeployOrder());
+      assertEquals(-1, deployer2.getDeployOrder());
+      assertEquals(2, deployer3.getDeployOrder());
+      assertEquals(3, deployer4.getDeployOrder());
+   }
+
+   public void testRemovedDeployerLeavesTheGraph() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setOutputs("A");
+      addDeployer(main, deployer1);
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("A");
+      addDeployer(main, deployer2);
+      assertEquals(2, sorter.getDeployerCount());
+
+      removeDeployer(main, deployer2);
+      assertEquals(1, sorter.getDeployerCount());
+      removeDeployer(main, deployer1);
+      assertEquals(0, sorter.getDeployerCount());
+   }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.DeploymentState;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.attachments.PredeterminedManagedObjectAttachments;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.test.deployers.AbstractDeployerTest;
+import org.jboss.test.deployers.deployer.support.TestConcurrentDeployer;
+
+/**
+ * ParallelDeploymentUnitTestCase.
+ */
+public class ParallelDeploymentUnitTestCase extends AbstractDeployerTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(ParallelDeploymentUnitTestCase.class);
+   }
+
+   public ParallelDeploymentUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testParallelDeploy() throws Exception
+   {
+      TestConcurrentDeployer deployer = new TestConcurrentDeployer(100);
+      DeployerClient main = createMainDeployer(deployer);
+      getDeployersImpl(main).setDeploymentThreads(4);
+      try
+      {
+         List<Deployment> deployments = createDeployments("parallel", 8);
+         Set<String> expected = new HashSet<String>();
+         for (Deployment deployment : deployments)
+         {
+            main.addDeployment(deployment);
+            expected.add(deployment.getName());
+         }
+         main.process();
+         main.checkComplete();
+
+         assertEquals(expected, deployer.getDeployedUnits());
+         assertTrue("Expected concurrent deployments: " + deployer.getMaxActive(), deployer.getMaxActive() > 1);
+         for (String thread : deployer.getDeployed().values())
+            assertTrue("Expected a deployment thread: " + thread, thread.startsWith("DeployersImpl-"));
+         for (Deployment deployment : deployments)
+            assertEquals(DeploymentState.DEPLOYED, main.getDeploymentState(deployment.getName()));
+
+         for (Deployment deployment : deployments)
+            main.removeDeployment(deployment);
+         main.process();
+         assertEquals(expected, deployer.getUndeployedUnits());
+      }
+      finally
+      {
+         getDeployersImpl(main).shutdown();
+      }
+   }
+
+   public void testParallelDeployError() throws Exception
+   {
+      TestConcurrentDeployer deployer = new TestConcurrentDeployer(0);
+      DeployerClient main = createMainDeployer(deployer);
+      getDeployersImpl(main).setDeploymentThreads(4);
+      try
+      {
+         List<Deployment> deployments = createDeployments("error", 4);
+         Deployment failing = deployments.get(2);
+         makeFail(failing, deployer);
+         for (Deployment deployment : deployments)
+            main.addDeployment(deployment);
+         main.process();
+
+         for (Deployment deployment : deployments)
+         {
+            DeploymentState expected = (deployment == failing) ? DeploymentState.ERROR : DeploymentState.DEPLOYED;
+            assertEquals(deployment.getName(), expected, main.getDeploymentState(deployment.getName()));
+         }
+         try
+         {
+            main.checkComplete();
+            fail("Should not be here!");
+         }
+         catch (Exception e)
+         {
+            checkThrowable(DeploymentException.class, e);
+         }
+      }
+      finally
+      {
+         getDeployersImpl(main).shutdown();
+      }
+   }
+
+   public void testParallelDeployShutdown() throws Exception
+   {
+      final DeployerClient[] holder = new DeployerClient[1];
+      TestConcurrentDeployer deployer = new TestConcurrentDeployer(0)
+      {
+         public void internalDeploy(DeploymentUnit unit) throws DeploymentException
+         {
+            super.internalDeploy(unit);
+            if (unit.getName().startsWith("shutdown1"))
+               getDeployersImpl(holder[0]).shutdown();
+         }
+      };
+      DeployerClient main = createMainDeployer(deployer);
+      holder[0] = main;
+      getDeployersImpl(main).setDeploymentThreads(4);
+      try
+      {
+         for (Deployment deployment : createDeployments("shutdown", 4))
+            main.addDeployment(deployment);
+         try
+         {
+            main.process();
+            fail("Should not be here!");
+         }
+         catch (Throwable t)
+         {
+            checkThrowable(IllegalStateException.class, t);
+         }
+         // the work the controller didn't pick up is undone
+         assertEquals(deployer.getDeployedUnits(), deployer.getUndeployedUnits());
+      }
+      finally
+      {
+         getDeployersImpl(main).shutdown();
+      }
+   }
+
+   public void testSequentialByDefault() throws Exception
+   {
+      TestConcurrentDeployer deployer = new TestConcurrentDeployer(10);
+      DeployerClient main = createMainDeployer(deployer);
+      assertNull(getDeployersImpl(main).getDeploymentExecutor());
+
+      for (Deployment deployment : createDeployments("sequential", 4))
+         main.addDeployment(deployment);
+      main.process();
+      main.checkComplete();
+
+      assertEquals(4, deployer.getDeployedUnits().size());
+      assertEquals(1, deployer.getMaxActive());
+      for (String thread : deployer.getDeployed().values())
+         assertEquals(Thread.currentThread().getName(), thread);
+   }
+
+   protected List<Deployment> createDeployments(String prefix, int count)
+   {
+      List<Deployment> result = new ArrayList<Deployment>(count);
+      for (int i = 0; i < count; ++i)
+         result.add(createSimpleDeployment(prefix + i));
+      return result;
+   }
+
+   protected static void makeFail(PredeterminedManagedObjectAttachments attachments, Deployer deployer)
+   {
+      MutableAttachments mutable = (MutableAttachments) attachments.getPredeterminedManagedObjects();
+      mutable.addAttachment("fail", deployer);
+   }
+
+   protected DeployersImpl getDeployersImpl(DeployerClient main)
+   {
+      MainDeployerImpl mainDeployerImpl = (MainDeployerImpl) main;
+      return (DeployersImpl) mainDeployerImpl.getDeployers();
+   }
+}
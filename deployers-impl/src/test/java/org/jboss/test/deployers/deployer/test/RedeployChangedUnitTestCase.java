@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.DeploymentState;
+import org.jboss.deployers.spi.deployer.DeploymentStages;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.test.deployers.AbstractDeployerTest;
+
+/**
+ * Redeploying only the deployers consuming changed attachments.
+ */
+public class RedeployChangedUnitTestCase extends AbstractDeployerTest
+{
+   private List<String> events = new ArrayList<String>();
+
+   public RedeployChangedUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public static Test suite()
+   {
+      return new TestSuite(RedeployChangedUnitTestCase.class);
+   }
+
+   public void testOnlyConsumersRerun() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      AbstractDeployer source = new AbstractDeployer()
+      {
+         public void deploy(DeploymentUnit unit) throws DeploymentException
+         {
+            unit.addAttachment("in", "old");
+         }
+      };
+      source.setStage(DeploymentStages.PARSE);
+      source.setOutputs("in");
+      addDeployer(main, source);
+      addDeployer(main, new EventDeployer("B", "mid", "out"));
+      addDeployer(main, new EventDeployer("A", "in", "mid"));
+      addDeployer(main, new EventDeployer("C", "other", null));
+      addDeployer(main, new EventDeployer("D", null, null));
+
+      main.addDeployment(createSimpleDeployment("changed"));
+      main.process();
+      main.checkComplete();
+      assertTrue(events.contains("deploy C old"));
+      assertTrue(events.contains("deploy D old"));
+      assertTrue(events.indexOf("deploy A old") < events.indexOf("deploy B old"));
+      events.clear();
+
+      DeploymentContext context = getDeploymentContext(main, "changed");
+      getDeployersImpl(main).redeployChanged(context, Collections.<String, Object>singletonMap("in", "new"));
+
+      List<String> expected = new ArrayList<String>();
+      expected.add("undeploy B old");
+      expected.add("undeploy A old");
+      expected.add("deploy A new");
+      expected.add("deploy B new");
+      assertEquals(expected, events);
+      assertEquals("new", context.getDeploymentUnit().getAttachment("in"));
+   }
+
+   public void testFailureRestoresPrevious() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      AbstractDeployer source = new AbstractDeployer()
+      {
+         public void deploy(DeploymentUnit unit) throws DeploymentException
+         {
+            unit.addAttachment("in", "old");
+         }
+      };
+      source.setStage(DeploymentStages.PARSE);
+      source.setOutputs("in");
+      addDeployer(main, source);
+      EventDeployer failing = new EventDeployer("B", "mid", null);
+      failing.setFailOn("bad");
+      addDeployer(main, failing);
+      addDeployer(main, new EventDeployer("A", "in", "mid"));
+
+      main.addDeployment(createSimpleDeployment("failing"));
+      main.process();
+      main.checkComplete();
+      events.clear();
+
+      DeploymentContext context = getDeploymentContext(main, "failing");
+      try
+      {
+         getDeployersImpl(main).redeployChanged(context, Collections.<String, Object>singletonMap("in", "bad"));
+         fail("Should not be here");
+      }
+      catch (DeploymentException e)
+      {
+         checkThrowable(DeploymentException.class, e);
+      }
+
+      List<String> expected = new ArrayList<String>();
+      expected.add("undeploy B old");
+      expected.add("undeploy A old");
+      expected.add("deploy A bad");
+      expected.add("deploy B bad");
+      expected.add("undeploy A bad");
+      expected.add("deploy A old");
+      expected.add("deploy B old");
+      assertEquals(expected, events);
+      assertEquals("old", context.getDeploymentUnit().getAttachment("in"));
+      assertEquals(DeploymentState.DEPLOYED, context.getState());
+      assertNull(context.getProblem());
+      main.checkComplete();
+   }
+
+   public void testNoConsumers() throws Exception
+   {
+      DeployerClient main = createMainDeployer();
+      addDeployer(main, new EventDeployer("A", "in", null));
+
+      main.addDeployment(createSimpleDeployment("unchanged"));
+      main.process();
+      events.clear();
+
+      DeploymentContext context = getDeploymentContext(main, "unchanged");
+      getDeployersImpl(main).redeployChanged(context, Collections.<String, Object>singletonMap("unknown", "value"));
+      assertEquals(Collections.emptyList(), events);
+      assertEquals("value", context.getDeploymentUnit().getAttachment("unknown"));
+   }
+
+   protected DeployersImpl getDeployersImpl(DeployerClient main)
+   {
+      return (DeployersImpl) ((MainDeployerImpl) main).getDeployers();
+   }
+
+   private class EventDeployer extends AbstractDeployer
+   {
+      private String name;
+
+      private Object failOn;
+
+      public EventDeployer(String name, String input, String output)
+      {
+         this.name = name;
+         if (input != null)
+            setInputs(input);
+         if (output != null)
+            setOutputs(output);
+      }
+
+      public void setFailOn(Object failOn)
+      {
+         this.failOn = failOn;
+      }
+
+      public void deploy(DeploymentUnit unit) throws DeploymentException
+      {
+         Object in = unit.getAttachment("in");
+         events.add("deploy " + name + " " + in);
+         if (failOn != null && failOn.equals(in))
+            throw new DeploymentException("Failed " + name + " for " + in);
+      }
+
+      public void undeploy(DeploymentUnit unit)
+      {
+         events.add("undeploy " + name + " " + unit.getAttachment("in"));
+      }
+
+      public String toString()
+      {
+         return name;
+      }
+   }
+}
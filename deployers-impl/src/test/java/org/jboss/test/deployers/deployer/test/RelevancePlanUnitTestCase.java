@@ -0,0 +1,269 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.client.spi.DeployerClient;
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.deployers.DeployerRelevance;
+import org.jboss.deployers.plugins.deployers.DeployersImpl;
+import org.jboss.deployers.plugins.deployers.RelevancePlan;
+import org.jboss.deployers.plugins.main.MainDeployerImpl;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.attachments.PredeterminedManagedObjectAttachments;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.test.deployers.AbstractDeployerTest;
+import org.jboss.test.deployers.deployer.support.TestFlowDeployer;
+
+/**
+ * RelevancePlanUnitTestCase.
+ */
+public class RelevancePlanUnitTestCase extends AbstractDeployerTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(RelevancePlanUnitTestCase.class);
+   }
+
+   public RelevancePlanUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testPlan() throws Exception
+   {
+      TestFlowDeployer untriggered = new TestFlowDeployer("untriggered");
+      TestFlowDeployer required = new TestFlowDeployer("required");
+      required.setRequiredInputs(Collections.singleton("x"));
+      TestFlowDeployer input = new TestFlowDeployer("input");
+      input.setInput(String.class);
+
+      List<Deployer> deployers = new ArrayList<Deployer>();
+      deployers.add(untriggered);
+      deployers.add(required);
+      deployers.add(input);
+      RelevancePlan plan = new RelevancePlan(deployers);
+
+      assertEquals(3, plan.size());
+      assertSame(deployers, plan.getDeployers());
+      for (int i = 0; i < plan.size(); ++i)
+      {
+         assertSame(deployers.get(i), plan.getRelevance(i).getDeployer());
+         assertEquals(i, plan.getRelevance(i).getIndex());
+      }
+      assertEquals(0, plan.getRelevance(0).getTriggers().length);
+      assertEquals(Collections.singletonList("x"), Arrays.asList(plan.getRelevance(1).getTriggers()));
+      assertEquals(Collections.singletonList(String.class.getName()), Arrays.asList(plan.getRelevance(2).getTriggers()));
+   }
+
+   public void testGrouping() throws Exception
+   {
+      TestFlowDeployer untriggered = new TestFlowDeployer("untriggered");
+      TestFlowDeployer required = new TestFlowDeployer("required");
+      required.setRequiredInputs(Collections.singleton("x"));
+      TestFlowDeployer input = new TestFlowDeployer("input");
+      input.setInput(String.class);
+      TestFlowDeployer both = new TestFlowDeployer("both");
+      both.setInput(String.class);
+      both.setRequiredInputs(Collections.singleton("x"));
+      TestFlowDeployer allInputs = new TestFlowDeployer("allInputs");
+      allInputs.setInput(String.class);
+      allInputs.setAllInputs(true);
+
+      List<Deployer> deployers = new ArrayList<Deployer>();
+      deployers.add(untriggered);
+      deployers.add(required);
+      deployers.add(input);
+      deployers.add(both);
+      deployers.add(allInputs);
+      RelevancePlan plan = new RelevancePlan(deployers);
+
+      assertEquals(Arrays.asList(plan.getRelevance(0), plan.getRelevance(4)), plan.getUntriggered());
+      assertEquals(Collections.singletonList(plan.getRelevance(1)), plan.getTriggered("x"));
+      assertEquals(Arrays.asList(plan.getRelevance(2), plan.getRelevance(3)), plan.getTriggered(String.class.getName()));
+      assertTrue(plan.getTriggered("y").isEmpty());
+
+      BitSet expected = new BitSet();
+      expected.set(0);
+      expected.set(4);
+      assertEquals(expected, plan.getCandidates(Collections.<String>emptySet()));
+      expected.set(1);
+      assertEquals(expected, plan.getCandidates(makeSet("x", "y")));
+      expected.set(2);
+      expected.set(3);
+      assertEquals(expected, plan.getCandidates(makeSet("x", String.class.getName())));
+
+      assertTrue(plan.contains(plan.getRelevance(3)));
+      assertFalse(plan.contains(new DeployerRelevance(both, 3)));
+      assertFalse(new RelevancePlan(deployers).contains(plan.getRelevance(0)));
+   }
+
+   public void testOnlyHeldInputsOffered() throws Exception
+   {
+      TestFlowDeployer required = new TestFlowDeployer("required");
+      required.setRequiredInputs(Collections.singleton("x"));
+      TestFlowDeployer untriggered = new TestFlowDeployer("untriggered");
+      DeployerClient main = createMainDeployer(required, untriggered);
+
+      Deployment deployment = createSimpleDeployment("parent");
+      addChild(deployment, "without");
+      MutableAttachments attachments = (MutableAttachments) ((PredeterminedManagedObjectAttachments) deployment).getPredeterminedManagedObjects();
+      attachments.addAttachment("x", Boolean.TRUE);
+      main.addDeployment(deployment);
+      main.process();
+      main.checkComplete();
+
+      assertEquals(makeSet("parent"), required.getDeployedUnits());
+      assertEquals(makeSet("parent", "parent/without"), untriggered.getDeployedUnits());
+   }
+
+   public void testStructuralRelevance() throws Exception
+   {
+      TestFlowDeployer topLevel = new TestFlowDeployer("topLevel");
+      topLevel.setTopLevelOnly(true);
+      DeployerRelevance relevance = new DeployerRelevance(topLevel, 0);
+      assertFalse(relevance.isVisitChildren());
+      assertFalse(relevance.isVisitComponents());
+      assertTrue(relevance.isStructurallyRelevant(true, false));
+      assertFalse(relevance.isStructurallyRelevant(false, false));
+
+      TestFlowDeployer components = new TestFlowDeployer("components");
+      components.setComponentsOnly(true);
+      components.setWantComponents(true);
+      relevance = new DeployerRelevance(components, 0);
+      assertTrue(relevance.isVisitChildren());
+      assertTrue(relevance.isVisitComponents());
+      assertFalse(relevance.isStructurallyRelevant(true, false));
+      assertTrue(relevance.isStructurallyRelevant(false, true));
+   }
+
+   public void testTopLevelOnly() throws Exception
+   {
+      TestFlowDeployer topLevel = new TestFlowDeployer("topLevel");
+      topLevel.setTopLevelOnly(true);
+      TestFlowDeployer all = new TestFlowDeployer("all");
+      DeployerClient main = createMainDeployer(topLevel, all);
+
+      Deployment deployment = createSimpleDeployment("parent");
+      addChild(deployment, "child");
+      main.addDeployment(deployment);
+      main.process();
+      main.checkComplete();
+
+      assertEquals(makeSet("parent"), topLevel.getDeployedUnits());
+      assertEquals(makeSet("parent", "parent/child"), all.getDeployedUnits());
+
+      main.removeDeployment(deployment);
+      main.process();
+
+      assertEquals(makeSet("parent"), topLevel.getUndeployedUnits());
+      assertEquals(makeSet("parent", "parent/child"), all.getUndeployedUnits());
+   }
+
+   public void testPlanFollowsDeployerChanges() throws Exception
+   {
+      TestFlowDeployer first = new TestFlowDeployer("first");
+      DeployerClient main = createMainDeployer(first);
+
+      Deployment deployment = createSimpleDeployment("before");
+      main.addDeployment(deployment);
+      main.process();
+      main.checkComplete();
+      assertEquals(makeSet("before"), first.getDeployedUnits());
+
+      TestFlowDeployer required = new TestFlowDeployer("required");
+      required.setRequiredInputs(Collections.singleton("x"));
+      addDeployer(main, required);
+
+      Deployment with = createSimpleDeployment("with");
+      MutableAttachments attachments = (MutableAttachments) ((PredeterminedManagedObjectAttachments) with).getPredeterminedManagedObjects();
+      attachments.addAttachment("x", Boolean.TRUE);
+      Deployment without = createSimpleDeployment("without");
+      main.addDeployment(with);
+      main.addDeployment(without);
+      main.process();
+      main.checkComplete();
+
+      assertEquals(makeSet("before", "with", "without"), first.getDeployedUnits());
+      assertEquals(makeSet("with"), required.getDeployedUnits());
+
+      removeDeployer(main, required);
+      required.clear();
+
+      Deployment after = createSimpleDeployment("after");
+      attachments = (MutableAttachments) ((PredeterminedManagedObjectAttachments) after).getPredeterminedManagedObjects();
+      attachments.addAttachment("x", Boolean.TRUE);
+      main.addDeployment(after);
+      main.process();
+      main.checkComplete();
+
+      assertTrue(first.getDeployedUnits().contains("after"));
+      assertTrue(required.getDeployedUnits().isEmpty());
+   }
+
+   public void testRelevanceSnapshot() throws Exception
+   {
+      TestFlowDeployer required = new TestFlowDeployer("required");
+      required.setRequiredInputs(Collections.singleton("x"));
+      DeployerClient main = createMainDeployer(required);
+
+      Deployment first = createSimpleDeployment("first");
+      main.addDeployment(first);
+      main.process();
+      main.checkComplete();
+      assertTrue(required.getDeployedUnits().isEmpty());
+
+      // the plan still has the old required inputs
+      required.setRequiredInputs(null);
+      Deployment second = createSimpleDeployment("second");
+      main.addDeployment(second);
+      main.process();
+      main.checkComplete();
+      assertTrue(required.getDeployedUnits().isEmpty());
+
+      MainDeployerImpl mainDeployerImpl = (MainDeployerImpl) main;
+      ((DeployersImpl) mainDeployerImpl.getDeployers()).resetRelevancePlans();
+      Deployment third = createSimpleDeployment("third");
+      main.addDeployment(third);
+      main.process();
+      main.checkComplete();
+      assertEquals(makeSet("third"), required.getDeployedUnits());
+   }
+
+   protected static Set<String> makeSet(String... names)
+   {
+      Set<String> result = new HashSet<String>();
+      for (String name : names)
+         result.add(name);
+      return result;
+   }
+}
@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.deployer.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.plugins.sort.DependenciesTopologicalDeployerSorter;
+import org.jboss.deployers.plugins.sort.DeployerSorter;
+import org.jboss.deployers.plugins.sort.DominoDeployerSorter;
+import org.jboss.deployers.plugins.sort.InOutTopologicalDeployerSorter;
+import org.jboss.deployers.plugins.sort.IncrementalTopologicalDeployerSorter;
+import org.jboss.deployers.plugins.sort.KahnDeployerSorter;
+import org.jboss.deployers.plugins.sort.NewStagedSortedDeployers;
+import org.jboss.deployers.plugins.sort.OldStagedSortedDeployers;
+import org.jboss.deployers.plugins.sort.StagedSortedDeployers;
+import org.jboss.deployers.spi.deployer.Deployer;
+import org.jboss.test.BaseTestCase;
+import org.jboss.test.deployers.deployer.support.TestFlowDeployer;
+
+/**
+ * StagedSortedDeployersUnitTestCase.
+ */
+public class StagedSortedDeployersUnitTestCase extends BaseTestCase
+{
+   public static Test suite()
+   {
+      return new TestSuite(StagedSortedDeployersUnitTestCase.class);
+   }
+
+   public StagedSortedDeployersUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testNewSnapshots() throws Exception
+   {
+      assertSnapshots(new NewStagedSortedDeployers());
+   }
+
+   public void testOldSnapshots() throws Exception
+   {
+      OldStagedSortedDeployers deployers = new OldStagedSortedDeployers();
+      deployers.setSorter(new DependenciesTopologicalDeployerSorter());
+      assertSnapshots(deployers);
+   }
+
+   public void testNewBatch() throws Exception
+   {
+      assertBatch(new NewStagedSortedDeployers());
+   }
+
+   public void testOldBatch() throws Exception
+   {
+      DeployerSorter[] sorters = { new DependenciesTopologicalDeployerSorter(), new KahnDeployerSorter(), new InOutTopologicalDeployerSorter(), new DominoDeployerSorter(), new IncrementalTopologicalDeployerSorter() };
+      for (DeployerSorter sorter : sorters)
+      {
+         OldStagedSortedDeployers deployers = new OldStagedSortedDeployers();
+         deployers.setSorter(sorter);
+         assertBatch(deployers);
+      }
+   }
+
+   public void testNewBatchMatchesSequential() throws Exception
+   {
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setOutputs("a");
+      deployer1.setRelativeOrder(20);
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setRelativeOrder(10);
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("a");
+      TestFlowDeployer deployer4 = new TestFlowDeployer("4");
+      deployer4.setRelativeOrder(10);
+      TestFlowDeployer deployer5 = new TestFlowDeployer("5");
+      deployer5.setInputs("a");
+      deployer5.setOutputs("a");
+      TestFlowDeployer deployer6 = new TestFlowDeployer("6");
+      deployer6.setInputs("b");
+      deployer6.setOutputs("c");
+      TestFlowDeployer deployer7 = new TestFlowDeployer("7");
+      deployer7.setInputs("c", "a");
+      deployer7.setRelativeOrder(5);
+      TestFlowDeployer deployer0 = new TestFlowDeployer("0");
+      deployer0.setOutputs("b");
+      deployer0.setRelativeOrder(30);
+
+      Deployer[] all = { deployer3, deployer4, deployer1, deployer7, deployer2, deployer5, deployer0, deployer6 };
+      for (int shift = 0; shift < all.length; ++shift)
+      {
+         List<Deployer> batch = new ArrayList<Deployer>();
+         for (int i = 0; i < all.length; ++i)
+            batch.add(all[(i + shift) % all.length]);
+
+         NewStagedSortedDeployers sequential = new NewStagedSortedDeployers();
+         for (Deployer deployer : batch)
+            sequential.addDeployer("stage", deployer);
+         NewStagedSortedDeployers batched = new NewStagedSortedDeployers();
+         batched.addDeployers("stage", batch);
+
+         assertEquals(batch.toString(), sequential.getDeployerList("stage"), batched.getDeployerList("stage"));
+
+         // a batch added to existing deployers too
+         NewStagedSortedDeployers existing = new NewStagedSortedDeployers();
+         existing.addDeployer("stage", batch.get(0));
+         existing.addDeployers("stage", batch.subList(1, batch.size()));
+         assertEquals(batch.toString(), sequential.getDeployerList("stage"), existing.getDeployerList("stage"));
+      }
+   }
+
+   public void testNewBatchCycle() throws Exception
+   {
+      NewStagedSortedDeployers deployers = new NewStagedSortedDeployers();
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setOutputs("a");
+      deployers.addDeployer("stage", deployer1);
+
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("b");
+      deployer2.setOutputs("c");
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("c");
+      deployer3.setOutputs("b");
+      List<Deployer> batch = new ArrayList<Deployer>();
+      batch.add(deployer2);
+      batch.add(deployer3);
+      try
+      {
+         deployers.addDeployers("stage", batch);
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(IllegalStateException.class, t);
+      }
+
+      List<Deployer> sorted = deployers.getDeployerList("stage");
+      assertEquals(1, sorted.size());
+      assertSame(deployer1, sorted.get(0));
+
+      TestFlowDeployer deployer4 = new TestFlowDeployer("4");
+      deployer4.setInputs("c");
+      deployers.addDeployer("stage", deployer4);
+      sorted = deployers.getDeployerList("stage");
+      assertEquals(2, sorted.size());
+   }
+
+   protected void assertBatch(StagedSortedDeployers deployers) throws Exception
+   {
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setOutputs("a");
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("a");
+      deployer2.setOutputs("b");
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("b");
+      TestFlowDeployer deployer4 = new TestFlowDeployer("4");
+      deployer4.setInputs("b");
+      deployer4.setOutputs("c");
+
+      deployers.addDeployer("stage", deployer2);
+      List<Deployer> batch = new ArrayList<Deployer>();
+      batch.add(deployer4);
+      batch.add(deployer3);
+      batch.add(deployer1);
+      deployers.addDeployers("stage", batch);
+
+      List<Deployer> sorted = deployers.getDeployerList("stage");
+      assertEquals(4, sorted.size());
+      assertTrue(sorted.indexOf(deployer1) < sorted.indexOf(deployer2));
+      assertTrue(sorted.indexOf(deployer2) < sorted.indexOf(deployer3));
+      assertTrue(sorted.indexOf(deployer2) < sorted.indexOf(deployer4));
+   }
+
+   protected void assertSnapshots(StagedSortedDeployers deployers) throws Exception
+   {
+      TestFlowDeployer deployer1 = new TestFlowDeployer("1");
+      deployer1.setOutputs("test");
+      TestFlowDeployer deployer2 = new TestFlowDeployer("2");
+      deployer2.setInputs("test");
+      TestFlowDeployer deployer3 = new TestFlowDeployer("3");
+      deployer3.setInputs("test");
+
+      assertTrue(deployers.getDeployerList("stage").isEmpty());
+
+      deployers.addDeployer("stage", deployer2);
+      deployers.addDeployer("stage", deployer1);
+      List<Deployer> snapshot = deployers.getDeployerList("stage");
+      assertEquals(2, snapshot.size());
+      assertSame(deployer1, snapshot.get(0));
+      assertSame(deployer2, snapshot.get(1));
+      assertSame(snapshot, deployers.getDeployerList("stage"));
+
+      deployers.addDeployer("stage", deployer3);
+      assertEquals(2, snapshot.size());
+      assertEquals(3, deployers.getDeployerList("stage").size());
+
+      List<Deployer> before = deployers.getDeployerList("stage");
+      deployers.removeDeployer("stage", deployer2);
+      assertEquals(3, before.size());
+      assertEquals(2, deployers.getDeployerList("stage").size());
+
+      try
+      {
+         snapshot.add(deployer3);
+         fail("Should not be able to modify a snapshot");
+      }
+      catch (Exception e)
+      {
+         checkThrowable(UnsupportedOperationException.class, e);
+      }
+   }
+}
@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.Set;
 
 import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.deployer.DeploymentStage;
 import org.jboss.deployers.spi.deployer.matchers.JarExtensionProvider;
 import org.jboss.deployers.spi.deployer.matchers.NameIgnoreMechanism;
 import org.jboss.deployers.structure.spi.DeploymentUnit;
@@ -57,6 +58,12 @@ public abstract class AbstractParsingDeployerWithOutput<T> extends AbstractParsi
 
    /** Should the ManagedObjects be created for the output metadata */
    private boolean buildManagedObject = false;
+
+   /** The stage after which the output is released */
+   private DeploymentStage releaseStage;
+
+   /** Whether the released output is kept behind a soft reference */
+   private boolean softRelease;
    
    /**
     * Create a new AbstractParsingDeployerWithOutput.
@@ -204,6 +211,47 @@ public abstract class AbstractParsingDeployerWithOutput<T> extends AbstractParsi
       this.buildManagedObject = buildManagedObject;
    }
 
+   /**
+    * Get the stage after which the output is released from the unit.
+    *
+    * @return the stage or null if the output stays with the unit
+    */
+   public DeploymentStage getReleaseStage()
+   {
+      return releaseStage;
+   }
+
+   /**
+    * Set the stage after which the output is released from the unit.
+    *
+    * @param releaseStage the stage or null to keep the output
+    */
+   public void setReleaseStage(DeploymentStage releaseStage)
+   {
+      this.releaseStage = releaseStage;
+   }
+
+   /**
+    * Whether the released output is kept behind a soft reference,
+    * so a later deploy of the unit can reuse it instead of parsing again.
+    *
+    * @return true to keep it softly
+    */
+   public boolean isSoftRelease()
+   {
+      return softRelease;
+   }
+
+   /**
+    * Set whether the released output is kept behind a soft reference.
+    *
+    * @param softRelease true to keep it softly
+    */
+   public void setSoftRelease(boolean softRelease)
+   {
+      this.softRelease = softRelease;
+   }
+
    /**
     * A flag indicating whether createMetaData should execute a parse even if a non-null metadata value exists.
     * 
@@ -336,8 +384,19 @@ public abstract class AbstractParsingDeployerWithOutput<T> extends AbstractParsi
    {
       // First see whether it already exists
       T result = getMetaData(unit, key);
+      boolean restored = false;
+      if (result == null && releaseStage != null)
+      {
+         // Released at an earlier stage, reuse it while it is still around
+         result = AttachmentRetention.getReleased(unit, key, getOutput());
+         restored = result != null;
+      }
       if (result != null && allowsReparse() == false)
+      {
+         if (restored)
+            addMetaData(unit, key, result);
          return;
+      }
 
       // Create it
       try
@@ -367,7 +426,21 @@ public abstract class AbstractParsingDeployerWithOutput<T> extends AbstractParsi
          return;
       
       // Register it
-      unit.getTransientManagedObjects().addAttachment(key, result, getOutput());
+      addMetaData(unit, key, result);
+   }
+
+   /**
+    * Attach the meta data and declare its release
+    *
+    * @param unit the deployment unit
+    * @param key the key into the managed objects
+    * @param metaData the meta data
+    */
+   protected void addMetaData(DeploymentUnit unit, String key, T metaData)
+   {
+      unit.getTransientManagedObjects().addAttachment(key, metaData, getOutput());
+      if (releaseStage != null)
+         AttachmentRetention.releaseAt(unit, key, releaseStage, softRelease);
    }
 
    /**
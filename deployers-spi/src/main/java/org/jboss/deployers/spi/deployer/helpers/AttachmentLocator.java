@@ -21,9 +21,13 @@
  */
 package org.jboss.deployers.spi.deployer.helpers;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AttachmentIndex;
 
 /**
  * Search a DeploymentUnit structure from child to parent for a matching
@@ -143,7 +147,10 @@ public class AttachmentLocator
    }
 
    /**
-    * Get a named attachment, search in children
+    * Get a named attachment, search in children.<p>
+    *
+    * When the deployment has an {@link AttachmentIndex} only
+    * the units holding the attachment are visited.
     *
     * @param unit the deployment unit
     * @param name the name of the attachment
@@ -152,6 +159,10 @@ public class AttachmentLocator
     */
    public static Object searchChildren(DeploymentUnit unit, String name)
    {
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(unit);
+      if (index != null)
+         return index.searchChildren(unit, name);
+
       Object attachment = unit.getAttachment(name);
       if (attachment != null)
          return attachment;
@@ -219,4 +230,102 @@ public class AttachmentLocator
 
       return searchChildren(unit, type.getName(), type);
    }
+
+   /**
+    * Get all the attachments of the given type, search the unit, its components and children
+    *
+    * @param <T> the expected type
+    * @param unit the deployment unit
+    * @param type the type
+    * @return the attachments in the order they were found
+    * @throws IllegalArgumentException for a null type
+    */
+   public static <T> Set<T> searchAllChildren(DeploymentUnit unit, Class<T> type)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null expected type.");
+
+      Set<T> result = new LinkedHashSet<T>();
+      searchAllChildren(unit, type, result);
+      return result;
+   }
+
+   /**
+    * Add the attachments of the given type in the unit, its components and children
+    *
+    * @param <T> the expected type
+    * @param unit the deployment unit
+    * @param type the type
+    * @param result the attachments
+    */
+   private static <T> void searchAllChildren(DeploymentUnit unit, Class<T> type, Set<T> result)
+   {
+      result.addAll(unit.getAllMetaData(type));
+
+      List<DeploymentUnit> components = unit.getComponents();
+      if (components != null && components.isEmpty() == false)
+      {
+         for (DeploymentUnit component : components)
+            searchAllChildren(component, type, result);
+      }
+
+      List<DeploymentUnit> children = unit.getChildren();
+      if (children != null && children.isEmpty() == false)
+      {
+         for (DeploymentUnit child : children)
+            searchAllChildren(child, type, result);
+      }
+   }
+
+   /**
+    * Get the units that see a named attachment, search the unit, its components and children.<p>
+    *
+    * When the deployment has an {@link AttachmentIndex} only
+    * the units holding the attachment are visited.
+    *
+    * @param unit the deployment unit
+    * @param name the name of the attachment
+    * @return the units in the order they were found
+    * @throws IllegalArgumentException for a null name
+    */
+   public static List<DeploymentUnit> searchUnits(DeploymentUnit unit, String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(unit);
+      if (index != null)
+         return index.searchUnits(unit, name);
+
+      List<DeploymentUnit> result = new ArrayList<DeploymentUnit>();
+      searchUnits(unit, name, result);
+      return result;
+   }
+
+   /**
+    * Add the units that see a named attachment in the unit, its components and children
+    *
+    * @param unit the deployment unit
+    * @param name the name of the attachment
+    * @param result the units
+    */
+   private static void searchUnits(DeploymentUnit unit, String name, List<DeploymentUnit> result)
+   {
+      if (unit.getAttachment(name) != null)
+         result.add(unit);
+
+      List<DeploymentUnit> components = unit.getComponents();
+      if (components != null && components.isEmpty() == false)
+      {
+         for (DeploymentUnit component : components)
+            searchUnits(component, name, result);
+      }
+
+      List<DeploymentUnit> children = unit.getChildren();
+      if (children != null && children.isEmpty() == false)
+      {
+         for (DeploymentUnit child : children)
+            searchUnits(child, name, result);
+      }
+   }
 }
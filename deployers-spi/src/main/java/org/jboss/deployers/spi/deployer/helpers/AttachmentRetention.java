@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.spi.deployer.helpers;
+
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.jboss.deployers.spi.deployer.DeploymentStage;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * The attachments of a unit that are only needed until a stage.<p>
+ *
+ * Deployers declare them with {@link #releaseAt(DeploymentUnit, String, DeploymentStage, boolean)},
+ * once the unit reaches the stage, or a later one when the stage had already passed,
+ * the deployers release them from the unit's own transient managed objects and
+ * transient attachments. The deployers only look for releases in deployments
+ * marked by a declaration, see {@link #isPending(DeploymentUnit)}. A soft release keeps the
+ * attachment behind a soft reference where {@link #getReleased(DeploymentUnit, String)}
+ * can still find it until memory runs low.
+ */
+public class AttachmentRetention
+{
+   /** Whether the release is soft by attachment name, by stage name */
+   private final Map<String, Map<String, Boolean>> byStage = new HashMap<String, Map<String, Boolean>>();
+
+   /** The attachments released softly */
+   private final Map<String, SoftReference<Object>> released = new HashMap<String, SoftReference<Object>>();
+
+   /** Whether a unit of the deployment declared a release, only used on the top level */
+   private volatile boolean pending;
+
+   /**
+    * Get the retention of a unit
+    *
+    * @param unit the unit
+    * @return the retention or null if nothing was declared for the unit
+    */
+   public static AttachmentRetention getAttachmentRetention(DeploymentUnit unit)
+   {
+      if (unit == null)
+         throw new IllegalArgumentException("Null unit");
+      // only the unit's own layer, components would otherwise see their parent's
+      return unit.getTransientManagedObjects().getAttachment(AttachmentRetention.class);
+   }
+
+   /**
+    * Release an attachment once the unit reaches a stage
+    *
+    * @param unit the unit
+    * @param name the attachment name
+    * @param stage the stage
+    * @param soft whether to keep the attachment behind a soft reference
+    */
+   public static void releaseAt(DeploymentUnit unit, String name, DeploymentStage stage, boolean soft)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      if (stage == null)
+         throw new IllegalArgumentException("Null stage");
+
+      getOrCreate(unit).add(name, stage.getName(), soft);
+      getOrCreate(unit.getTopLevel()).pending = true;
+   }
+
+   /**
+    * Get the retention of a unit, creating it when there is none
+    *
+    * @param unit the unit
+    * @return the retention
+    */
+   private static AttachmentRetention getOrCreate(DeploymentUnit unit)
+   {
+      synchronized (unit)
+      {
+         AttachmentRetention retention = getAttachmentRetention(unit);
+         if (retention == null)
+         {
+            retention = new AttachmentRetention();
+            unit.getTransientManagedObjects().addAttachment(AttachmentRetention.class, retention);
+         }
+         return retention;
+      }
+   }
+
+   /**
+    * Whether releases were declared in a deployment since the mark was last cleared
+    *
+    * @param unit a unit of the deployment
+    * @return true when there may be releases pending
+    */
+   public static boolean isPending(DeploymentUnit unit)
+   {
+      if (unit == null)
+         throw new IllegalArgumentException("Null unit");
+      AttachmentRetention retention = getAttachmentRetention(unit.getTopLevel());
+      return retention != null && retention.pending;
+   }
+
+   /**
+    * Clear the mark of a deployment once none of its units has releases pending
+    *
+    * @param unit a unit of the deployment
+    */
+   public static void clearPending(DeploymentUnit unit)
+   {
+      if (unit == null)
+         throw new IllegalArgumentException("Null unit");
+      AttachmentRetention retention = getAttachmentRetention(unit.getTopLevel());
+      if (retention != null)
+         retention.pending = false;
+   }
+
+   /**
+    * Release an attachment once the unit reaches a stage
+    *
+    * @param unit the unit
+    * @param type the attachment type
+    * @param stage the stage
+    * @param soft whether to keep the attachment behind a soft reference
+    */
+   public static void releaseAt(DeploymentUnit unit, Class<?> type, DeploymentStage stage, boolean soft)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null type");
+      releaseAt(unit, type.getName(), stage, soft);
+   }
+
+   /**
+    * Get an attachment that was released softly
+    *
+    * @param unit the unit
+    * @param name the attachment name
+    * @return the attachment or null if it was not released softly or it is gone
+    */
+   public static Object getReleased(DeploymentUnit unit, String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      AttachmentRetention retention = getAttachmentRetention(unit);
+      if (retention == null)
+         return null;
+      return retention.getReleased(name);
+   }
+
+   /**
+    * Get an attachment that was released softly
+    *
+    * @param <T> the expected type
+    * @param unit the unit
+    * @param name the attachment name
+    * @param expectedType the expected type
+    * @return the attachment or null if it was not released softly or it is gone
+    */
+   public static <T> T getReleased(DeploymentUnit unit, String name, Class<T> expectedType)
+   {
+      if (expectedType == null)
+         throw new IllegalArgumentException("Null expectedType");
+      Object result = getReleased(unit, name);
+      if (result == null)
+         return null;
+      return expectedType.cast(result);
+   }
+
+   /**
+    * Release the attachments declared for the stages reached
+    *
+    * @param unit the unit owning this retention
+    * @param reached the names of the stages reached so far
+    * @return the number of attachments released
+    */
+   public int release(DeploymentUnit unit, Collection<String> reached)
+   {
+      if (unit == null)
+         throw new IllegalArgumentException("Null unit");
+      if (reached == null)
+         throw new IllegalArgumentException("Null reached");
+
+      Map<String, Boolean> names = new HashMap<String, Boolean>();
+      synchronized (this)
+      {
+         for (Iterator<Map.Entry<String, Map<String, Boolean>>> i = byStage.entrySet().iterator(); i.hasNext();)
+         {
+            Map.Entry<String, Map<String, Boolean>> entry = i.next();
+            if (reached.contains(entry.getKey()))
+            {
+               names.putAll(entry.getValue());
+               i.remove();
+            }
+         }
+      }
+
+      int result = 0;
+      for (Map.Entry<String, Boolean> entry : names.entrySet())
+      {
+         String name = entry.getKey();
+         Object value = unit.getTransientManagedObjects().removeAttachment(name);
+         Object other = unit.removeAttachment(name);
+         if (value == null)
+            value = other;
+         if (value == null)
+            continue;
+         ++result;
+         if (entry.getValue())
+         {
+            synchronized (this)
+            {
+               released.put(name, new SoftReference<Object>(value));
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Whether there are attachments waiting for their stage
+    *
+    * @return true when there are
+    */
+   public synchronized boolean hasPendingReleases()
+   {
+      return byStage.isEmpty() == false;
+   }
+
+   /**
+    * Declare a release
+    *
+    * @param name the attachment name
+    * @param stage the stage name
+    * @param soft whether to keep a soft reference
+    */
+   private synchronized void add(String name, String stage, boolean soft)
+   {
+      Map<String, Boolean> names = byStage.get(stage);
+      if (names == null)
+      {
+         names = new HashMap<String, Boolean>();
+         byStage.put(stage, names);
+      }
+      names.put(name, soft);
+   }
+
+   /**
+    * Get a softly released attachment, forgetting the ones that are gone
+    *
+    * @param name the name
+    * @return the attachment or null
+    */
+   private synchronized Object getReleased(String name)
+   {
+      SoftReference<Object> ref = released.get(name);
+      if (ref == null)
+         return null;
+      Object result = ref.get();
+      if (result == null)
+      {
+         for (Iterator<SoftReference<Object>> i = released.values().iterator(); i.hasNext();)
+         {
+            if (i.next().get() == null)
+               i.remove();
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      return "AttachmentRetention" + byStage + " released=" + released.keySet();
+   }
+}
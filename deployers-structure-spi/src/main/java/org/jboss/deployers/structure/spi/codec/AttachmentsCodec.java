@@ -0,0 +1,346 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+
+/**
+ * A compact binary codec for attachments.<p>
+ *
+ * Names and type keys go through a string table, values are written by the
+ * {@link TypeSerializer} registered for their type. Any other Serializable
+ * value falls back to java serialization, sharing one object stream with the
+ * rest of the encoding so class descriptors are written once.
+ */
+public class AttachmentsCodec
+{
+   /** The key of java serialized values */
+   private static final String SERIALIZED = "";
+
+   /** The serializers by type name */
+   private final Map<String, TypeSerializer<?>> byName = new ConcurrentHashMap<String, TypeSerializer<?>>();
+
+   /** The serializers found for a class */
+   private final Map<Class<?>, TypeSerializer<?>> byClass = new ConcurrentHashMap<Class<?>, TypeSerializer<?>>();
+
+   /** The class loader of java serialized values */
+   private volatile ClassLoader classLoader;
+
+   /**
+    * Create a new AttachmentsCodec.
+    */
+   public AttachmentsCodec()
+   {
+      addSerializer(new TypeSerializer<String>()
+      {
+         public Class<String> getType()
+         {
+            return String.class;
+         }
+
+         public void write(CodecOutput out, String value) throws IOException
+         {
+            out.writeString(value);
+         }
+
+         public String read(CodecInput in) throws IOException
+         {
+            return in.readString();
+         }
+      });
+      addSerializer(new TypeSerializer<Integer>()
+      {
+         public Class<Integer> getType()
+         {
+            return Integer.class;
+         }
+
+         public void write(CodecOutput out, Integer value) throws IOException
+         {
+            out.writeInt(value);
+         }
+
+         public Integer read(CodecInput in) throws IOException
+         {
+            return in.readInt();
+         }
+      });
+      addSerializer(new TypeSerializer<Long>()
+      {
+         public Class<Long> getType()
+         {
+            return Long.class;
+         }
+
+         public void write(CodecOutput out, Long value) throws IOException
+         {
+            out.writeLong(value);
+         }
+
+         public Long read(CodecInput in) throws IOException
+         {
+            return in.readLong();
+         }
+      });
+      addSerializer(new TypeSerializer<Boolean>()
+      {
+         public Class<Boolean> getType()
+         {
+            return Boolean.class;
+         }
+
+         public void write(CodecOutput out, Boolean value) throws IOException
+         {
+            out.writeBoolean(value);
+         }
+
+         public Boolean read(CodecInput in) throws IOException
+         {
+            return in.readBoolean();
+         }
+      });
+   }
+
+   /**
+    * Add a serializer
+    *
+    * @param serializer the serializer
+    * @throws IllegalArgumentException for a null serializer
+    */
+   public void addSerializer(TypeSerializer<?> serializer)
+   {
+      if (serializer == null)
+         throw new IllegalArgumentException("Null serializer");
+      byName.put(serializer.getType().getName(), serializer);
+      byClass.clear();
+   }
+
+   /**
+    * Remove a serializer
+    *
+    * @param type the type
+    */
+   public void removeSerializer(Class<?> type)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null type");
+      byName.remove(type.getName());
+      byClass.clear();
+   }
+
+   /**
+    * Get the class loader of java serialized values
+    *
+    * @return the class loader or null to resolve classes like java serialization
+    */
+   public ClassLoader getClassLoader()
+   {
+      return classLoader;
+   }
+
+   /**
+    * Set the class loader of java serialized values
+    *
+    * @param classLoader the class loader or null to resolve classes like java serialization
+    */
+   public void setClassLoader(ClassLoader classLoader)
+   {
+      this.classLoader = classLoader;
+   }
+
+   /**
+    * Encode attachments
+    *
+    * @param attachments the attachments
+    * @param os the output stream
+    * @throws IOException for any error
+    */
+   public void writeAttachments(Attachments attachments, OutputStream os) throws IOException
+   {
+      CodecOutput out = new CodecOutput(this, os);
+      writeAttachments(out, attachments);
+      out.flush();
+   }
+
+   /**
+    * Decode attachments
+    *
+    * @param attachments the attachments to add to
+    * @param is the input stream
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   public void readAttachments(MutableAttachments attachments, InputStream is) throws IOException, ClassNotFoundException
+   {
+      readAttachments(new CodecInput(this, is), attachments);
+   }
+
+   /**
+    * Write attachments
+    *
+    * @param out the output
+    * @param attachments the attachments
+    * @throws IOException for any error
+    */
+   protected void writeAttachments(CodecOutput out, Attachments attachments) throws IOException
+   {
+      Map<String, Object> map = attachments.getAttachments();
+      out.writeInt(map.size());
+      for (Map.Entry<String, Object> entry : map.entrySet())
+      {
+         out.writeString(entry.getKey());
+         writeValue(out, entry.getValue());
+      }
+   }
+
+   /**
+    * Read attachments
+    *
+    * @param in the input
+    * @param attachments the attachments to add to
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   protected void readAttachments(CodecInput in, MutableAttachments attachments) throws IOException, ClassNotFoundException
+   {
+      int size = in.readInt();
+      for (int i = 0; i < size; ++i)
+      {
+         String name = in.readString();
+         Object value = readValue(in);
+         if (value != null)
+            attachments.addAttachment(name, value);
+      }
+   }
+
+   /**
+    * Write a value
+    *
+    * @param out the output
+    * @param value the value
+    * @throws IOException for any error
+    */
+   @SuppressWarnings("unchecked")
+   void writeValue(CodecOutput out, Object value) throws IOException
+   {
+      if (value == null)
+      {
+         out.writeString(null);
+         return;
+      }
+      TypeSerializer serializer = getSerializer(value.getClass());
+      if (serializer != null)
+      {
+         out.writeString(serializer.getType().getName());
+         serializer.write(out, value);
+         return;
+      }
+      if (value instanceof Serializable == false)
+         throw new NotSerializableException(value.getClass().getName());
+
+      out.writeString(SERIALIZED);
+      out.writeSerialized(value);
+   }
+
+   /**
+    * Read a value
+    *
+    * @param in the input
+    * @return the value
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   Object readValue(CodecInput in) throws IOException, ClassNotFoundException
+   {
+      String key = in.readString();
+      if (key == null)
+         return null;
+      if (SERIALIZED.equals(key))
+         return in.readSerialized();
+      TypeSerializer<?> serializer = byName.get(key);
+      if (serializer == null)
+         throw new StreamCorruptedException("No serializer for " + key);
+      return serializer.read(in);
+   }
+
+   /**
+    * Resolve the class of a java serialized value
+    *
+    * @param name the class name
+    * @return the class or null to resolve it like java serialization
+    * @throws ClassNotFoundException if the class is not found
+    */
+   protected Class<?> resolveClass(String name) throws ClassNotFoundException
+   {
+      ClassLoader cl = classLoader;
+      if (cl == null)
+         return null;
+      try
+      {
+         return Class.forName(name, false, cl);
+      }
+      catch (ClassNotFoundException e)
+      {
+         // Primitive types are only known to java serialization
+         return null;
+      }
+   }
+
+   /**
+    * Get the serializer for a class
+    *
+    * @param clazz the class
+    * @return the serializer or null if there is none
+    */
+   protected TypeSerializer<?> getSerializer(Class<?> clazz)
+   {
+      TypeSerializer<?> result = byClass.get(clazz);
+      if (result != null)
+         return result;
+
+      result = byName.get(clazz.getName());
+      if (result == null)
+      {
+         for (TypeSerializer<?> serializer : byName.values())
+         {
+            if (serializer.getType().isAssignableFrom(clazz))
+            {
+               result = serializer;
+               break;
+            }
+         }
+      }
+      if (result != null)
+         byClass.put(clazz, result);
+      return result;
+   }
+}
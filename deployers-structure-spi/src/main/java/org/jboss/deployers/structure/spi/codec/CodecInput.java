@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The input of the {@link AttachmentsCodec}.
+ */
+public class CodecInput
+{
+   /** The encoding of strings */
+   static final String ENCODING = "UTF-8";
+
+   /** The codec */
+   private final AttachmentsCodec codec;
+
+   /** The input */
+   private final ObjectInputStream in;
+
+   /** The strings read so far */
+   private final List<String> strings = new ArrayList<String>();
+
+   /**
+    * Create a new CodecInput.
+    *
+    * @param codec the codec
+    * @param in the input
+    * @throws IOException for any error reading the stream header
+    */
+   CodecInput(AttachmentsCodec codec, InputStream in) throws IOException
+   {
+      this.codec = codec;
+      this.in = new CodecObjectInputStream(codec, in);
+   }
+
+   /**
+    * Read an int
+    *
+    * @return the value
+    * @throws IOException for any error
+    */
+   public int readInt() throws IOException
+   {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7)
+      {
+         int b = in.readUnsignedByte();
+         result |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return result;
+      }
+      throw new StreamCorruptedException("Malformed int");
+   }
+
+   /**
+    * Read a long
+    *
+    * @return the value
+    * @throws IOException for any error
+    */
+   public long readLong() throws IOException
+   {
+      return in.readLong();
+   }
+
+   /**
+    * Read a boolean
+    *
+    * @return the value
+    * @throws IOException for any error
+    */
+   public boolean readBoolean() throws IOException
+   {
+      return in.readBoolean();
+   }
+
+   /**
+    * Read bytes
+    *
+    * @return the bytes
+    * @throws IOException for any error
+    */
+   public byte[] readBytes() throws IOException
+   {
+      byte[] result = new byte[readInt()];
+      in.readFully(result);
+      return result;
+   }
+
+   /**
+    * Read a string
+    *
+    * @return the string or null
+    * @throws IOException for any error
+    */
+   public String readString() throws IOException
+   {
+      int index = readInt();
+      if (index == 0)
+         return null;
+      if (index == 1)
+      {
+         String result = new String(readBytes(), ENCODING);
+         strings.add(result);
+         return result;
+      }
+      index -= 2;
+      if (index >= strings.size())
+         throw new StreamCorruptedException("Unknown string " + index);
+      return strings.get(index);
+   }
+
+   /**
+    * Read a value with the serializer for its type
+    *
+    * @return the value or null
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   public Object readObject() throws IOException, ClassNotFoundException
+   {
+      return codec.readValue(this);
+   }
+
+   /**
+    * Read a value with java serialization
+    *
+    * @return the value
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   Object readSerialized() throws IOException, ClassNotFoundException
+   {
+      return in.readObject();
+   }
+
+   /**
+    * Resolves the classes through the codec
+    */
+   private static class CodecObjectInputStream extends ObjectInputStream
+   {
+      /** The codec */
+      private final AttachmentsCodec codec;
+
+      private CodecObjectInputStream(AttachmentsCodec codec, InputStream in) throws IOException
+      {
+         super(in);
+         this.codec = codec;
+      }
+
+      @Override
+      protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+      {
+         Class<?> result = codec.resolveClass(desc.getName());
+         if (result != null)
+            return result;
+         return super.resolveClass(desc);
+      }
+   }
+}
@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.codec;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The output of the {@link AttachmentsCodec}.<p>
+ *
+ * Strings are written once, later occurrences refer to the first by number.
+ * Everything goes through one object stream, so java serialized values share
+ * their class descriptors and references.
+ */
+public class CodecOutput
+{
+   /** The codec */
+   private final AttachmentsCodec codec;
+
+   /** The output */
+   private final ObjectOutputStream out;
+
+   /** The strings written so far */
+   private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+   /**
+    * Create a new CodecOutput.
+    *
+    * @param codec the codec
+    * @param out the output
+    * @throws IOException for any error writing the stream header
+    */
+   CodecOutput(AttachmentsCodec codec, OutputStream out) throws IOException
+   {
+      this.codec = codec;
+      this.out = new ObjectOutputStream(out);
+   }
+
+   /**
+    * Write an int, small values take less space
+    *
+    * @param value the value
+    * @throws IOException for any error
+    */
+   public void writeInt(int value) throws IOException
+   {
+      while ((value & ~0x7F) != 0)
+      {
+         out.writeByte((value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte(value);
+   }
+
+   /**
+    * Write a long
+    *
+    * @param value the value
+    * @throws IOException for any error
+    */
+   public void writeLong(long value) throws IOException
+   {
+      out.writeLong(value);
+   }
+
+   /**
+    * Write a boolean
+    *
+    * @param value the value
+    * @throws IOException for any error
+    */
+   public void writeBoolean(boolean value) throws IOException
+   {
+      out.writeBoolean(value);
+   }
+
+   /**
+    * Write bytes
+    *
+    * @param bytes the bytes
+    * @throws IOException for any error
+    */
+   public void writeBytes(byte[] bytes) throws IOException
+   {
+      writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   /**
+    * Write a string
+    *
+    * @param value the string or null
+    * @throws IOException for any error
+    */
+   public void writeString(String value) throws IOException
+   {
+      if (value == null)
+      {
+         writeInt(0);
+         return;
+      }
+      Integer index = strings.get(value);
+      if (index != null)
+      {
+         writeInt(index + 2);
+         return;
+      }
+      strings.put(value, strings.size());
+      writeInt(1);
+      // Not writeUTF, it is limited to 64K
+      writeBytes(value.getBytes(CodecInput.ENCODING));
+   }
+
+   /**
+    * Write a value with the serializer for its type
+    *
+    * @param value the value or null
+    * @throws IOException for any error
+    */
+   public void writeObject(Object value) throws IOException
+   {
+      codec.writeValue(this, value);
+   }
+
+   /**
+    * Write a value with java serialization
+    *
+    * @param value the value
+    * @throws IOException for any error
+    */
+   void writeSerialized(Object value) throws IOException
+   {
+      out.writeObject(value);
+   }
+
+   /**
+    * Flush the output
+    *
+    * @throws IOException for any error
+    */
+   public void flush() throws IOException
+   {
+      out.flush();
+   }
+}
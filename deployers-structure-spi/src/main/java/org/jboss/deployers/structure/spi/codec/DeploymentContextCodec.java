@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.List;
+
+import org.jboss.deployers.client.spi.Deployment;
+import org.jboss.deployers.plugins.attachments.AttachmentsImpl;
+import org.jboss.deployers.spi.DeploymentState;
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.ComponentDeploymentContext;
+
+/**
+ * A compact binary codec for deployment context trees.<p>
+ *
+ * Writes the same state as the externalized form of {@link AbstractDeploymentContext},
+ * except the deployment types, with the names and type keys shared through the string table.
+ * Subclasses handle other context types by overriding {@link #writeContext(CodecOutput, DeploymentContext)}
+ * and {@link #createContext(CodecInput, String, String, String)}.
+ */
+public class DeploymentContextCodec extends AttachmentsCodec
+{
+   /**
+    * Encode a deployment context with its components and children
+    *
+    * @param context the context
+    * @param os the output stream
+    * @throws IOException for any error
+    */
+   public void writeDeploymentContext(DeploymentContext context, OutputStream os) throws IOException
+   {
+      if (context == null)
+         throw new IllegalArgumentException("Null context");
+      CodecOutput out = new CodecOutput(this, os);
+      writeTree(out, context);
+      out.flush();
+   }
+
+   /**
+    * Decode a deployment context with its components and children
+    *
+    * @param is the input stream
+    * @return the context
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   public DeploymentContext readDeploymentContext(InputStream is) throws IOException, ClassNotFoundException
+   {
+      return readTree(new CodecInput(this, is), null);
+   }
+
+   /**
+    * Write a context and its subtree
+    *
+    * @param out the output
+    * @param context the context
+    * @throws IOException for any error
+    */
+   protected void writeTree(CodecOutput out, DeploymentContext context) throws IOException
+   {
+      out.writeString(context.getName());
+      out.writeString(context.getSimpleName());
+      out.writeString(context.getRelativePath());
+      writeContext(out, context);
+      out.writeInt(context.getRelativeOrder());
+      DeploymentState state = context.getState();
+      out.writeString(state != null ? state.name() : null);
+      out.writeBoolean(context.isDeployed());
+      writeValue(out, context.getProblem());
+      writeValue(out, context.getDeployment());
+      Attachments predetermined = context.getPredeterminedManagedObjects();
+      if (predetermined != null)
+      {
+         out.writeBoolean(true);
+         writeAttachments(out, predetermined);
+      }
+      else
+      {
+         out.writeBoolean(false);
+      }
+
+      writeComponents(out, context.getComponents());
+
+      List<DeploymentContext> children = context.getChildren();
+      out.writeInt(children.size());
+      for (DeploymentContext child : children)
+         writeTree(out, child);
+   }
+
+   /**
+    * Read a context and its subtree
+    *
+    * @param in the input
+    * @param parent the parent or null for the top level
+    * @return the context
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   protected DeploymentContext readTree(CodecInput in, DeploymentContext parent) throws IOException, ClassNotFoundException
+   {
+      String name = in.readString();
+      String simpleName = in.readString();
+      String relativePath = in.readString();
+      if (name == null)
+         throw new StreamCorruptedException("Null context name");
+      DeploymentContext context = createContext(in, name, simpleName, relativePath);
+      context.setRelativeOrder(in.readInt());
+      String state = in.readString();
+      if (state != null)
+         context.setState(DeploymentState.valueOf(state));
+      boolean deployed = in.readBoolean();
+      context.setProblem((Throwable) readValue(in));
+      Deployment deployment = (Deployment) readValue(in);
+      if (deployment != null)
+         context.setDeployment(deployment);
+      if (in.readBoolean())
+      {
+         AttachmentsImpl predetermined = new AttachmentsImpl();
+         readAttachments(in, predetermined);
+         context.setPredeterminedManagedObjects(predetermined);
+      }
+      if (parent != null)
+      {
+         context.setParent(parent);
+         parent.addChild(context);
+      }
+      if (deployed)
+         context.deployed();
+
+      readComponents(in, context);
+
+      int children = in.readInt();
+      for (int i = 0; i < children; ++i)
+         readTree(in, context);
+      return context;
+   }
+
+   /**
+    * Write the components
+    *
+    * @param out the output
+    * @param components the components
+    * @throws IOException for any error
+    */
+   protected void writeComponents(CodecOutput out, List<DeploymentContext> components) throws IOException
+   {
+      out.writeInt(components.size());
+      for (DeploymentContext component : components)
+      {
+         out.writeString(component.getName());
+         out.writeInt(component.getRelativeOrder());
+         writeComponents(out, component.getComponents());
+      }
+   }
+
+   /**
+    * Read the components
+    *
+    * @param in the input
+    * @param parent the parent context
+    * @throws IOException for any error
+    */
+   protected void readComponents(CodecInput in, DeploymentContext parent) throws IOException
+   {
+      int size = in.readInt();
+      for (int i = 0; i < size; ++i)
+      {
+         String name = in.readString();
+         if (name == null)
+            throw new StreamCorruptedException("Null component name");
+         ComponentDeploymentContext component = new ComponentDeploymentContext(name, parent);
+         component.setRelativeOrder(in.readInt());
+         component.setDeploymentUnit(new AbstractDeploymentUnit(component));
+         parent.addComponent(component);
+         readComponents(in, component);
+      }
+   }
+
+   /**
+    * Write the state particular to the context type, the default writes nothing
+    *
+    * @param out the output
+    * @param context the context
+    * @throws IOException for any error
+    */
+   protected void writeContext(CodecOutput out, DeploymentContext context) throws IOException
+   {
+   }
+
+   /**
+    * Create a context, reading what {@link #writeContext(CodecOutput, DeploymentContext)} wrote
+    *
+    * @param in the input
+    * @param name the name
+    * @param simpleName the simple name
+    * @param relativePath the relative path
+    * @return the context
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   protected DeploymentContext createContext(CodecInput in, String name, String simpleName, String relativePath) throws IOException, ClassNotFoundException
+   {
+      return new AbstractDeploymentContext(name, simpleName, relativePath);
+   }
+}
@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.codec;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads the values of one type for the {@link AttachmentsCodec}.
+ *
+ * @param <T> the type
+ */
+public interface TypeSerializer<T>
+{
+   /**
+    * Get the type
+    *
+    * @return the type, values of subclasses are also handled
+    */
+   Class<T> getType();
+
+   /**
+    * Write a value
+    *
+    * @param out the output
+    * @param value the value
+    * @throws IOException for any error
+    */
+   void write(CodecOutput out, T value) throws IOException;
+
+   /**
+    * Read a value
+    *
+    * @param in the input
+    * @return the value
+    * @throws IOException for any error
+    * @throws ClassNotFoundException if a class is not found
+    */
+   T read(CodecInput in) throws IOException, ClassNotFoundException;
+}
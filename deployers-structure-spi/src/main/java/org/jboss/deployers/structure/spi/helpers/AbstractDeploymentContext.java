@@ -151,6 +151,12 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
    
    /** The transient attachements */
    private transient TrackingMutableAttachments transientAttachments;
+
+   /** The attachment index of a top level deployment */
+   private transient volatile AttachmentIndex attachmentIndex;
+
+   /** The journal of the attachment changes */
+   private transient volatile AttachmentJournal attachmentJournal;
    
    /** The required stage */
    private DeploymentStage requiredStage = DeploymentStages.INSTALLED;
@@ -708,6 +714,9 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
       children.add(child);
       if (server != null)
          registerMBeans(child, true, true);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(this);
+      if (index != null)
+         index.addContext(child);
    }
 
    public boolean removeChild(DeploymentContext child)
@@ -718,6 +727,9 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
          return false;
       if (server != null)
          unregisterMBeans(child, true, true);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(this);
+      if (index != null)
+         index.removeContext(child);
       return children.remove(child);
    }
 
@@ -767,6 +779,9 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
       components.add(component);
       if (server != null)
          registerMBeans(component, true, true);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(this);
+      if (index != null)
+         index.addContext(component);
       log.debug("Added component " + component.getName() + " to " + getName());
    }
 
@@ -781,6 +796,9 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
       if (componentComponents.isEmpty() == false)
          log.warn("Removing component " + name + " which still has components " + componentComponents);
       boolean result = components.remove(component);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(this);
+      if (index != null)
+         index.removeContext(component);
       component.cleanup();
       if (result)
          log.debug("Removed component " + component.getName() + " from " + getName());
@@ -864,6 +882,82 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
       return transientManagedObjects;
    }
 
+   /**
+    * Get how much the transient attachments record about the deployers using them
+    * 
+    * @return the tracking level
+    */
+   public AttachmentTracking getAttachmentTracking()
+   {
+      return transientAttachments.getAttachmentTracking();
+   }
+
+   /**
+    * Set how much the transient attachments record about the deployers using them
+    * 
+    * @param tracking the tracking level
+    */
+   public void setAttachmentTracking(AttachmentTracking tracking)
+   {
+      transientAttachments.setAttachmentTracking(tracking);
+      transientManagedObjects.setAttachmentTracking(tracking);
+   }
+
+   /**
+    * Get the journal of the attachment changes
+    * 
+    * @return the journal or null when there is none
+    */
+   public AttachmentJournal getAttachmentJournal()
+   {
+      return attachmentJournal;
+   }
+
+   /**
+    * Set the journal of the attachment changes
+    * 
+    * @param journal the journal or null to stop recording
+    */
+   public void setAttachmentJournal(AttachmentJournal journal)
+   {
+      this.attachmentJournal = journal;
+      transientAttachments.setAttachmentJournal(journal);
+      transientManagedObjects.setAttachmentJournal(journal);
+   }
+
+   /**
+    * Get the attachment index
+    * 
+    * @return the index or null if the deployment is not indexed
+    */
+   public AttachmentIndex getAttachmentIndex()
+   {
+      return attachmentIndex;
+   }
+
+   /**
+    * Set whether to index the attachments of the deployment
+    * 
+    * @param indexed whether to index
+    * @throws IllegalStateException if this is not a top level deployment
+    */
+   public synchronized void setAttachmentIndexed(boolean indexed)
+   {
+      if (isTopLevel() == false)
+         throw new IllegalStateException("Only a top level deployment can be indexed: " + getName());
+      if (indexed && attachmentIndex == null)
+      {
+         AttachmentIndex index = new AttachmentIndex();
+         index.addContext(this);
+         attachmentIndex = index;
+      }
+      else if (indexed == false && attachmentIndex != null)
+      {
+         attachmentIndex.removeContext(this);
+         attachmentIndex = null;
+      }
+   }
+
    public String listAttachments(boolean detail)
    {
       Set<String> processed = new HashSet<String>();
@@ -883,12 +977,54 @@ public class AbstractDeploymentContext extends ManagedObjectsWithTransientAttach
       return result.toString();
    }
    
+   public int getRetainedAttachmentCount()
+   {
+      int result = 0;
+      for (Attachments attachments : getRetainedAttachments(this, new ArrayList<Attachments>()))
+         result += attachments.getAttachments().size();
+      return result;
+   }
+
+   public long getRetainedAttachmentBytes()
+   {
+      ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+      long result = 0;
+      for (Attachments attachments : getRetainedAttachments(this, new ArrayList<Attachments>()))
+      {
+         for (Object attachment : attachments.getAttachments().values())
+            result += estimator.estimate(attachment);
+      }
+      return result;
+   }
+
+   /**
+    * Collect the attachment layers of a context, its components and its children
+    * 
+    * @param context the context
+    * @param result the layers
+    * @return the layers
+    */
+   protected static List<Attachments> getRetainedAttachments(DeploymentContext context, List<Attachments> result)
+   {
+      // components share their parent's predetermined managed objects
+      if (context.isComponent() == false)
+         result.add(context.getPredeterminedManagedObjects());
+      result.add(context.getTransientManagedObjects());
+      result.add(context.getTransientAttachments());
+      for (DeploymentContext component : context.getComponents())
+         getRetainedAttachments(component, result);
+      for (DeploymentContext child : context.getChildren())
+         getRetainedAttachments(child, result);
+      return result;
+   }
+
    protected static void listAttachments(StringBuilder builder, Attachments attachments, boolean detail, Set<String> processed)
    {
       TrackingMutableAttachments tracking = null;
       if (attachments instanceof TrackingMutableAttachments)
          tracking = (TrackingMutableAttachments) attachments;
 
+      // The maps of the attachments iterate safely while they change, without a copy
       for (Map.Entry<String, Object> attachment : attachments.getAttachments().entrySet())
       {
          String name = attachment.getKey();
@@ -38,4 +38,20 @@ public interface AbstractDeploymentContextMBean extends DeploymentMBean
     * @return the html formatted string
     */
    String listAttachments(boolean detail);
+
+   /**
+    * Get the number of attachments retained by this deployment,
+    * its components and its children
+    * 
+    * @return the number of attachments
+    */
+   int getRetainedAttachmentCount();
+
+   /**
+    * Estimate the memory retained by the attachments of this deployment,
+    * its components and its children
+    * 
+    * @return the estimated bytes
+    */
+   long getRetainedAttachmentBytes();
 }
@@ -26,7 +26,6 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +62,12 @@ public class AbstractDeploymentUnit extends AbstractMutableAttachments implement
    /** The deployment context */
    private DeploymentContext deploymentContext;
 
+   /** The merged attachment view */
+   private transient volatile AttachmentView view;
+
+   /** The lookups that probed the layers since the view went stale */
+   private transient int probes;
+
    /**
     * For serialization
     */
@@ -295,21 +300,16 @@ public class AbstractDeploymentUnit extends AbstractMutableAttachments implement
       return component != null && deploymentContext.removeComponent(component);
    }
 
+   @SuppressWarnings("unchecked")
    public <T> Set<? extends T> getAllMetaData(Class<T> type)
    {
       if (type == null)
          throw new IllegalArgumentException("Null type");
       
-      Set<T> result = new HashSet<T>();
-      Map<String, Object> attachments = getAttachments();
-      for (Object object : attachments.values())
-      {
-         if (type.isInstance(object))
-         {
-            T t = type.cast(object);
-            result.add(t);
-         }
-      }
+      DeploymentContext deploymentContext = getDeploymentContext();
+      DeploymentContext parent = getAttachmentParent(deploymentContext);
+      // A copy, callers are free to modify the result
+      Set<T> result = new HashSet<T>((Set) getView(deploymentContext, parent, true).getAllMetaData(type));
       if (result.isEmpty() == false)
          deploymentContext.deployed();
       return result;
@@ -339,6 +339,7 @@ public class AbstractDeploymentUnit extends AbstractMutableAttachments implement
       DeploymentContext deploymentContext = getDeploymentContext();
       deploymentContext.getTransientAttachments().clearChangeCount();
       deploymentContext.getTransientManagedObjects().clearChangeCount();
+      view = null;
    }
 
    public int getChangeCount()
@@ -354,79 +355,116 @@ public class AbstractDeploymentUnit extends AbstractMutableAttachments implement
 
    public Object getAttachment(String name)
    {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
       DeploymentContext deploymentContext = getDeploymentContext();
-      DeploymentContext parent = deploymentContext.getParent();
+      DeploymentContext parent = getAttachmentParent(deploymentContext);
+      AttachmentView view = getView(deploymentContext, parent, false);
+      Object result;
+      if (view != null)
+         result = view.getAttachment(name);
+      else
+         result = getLayeredAttachment(deploymentContext, parent, name);
+      if (result != null)
+         deploymentContext.deployed();
+      return result;
+   }
+
+   public Map<String, Object> getAttachments()
+   {
+      DeploymentContext deploymentContext = getDeploymentContext();
+      DeploymentContext parent = getAttachmentParent(deploymentContext);
+      Map<String, Object> result = getView(deploymentContext, parent, true).getAttachments();
+      if (result.isEmpty() == false)
+         deploymentContext.deployed();
+      return result;
+   }
+
+   /**
+    * Get the parent whose attachments are visible
+    *
+    * @param deploymentContext the deployment context
+    * @return the parent for a component, null otherwise
+    */
+   private static DeploymentContext getAttachmentParent(DeploymentContext deploymentContext)
+   {
       if (deploymentContext.isComponent() == false)
-         parent = null;
+         return null;
+      return deploymentContext.getParent();
+   }
+
+   /**
+    * Get the merged attachment view.<p>
+    *
+    * For a single lookup a stale view is only rebuilt once the direct lookups
+    * since it went stale cost about as much as the rebuild. A rebuild reads every
+    * attachment once, a direct lookup probes up to one map per layer. So a unit
+    * that is still being populated does not rebuild on every lookup, and a unit
+    * that stopped changing gets its view after a few lookups.
+    *
+    * @param deploymentContext the deployment context
+    * @param parent the parent for a component, null otherwise
+    * @param force whether to always build a view
+    * @return the view or null when the layers should be probed directly
+    */
+   private AttachmentView getView(DeploymentContext deploymentContext, DeploymentContext parent, boolean force)
+   {
+      AttachmentView result = view;
+      int size = 0;
+      if (result != null && result.hasLayers(deploymentContext, parent))
+      {
+         if (result.isCurrent())
+            return result;
+         // A layer without a version is always probed directly
+         if (result.isCacheable() == false && force == false)
+            return null;
+         size = result.size();
+      }
+
+      if (force == false && ++probes * AttachmentView.LAYERS < size)
+         return null;
+      probes = 0;
+      result = new AttachmentView(deploymentContext, parent);
+      view = result;
+      return result;
+   }
+
+   /**
+    * Get an attachment by probing each layer in order of precedence
+    *
+    * @param deploymentContext the deployment context
+    * @param parent the parent for a component, null otherwise
+    * @param name the name
+    * @return the attachment or null if not present
+    */
+   private static Object getLayeredAttachment(DeploymentContext deploymentContext, DeploymentContext parent, String name)
+   {
       Object result = deploymentContext.getPredeterminedManagedObjects().getAttachment(name);
       if (result != null)
-      {
-         deploymentContext.deployed();
          return result;
-      }
       if (parent != null)
       {
          result = parent.getPredeterminedManagedObjects().getAttachment(name);
          if (result != null)
-         {
-            deploymentContext.deployed();
             return result;
-         }
       }
       result = deploymentContext.getTransientManagedObjects().getAttachment(name);
       if (result != null)
-      {
-         deploymentContext.deployed();
          return result;
-      }
       if (parent != null)
       {
          result = parent.getTransientManagedObjects().getAttachment(name);
          if (result != null)
-         {
-            deploymentContext.deployed();
             return result;
-         }
       }
       result = deploymentContext.getTransientAttachments().getAttachment(name);
       if (result != null)
-      {
-         deploymentContext.deployed();
          return result;
-      }
       if (parent != null)
-      {
-         result = parent.getTransientAttachments().getAttachment(name);
-         if (result != null)
-         {
-            deploymentContext.deployed();
-            return result;
-         }
-      }
+         return parent.getTransientAttachments().getAttachment(name);
       return null;
    }
 
-   public Map<String, Object> getAttachments()
-   {
-      DeploymentContext deploymentContext = getDeploymentContext();
-      DeploymentContext parent = deploymentContext.getParent();
-      if (deploymentContext.isComponent() == false)
-         parent = null;
-      HashMap<String, Object> result = new HashMap<String, Object>();
-      if (parent != null)
-         result.putAll(parent.getTransientAttachments().getAttachments());
-      result.putAll(deploymentContext.getTransientAttachments().getAttachments());
-      if (parent != null)
-         result.putAll(parent.getTransientManagedObjects().getAttachments());
-      result.putAll(deploymentContext.getTransientManagedObjects().getAttachments());
-      if (parent != null)
-         result.putAll(parent.getPredeterminedManagedObjects().getAttachments());
-      result.putAll(deploymentContext.getPredeterminedManagedObjects().getAttachments());
-      if (result.isEmpty() == false)
-         deploymentContext.deployed();
-      return Collections.unmodifiableMap(result);
-   }
-
    public boolean hasAttachments()
    {
       DeploymentContext deploymentContext = getDeploymentContext();
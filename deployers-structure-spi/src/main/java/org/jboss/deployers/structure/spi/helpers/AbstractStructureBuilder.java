@@ -52,6 +52,15 @@ public class AbstractStructureBuilder implements StructureBuilder
    /** The structure processor */
    private StructureProcessor structureProcessor;
 
+   /** The attachment tracking of the contexts */
+   private AttachmentTracking attachmentTracking = AttachmentTracking.FULL;
+
+   /** Whether to index the attachments of the deployments */
+   private boolean attachmentIndex;
+
+   /** The number of attachment changes journaled per context */
+   private int attachmentJournalCapacity;
+
    public DeploymentContext populateContext(Deployment deployment, StructureMetaData metaData) throws DeploymentException
    {
       if (deployment == null)
@@ -71,6 +80,7 @@ public class AbstractStructureBuilder implements StructureBuilder
          result = createRootDeploymentContext(deployment, metaData);
          if (result == null)
             throw new IllegalStateException("Root deployment context is null");
+         applyAttachmentTracking(result);
          result.setDeployment(deployment);
 
          ContextInfo contextInfo = metaData.getContext("");
@@ -97,6 +107,8 @@ public class AbstractStructureBuilder implements StructureBuilder
          result.setState(DeploymentState.ERROR);
          log.warn("Error populating deployment " + deployment.getName(), t);
       }
+      if (attachmentIndex && result instanceof AbstractDeploymentContext)
+         ((AbstractDeploymentContext) result).setAttachmentIndexed(true);
       return result;
    }
 
@@ -134,6 +146,7 @@ public class AbstractStructureBuilder implements StructureBuilder
                DeploymentContext childContext = createChildDeploymentContext(context, child);
                if (childContext == null)
                   throw new IllegalStateException("Child deployment context is null");
+               applyAttachmentTracking(childContext);
 
                childContext.setParent(context);
                applyContextInfo(childContext, child);
@@ -290,6 +303,90 @@ public class AbstractStructureBuilder implements StructureBuilder
       return new AbstractDeploymentContext(name, path); 
    }
 
+   /**
+    * Apply the attachment tracking and journal to a context
+    * 
+    * @param context the context
+    */
+   protected void applyAttachmentTracking(DeploymentContext context)
+   {
+      if (context instanceof AbstractDeploymentContext)
+      {
+         AbstractDeploymentContext abstractContext = (AbstractDeploymentContext) context;
+         abstractContext.setAttachmentTracking(attachmentTracking);
+         if (attachmentJournalCapacity > 0)
+            abstractContext.setAttachmentJournal(new AttachmentJournal(attachmentJournalCapacity));
+      }
+   }
+
+   /**
+    * Get how much the transient attachments of the contexts
+    * record about the deployers using them.
+    * 
+    * @return the attachment tracking
+    */
+   public AttachmentTracking getAttachmentTracking()
+   {
+      return attachmentTracking;
+   }
+
+   /**
+    * Set how much the transient attachments of the contexts
+    * record about the deployers using them.
+    * 
+    * @param attachmentTracking the attachment tracking
+    */
+   public void setAttachmentTracking(AttachmentTracking attachmentTracking)
+   {
+      if (attachmentTracking == null)
+         throw new IllegalArgumentException("Null attachment tracking");
+      this.attachmentTracking = attachmentTracking;
+   }
+
+   /**
+    * Get the number of attachment changes journaled per context
+    * 
+    * @return the capacity, zero when there is no journal
+    */
+   public int getAttachmentJournalCapacity()
+   {
+      return attachmentJournalCapacity;
+   }
+
+   /**
+    * Set the number of attachment changes journaled per context
+    * 
+    * @param attachmentJournalCapacity the capacity, zero for no journal
+    */
+   public void setAttachmentJournalCapacity(int attachmentJournalCapacity)
+   {
+      if (attachmentJournalCapacity < 0)
+         throw new IllegalArgumentException("Negative attachment journal capacity: " + attachmentJournalCapacity);
+      this.attachmentJournalCapacity = attachmentJournalCapacity;
+   }
+
+   /**
+    * Whether the attachments of the deployments are indexed
+    * for searching their children
+    * 
+    * @return true when indexed
+    */
+   public boolean isAttachmentIndex()
+   {
+      return attachmentIndex;
+   }
+
+   /**
+    * Set whether to index the attachments of the deployments
+    * for searching their children
+    * 
+    * @param attachmentIndex true to index
+    */
+   public void setAttachmentIndex(boolean attachmentIndex)
+   {
+      this.attachmentIndex = attachmentIndex;
+   }
+
    /**
     * Set structure processor.
     *
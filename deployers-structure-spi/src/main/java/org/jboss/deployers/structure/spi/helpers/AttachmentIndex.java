@@ -0,0 +1,492 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * An index of the attachment names held by the contexts of a top level deployment.<p>
+ *
+ * A context holds an attachment when it is in its own transient attachments,
+ * transient managed objects or, unless it is a component, predetermined managed objects.
+ * The transient layers keep the index up to date, the predetermined managed objects
+ * are indexed when a context joins the index.<p>
+ *
+ * The searches order the holders by their depth first position in the structure,
+ * the positions are numbered again after the structure changed.
+ */
+public class AttachmentIndex
+{
+   /** The contexts holding each attachment */
+   private final ConcurrentMap<String, ConcurrentMap<DeploymentContext, Boolean>> holders = new ConcurrentHashMap<String, ConcurrentMap<DeploymentContext, Boolean>>();
+
+   /** The attachments held by each context, also the lock for the changes of a context */
+   private final ConcurrentMap<DeploymentContext, Set<String>> held = new ConcurrentHashMap<DeploymentContext, Set<String>>();
+
+   /** The number of structure changes */
+   private final AtomicInteger structureVersion = new AtomicInteger();
+
+   /** The depth first positions */
+   private volatile Positions positions;
+
+   /**
+    * Get the index of the top level deployment of a unit
+    *
+    * @param unit the unit
+    * @return the index or null if there is none
+    */
+   public static AttachmentIndex getAttachmentIndex(DeploymentUnit unit)
+   {
+      DeploymentUnit top = unit.getTopLevel();
+      if (top instanceof AbstractDeploymentUnit)
+         return getAttachmentIndex(((AbstractDeploymentUnit) top).getDeploymentContext());
+      return null;
+   }
+
+   /**
+    * Get the index of the top level deployment of a context
+    *
+    * @param context the context
+    * @return the index or null if there is none
+    */
+   static AttachmentIndex getAttachmentIndex(DeploymentContext context)
+   {
+      DeploymentContext top = context.getTopLevel();
+      if (top instanceof AbstractDeploymentContext)
+         return ((AbstractDeploymentContext) top).getAttachmentIndex();
+      return null;
+   }
+
+   /**
+    * Get the units holding an attachment
+    *
+    * @param name the attachment name
+    * @return the units
+    */
+   public Set<DeploymentUnit> getUnits(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      Map<DeploymentContext, Boolean> contexts = holders.get(name);
+      if (contexts == null || contexts.isEmpty())
+         return Collections.emptySet();
+      Set<DeploymentUnit> result = new HashSet<DeploymentUnit>();
+      for (DeploymentContext context : contexts.keySet())
+      {
+         if (holds(context, name))
+            result.add(context.getDeploymentUnit());
+      }
+      return result;
+   }
+
+   /**
+    * Get a named attachment from a unit, its components and children,
+    * the same attachment a depth first search of the structure finds
+    *
+    * @param unit the unit
+    * @param name the attachment name
+    * @return the attachment or null if not present
+    */
+   public Object searchChildren(DeploymentUnit unit, String name)
+   {
+      Object result = unit.getAttachment(name);
+      if (result != null)
+         return result;
+
+      for (DeploymentContext context : getCandidates(unit, name, false))
+      {
+         result = context.getDeploymentUnit().getAttachment(name);
+         if (result != null)
+            return result;
+      }
+      return null;
+   }
+
+   /**
+    * Get the units in a unit, its components and children that see a named attachment,
+    * in the order a depth first search of the structure finds them
+    *
+    * @param unit the unit
+    * @param name the attachment name
+    * @return the units
+    */
+   public List<DeploymentUnit> searchUnits(DeploymentUnit unit, String name)
+   {
+      List<DeploymentUnit> result = new ArrayList<DeploymentUnit>();
+      if (unit.getAttachment(name) != null)
+         result.add(unit);
+      for (DeploymentContext context : getCandidates(unit, name, true))
+      {
+         DeploymentUnit candidate = context.getDeploymentUnit();
+         if (candidate.getAttachment(name) != null)
+            result.add(candidate);
+      }
+      return result;
+   }
+
+   /**
+    * Get the contexts below a unit that might see an attachment, in depth first order
+    *
+    * @param unit the unit
+    * @param name the attachment name
+    * @param components whether to include the components of the holders, they see their parent's attachments
+    * @return the contexts
+    */
+   private List<DeploymentContext> getCandidates(DeploymentUnit unit, String name, boolean components)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      if (unit instanceof AbstractDeploymentUnit == false)
+         return Collections.emptyList();
+      DeploymentContext start = ((AbstractDeploymentUnit) unit).getDeploymentContext();
+      Map<DeploymentContext, Boolean> contexts = holders.get(name);
+      if (contexts == null || contexts.isEmpty())
+         return Collections.emptyList();
+
+      Collection<DeploymentContext> candidates = contexts.keySet();
+      if (components)
+      {
+         Set<DeploymentContext> all = new HashSet<DeploymentContext>();
+         for (DeploymentContext context : candidates)
+            addComponents(context, all);
+         candidates = all;
+      }
+
+      final Map<DeploymentContext, int[]> numbers = getPositions(start).numbers;
+      int[] range = numbers.get(start);
+      if (range == null)
+         return Collections.emptyList();
+      List<DeploymentContext> result = new ArrayList<DeploymentContext>();
+      for (DeploymentContext context : candidates)
+      {
+         int[] position = numbers.get(context);
+         if (position != null && position[0] > range[0] && position[0] < range[1])
+            result.add(context);
+      }
+      Collections.sort(result, new Comparator<DeploymentContext>()
+      {
+         public int compare(DeploymentContext o1, DeploymentContext o2)
+         {
+            int p1 = numbers.get(o1)[0];
+            int p2 = numbers.get(o2)[0];
+            return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+         }
+      });
+      return result;
+   }
+
+   /**
+    * Add a context and its components
+    *
+    * @param context the context
+    * @param result the contexts
+    */
+   private static void addComponents(DeploymentContext context, Set<DeploymentContext> result)
+   {
+      if (result.add(context) == false)
+         return;
+      List<DeploymentContext> components = context.getComponents();
+      if (components != null)
+      {
+         for (DeploymentContext component : components)
+            addComponents(component, result);
+      }
+   }
+
+   /**
+    * Get the depth first positions of the structure a context is in
+    *
+    * @param context the context
+    * @return the positions
+    */
+   private Positions getPositions(DeploymentContext context)
+   {
+      int version = structureVersion.get();
+      Positions result = positions;
+      if (result == null || result.version != version)
+      {
+         result = new Positions(version);
+         number(context.getTopLevel(), result.numbers, 0);
+         positions = result;
+      }
+      return result;
+   }
+
+   /**
+    * Number a context and what is below it in depth first order, components come before children
+    *
+    * @param context the context
+    * @param numbers the position of each context and the end of what is below it
+    * @param next the next position
+    * @return the next position after the context and what is below it
+    */
+   private static int number(DeploymentContext context, Map<DeploymentContext, int[]> numbers, int next)
+   {
+      int[] position = new int[] { next++, 0 };
+      numbers.put(context, position);
+      List<DeploymentContext> components = context.getComponents();
+      if (components != null)
+      {
+         for (DeploymentContext component : components)
+            next = number(component, numbers, next);
+      }
+      List<DeploymentContext> children = context.getChildren();
+      if (children != null)
+      {
+         for (DeploymentContext child : children)
+            next = number(child, numbers, next);
+      }
+      position[1] = next;
+      return next;
+   }
+
+   /**
+    * Add a context, its components and children to the index
+    *
+    * @param context the context
+    */
+   void addContext(DeploymentContext context)
+   {
+      structureVersion.incrementAndGet();
+      if (context.isComponent() == false)
+         addAll(context, context.getPredeterminedManagedObjects());
+      addLayer(context, context.getTransientManagedObjects());
+      addLayer(context, context.getTransientAttachments());
+
+      List<DeploymentContext> components = context.getComponents();
+      if (components != null)
+      {
+         for (DeploymentContext component : components)
+            addContext(component);
+      }
+      List<DeploymentContext> children = context.getChildren();
+      if (children != null)
+      {
+         for (DeploymentContext child : children)
+            addContext(child);
+      }
+   }
+
+   /**
+    * Remove a context, its components and children from the index
+    *
+    * @param context the context
+    */
+   void removeContext(DeploymentContext context)
+   {
+      structureVersion.incrementAndGet();
+      removeLayer(context.getTransientManagedObjects());
+      removeLayer(context.getTransientAttachments());
+      Set<String> names = held.remove(context);
+      if (names != null)
+      {
+         synchronized (names)
+         {
+            for (String name : names)
+            {
+               Map<DeploymentContext, Boolean> contexts = holders.get(name);
+               if (contexts != null)
+                  contexts.remove(context);
+            }
+         }
+      }
+
+      List<DeploymentContext> components = context.getComponents();
+      if (components != null)
+      {
+         for (DeploymentContext component : components)
+            removeContext(component);
+      }
+      List<DeploymentContext> children = context.getChildren();
+      if (children != null)
+      {
+         for (DeploymentContext child : children)
+            removeContext(child);
+      }
+   }
+
+   /**
+    * A context now holds an attachment
+    *
+    * @param context the context
+    * @param name the attachment name
+    */
+   void added(DeploymentContext context, String name)
+   {
+      ConcurrentMap<DeploymentContext, Boolean> contexts = holders.get(name);
+      if (contexts == null)
+      {
+         contexts = new ConcurrentHashMap<DeploymentContext, Boolean>(4, 0.75f, 1);
+         ConcurrentMap<DeploymentContext, Boolean> previous = holders.putIfAbsent(name, contexts);
+         if (previous != null)
+            contexts = previous;
+      }
+      Set<String> names = getHeld(context);
+      synchronized (names)
+      {
+         names.add(name);
+         contexts.put(context, Boolean.TRUE);
+      }
+   }
+
+   /**
+    * A context might no longer hold an attachment
+    *
+    * @param context the context
+    * @param name the attachment name
+    */
+   void removed(DeploymentContext context, String name)
+   {
+      Map<DeploymentContext, Boolean> contexts = holders.get(name);
+      Set<String> names = held.get(context);
+      if (contexts == null || names == null)
+         return;
+      // An add of the same name waits, so it cannot be lost between the check and the remove
+      synchronized (names)
+      {
+         if (holds(context, name) == false)
+         {
+            names.remove(name);
+            contexts.remove(context);
+         }
+      }
+   }
+
+   /**
+    * Get the attachments held by a context
+    *
+    * @param context the context
+    * @return the names
+    */
+   private Set<String> getHeld(DeploymentContext context)
+   {
+      Set<String> result = held.get(context);
+      if (result == null)
+      {
+         result = new HashSet<String>();
+         Set<String> previous = held.putIfAbsent(context, result);
+         if (previous != null)
+            result = previous;
+      }
+      return result;
+   }
+
+   /**
+    * Whether a context holds an attachment
+    *
+    * @param context the context
+    * @param name the attachment name
+    * @return true when it holds it
+    */
+   private static boolean holds(DeploymentContext context, String name)
+   {
+      if (holds(context.getTransientAttachments(), name) || holds(context.getTransientManagedObjects(), name))
+         return true;
+      return context.isComponent() == false && holds(context.getPredeterminedManagedObjects(), name);
+   }
+
+   /**
+    * Whether a layer holds an attachment, without recording a reference
+    *
+    * @param attachments the layer
+    * @param name the attachment name
+    * @return true when it holds it
+    */
+   private static boolean holds(Attachments attachments, String name)
+   {
+      if (attachments == null)
+         return false;
+      if (attachments instanceof TrackingMutableAttachments)
+         return ((TrackingMutableAttachments) attachments).holds(name);
+      return attachments.isAttachmentPresent(name);
+   }
+
+   /**
+    * Index a layer and keep it up to date
+    *
+    * @param context the context
+    * @param attachments the layer
+    */
+   private void addLayer(DeploymentContext context, Attachments attachments)
+   {
+      if (attachments instanceof TrackingMutableAttachments)
+         ((TrackingMutableAttachments) attachments).setAttachmentIndex(this, context);
+      addAll(context, attachments);
+   }
+
+   /**
+    * Stop keeping a layer up to date
+    *
+    * @param attachments the layer
+    */
+   private void removeLayer(Attachments attachments)
+   {
+      if (attachments instanceof TrackingMutableAttachments)
+         ((TrackingMutableAttachments) attachments).setAttachmentIndex(null, null);
+   }
+
+   /**
+    * Index the attachments of a layer
+    *
+    * @param context the context
+    * @param attachments the layer
+    */
+   private void addAll(DeploymentContext context, Attachments attachments)
+   {
+      if (attachments == null)
+         return;
+      for (String name : attachments.getAttachments().keySet())
+         added(context, name);
+   }
+
+   /**
+    * The depth first positions of the contexts for a version of the structure
+    */
+   private static class Positions
+   {
+      /** The structure version */
+      private final int version;
+
+      /** The position of each context and the end of what is below it */
+      private final Map<DeploymentContext, int[]> numbers = new HashMap<DeploymentContext, int[]>();
+
+      private Positions(int version)
+      {
+         this.version = version;
+      }
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.deployers.structure.spi.DeploymentContext;
+
+/**
+ * A bounded journal of the attachment changes of a deployment unit.<p>
+ *
+ * Take a {@link #mark()}, let the unit change and ask {@link #getChanges(long)} which
+ * attachments were added, replaced or removed since. Only the latest changes are kept,
+ * when the mark is older than that the journal cannot tell and returns null.
+ */
+public class AttachmentJournal
+{
+   /**
+    * A change to an attachment.
+    */
+   public enum Change
+   {
+      /** The attachment was added */
+      ADDED,
+
+      /** The attachment was replaced */
+      REPLACED,
+
+      /** The attachment was removed */
+      REMOVED
+   }
+
+   /** The names */
+   private final String[] names;
+
+   /** The changes */
+   private final Change[] changes;
+
+   /** The sequence number of the next change */
+   private long next;
+
+   /**
+    * Create a new AttachmentJournal.
+    *
+    * @param capacity the number of changes kept
+    * @throws IllegalArgumentException if the capacity is not positive
+    */
+   public AttachmentJournal(int capacity)
+   {
+      if (capacity <= 0)
+         throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+      names = new String[capacity];
+      changes = new Change[capacity];
+   }
+
+   /**
+    * Get the journal of a context
+    *
+    * @param context the context
+    * @return the journal or null if the context keeps none
+    */
+   public static AttachmentJournal getAttachmentJournal(DeploymentContext context)
+   {
+      if (context instanceof AbstractDeploymentContext)
+         return ((AbstractDeploymentContext) context).getAttachmentJournal();
+      if (context instanceof ComponentDeploymentContext)
+         return ((ComponentDeploymentContext) context).getAttachmentJournal();
+      return null;
+   }
+
+   /**
+    * Get the number of changes kept
+    *
+    * @return the capacity
+    */
+   public int getCapacity()
+   {
+      return names.length;
+   }
+
+   /**
+    * Mark the current position
+    *
+    * @return the mark
+    */
+   public synchronized long mark()
+   {
+      return next;
+   }
+
+   /**
+    * Get the net changes since a mark, in the order the attachments first changed.<p>
+    *
+    * An attachment added and removed again does not appear, one removed and added
+    * again appears as replaced.
+    *
+    * @param mark the mark
+    * @return the changes by attachment name or null if the journal no longer reaches back to the mark
+    * @throws IllegalArgumentException if the mark is in the future
+    */
+   public synchronized Map<String, Change> getChanges(long mark)
+   {
+      if (mark > next)
+         throw new IllegalArgumentException("Unknown mark " + mark);
+      if (next - mark > names.length)
+         return null;
+
+      Map<String, Change> result = new LinkedHashMap<String, Change>();
+      for (long i = mark; i < next; ++i)
+      {
+         int slot = (int) (i % names.length);
+         String name = names[slot];
+         Change combined = combine(result.get(name), changes[slot]);
+         if (combined == null)
+            result.remove(name);
+         else
+            result.put(name, combined);
+      }
+      return result;
+   }
+
+   /**
+    * Record a change
+    *
+    * @param name the attachment name
+    * @param change the change
+    */
+   synchronized void record(String name, Change change)
+   {
+      int slot = (int) (next % names.length);
+      names[slot] = name;
+      changes[slot] = change;
+      ++next;
+   }
+
+   /**
+    * Combine two changes to the same attachment
+    *
+    * @param first the earlier change or null
+    * @param then the later change
+    * @return the net change or null when there is none
+    */
+   private static Change combine(Change first, Change then)
+   {
+      if (first == null)
+         return then;
+      if (first == Change.ADDED)
+         return then == Change.REMOVED ? null : Change.ADDED;
+      if (first == Change.REMOVED)
+         return then == Change.REMOVED ? Change.REMOVED : Change.REPLACED;
+      return then == Change.REMOVED ? Change.REMOVED : Change.REPLACED;
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      return "AttachmentJournal[next=" + next + " capacity=" + names.length + "]";
+   }
+}
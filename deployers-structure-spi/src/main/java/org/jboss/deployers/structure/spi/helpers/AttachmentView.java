@@ -0,0 +1,322 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.helpers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+
+/**
+ * A merged snapshot of the attachment layers a deployment unit sees.<p>
+ *
+ * In order of precedence the layers are the predetermined managed objects,
+ * the transient managed objects and the transient attachments, each of the
+ * context first and then of the parent for a component. The snapshot keeps
+ * the layers and their versions so it knows when it is stale.
+ */
+class AttachmentView
+{
+   /** The number of layers */
+   static final int LAYERS = 6;
+
+   /** The layers */
+   private final Attachments[] layers = new Attachments[LAYERS];
+
+   /** The layer versions when the snapshot was taken */
+   private final int[] versions = new int[LAYERS];
+
+   /** The attachments with the layer they come from */
+   private final Map<String, Entry> entries;
+
+   /** The attachments */
+   private final Map<String, Object> attachments;
+
+   /** Whether every layer has a version */
+   private final boolean cacheable;
+
+   /** The attachments by their class, superclasses and interfaces, created when first needed */
+   private volatile Map<Class<?>, Set<Object>> byType;
+
+   /**
+    * Take a snapshot of the layers
+    *
+    * @param context the context
+    * @param parent the parent for a component, null otherwise
+    */
+   AttachmentView(DeploymentContext context, DeploymentContext parent)
+   {
+      boolean cacheable = true;
+      for (int i = 0; i < LAYERS; ++i)
+      {
+         Attachments layer = getLayer(context, parent, i);
+         layers[i] = layer;
+         if (layer != null)
+         {
+            versions[i] = getVersion(layer);
+            if (versions[i] < 0)
+               cacheable = false;
+         }
+      }
+      this.cacheable = cacheable;
+
+      Map<String, Entry> entries = new HashMap<String, Entry>();
+      Map<String, Object> attachments = new HashMap<String, Object>();
+      for (int i = LAYERS - 1; i >= 0; --i)
+      {
+         Attachments layer = layers[i];
+         if (layer == null)
+            continue;
+         for (Map.Entry<String, Object> entry : layer.getAttachments().entrySet())
+         {
+            entries.put(entry.getKey(), new Entry(entry.getValue(), layer));
+            attachments.put(entry.getKey(), entry.getValue());
+         }
+      }
+      this.entries = entries;
+      this.attachments = Collections.unmodifiableMap(attachments);
+   }
+
+   /**
+    * Whether every layer has a version, otherwise the
+    * snapshot cannot tell when it is stale
+    *
+    * @return true when every layer has a version
+    */
+   boolean isCacheable()
+   {
+      return cacheable;
+   }
+
+   /**
+    * Get the number of attachments
+    *
+    * @return the number of attachments
+    */
+   int size()
+   {
+      return attachments.size();
+   }
+
+   /**
+    * Whether the snapshot was taken from the current layers.<p>
+    *
+    * The transient layers of a context are never replaced,
+    * only the predetermined managed objects are fetched again.
+    *
+    * @param context the context
+    * @param parent the parent for a component, null otherwise
+    * @return true when the layers are the same
+    */
+   boolean hasLayers(DeploymentContext context, DeploymentContext parent)
+   {
+      if (context.getPredeterminedManagedObjects() != layers[0])
+         return false;
+      return parent == null || parent.getPredeterminedManagedObjects() == layers[1];
+   }
+
+   /**
+    * Whether the snapshot still matches the content of its layers
+    *
+    * @return true when current
+    */
+   boolean isCurrent()
+   {
+      if (cacheable == false)
+         return false;
+      for (int i = 0; i < LAYERS; ++i)
+      {
+         Attachments layer = layers[i];
+         if (layer != null && getVersion(layer) != versions[i])
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Get an attachment, the layer it comes from sees the reference
+    *
+    * @param name the name
+    * @return the attachment or null if not present
+    */
+   Object getAttachment(String name)
+   {
+      Entry entry = entries.get(name);
+      if (entry == null)
+         return null;
+      if (entry.layer instanceof TrackingMutableAttachments)
+         ((TrackingMutableAttachments) entry.layer).referenced(name);
+      return entry.value;
+   }
+
+   /**
+    * Get the merged attachments
+    *
+    * @return the attachments
+    */
+   Map<String, Object> getAttachments()
+   {
+      return attachments;
+   }
+
+   /**
+    * Get the attachments of a type
+    *
+    * @param type the type
+    * @return the attachments
+    */
+   Set<Object> getAllMetaData(Class<?> type)
+   {
+      // Array types are covariant, they are not worth indexing
+      if (type.isArray())
+      {
+         Set<Object> result = new HashSet<Object>();
+         for (Object value : attachments.values())
+         {
+            if (type.isInstance(value))
+               result.add(value);
+         }
+         return Collections.unmodifiableSet(result);
+      }
+
+      Map<Class<?>, Set<Object>> byType = this.byType;
+      if (byType == null)
+      {
+         byType = indexByType();
+         this.byType = byType;
+      }
+      Set<Object> result = byType.get(type);
+      if (result == null)
+         return Collections.emptySet();
+      return result;
+   }
+
+   /**
+    * Index the attachments by their class, superclasses and interfaces
+    *
+    * @return the index
+    */
+   private Map<Class<?>, Set<Object>> indexByType()
+   {
+      Map<Class<?>, Set<Object>> result = new HashMap<Class<?>, Set<Object>>();
+      Map<Class<?>, Set<Class<?>>> hierarchies = new HashMap<Class<?>, Set<Class<?>>>();
+      for (Object value : attachments.values())
+      {
+         Class<?> clazz = value.getClass();
+         Set<Class<?>> hierarchy = hierarchies.get(clazz);
+         if (hierarchy == null)
+         {
+            hierarchy = new HashSet<Class<?>>();
+            addHierarchy(clazz, hierarchy);
+            hierarchies.put(clazz, hierarchy);
+         }
+         for (Class<?> type : hierarchy)
+         {
+            Set<Object> values = result.get(type);
+            if (values == null)
+            {
+               values = new HashSet<Object>();
+               result.put(type, values);
+            }
+            values.add(value);
+         }
+      }
+      for (Map.Entry<Class<?>, Set<Object>> entry : result.entrySet())
+         entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+      return result;
+   }
+
+   /**
+    * Add a class, its superclasses and interfaces
+    *
+    * @param clazz the class
+    * @param hierarchy the hierarchy
+    */
+   private static void addHierarchy(Class<?> clazz, Set<Class<?>> hierarchy)
+   {
+      if (clazz == null || hierarchy.add(clazz) == false)
+         return;
+      addHierarchy(clazz.getSuperclass(), hierarchy);
+      for (Class<?> intf : clazz.getInterfaces())
+         addHierarchy(intf, hierarchy);
+   }
+
+   /**
+    * Get a layer
+    *
+    * @param context the context
+    * @param parent the parent for a component, null otherwise
+    * @param index the index in order of precedence
+    * @return the layer or null
+    */
+   private static Attachments getLayer(DeploymentContext context, DeploymentContext parent, int index)
+   {
+      DeploymentContext owner = (index & 1) == 0 ? context : parent;
+      if (owner == null)
+         return null;
+      switch (index >> 1)
+      {
+         case 0:
+            return owner.getPredeterminedManagedObjects();
+         case 1:
+            return owner.getTransientManagedObjects();
+         default:
+            return owner.getTransientAttachments();
+      }
+   }
+
+   /**
+    * Get the version of a layer, the tracking layers have a version that is never reset,
+    * other mutable layers use their change count
+    *
+    * @param layer the layer
+    * @return the version or -1 when it has none
+    */
+   private static int getVersion(Attachments layer)
+   {
+      if (layer instanceof TrackingMutableAttachments)
+         return ((TrackingMutableAttachments) layer).getVersion();
+      if (layer instanceof MutableAttachments)
+         return ((MutableAttachments) layer).getChangeCount();
+      return -1;
+   }
+
+   private static class Entry
+   {
+      /** The attachment */
+      private final Object value;
+
+      /** The layer */
+      private final Attachments layer;
+
+      private Entry(Object value, Attachments layer)
+      {
+         this.value = value;
+         this.layer = layer;
+      }
+   }
+}
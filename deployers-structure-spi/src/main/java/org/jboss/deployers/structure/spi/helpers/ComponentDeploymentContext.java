@@ -90,10 +90,13 @@ public class ComponentDeploymentContext implements DeploymentContext, Deployment
    private List<DeploymentContext> components = new CopyOnWriteArrayList<DeploymentContext>();
    
    /** The attachments */
-   private transient MutableAttachments transientAttachments = new TrackingMutableAttachments(AttachmentsFactory.createMutableAttachments());
+   private transient TrackingMutableAttachments transientAttachments = new TrackingMutableAttachments(AttachmentsFactory.createMutableAttachments());
    
    /** The managed objects */
-   private transient MutableAttachments transientManagedObjects = new TrackingMutableAttachments(AttachmentsFactory.createMutableAttachments());
+   private transient TrackingMutableAttachments transientManagedObjects = new TrackingMutableAttachments(AttachmentsFactory.createMutableAttachments());
+
+   /** The journal of the attachment changes */
+   private transient volatile AttachmentJournal attachmentJournal;
    
    /** The scope */
    private ScopeKey scope;
@@ -129,6 +132,14 @@ public class ComponentDeploymentContext implements DeploymentContext, Deployment
          throw new IllegalArgumentException("Null parent");
       this.name = name;
       this.parent = parent;
+      if (parent instanceof AbstractDeploymentContext)
+         setAttachmentTracking(((AbstractDeploymentContext) parent).getAttachmentTracking());
+      else if (parent instanceof ComponentDeploymentContext)
+         setAttachmentTracking(((ComponentDeploymentContext) parent).getAttachmentTracking());
+      // components record into the journal of their parent
+      AttachmentJournal journal = AttachmentJournal.getAttachmentJournal(parent);
+      if (journal != null)
+         setAttachmentJournal(journal);
    }
 
    public void changeRelativeOrder(int relativeOrder)
@@ -438,6 +449,9 @@ public class ComponentDeploymentContext implements DeploymentContext, Deployment
       components.add(component);
       if (server != null)
          registerMBeans(component, true, true);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(this);
+      if (index != null)
+         index.addContext(component);
    }
 
    public boolean removeComponent(DeploymentContext component)
@@ -447,6 +461,9 @@ public class ComponentDeploymentContext implements DeploymentContext, Deployment
       boolean result = components.remove(component);
       if (server != null)
          unregisterMBeans(component, true, true);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(this);
+      if (index != null)
+         index.removeContext(component);
       component.cleanup();
       return result;
    }
@@ -506,6 +523,7 @@ public class ComponentDeploymentContext implements DeploymentContext, Deployment
       if (attachments instanceof TrackingMutableAttachments)
          tracking = (TrackingMutableAttachments) attachments;
 
+      // The maps of the attachments iterate safely while they change, without a copy
       for (Map.Entry<String, Object> attachment : attachments.getAttachments().entrySet())
       {
          String name = attachment.getKey();
@@ -652,6 +670,49 @@ public class ComponentDeploymentContext implements DeploymentContext, Deployment
       return transientAttachments;
    }
 
+   /**
+    * Get how much the transient attachments record about the deployers using them
+    * 
+    * @return the tracking level
+    */
+   public AttachmentTracking getAttachmentTracking()
+   {
+      return transientAttachments.getAttachmentTracking();
+   }
+
+   /**
+    * Set how much the transient attachments record about the deployers using them
+    * 
+    * @param tracking the tracking level
+    */
+   public void setAttachmentTracking(AttachmentTracking tracking)
+   {
+      transientAttachments.setAttachmentTracking(tracking);
+      transientManagedObjects.setAttachmentTracking(tracking);
+   }
+
+   /**
+    * Get the journal of the attachment changes
+    * 
+    * @return the journal or null when there is none
+    */
+   public AttachmentJournal getAttachmentJournal()
+   {
+      return attachmentJournal;
+   }
+
+   /**
+    * Set the journal of the attachment changes
+    * 
+    * @param journal the journal or null to stop recording
+    */
+   public void setAttachmentJournal(AttachmentJournal journal)
+   {
+      this.attachmentJournal = journal;
+      transientAttachments.setAttachmentJournal(journal);
+      transientManagedObjects.setAttachmentJournal(journal);
+   }
+
    public Throwable getProblem()
    {
       return parent.getProblem();
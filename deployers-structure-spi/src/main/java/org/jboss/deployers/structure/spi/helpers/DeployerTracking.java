@@ -22,30 +22,52 @@
 package org.jboss.deployers.structure.spi.helpers;
 
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * DeployerTracking.
+ * DeployerTracking.<p>
+ * 
+ * The deployer names are interned to small ids so the attachment
+ * tracking can record them compactly. An id is never released, the
+ * recorded ids of attachments still refer to it, so there is one id
+ * per distinct deployer name seen. A deployer that is removed and added
+ * again under the same name gets its old id back.
  * 
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  * @version $Revision: 1.1 $
  */
 public class DeployerTracking
 {
-   /** The thread local stack containg the current deployer */
-   private static ThreadLocal<Stack<String>> currentDeployer = new ThreadLocal<Stack<String>>()
+   /** The id of the unknown deployer */
+   static final int UNKNOWN = 0;
+
+   /** The thread local stack containg the ids of the current deployer */
+   private static ThreadLocal<Stack<Integer>> currentDeployer = new ThreadLocal<Stack<Integer>>()
    {
-      protected Stack<String> initialValue()
+      protected Stack<Integer> initialValue()
       {
-         return new Stack<String>();
+         return new Stack<Integer>();
       }
    };
 
+   /** The deployer ids by name */
+   private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+   /** The deployer names by id */
+   private static volatile String[] names = { "UNKNOWN" };
+
+   static
+   {
+      ids.put(names[UNKNOWN], UNKNOWN);
+   }
+
    /**
     * Get the stack.
     *
     * @return the stack
     */
-   private static Stack<String> getStack()
+   private static Stack<Integer> getStack()
    {
       return currentDeployer.get();
    }
@@ -57,7 +79,57 @@ public class DeployerTracking
     */
    public static String getCurrentDeployer()
    {
-      return (getStack().isEmpty()) ? "UNKNOWN" : getStack().peek();
+      return getDeployer(getCurrentDeployerId());
+   }
+
+   /**
+    * Get the id of the current deployer
+    * 
+    * @return the id of the current deployer
+    */
+   static int getCurrentDeployerId()
+   {
+      Stack<Integer> stack = getStack();
+      return (stack.isEmpty()) ? UNKNOWN : stack.peek();
+   }
+
+   /**
+    * Get the name of a deployer
+    * 
+    * @param id the id
+    * @return the name
+    */
+   static String getDeployer(int id)
+   {
+      return names[id];
+   }
+
+   /**
+    * Get the id of a deployer, assigning one the first time the name is seen
+    * 
+    * @param deployer the name of the deployer
+    * @return the id
+    */
+   private static int getDeployerId(String deployer)
+   {
+      if (deployer == null)
+         return UNKNOWN;
+      Integer id = ids.get(deployer);
+      if (id != null)
+         return id;
+      synchronized (ids)
+      {
+         id = ids.get(deployer);
+         if (id != null)
+            return id;
+         String[] result = new String[names.length + 1];
+         System.arraycopy(names, 0, result, 0, names.length);
+         id = names.length;
+         result[id] = deployer;
+         names = result;
+         ids.put(deployer, id);
+         return id;
+      }
    }
 
    /**
@@ -67,7 +139,7 @@ public class DeployerTracking
     */
    public static void push(String deployer)
    {
-      getStack().push(deployer);
+      getStack().push(getDeployerId(deployer));
    }
 
    /**
@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.structure.spi.helpers;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+
+/**
+ * Estimates the memory held by attachments by walking their object graphs.<p>
+ *
+ * Assumes a 64 bit vm with compressed references. Classes, class loaders, threads,
+ * deployment contexts and units are shared infrastructure and are not followed,
+ * neither are the referents of soft and weak references. Objects reached twice
+ * through one estimator are counted once.
+ */
+class ObjectSizeEstimator
+{
+   /** The most objects visited by one estimator */
+   private static final int MAX_OBJECTS = 1000000;
+
+   /** The object header */
+   private static final int HEADER = 12;
+
+   /** The array header */
+   private static final int ARRAY_HEADER = 16;
+
+   /** A reference */
+   private static final int REFERENCE = 4;
+
+   /** The layout of the classes seen by this estimator, not kept beyond it so classes can be unloaded */
+   private final Map<Class<?>, Layout> layouts = new HashMap<Class<?>, Layout>();
+
+   /** The objects already counted */
+   private final Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+
+   /**
+    * Estimate the bytes held by an object that were not counted before
+    *
+    * @param root the object
+    * @return the estimated bytes
+    */
+   long estimate(Object root)
+   {
+      long result = 0;
+      List<Object> stack = new ArrayList<Object>();
+      push(stack, root);
+      while (stack.isEmpty() == false)
+      {
+         Object object = stack.remove(stack.size() - 1);
+         Class<?> clazz = object.getClass();
+         if (clazz.isArray())
+         {
+            Class<?> component = clazz.getComponentType();
+            int length = Array.getLength(object);
+            if (component.isPrimitive())
+            {
+               result += align(ARRAY_HEADER + (long) length * size(component));
+            }
+            else
+            {
+               result += align(ARRAY_HEADER + (long) length * REFERENCE);
+               Object[] array = (Object[]) object;
+               for (Object element : array)
+                  push(stack, element);
+            }
+            continue;
+         }
+
+         Layout layout = getLayout(clazz);
+         result += layout.size;
+         if (object instanceof Reference)
+            continue;
+         for (Field field : layout.references)
+         {
+            try
+            {
+               push(stack, field.get(object));
+            }
+            catch (IllegalAccessException ignored)
+            {
+            }
+         }
+      }
+      return result;
+   }
+
+   private void push(List<Object> stack, Object object)
+   {
+      if (object == null || visited.size() >= MAX_OBJECTS || isShared(object))
+         return;
+      if (visited.put(object, Boolean.TRUE) == null)
+         stack.add(object);
+   }
+
+   private static boolean isShared(Object object)
+   {
+      return object instanceof Class
+         || object instanceof ClassLoader
+         || object instanceof Thread
+         || object instanceof DeploymentContext
+         || object instanceof DeploymentUnit;
+   }
+
+   private Layout getLayout(Class<?> clazz)
+   {
+      Layout result = layouts.get(clazz);
+      if (result == null)
+      {
+         result = new Layout(clazz);
+         layouts.put(clazz, result);
+      }
+      return result;
+   }
+
+   private static long align(long size)
+   {
+      return (size + 7) & ~7L;
+   }
+
+   private static int size(Class<?> type)
+   {
+      if (type == long.class || type == double.class)
+         return 8;
+      if (type == int.class || type == float.class)
+         return 4;
+      if (type == short.class || type == char.class)
+         return 2;
+      if (type == byte.class || type == boolean.class)
+         return 1;
+      return REFERENCE;
+   }
+
+   /**
+    * The shallow size and the reference fields of a class.
+    */
+   private static class Layout
+   {
+      /** The shallow size */
+      final long size;
+
+      /** The accessible reference fields */
+      final Field[] references;
+
+      Layout(Class<?> clazz)
+      {
+         long fields = 0;
+         List<Field> result = new ArrayList<Field>();
+         for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+         {
+            for (Field field : c.getDeclaredFields())
+            {
+               if (Modifier.isStatic(field.getModifiers()))
+                  continue;
+               Class<?> type = field.getType();
+               fields += size(type);
+               if (type.isPrimitive())
+                  continue;
+               try
+               {
+                  field.setAccessible(true);
+                  result.add(field);
+               }
+               catch (RuntimeException ignored)
+               {
+                  // not accessible, only the shallow size counts
+               }
+            }
+         }
+         size = align(HEADER + fields);
+         references = result.toArray(new Field[result.size()]);
+      }
+   }
+}
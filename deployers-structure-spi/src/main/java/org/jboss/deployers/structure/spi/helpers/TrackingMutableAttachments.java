@@ -21,21 +21,33 @@
 */
 package org.jboss.deployers.structure.spi.helpers;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.jboss.deployers.spi.attachments.Attachments;
 import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.spi.attachments.SnapshotAttachments;
+import org.jboss.deployers.spi.attachments.helpers.AttachmentsSnapshot;
+import org.jboss.deployers.structure.spi.DeploymentContext;
 
 /**
- * TrackingMutableAttachments.
+ * TrackingMutableAttachments.<p>
+ * 
+ * What is recorded depends on the {@link AttachmentTracking}, by default
+ * it is {@link AttachmentTracking#FULL}.
  * 
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  * @version $Revision: 1.1 $
  */
-public class TrackingMutableAttachments implements MutableAttachments
+public class TrackingMutableAttachments implements MutableAttachments, SnapshotAttachments
 {
    /** The serialVersionUID */
    private static final long serialVersionUID = 1L;
@@ -43,11 +55,23 @@ public class TrackingMutableAttachments implements MutableAttachments
    /** The delegate */
    private MutableAttachments delegate;
 
-   /** The attachment creator */ 
-   private Map<String, String> createdDeployer = new ConcurrentHashMap<String, String>();
+   /** The tracking level */
+   private volatile AttachmentTracking tracking = AttachmentTracking.FULL;
+
+   /** The attachment creators and referencers, created when first needed */ 
+   private volatile ConcurrentMap<String, Track> tracks;
+
+   /** The attachment index to keep up to date */
+   private volatile AttachmentIndex index;
+
+   /** The journal recording the changes */
+   private volatile AttachmentJournal journal;
+
+   /** The context owning the attachments in the index */
+   private volatile DeploymentContext owner;
 
-   /** The attachment referencer */ 
-   private Map<String, Set<String>> referencedDeployer = new ConcurrentHashMap<String, Set<String>>();
+   /** The number of changes, unlike the change count it is never reset */
+   private AtomicInteger version = new AtomicInteger();
    
    /**
     * Create a new TrackingMutableAttachments.
@@ -61,6 +85,49 @@ public class TrackingMutableAttachments implements MutableAttachments
       this.delegate = delegate;
    }
 
+   /**
+    * Create a new TrackingMutableAttachments.
+    * 
+    * @param delegate the delegate
+    * @param tracking the tracking level
+    */
+   public TrackingMutableAttachments(MutableAttachments delegate, AttachmentTracking tracking)
+   {
+      this(delegate);
+      setAttachmentTracking(tracking);
+   }
+
+   /**
+    * Get the tracking level
+    * 
+    * @return the tracking level
+    */
+   public AttachmentTracking getAttachmentTracking()
+   {
+      return tracking;
+   }
+
+   /**
+    * Set the tracking level, lowering it forgets what it no longer records
+    * 
+    * @param tracking the tracking level
+    */
+   public synchronized void setAttachmentTracking(AttachmentTracking tracking)
+   {
+      if (tracking == null)
+         throw new IllegalArgumentException("Null tracking");
+      this.tracking = tracking;
+      if (tracking == AttachmentTracking.OFF)
+      {
+         tracks = null;
+      }
+      else if (tracking == AttachmentTracking.CREATED && tracks != null)
+      {
+         for (Track track : tracks.values())
+            track.referenced = null;
+      }
+   }
+
    /**
     * Get the deployer that created an attachment
     * 
@@ -71,7 +138,10 @@ public class TrackingMutableAttachments implements MutableAttachments
    {
       if (name == null)
          throw new IllegalArgumentException("Null name");
-      return createdDeployer.get(name);
+      Track track = getTrack(name);
+      if (track == null || track.created < 0)
+         return null;
+      return DeployerTracking.getDeployer(track.created);
    }
 
    /**
@@ -84,12 +154,149 @@ public class TrackingMutableAttachments implements MutableAttachments
    {
       if (name == null)
          throw new IllegalArgumentException("Null name");
-      Set<String> result = referencedDeployer.get(name);
-      if (result == null)
+      Track track = getTrack(name);
+      if (track == null)
          return null;
+      long[] referenced = track.referenced;
+      if (referenced == null)
+         return null;
+      Set<String> result = new LinkedHashSet<String>();
+      for (int i = 0; i < referenced.length; ++i)
+      {
+         for (long bits = referenced[i]; bits != 0; bits &= bits - 1)
+            result.add(DeployerTracking.getDeployer(i * 64 + Long.numberOfTrailingZeros(bits)));
+      }
       return Collections.unmodifiableSet(result);
    }
    
+   /**
+    * Get the version, it moves on every add, remove or clear
+    * and is not reset by {@link #clearChangeCount()}
+    * 
+    * @return the version
+    */
+   public int getVersion()
+   {
+      return version.get();
+   }
+
+   /**
+    * Set the attachment index to keep up to date
+    * 
+    * @param index the index or null to stop
+    * @param owner the context owning the attachments
+    */
+   void setAttachmentIndex(AttachmentIndex index, DeploymentContext owner)
+   {
+      if (index == null)
+      {
+         this.index = null;
+         this.owner = null;
+      }
+      else
+      {
+         this.owner = owner;
+         this.index = index;
+      }
+   }
+
+   /**
+    * Set the journal recording the changes
+    * 
+    * @param journal the journal or null to stop
+    */
+   void setAttachmentJournal(AttachmentJournal journal)
+   {
+      this.journal = journal;
+   }
+
+   /**
+    * Record an added or replaced attachment in the journal
+    * 
+    * @param name the name
+    * @param previous the previous attachment
+    */
+   private void journalAdded(String name, Object previous)
+   {
+      AttachmentJournal journal = this.journal;
+      if (journal != null)
+         journal.record(name, previous == null ? AttachmentJournal.Change.ADDED : AttachmentJournal.Change.REPLACED);
+   }
+
+   /**
+    * Record replaced attachments in the journal
+    * 
+    * @param previous the names before
+    * @param current the names after
+    */
+   private void journalReplaced(Collection<String> previous, Collection<String> current)
+   {
+      AttachmentJournal journal = this.journal;
+      if (journal == null)
+         return;
+      Set<String> before = new HashSet<String>(previous);
+      for (String name : previous)
+      {
+         if (current.contains(name) == false)
+            journal.record(name, AttachmentJournal.Change.REMOVED);
+      }
+      for (String name : current)
+         journal.record(name, before.contains(name) ? AttachmentJournal.Change.REPLACED : AttachmentJournal.Change.ADDED);
+   }
+
+   /**
+    * Whether an attachment is present, without recording a reference
+    * 
+    * @param name the name
+    * @return true when present
+    */
+   boolean holds(String name)
+   {
+      return delegate.isAttachmentPresent(name);
+   }
+
+   /**
+    * Tell the index about added attachments
+    * 
+    * @param names the names
+    */
+   private void indexAdded(Collection<String> names)
+   {
+      AttachmentIndex index = this.index;
+      if (index == null)
+         return;
+      DeploymentContext owner = this.owner;
+      for (String name : names)
+         index.added(owner, name);
+   }
+
+   /**
+    * Tell the index about removed attachments
+    * 
+    * @param names the names
+    */
+   private void indexRemoved(Collection<String> names)
+   {
+      AttachmentIndex index = this.index;
+      if (index == null)
+         return;
+      DeploymentContext owner = this.owner;
+      for (String name : names)
+         index.removed(owner, name);
+   }
+
+   /**
+    * Get the names of the attachments when there is an index or a journal
+    * 
+    * @return the names or null when there is neither
+    */
+   private Collection<String> getTrackedNames()
+   {
+      if (index == null && journal == null)
+         return null;
+      return new ArrayList<String>(delegate.getAttachments().keySet());
+   }
+
    /**
     * An attachment is being created
     * 
@@ -97,7 +304,11 @@ public class TrackingMutableAttachments implements MutableAttachments
     */
    void created(String name)
    {
-      createdDeployer.put(name, DeployerTracking.getCurrentDeployer());
+      if (tracking == AttachmentTracking.OFF)
+         return;
+      Track track = createTrack(name);
+      if (track != null)
+         track.created = DeployerTracking.getCurrentDeployerId();
    }
 
    /**
@@ -107,18 +318,68 @@ public class TrackingMutableAttachments implements MutableAttachments
     */
    void referenced(String name)
    {
-      Set<String> deployers = referencedDeployer.get(name);
-      if (deployers == null)
+      if (tracking != AttachmentTracking.FULL)
+         return;
+      Track track = createTrack(name);
+      if (track != null)
+         track.referenced(DeployerTracking.getCurrentDeployerId());
+   }
+
+   /**
+    * Get the tracking of an attachment
+    * 
+    * @param name the name
+    * @return the tracking or null if nothing was recorded
+    */
+   private Track getTrack(String name)
+   {
+      ConcurrentMap<String, Track> tracks = this.tracks;
+      if (tracks == null)
+         return null;
+      return tracks.get(name);
+   }
+
+   /**
+    * Get the tracking of an attachment, creating it when needed
+    * 
+    * @param name the name
+    * @return the tracking or null when tracking was switched off
+    */
+   private Track createTrack(String name)
+   {
+      ConcurrentMap<String, Track> tracks = this.tracks;
+      if (tracks == null)
       {
-         deployers = new CopyOnWriteArraySet<String>();
-         referencedDeployer.put(name, deployers);
+         synchronized (this)
+         {
+            if (tracking == AttachmentTracking.OFF)
+               return null;
+            tracks = this.tracks;
+            if (tracks == null)
+            {
+               tracks = new ConcurrentHashMap<String, Track>(8, 0.75f, 1);
+               this.tracks = tracks;
+            }
+         }
       }
-      deployers.add(DeployerTracking.getCurrentDeployer());
+      Track result = tracks.get(name);
+      if (result == null)
+      {
+         result = new Track();
+         Track previous = tracks.putIfAbsent(name, result);
+         if (previous != null)
+            result = previous;
+      }
+      return result;
    }
    
    public <T> T addAttachment(Class<T> type, T attachment)
    {
       T result = delegate.addAttachment(type, attachment);
+      version.incrementAndGet();
+      if (index != null)
+         indexAdded(Collections.singleton(type.getName()));
+      journalAdded(type.getName(), result);
       if (result == null)
          created(type.getName());
       else
@@ -129,6 +390,10 @@ public class TrackingMutableAttachments implements MutableAttachments
    public Object addAttachment(String name, Object attachment)
    {
       Object result = delegate.addAttachment(name, attachment);
+      version.incrementAndGet();
+      if (index != null)
+         indexAdded(Collections.singleton(name));
+      journalAdded(name, result);
       if (result == null)
          created(name);
       else
@@ -139,6 +404,10 @@ public class TrackingMutableAttachments implements MutableAttachments
    public <T> T addAttachment(String name, T attachment, Class<T> expectedType)
    {
       T result = delegate.addAttachment(name, attachment, expectedType);
+      version.incrementAndGet();
+      if (index != null)
+         indexAdded(Collections.singleton(name));
+      journalAdded(name, result);
       if (result == null)
          created(name);
       else
@@ -148,9 +417,15 @@ public class TrackingMutableAttachments implements MutableAttachments
 
    public void clear()
    {
-      createdDeployer.clear();
-      referencedDeployer.clear();
+      Collection<String> names = getTrackedNames();
+      tracks = null;
       delegate.clear();
+      version.incrementAndGet();
+      if (names != null)
+      {
+         indexRemoved(names);
+         journalReplaced(names, Collections.<String>emptySet());
+      }
    }
 
    public void clearChangeCount()
@@ -187,6 +462,11 @@ public class TrackingMutableAttachments implements MutableAttachments
       return delegate.getAttachments();
    }
 
+   public Attachments getSnapshot()
+   {
+      return AttachmentsSnapshot.snapshot(delegate);
+   }
+
    public int getChangeCount()
    {
       return delegate.getChangeCount();
@@ -224,31 +504,101 @@ public class TrackingMutableAttachments implements MutableAttachments
    public <T> T removeAttachment(Class<T> type)
    {
       T result = delegate.removeAttachment(type);
+      version.incrementAndGet();
       if (result != null)
+      {
+         if (index != null)
+            indexRemoved(Collections.singleton(type.getName()));
+         if (journal != null)
+            journal.record(type.getName(), AttachmentJournal.Change.REMOVED);
          referenced(type.getName());
+      }
       return result;
    }
 
    public <T> T removeAttachment(String name, Class<T> expectedType)
    {
       T result = delegate.removeAttachment(name, expectedType);
+      version.incrementAndGet();
       if (result != null)
+      {
+         if (index != null)
+            indexRemoved(Collections.singleton(name));
+         if (journal != null)
+            journal.record(name, AttachmentJournal.Change.REMOVED);
          referenced(name);
+      }
       return result;
    }
 
    public Object removeAttachment(String name)
    {
       Object result = delegate.removeAttachment(name);
+      version.incrementAndGet();
       if (result != null)
+      {
+         if (index != null)
+            indexRemoved(Collections.singleton(name));
+         if (journal != null)
+            journal.record(name, AttachmentJournal.Change.REMOVED);
          referenced(name);
+      }
       return result;
    }
 
    public void setAttachments(Map<String, Object> map)
    {
+      Collection<String> names = getTrackedNames();
       delegate.setAttachments(map);
-      createdDeployer.clear();
-      referencedDeployer.clear();
+      version.incrementAndGet();
+      tracks = null;
+      if (names != null)
+      {
+         indexRemoved(names);
+         indexAdded(map.keySet());
+         journalReplaced(names, map.keySet());
+      }
+   }
+
+   /**
+    * The deployers that created and referenced an attachment
+    */
+   private static class Track
+   {
+      /** The id of the creator or -1 when not known */
+      volatile int created = -1;
+
+      /** The ids of the referencers as a bitset or null when nothing referenced it */
+      volatile long[] referenced;
+
+      /**
+       * Record a referencer
+       * 
+       * @param id the id of the deployer
+       */
+      void referenced(int id)
+      {
+         int index = id >>> 6;
+         long bit = 1L << id;
+         long[] current = referenced;
+         if (current != null && index < current.length && (current[index] & bit) != 0)
+            return;
+         synchronized (this)
+         {
+            current = referenced;
+            long[] result;
+            if (current == null)
+               result = new long[index + 1];
+            else if (index >= current.length)
+            {
+               result = new long[index + 1];
+               System.arraycopy(current, 0, result, 0, current.length);
+            }
+            else
+               result = current.clone();
+            result[index] |= bit;
+            referenced = result;
+         }
+      }
    }
 }
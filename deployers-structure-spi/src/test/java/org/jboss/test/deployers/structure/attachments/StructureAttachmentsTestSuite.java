@@ -33,6 +33,10 @@ import org.jboss.test.deployers.structure.attachments.test.AbstractDeploymentUni
 import org.jboss.test.deployers.structure.attachments.test.AbstractDeploymentUnitPredeterminedManagedObjectsUnitTestCase;
 import org.jboss.test.deployers.structure.attachments.test.AbstractDeploymentUnitTransientAttachmentsUnitTestCase;
 import org.jboss.test.deployers.structure.attachments.test.AbstractDeploymentUnitTransientManagedObjectsUnitTestCase;
+import org.jboss.test.deployers.structure.attachments.test.AttachmentIndexUnitTestCase;
+import org.jboss.test.deployers.structure.attachments.test.AttachmentJournalUnitTestCase;
+import org.jboss.test.deployers.structure.attachments.test.DeploymentContextCodecUnitTestCase;
+import org.jboss.test.deployers.structure.attachments.test.TrackingMutableAttachmentsUnitTestCase;
 
 /**
  * StructureAttachmentsTestSuite.
@@ -59,6 +63,10 @@ public class StructureAttachmentsTestSuite extends TestSuite
       suite.addTest(AbstractDeploymentUnitTransientAttachmentsUnitTestCase.suite());
       suite.addTest(AbstractDeploymentUnitAttachmentsUnitTestCase.suite());
       suite.addTest(AbstractDeploymentUnitAttachmentHierarchyUnitTestCase.suite());
+      suite.addTest(TrackingMutableAttachmentsUnitTestCase.suite());
+      suite.addTest(AttachmentIndexUnitTestCase.suite());
+      suite.addTest(AttachmentJournalUnitTestCase.suite());
+      suite.addTest(DeploymentContextCodecUnitTestCase.suite());
 
       return suite;
    }
@@ -22,7 +22,9 @@
 package org.jboss.test.deployers.structure.attachments.test;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -154,4 +156,110 @@ public class AbstractDeploymentUnitAttachmentHierarchyUnitTestCase extends BaseT
       Map<String, String> expected = Collections.singletonMap(String.class.getName(), "tA");
       assertEquals(expected, unit.getAttachments());
    }
+   
+   public void testRepeatedLookupsFollowChanges()
+   {
+      transientAttachments.addAttachment("Name", "tA");
+      for (int i = 0; i < 3; ++i)
+         assertEquals("tA", unit.getAttachment("Name"));
+      transientManagedObjects.addAttachment("Name", "tMO");
+      for (int i = 0; i < 3; ++i)
+         assertEquals("tMO", unit.getAttachment("Name"));
+      predeterminedManagedObjects.addAttachment("Name", "pMO");
+      assertEquals("pMO", unit.getAttachment("Name"));
+      assertEquals(Collections.singletonMap("Name", "pMO"), unit.getAttachments());
+      predeterminedManagedObjects.removeAttachment("Name");
+      transientManagedObjects.clear();
+      assertEquals("tA", unit.getAttachment("Name"));
+      assertEquals(Collections.singletonMap("Name", "tA"), unit.getAttachments());
+      unit.clearChangeCount();
+      transientAttachments.removeAttachment("Name");
+      assertNull(unit.getAttachment("Name"));
+      assertTrue(unit.getAttachments().isEmpty());
+      predeterminedManagedObjects.setAttachments(Collections.singletonMap("Name", (Object) "pMO"));
+      assertEquals("pMO", unit.getAttachment("Name"));
+      predeterminedManagedObjects.setAttachments(Collections.<String, Object>emptyMap());
+      assertNull(unit.getAttachment("Name"));
+   }
+   
+   public void testComponentSeesParentLayers()
+   {
+      DeploymentUnit component = unit.addComponent("component");
+      transientAttachments.addAttachment("Parent", "tA");
+      component.addAttachment("Name", "component");
+      transientAttachments.addAttachment("Name", "parent");
+      for (int i = 0; i < 3; ++i)
+      {
+         assertEquals("tA", component.getAttachment("Parent"));
+         assertEquals("component", component.getAttachment("Name"));
+      }
+      transientManagedObjects.addAttachment("Name", "tMO");
+      assertEquals("tMO", component.getAttachment("Name"));
+      assertEquals(2, component.getAttachments().size());
+      assertEquals("tMO", component.getAttachments().get("Name"));
+      transientAttachments.removeAttachment("Parent");
+      assertNull(component.getAttachment("Parent"));
+   }
+   
+   public void testAllMetaDataByType()
+   {
+      predeterminedManagedObjects.addAttachment("Integer", 1);
+      transientManagedObjects.addAttachment("Long", 2L);
+      transientAttachments.addAttachment("String", "tA");
+      transientAttachments.addAttachment("Array", new String[0]);
+      assertEquals(set(1, 2L), unit.getAllMetaData(Number.class));
+      assertEquals(set(1, 2L, "tA"), unit.getAllMetaData(Comparable.class));
+      assertEquals(set(1), unit.getAllMetaData(Integer.class));
+      assertEquals(1, unit.getAllMetaData(Object[].class).size());
+      assertTrue(unit.getAllMetaData(Thread.class).isEmpty());
+      assertEquals(4, unit.getAllMetaData(Object.class).size());
+
+      transientManagedObjects.removeAttachment("Long");
+      transientAttachments.addAttachment("Double", 3.0);
+      assertEquals(set(1, 3.0), unit.getAllMetaData(Number.class));
+      transientAttachments.addAttachment("Integer", 4);
+      assertEquals(set(1, 3.0), unit.getAllMetaData(Number.class));
+   }
+   
+   public void testAllMetaDataIsCopy()
+   {
+      transientAttachments.addAttachment("Integer", 1);
+      Set<? extends Number> result = unit.getAllMetaData(Number.class);
+      assertEquals(set(1), result);
+      result.clear();
+      assertEquals(set(1), unit.getAllMetaData(Number.class));
+   }
+   
+   public void testNullName()
+   {
+      transientAttachments.addAttachment("Name", "tA");
+      for (int i = 0; i < 3; ++i)
+      {
+         try
+         {
+            unit.getAttachment((String) null);
+            fail("Should not be here!");
+         }
+         catch (Throwable t)
+         {
+            checkThrowable(IllegalArgumentException.class, t);
+         }
+      }
+   }
+   
+   public void testComponentAllMetaDataSeesParent()
+   {
+      DeploymentUnit component = unit.addComponent("component");
+      transientAttachments.addAttachment("Parent", 1);
+      component.addAttachment("Name", 2L);
+      assertEquals(set(1, 2L), component.getAllMetaData(Number.class));
+      assertEquals(set(1), unit.getAllMetaData(Number.class));
+   }
+   
+   private static Set<Object> set(Object... values)
+   {
+      Set<Object> result = new HashSet<Object>();
+      Collections.addAll(result, values);
+      return result;
+   }
 }
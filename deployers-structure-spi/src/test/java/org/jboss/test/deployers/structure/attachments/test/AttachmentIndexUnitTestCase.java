@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.structure.attachments.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.spi.attachments.MutableAttachments;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AttachmentIndex;
+import org.jboss.test.BaseTestCase;
+
+/**
+ * AttachmentIndexUnitTestCase.
+ */
+public class AttachmentIndexUnitTestCase extends BaseTestCase
+{
+   public static Test suite()
+   {
+      return new TestSuite(AttachmentIndexUnitTestCase.class);
+   }
+
+   private AbstractDeploymentContext top;
+
+   private AbstractDeploymentContext context1;
+
+   private DeploymentUnit child1;
+
+   private DeploymentUnit child2;
+
+   private DeploymentUnit grandChild;
+
+   public AttachmentIndexUnitTestCase(String name)
+   {
+      super(name);
+      top = createContext("top", "", null);
+      context1 = createContext("top/child1", "child1", top);
+      AbstractDeploymentContext context2 = createContext("top/child2", "child2", top);
+      AbstractDeploymentContext context3 = createContext("top/child2/grandChild", "grandChild", context2);
+      child1 = context1.getDeploymentUnit();
+      child2 = context2.getDeploymentUnit();
+      grandChild = context3.getDeploymentUnit();
+   }
+
+   protected static AbstractDeploymentContext createContext(String name, String path, DeploymentContext parent)
+   {
+      AbstractDeploymentContext context = new AbstractDeploymentContext(name, path);
+      context.setDeploymentUnit(new AbstractDeploymentUnit(context));
+      if (parent != null)
+      {
+         context.setParent(parent);
+         parent.addChild(context);
+      }
+      return context;
+   }
+
+   public void testIndexFollowsChanges() throws Exception
+   {
+      DeploymentUnit unit = top.getDeploymentUnit();
+      grandChild.addAttachment("Name", "grandChild");
+      top.setAttachmentIndexed(true);
+      AttachmentIndex index = AttachmentIndex.getAttachmentIndex(grandChild);
+      assertNotNull(index);
+
+      assertEquals("grandChild", index.searchChildren(unit, "Name"));
+      assertEquals(Collections.singleton(grandChild), index.getUnits("Name"));
+
+      child2.getTransientManagedObjects().addAttachment("Name", "child2");
+      assertEquals("child2", index.searchChildren(unit, "Name"));
+      child1.addAttachment("Name", "child1");
+      assertEquals("child1", index.searchChildren(unit, "Name"));
+      assertEquals(Arrays.asList(child1, child2, grandChild), index.searchUnits(unit, "Name"));
+      assertEquals(Arrays.asList(grandChild), index.searchUnits(grandChild, "Name"));
+
+      child1.removeAttachment("Name");
+      child2.getTransientManagedObjects().clear();
+      assertEquals("grandChild", index.searchChildren(unit, "Name"));
+      assertEquals(Collections.singleton(grandChild), index.getUnits("Name"));
+
+      grandChild.removeAttachment("Name");
+      assertNull(index.searchChildren(unit, "Name"));
+      assertTrue(index.getUnits("Name").isEmpty());
+   }
+
+   public void testComponentsAreSearched() throws Exception
+   {
+      top.setAttachmentIndexed(true);
+      AttachmentIndex index = top.getAttachmentIndex();
+      DeploymentUnit unit = top.getDeploymentUnit();
+      DeploymentUnit component = child2.addComponent("component");
+      component.addAttachment("Name", "component");
+      grandChild.addAttachment("Name", "grandChild");
+      assertEquals("component", index.searchChildren(unit, "Name"));
+      assertEquals(Arrays.asList(component, grandChild), index.searchUnits(unit, "Name"));
+
+      child2.addAttachment("Other", "child2");
+      assertEquals(Arrays.asList(child2, component), index.searchUnits(unit, "Other"));
+
+      child2.removeComponent("component");
+      assertEquals("grandChild", index.searchChildren(unit, "Name"));
+   }
+
+   public void testStructureChanges() throws Exception
+   {
+      top.setAttachmentIndexed(true);
+      AttachmentIndex index = top.getAttachmentIndex();
+      DeploymentUnit unit = top.getDeploymentUnit();
+      child1.addAttachment("Name", "child1");
+      grandChild.addAttachment("Name", "grandChild");
+      assertEquals(Arrays.asList(child1, grandChild), index.searchUnits(unit, "Name"));
+
+      top.removeChild(context1);
+      assertEquals(Arrays.asList(grandChild), index.searchUnits(unit, "Name"));
+      assertEquals(Collections.singleton(grandChild), index.getUnits("Name"));
+
+      AbstractDeploymentContext context3 = createContext("top/child3", "child3", top);
+      DeploymentUnit child3 = context3.getDeploymentUnit();
+      child3.addAttachment("Name", "child3");
+      assertEquals(Arrays.asList(grandChild, child3), index.searchUnits(unit, "Name"));
+      assertEquals(Arrays.asList(grandChild), index.searchUnits(child2, "Name"));
+   }
+
+   public void testSameAsWalk() throws Exception
+   {
+      MutableAttachments predetermined = (MutableAttachments) context1.getPredeterminedManagedObjects();
+      predetermined.addAttachment("Predetermined", "child1");
+      top.setAttachmentIndexed(true);
+      AttachmentIndex index = top.getAttachmentIndex();
+      List<DeploymentUnit> units = Arrays.asList(top.getDeploymentUnit(), child1, child2, grandChild);
+      for (DeploymentUnit start : units)
+      {
+         assertEquals(walk(start, "Predetermined"), index.searchUnits(start, "Predetermined"));
+         assertEquals(walk(start, "Missing"), index.searchUnits(start, "Missing"));
+      }
+      top.setAttachmentIndexed(false);
+      assertNull(AttachmentIndex.getAttachmentIndex(child1));
+   }
+
+   private static List<DeploymentUnit> walk(DeploymentUnit unit, String name)
+   {
+      List<DeploymentUnit> result = new ArrayList<DeploymentUnit>();
+      if (unit.getAttachment(name) != null)
+         result.add(unit);
+      for (DeploymentUnit component : unit.getComponents())
+         result.addAll(walk(component, name));
+      for (DeploymentUnit child : unit.getChildren())
+         result.addAll(walk(child, name));
+      return result;
+   }
+}
@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.structure.attachments.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AttachmentJournal;
+import org.jboss.deployers.structure.spi.helpers.AttachmentJournal.Change;
+import org.jboss.deployers.structure.spi.helpers.ComponentDeploymentContext;
+import org.jboss.test.BaseTestCase;
+
+/**
+ * AttachmentJournalUnitTestCase.
+ */
+public class AttachmentJournalUnitTestCase extends BaseTestCase
+{
+   public static Test suite()
+   {
+      return new TestSuite(AttachmentJournalUnitTestCase.class);
+   }
+
+   private AbstractDeploymentContext context;
+
+   private DeploymentUnit unit;
+
+   private AttachmentJournal journal;
+
+   public AttachmentJournalUnitTestCase(String name)
+   {
+      super(name);
+      context = new AbstractDeploymentContext("test", "");
+      unit = new AbstractDeploymentUnit(context);
+      context.setDeploymentUnit(unit);
+      journal = new AttachmentJournal(4);
+      context.setAttachmentJournal(journal);
+   }
+
+   public void testNoJournal() throws Exception
+   {
+      AbstractDeploymentContext other = new AbstractDeploymentContext("other", "");
+      assertNull(other.getAttachmentJournal());
+      assertNull(AttachmentJournal.getAttachmentJournal(other));
+      assertSame(journal, AttachmentJournal.getAttachmentJournal(context));
+   }
+
+   public void testIllegalCapacity() throws Exception
+   {
+      try
+      {
+         new AttachmentJournal(0);
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(IllegalArgumentException.class, t);
+      }
+   }
+
+   public void testChanges() throws Exception
+   {
+      unit.addAttachment("existing", "value");
+      long mark = journal.mark();
+      assertTrue(journal.getChanges(mark).isEmpty());
+
+      unit.addAttachment("added", "value");
+      unit.addAttachment("existing", "other");
+      Map<String, Change> changes = journal.getChanges(mark);
+      assertEquals(2, changes.size());
+      assertEquals(Change.ADDED, changes.get("added"));
+      assertEquals(Change.REPLACED, changes.get("existing"));
+
+      mark = journal.mark();
+      unit.removeAttachment("existing");
+      changes = journal.getChanges(mark);
+      assertEquals(1, changes.size());
+      assertEquals(Change.REMOVED, changes.get("existing"));
+   }
+
+   public void testNetChanges() throws Exception
+   {
+      unit.addAttachment("existing", "value");
+      long mark = journal.mark();
+
+      unit.addAttachment("transient", "value");
+      unit.removeAttachment("transient");
+      unit.removeAttachment("existing");
+      unit.addAttachment("existing", "other");
+
+      Map<String, Change> changes = journal.getChanges(mark);
+      assertEquals(1, changes.size());
+      assertEquals(Change.REPLACED, changes.get("existing"));
+   }
+
+   public void testOverflow() throws Exception
+   {
+      long mark = journal.mark();
+      for (int i = 0; i < journal.getCapacity(); ++i)
+         unit.addAttachment("name" + i, "value");
+      assertEquals(journal.getCapacity(), journal.getChanges(mark).size());
+
+      unit.addAttachment("oneTooMany", "value");
+      assertNull(journal.getChanges(mark));
+      assertEquals(journal.getCapacity(), journal.getChanges(mark + 1).size());
+   }
+
+   public void testSetAttachmentsAndClear() throws Exception
+   {
+      context.setAttachmentJournal(new AttachmentJournal(16));
+      journal = context.getAttachmentJournal();
+      unit.addAttachment("kept", "value");
+      unit.addAttachment("dropped", "value");
+
+      long mark = journal.mark();
+      Map<String, Object> map = new HashMap<String, Object>();
+      map.put("kept", "other");
+      map.put("new", "value");
+      context.getTransientAttachments().setAttachments(map);
+      Map<String, Change> changes = journal.getChanges(mark);
+      assertEquals(3, changes.size());
+      assertEquals(Change.REPLACED, changes.get("kept"));
+      assertEquals(Change.REMOVED, changes.get("dropped"));
+      assertEquals(Change.ADDED, changes.get("new"));
+
+      mark = journal.mark();
+      context.getTransientAttachments().clear();
+      changes = journal.getChanges(mark);
+      assertEquals(2, changes.size());
+      assertEquals(Change.REMOVED, changes.get("kept"));
+      assertEquals(Change.REMOVED, changes.get("new"));
+   }
+
+   public void testComponentsShareJournal() throws Exception
+   {
+      ComponentDeploymentContext component = new ComponentDeploymentContext("component", context);
+      context.addComponent(component);
+      assertSame(journal, component.getAttachmentJournal());
+
+      long mark = journal.mark();
+      component.getTransientManagedObjects().addAttachment("managed", "value");
+      assertEquals(Change.ADDED, journal.getChanges(mark).get("managed"));
+   }
+}
@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.structure.attachments.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.plugins.attachments.AttachmentsImpl;
+import org.jboss.deployers.spi.DeploymentState;
+import org.jboss.deployers.spi.attachments.Attachments;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.codec.AttachmentsCodec;
+import org.jboss.deployers.structure.spi.codec.CodecInput;
+import org.jboss.deployers.structure.spi.codec.CodecOutput;
+import org.jboss.deployers.structure.spi.codec.DeploymentContextCodec;
+import org.jboss.deployers.structure.spi.codec.TypeSerializer;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.test.BaseTestCase;
+
+/**
+ * DeploymentContextCodecUnitTestCase.
+ */
+public class DeploymentContextCodecUnitTestCase extends BaseTestCase
+{
+   public static Test suite()
+   {
+      return new TestSuite(DeploymentContextCodecUnitTestCase.class);
+   }
+
+   public DeploymentContextCodecUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   public void testAttachmentsRoundTrip() throws Exception
+   {
+      AttachmentsImpl attachments = new AttachmentsImpl();
+      attachments.addAttachment("string", "hello");
+      attachments.addAttachment(Integer.class, 42);
+      attachments.addAttachment(Long.class, Long.MAX_VALUE);
+      attachments.addAttachment(Boolean.class, true);
+      attachments.addAttachment(Date.class, new Date(1234));
+
+      AttachmentsCodec codec = new AttachmentsCodec();
+      AttachmentsImpl result = new AttachmentsImpl();
+      codec.readAttachments(result, new ByteArrayInputStream(encode(codec, attachments)));
+      assertEquals(attachments.getAttachments(), result.getAttachments());
+   }
+
+   public void testRepeatedStringsAreShared() throws Exception
+   {
+      String value = "a fairly long attachment value that is repeated";
+      AttachmentsImpl once = new AttachmentsImpl();
+      once.addAttachment("a", value);
+      AttachmentsImpl twice = new AttachmentsImpl();
+      twice.addAttachment("a", value);
+      twice.addAttachment("b", value);
+
+      AttachmentsCodec codec = new AttachmentsCodec();
+      int difference = encode(codec, twice).length - encode(codec, once).length;
+      assertTrue("Expected the repeated value to be a reference " + difference, difference < 8);
+   }
+
+   public void testCustomSerializer() throws Exception
+   {
+      AttachmentsCodec codec = new AttachmentsCodec();
+      codec.addSerializer(new TypeSerializer<StringBuilder>()
+      {
+         public Class<StringBuilder> getType()
+         {
+            return StringBuilder.class;
+         }
+
+         public void write(CodecOutput out, StringBuilder value) throws IOException
+         {
+            out.writeString(value.toString());
+         }
+
+         public StringBuilder read(CodecInput in) throws IOException
+         {
+            return new StringBuilder(in.readString());
+         }
+      });
+      AttachmentsImpl attachments = new AttachmentsImpl();
+      attachments.addAttachment(StringBuilder.class, new StringBuilder("builder"));
+
+      AttachmentsImpl result = new AttachmentsImpl();
+      codec.readAttachments(result, new ByteArrayInputStream(encode(codec, attachments)));
+      assertEquals("builder", result.getAttachment(StringBuilder.class).toString());
+   }
+
+   public void testLongString() throws Exception
+   {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < 70000; ++i)
+         builder.append((char) ('a' + i % 26));
+      builder.append('\u20ac');
+      AttachmentsImpl attachments = new AttachmentsImpl();
+      attachments.addAttachment("long", builder.toString());
+
+      AttachmentsCodec codec = new AttachmentsCodec();
+      AttachmentsImpl result = new AttachmentsImpl();
+      codec.readAttachments(result, new ByteArrayInputStream(encode(codec, attachments)));
+      assertEquals(builder.toString(), result.getAttachment("long"));
+   }
+
+   public void testSerializedValuesShareClasses() throws Exception
+   {
+      AttachmentsImpl once = new AttachmentsImpl();
+      once.addAttachment("a", new Date(1));
+      AttachmentsImpl twice = new AttachmentsImpl();
+      twice.addAttachment("a", new Date(1));
+      twice.addAttachment("b", new Date(2));
+
+      AttachmentsCodec codec = new AttachmentsCodec();
+      int difference = encode(codec, twice).length - encode(codec, once).length;
+      assertTrue("Expected the class descriptor to be written once " + difference, difference < 32);
+
+      AttachmentsImpl result = new AttachmentsImpl();
+      codec.readAttachments(result, new ByteArrayInputStream(encode(codec, twice)));
+      assertEquals(twice.getAttachments(), result.getAttachments());
+   }
+
+   public void testClassLoader() throws Exception
+   {
+      final List<String> loaded = new ArrayList<String>();
+      ClassLoader cl = new ClassLoader(DeploymentContextCodecUnitTestCase.class.getClassLoader())
+      {
+         protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+         {
+            loaded.add(name);
+            return super.loadClass(name, resolve);
+         }
+      };
+      AttachmentsImpl attachments = new AttachmentsImpl();
+      attachments.addAttachment(Date.class, new Date(1234));
+
+      AttachmentsCodec codec = new AttachmentsCodec();
+      codec.setClassLoader(cl);
+      AttachmentsImpl result = new AttachmentsImpl();
+      codec.readAttachments(result, new ByteArrayInputStream(encode(codec, attachments)));
+      assertEquals(new Date(1234), result.getAttachment(Date.class));
+      assertTrue(loaded.toString(), loaded.contains(Date.class.getName()));
+   }
+
+   public void testNotSerializable() throws Exception
+   {
+      AttachmentsImpl attachments = new AttachmentsImpl();
+      attachments.addAttachment(Object.class, new Object());
+      try
+      {
+         encode(new AttachmentsCodec(), attachments);
+         fail("Should not be here");
+      }
+      catch (Throwable t)
+      {
+         checkThrowable(IOException.class, t);
+      }
+   }
+
+   public void testContextTreeRoundTrip() throws Exception
+   {
+      AbstractDeploymentContext top = new AbstractDeploymentContext("top", "");
+      top.setState(DeploymentState.DEPLOYED);
+      AttachmentsImpl predetermined = new AttachmentsImpl();
+      predetermined.addAttachment("Name", "top");
+      top.setPredeterminedManagedObjects(predetermined);
+      AbstractDeploymentContext child1 = createChild(top, "top/child1", "child1", 2);
+      createChild(top, "top/child2", "child2", 1);
+      createChild(child1, "top/child1/grandChild", "grandChild", 0);
+      DeploymentUnit component = top.getDeploymentUnit().addComponent("component");
+      component.addComponent("nested");
+
+      DeploymentContextCodec codec = new DeploymentContextCodec();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      codec.writeDeploymentContext(top, baos);
+      DeploymentContext result = codec.readDeploymentContext(new ByteArrayInputStream(baos.toByteArray()));
+
+      assertContext(top, result);
+      assertEquals("top", result.getPredeterminedManagedObjects().getAttachment("Name"));
+      List<DeploymentContext> components = result.getComponents();
+      assertEquals(1, components.size());
+      DeploymentContext resultComponent = components.get(0);
+      assertTrue(resultComponent.isComponent());
+      assertEquals("component", resultComponent.getName());
+      assertSame(result, resultComponent.getParent());
+      assertEquals("component", resultComponent.getDeploymentUnit().getName());
+      assertEquals("nested", resultComponent.getComponents().get(0).getName());
+      assertTrue(result.isDeployed());
+   }
+
+   protected static AbstractDeploymentContext createChild(DeploymentContext parent, String name, String path, int order)
+   {
+      AbstractDeploymentContext context = new AbstractDeploymentContext(name, path);
+      context.setRelativeOrder(order);
+      context.setParent(parent);
+      parent.addChild(context);
+      return context;
+   }
+
+   protected void assertContext(DeploymentContext expected, DeploymentContext actual)
+   {
+      assertEquals(expected.getName(), actual.getName());
+      assertEquals(expected.getSimpleName(), actual.getSimpleName());
+      assertEquals(expected.getRelativePath(), actual.getRelativePath());
+      assertEquals(expected.getRelativeOrder(), actual.getRelativeOrder());
+      assertEquals(expected.getState(), actual.getState());
+      List<DeploymentContext> expectedChildren = expected.getChildren();
+      List<DeploymentContext> actualChildren = actual.getChildren();
+      assertEquals(expectedChildren.size(), actualChildren.size());
+      for (int i = 0; i < expectedChildren.size(); ++i)
+      {
+         assertSame(actual, actualChildren.get(i).getParent());
+         assertContext(expectedChildren.get(i), actualChildren.get(i));
+      }
+   }
+
+   protected static byte[] encode(AttachmentsCodec codec, Attachments attachments) throws IOException
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      codec.writeAttachments(attachments, baos);
+      return baos.toByteArray();
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.structure.attachments.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.spi.attachments.AttachmentsFactory;
+import org.jboss.deployers.structure.spi.helpers.AttachmentTracking;
+import org.jboss.deployers.structure.spi.helpers.DeployerTracking;
+import org.jboss.deployers.structure.spi.helpers.TrackingMutableAttachments;
+import org.jboss.test.BaseTestCase;
+
+/**
+ * TrackingMutableAttachmentsUnitTestCase.
+ */
+public class TrackingMutableAttachmentsUnitTestCase extends BaseTestCase
+{
+   public static Test suite()
+   {
+      return new TestSuite(TrackingMutableAttachmentsUnitTestCase.class);
+   }
+   
+   public TrackingMutableAttachmentsUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   protected TrackingMutableAttachments createAttachments(AttachmentTracking tracking)
+   {
+      return new TrackingMutableAttachments(AttachmentsFactory.createMutableAttachments(), tracking);
+   }
+
+   protected void use(TrackingMutableAttachments attachments)
+   {
+      DeployerTracking.push("creator");
+      try
+      {
+         attachments.addAttachment("Name", "value");
+      }
+      finally
+      {
+         DeployerTracking.pop();
+      }
+      for (String deployer : Arrays.asList("first", "second", "first"))
+      {
+         DeployerTracking.push(deployer);
+         try
+         {
+            attachments.getAttachment("Name");
+         }
+         finally
+         {
+            DeployerTracking.pop();
+         }
+      }
+   }
+
+   public void testFull() throws Exception
+   {
+      TrackingMutableAttachments attachments = createAttachments(AttachmentTracking.FULL);
+      use(attachments);
+      assertEquals("creator", attachments.getCreated("Name"));
+      assertEquals(new HashSet<String>(Arrays.asList("first", "second")), attachments.getReferenced("Name"));
+      assertNull(attachments.getCreated("Other"));
+      assertNull(attachments.getReferenced("Other"));
+   }
+
+   public void testCreated() throws Exception
+   {
+      TrackingMutableAttachments attachments = createAttachments(AttachmentTracking.CREATED);
+      use(attachments);
+      assertEquals("creator", attachments.getCreated("Name"));
+      assertNull(attachments.getReferenced("Name"));
+   }
+
+   public void testOff() throws Exception
+   {
+      TrackingMutableAttachments attachments = createAttachments(AttachmentTracking.OFF);
+      use(attachments);
+      assertEquals("value", attachments.getAttachment("Name"));
+      assertNull(attachments.getCreated("Name"));
+      assertNull(attachments.getReferenced("Name"));
+   }
+
+   public void testLoweringForgets() throws Exception
+   {
+      TrackingMutableAttachments attachments = createAttachments(AttachmentTracking.FULL);
+      use(attachments);
+      attachments.setAttachmentTracking(AttachmentTracking.CREATED);
+      assertEquals("creator", attachments.getCreated("Name"));
+      assertNull(attachments.getReferenced("Name"));
+      attachments.setAttachmentTracking(AttachmentTracking.OFF);
+      assertNull(attachments.getCreated("Name"));
+   }
+
+   public void testManyDeployers() throws Exception
+   {
+      TrackingMutableAttachments attachments = createAttachments(AttachmentTracking.FULL);
+      attachments.addAttachment("Name", "value");
+      HashSet<String> expected = new HashSet<String>();
+      for (int i = 0; i < 200; ++i)
+      {
+         String deployer = "deployer" + i;
+         expected.add(deployer);
+         DeployerTracking.push(deployer);
+         try
+         {
+            attachments.getAttachment("Name");
+         }
+         finally
+         {
+            DeployerTracking.pop();
+         }
+      }
+      assertEquals(expected, attachments.getReferenced("Name"));
+   }
+}
@@ -46,9 +46,15 @@ public abstract class AbstractVFSParsingDeployer<T> extends AbstractParsingDeplo
    /** The alt mappings key */
    private static final String ALT_MAPPINGS_MAP_KEY = "AltMappingsMap";
 
+   /** The suffix of the alt dd keys */
+   private static final String ALT_DD_SUFFIX = ".altDD";
+
    /** The allow multiple fiels flag */
    private boolean allowMultipleFiles;
 
+   /** The last alt dd key, a deployer mostly asks for the same one */
+   private volatile AltDDKey altDDKey;
+
    /**
     * Create a new AbstractVFSParsingDeployer.
     * 
@@ -128,6 +134,23 @@ public abstract class AbstractVFSParsingDeployer<T> extends AbstractParsingDeplo
       return unit.getAttachment(ALT_MAPPINGS_MAP_KEY, Map.class);
    }
 
+   /**
+    * Get the alt dd key of a prefix, without building it again for the prefix of the last call.
+    *
+    * @param altPrefix the prefix
+    * @return the key
+    */
+   private String getAltDDKey(String altPrefix)
+   {
+      AltDDKey key = altDDKey;
+      if (key == null || key.prefix.equals(altPrefix) == false)
+      {
+         key = new AltDDKey(altPrefix);
+         altDDKey = key;
+      }
+      return key.key;
+   }
+
    /**
     * Get metadata file.
     * First try altDD, then fallback to original name.
@@ -141,7 +164,7 @@ public abstract class AbstractVFSParsingDeployer<T> extends AbstractParsingDeplo
    protected VirtualFile getMetadataFile(VFSDeploymentUnit unit, Class<?> altExpectedClass, String originalName, boolean checkMetaDataFile)
    {
       String altPrefix = (altExpectedClass != null ? altExpectedClass.getName() : originalName);
-      VirtualFile file = unit.getAttachment(altPrefix + ".altDD", VirtualFile.class);
+      VirtualFile file = unit.getAttachment(getAltDDKey(altPrefix), VirtualFile.class);
 
       if (file != null && altExpectedClass != null)
       {
@@ -454,4 +477,22 @@ public abstract class AbstractVFSParsingDeployer<T> extends AbstractParsingDeplo
    {
       this.allowMultipleFiles = allowMultipleFiles;
    }
+
+   /**
+    * An alt dd key and the prefix it was built from.
+    */
+   private static class AltDDKey
+   {
+      /** The prefix */
+      final String prefix;
+
+      /** The key */
+      final String key;
+
+      AltDDKey(String prefix)
+      {
+         this.prefix = prefix;
+         this.key = prefix + ALT_DD_SUFFIX;
+      }
+   }
 }
@@ -21,15 +21,23 @@
 */
 package org.jboss.deployers.vfs.plugins.annotations;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javassist.ClassPath;
 import javassist.ClassPool;
 import javassist.LoaderClassPath;
 import org.jboss.classloading.spi.dependency.Module;
+import org.jboss.classloading.spi.visitor.ClassFilter;
+import org.jboss.deployers.plugins.annotations.AnnotationIndexCache;
 import org.jboss.deployers.plugins.annotations.GenericAnnotationResourceVisitor;
+import org.jboss.deployers.plugins.annotations.SharedAnnotationIndex;
 import org.jboss.deployers.spi.DeploymentException;
 import org.jboss.deployers.spi.annotations.AnnotationEnvironment;
 import org.jboss.deployers.spi.annotations.ScanningMetaData;
@@ -50,6 +58,10 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
    private boolean forceAnnotations;
    private boolean keepAnnotations;
    private boolean checkInterfaces;
+   private Executor scanningExecutor;
+   private boolean useClassFileReader;
+   private AnnotationIndexCache annotationIndexCache;
+   private SharedAnnotationIndex sharedAnnotationIndex;
 
    private VFSDeploymentUnitFilter filter;
 
@@ -102,6 +114,53 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
       this.filter = filter;
    }
 
+   /**
+    * Set the executor scanning the classes in parallel.
+    *
+    * @param scanningExecutor the executor or null to scan in the deploying thread
+    */
+   public void setScanningExecutor(Executor scanningExecutor)
+   {
+      this.scanningExecutor = scanningExecutor;
+   }
+
+   /**
+    * Should we read the annotations straight from the class files instead of using javassist.
+    *
+    * @param useClassFileReader the use class file reader flag
+    */
+   public void setUseClassFileReader(boolean useClassFileReader)
+   {
+      this.useClassFileReader = useClassFileReader;
+   }
+
+   /**
+    * Set the annotation index cache.
+    *
+    * When set, each classpath entry is indexed on its own and the index
+    * is reused as long as the entry doesn't change. Not used when annotations are kept.
+    *
+    * @param annotationIndexCache the annotation index cache or null to always scan
+    */
+   public void setAnnotationIndexCache(AnnotationIndexCache annotationIndexCache)
+   {
+      this.annotationIndexCache = annotationIndexCache;
+   }
+
+   /**
+    * Set the shared annotation index.
+    *
+    * When set, the archives on the classpath are looked up by a hash of their
+    * content, so a library bundled by several deployments is only scanned once.
+    * Not used when annotations are kept.
+    *
+    * @param sharedAnnotationIndex the shared annotation index or null to not share
+    */
+   public void setSharedAnnotationIndex(SharedAnnotationIndex sharedAnnotationIndex)
+   {
+      this.sharedAnnotationIndex = sharedAnnotationIndex;
+   }
+
    /**
     * Create GenericAnnotationResourceVisitor.
     *
@@ -119,6 +178,8 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
       visitor.setForceAnnotations(forceAnnotations);
       visitor.setKeepAnnotations(keepAnnotations);
       visitor.setCheckInterfaces(checkInterfaces);
+      visitor.setExecutor(scanningExecutor);
+      visitor.setUseClassFileReader(useClassFileReader);
       return visitor;
    }
 
@@ -169,7 +230,32 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
    {
       try
       {
-         module.visit(visitor, visitor.getFilter(), null, getUrls(unit));
+         visitModule(unit, module, visitor, getUrls(unit));
+      }
+      catch (DeploymentException e)
+      {
+         throw e;
+      }
+      catch (Exception e)
+      {
+         throw DeploymentException.rethrowAsDeploymentException("Exception visiting module", e);
+      }
+   }
+
+   /**
+    * Visit the module's urls.
+    *
+    * @param unit the deployment unit
+    * @param module the module
+    * @param visitor the resource visitor
+    * @param urls the urls to visit
+    * @throws DeploymentException for any error
+    */
+   protected void visitModule(VFSDeploymentUnit unit, Module module, GenericAnnotationResourceVisitor visitor, URL[] urls) throws DeploymentException
+   {
+      try
+      {
+         module.visit(visitor, visitor.getFilter(), null, urls);
       }
       catch (Exception e)
       {
@@ -177,6 +263,165 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
       }
    }
 
+   /**
+    * Visit the module one classpath entry at a time,
+    * loading the entries from the shared index or the annotation index cache when possible.
+    *
+    * @param unit the deployment unit
+    * @param module the module
+    * @param visitor the resource visitor
+    * @throws DeploymentException for any error
+    */
+   protected void visitModuleWithIndex(VFSDeploymentUnit unit, Module module, GenericAnnotationResourceVisitor visitor) throws DeploymentException
+   {
+      List<VirtualFile> entries;
+      try
+      {
+         entries = getClassPathEntries(unit);
+      }
+      catch (IOException e)
+      {
+         throw DeploymentException.rethrowAsDeploymentException("Exception getting classpath of " + unit.getName(), e);
+      }
+      if (entries.isEmpty())
+      {
+         visitModule(unit, module, visitor);
+         return;
+      }
+
+      for (VirtualFile entry : entries)
+      {
+         URL url;
+         String key = null;
+         try
+         {
+            url = entry.toURL();
+            if (sharedAnnotationIndex != null)
+               key = getSharedIndexKey(unit, entry, visitor);
+         }
+         catch (Exception e)
+         {
+            throw DeploymentException.rethrowAsDeploymentException("Exception hashing " + entry, e);
+         }
+
+         if (key != null)
+         {
+            String owner = unit.getName();
+            if (sharedAnnotationIndex.load(key, owner, visitor))
+               continue;
+
+            sharedAnnotationIndex.startIndexing(visitor);
+            visitModule(unit, module, visitor, new URL[] { url });
+            visitor.complete();
+            sharedAnnotationIndex.store(key, owner, visitor);
+         }
+         else if (annotationIndexCache != null)
+         {
+            long fingerprint;
+            try
+            {
+               fingerprint = getFingerprint(entry);
+            }
+            catch (Exception e)
+            {
+               throw DeploymentException.rethrowAsDeploymentException("Exception fingerprinting " + entry, e);
+            }
+
+            String entryName = url.toExternalForm();
+            if (annotationIndexCache.load(entryName, fingerprint, visitor))
+               continue;
+
+            annotationIndexCache.startIndexing(visitor);
+            visitModule(unit, module, visitor, new URL[] { url });
+            visitor.complete();
+            annotationIndexCache.store(entryName, fingerprint, visitor);
+         }
+         else
+         {
+            visitModule(unit, module, visitor, new URL[] { url });
+         }
+      }
+   }
+
+   /**
+    * Get the key of a classpath entry in the shared index.
+    *
+    * Only archives are shared, keyed by the hash of their content and the
+    * visitor flags that change what is indexed. Nothing is shared when the
+    * visitor checks super classes, which are resolved through the unit's own
+    * classloader, or uses its own resource filter.
+    *
+    * @param unit the deployment unit
+    * @param entry the classpath entry
+    * @param visitor the resource visitor
+    * @return the key or null if the entry shouldn't be shared
+    * @throws IOException for any error
+    */
+   protected String getSharedIndexKey(VFSDeploymentUnit unit, VirtualFile entry, GenericAnnotationResourceVisitor visitor) throws IOException
+   {
+      if (entry.isLeaf() == false && entry.isArchive() == false)
+         return null;
+      if (visitor.isCheckSuper() || visitor.getFilter() != ClassFilter.INSTANCE)
+         return null;
+
+      MessageDigest digest;
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new RuntimeException(e);
+      }
+
+      InputStream in = entry.openStream();
+      try
+      {
+         byte[] buffer = new byte[8192];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+            digest.update(buffer, 0, read);
+      }
+      finally
+      {
+         in.close();
+      }
+
+      StringBuilder builder = new StringBuilder();
+      for (byte b : digest.digest())
+      {
+         builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+         builder.append(Character.forDigit(b & 0xF, 16));
+      }
+      builder.append(visitor.isForceAnnotations() ? "-force" : "");
+      builder.append(visitor.isCheckInterfaces() ? "-interfaces" : "");
+      return builder.toString();
+   }
+
+   /**
+    * Get the fingerprint of a classpath entry's content.
+    *
+    * Archives use their size and last modified time,
+    * directories combine those of all their files.
+    *
+    * @param entry the classpath entry
+    * @return the fingerprint
+    * @throws IOException for any error
+    */
+   protected long getFingerprint(VirtualFile entry) throws IOException
+   {
+      if (entry.isLeaf() || entry.isArchive())
+         return 31 * entry.getSize() + entry.getLastModified();
+
+      long fingerprint = 17;
+      for (VirtualFile child : entry.getChildren())
+      {
+         fingerprint = 31 * fingerprint + child.getName().hashCode();
+         fingerprint = 31 * fingerprint + getFingerprint(child);
+      }
+      return fingerprint;
+   }
+
    /**
     * Get the matching urls.
     *
@@ -186,10 +431,34 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
     */
    protected URL[] getUrls(VFSDeploymentUnit unit) throws Exception
    {
+      List<VirtualFile> entries = getClassPathEntries(unit);
+      if (entries.isEmpty() == false)
+      {
+         List<URL> urls = new ArrayList<URL>();
+         for (VirtualFile cp : entries)
+            urls.add(cp.toURL());
+
+         if (log.isTraceEnabled())
+            log.trace("Explicit urls: " + urls);
+
+         return urls.toArray(new URL[urls.size()]);
+      }
+      return new URL[0];
+   }
+
+   /**
+    * Get the classpath entries inside the deployment.
+    *
+    * @param unit the deployment unit
+    * @return the matching classpath entries
+    * @throws IOException for any error
+    */
+   protected List<VirtualFile> getClassPathEntries(VFSDeploymentUnit unit) throws IOException
+   {
+      List<VirtualFile> entries = new ArrayList<VirtualFile>();
       List<VirtualFile> classpath = unit.getClassPath();
       if (classpath != null && classpath.isEmpty() == false)
       {
-         List<URL> urls = new ArrayList<URL>();
          VirtualFile root = unit.getRoot();
          for (VirtualFile cp : classpath)
          {
@@ -198,17 +467,10 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
                check = check.getParent();
 
             if (check != null)
-               urls.add(cp.toURL());
-         }
-         if (urls.isEmpty() == false)
-         {
-            if (log.isTraceEnabled())
-               log.trace("Explicit urls: " + urls);
-
-            return urls.toArray(new URL[urls.size()]);
+               entries.add(cp);
          }
       }
-      return new URL[0];
+      return entries;
    }
 
    public void deploy(VFSDeploymentUnit unit, Module module) throws DeploymentException
@@ -241,7 +503,17 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
       Thread.currentThread().setContextClassLoader(classLoader);
       try
       {
-         visitModule(unit, module, visitor);
+         if ((annotationIndexCache != null || sharedAnnotationIndex != null) && keepAnnotations == false)
+            visitModuleWithIndex(unit, module, visitor);
+         else
+            visitModule(unit, module, visitor);
+         visitor.complete();
+      }
+      catch (Throwable t)
+      {
+         if (sharedAnnotationIndex != null)
+            sharedAnnotationIndex.release(unit.getName());
+         throw DeploymentException.rethrowAsDeploymentException("Exception scanning module", t);
       }
       finally
       {
@@ -250,4 +522,11 @@ public class AnnotationEnvironmentDeployer extends AbstractOptionalVFSRealDeploy
 
       unit.addAttachment(AnnotationEnvironment.class, visitor.getEnv());
    }
+
+   @Override
+   public void undeploy(VFSDeploymentUnit unit, Module module)
+   {
+      if (sharedAnnotationIndex != null)
+         sharedAnnotationIndex.release(unit.getName());
+   }
 }
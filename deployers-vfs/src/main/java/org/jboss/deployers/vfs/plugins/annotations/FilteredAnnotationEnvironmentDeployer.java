@@ -21,12 +21,16 @@
 */
 package org.jboss.deployers.vfs.plugins.annotations;
 
+import java.io.IOException;
+import java.net.URL;
+
 import org.jboss.classloading.spi.dependency.Module;
 import org.jboss.classloading.spi.visitor.ResourceFilter;
 import org.jboss.deployers.plugins.annotations.GenericAnnotationResourceVisitor;
 import org.jboss.deployers.structure.spi.DeploymentUnit;
 import org.jboss.deployers.vfs.spi.structure.VFSDeploymentUnit;
 import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.virtual.VirtualFile;
 
 /**
  * Filtered annotation environment deployer.
@@ -76,8 +80,9 @@ public class FilteredAnnotationEnvironmentDeployer extends ScopedAnnotationEnvir
     * @param unit the deployment unit
     * @param module the underlying module
     * @param visitor the current generic annotation resource visitor
+    * @param urls the urls to visit
     */
-   protected void visitModule(VFSDeploymentUnit unit, Module module, GenericAnnotationResourceVisitor visitor) throws DeploymentException
+   protected void visitModule(VFSDeploymentUnit unit, Module module, GenericAnnotationResourceVisitor visitor, URL[] urls) throws DeploymentException
    {
       ResourceFilter filter = getFilter(unit, ResourceFilter.class, "resource", resourceFilter);
       if (filter == null)
@@ -85,7 +90,7 @@ public class FilteredAnnotationEnvironmentDeployer extends ScopedAnnotationEnvir
       ResourceFilter recurse = getFilter(unit, ResourceFilter.class, "recurse", recurseFilter);
       try
       {
-         module.visit(visitor, filter, recurse, getUrls(unit));
+         module.visit(visitor, filter, recurse, urls);
       }
       catch (Exception e)
       {
@@ -93,6 +98,27 @@ public class FilteredAnnotationEnvironmentDeployer extends ScopedAnnotationEnvir
       }
    }
 
+   /**
+    * Units with their own filters, or all units when this deployer has
+    * filters, see only part of an archive, so their results are not
+    * shared with other deployments.
+    *
+    * @param unit the deployment unit
+    * @param entry the classpath entry
+    * @param visitor the resource visitor
+    * @return the key or null if the entry shouldn't be shared
+    * @throws IOException for any error
+    */
+   protected String getSharedIndexKey(VFSDeploymentUnit unit, VirtualFile entry, GenericAnnotationResourceVisitor visitor) throws IOException
+   {
+      if (resourceFilter != null || recurseFilter != null)
+         return null;
+      if (unit.isAttachmentPresent(ResourceFilter.class.getName() + ".resource") || unit.isAttachmentPresent(ResourceFilter.class.getName() + ".recurse"))
+         return null;
+
+      return super.getSharedIndexKey(unit, entry, visitor);
+   }
+
    /**
     * Set resource filter.
     *
@@ -39,6 +39,12 @@ import org.jboss.logging.Logger;
  */
 public class ScanningDeploymentUnitFilter implements VFSDeploymentUnitFilter
 {
+   /** The recurse filter key */
+   private static final String RECURSE_FILTER_KEY = ResourceFilter.class.getName() + ".recurse";
+
+   /** The resource filter key */
+   private static final String RESOURCE_FILTER_KEY = ResourceFilter.class.getName() + ".resource";
+
    private Logger log = Logger.getLogger(getClass());
 
    public boolean accepts(VFSDeploymentUnit unit)
@@ -50,7 +56,7 @@ public class ScanningDeploymentUnitFilter implements VFSDeploymentUnitFilter
          ResourceFilter recurse = createRecurseFilter(smd);
          if (recurse != null)
          {
-            ResourceFilter previousRecurse = unit.addAttachment(ResourceFilter.class.getName() + ".recurse", recurse, ResourceFilter.class);
+            ResourceFilter previousRecurse = unit.addAttachment(RECURSE_FILTER_KEY, recurse, ResourceFilter.class);
             if (previousRecurse != null)
                log.debug("Overridding previous recurse filter: " + previousRecurse);
          }
@@ -59,7 +65,7 @@ public class ScanningDeploymentUnitFilter implements VFSDeploymentUnitFilter
          ResourceFilter filter = createResourceFilter(smd);
          if (filter != null)
          {
-            ResourceFilter previousFilter = unit.addAttachment(ResourceFilter.class.getName() + ".resource", filter, ResourceFilter.class);
+            ResourceFilter previousFilter = unit.addAttachment(RESOURCE_FILTER_KEY, filter, ResourceFilter.class);
             if (previousFilter != null)
                log.debug("Overridding previous resource filter: " + previousFilter);
          }
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.vfs.plugins.structure;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.codec.CodecInput;
+import org.jboss.deployers.structure.spi.codec.CodecOutput;
+import org.jboss.deployers.structure.spi.codec.DeploymentContextCodec;
+import org.jboss.deployers.vfs.plugins.vfs.VirtualFileTypeSerializer;
+import org.jboss.deployers.vfs.spi.structure.VFSDeploymentContext;
+import org.jboss.virtual.VirtualFile;
+
+/**
+ * A DeploymentContextCodec for vfs deployment contexts.<p>
+ *
+ * Writes the root, metadata locations and classpath of each context.
+ */
+public class VFSDeploymentContextCodec extends DeploymentContextCodec
+{
+   /** The file serializer */
+   private final VirtualFileTypeSerializer files = new VirtualFileTypeSerializer();
+
+   /**
+    * Create a new VFSDeploymentContextCodec.
+    */
+   public VFSDeploymentContextCodec()
+   {
+      addSerializer(files);
+   }
+
+   @Override
+   protected void writeContext(CodecOutput out, DeploymentContext context) throws IOException
+   {
+      if (context instanceof VFSDeploymentContext == false)
+         throw new IllegalArgumentException("Not a vfs deployment context: " + context.getName());
+      VFSDeploymentContext vfsContext = (VFSDeploymentContext) context;
+      files.write(out, vfsContext.getRoot());
+      writeFiles(out, vfsContext.getMetaDataLocations());
+      writeFiles(out, vfsContext.getClassPath());
+   }
+
+   @Override
+   protected DeploymentContext createContext(CodecInput in, String name, String simpleName, String relativePath) throws IOException, ClassNotFoundException
+   {
+      VirtualFile root = files.read(in);
+      AbstractVFSDeploymentContext context = new AbstractVFSDeploymentContext(name, simpleName, root, relativePath);
+      List<VirtualFile> locations = readFiles(in);
+      if (locations != null)
+         context.setMetaDataLocations(locations);
+      List<VirtualFile> classPath = readFiles(in);
+      if (classPath != null)
+         context.setClassPath(classPath);
+      return context;
+   }
+
+   /**
+    * Write files
+    *
+    * @param out the output
+    * @param list the files
+    * @throws IOException for any error
+    */
+   protected void writeFiles(CodecOutput out, List<VirtualFile> list) throws IOException
+   {
+      out.writeInt(list.size());
+      for (VirtualFile file : list)
+         files.write(out, file);
+   }
+
+   /**
+    * Read files
+    *
+    * @param in the input
+    * @return the files or null if there are none
+    * @throws IOException for any error
+    */
+   protected List<VirtualFile> readFiles(CodecInput in) throws IOException
+   {
+      int size = in.readInt();
+      if (size == 0)
+         return null;
+      List<VirtualFile> result = new ArrayList<VirtualFile>(size);
+      for (int i = 0; i < size; ++i)
+         result.add(files.read(in));
+      return result;
+   }
+}
@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.deployers.vfs.plugins.vfs;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.jboss.deployers.structure.spi.codec.CodecInput;
+import org.jboss.deployers.structure.spi.codec.CodecOutput;
+import org.jboss.deployers.structure.spi.codec.TypeSerializer;
+import org.jboss.virtual.VFS;
+import org.jboss.virtual.VirtualFile;
+
+/**
+ * Writes a VirtualFile as its root url and path, like {@link VirtualFileSerializator}.
+ * The root url goes through the string table so files of the same root share it.
+ */
+public class VirtualFileTypeSerializer implements TypeSerializer<VirtualFile>
+{
+   public Class<VirtualFile> getType()
+   {
+      return VirtualFile.class;
+   }
+
+   public void write(CodecOutput out, VirtualFile value) throws IOException
+   {
+      URL url;
+      try
+      {
+         url = value.getVFS().getRoot().toURL();
+      }
+      catch (Exception e)
+      {
+         IOException ioe = new IOException("Cannot get root url of " + value);
+         ioe.initCause(e);
+         throw ioe;
+      }
+      out.writeString(url.toExternalForm());
+      out.writeString(value.getPathName());
+   }
+
+   @SuppressWarnings("deprecation")
+   public VirtualFile read(CodecInput in) throws IOException
+   {
+      URL url = new URL(in.readString());
+      String path = in.readString();
+      VirtualFile root = VFS.getRoot(url);
+      return root.findChild(path);
+   }
+}
@@ -45,6 +45,7 @@ import org.jboss.test.deployers.vfs.structure.modified.test.MetaDataStructureMod
 import org.jboss.test.deployers.vfs.structure.modified.test.SynchModificationTestCase;
 import org.jboss.test.deployers.vfs.structure.test.StructureDeployerContextClassLoaderTestCase;
 import org.jboss.test.deployers.vfs.structure.test.TerminateStructureTestCase;
+import org.jboss.test.deployers.vfs.structure.test.VFSDeploymentContextCodecUnitTestCase;
 import org.jboss.test.deployers.vfs.structure.war.test.CombinedWARStructureUnitTestCase;
 import org.jboss.test.deployers.vfs.structure.war.test.WARStructureUnitTestCase;
 import org.jboss.test.deployers.vfs.structure.war.test.WARUnpackUnitTestCase;
@@ -91,6 +92,7 @@ public class VFSStructureTestSuite extends TestSuite
       suite.addTest(MetaDataStructureModificationTestCase.suite());
       suite.addTest(MetaDataStructureModificationTreeCacheTestCase.suite());
       suite.addTest(SynchModificationTestCase.suite());
+      suite.addTest(VFSDeploymentContextCodecUnitTestCase.suite());
 
       return suite;
    }
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.deployers.vfs.structure.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.jboss.deployers.plugins.attachments.AttachmentsImpl;
+import org.jboss.deployers.structure.spi.DeploymentContext;
+import org.jboss.deployers.structure.spi.codec.AttachmentsCodec;
+import org.jboss.deployers.vfs.plugins.structure.VFSDeploymentContextCodec;
+import org.jboss.deployers.vfs.plugins.structure.jar.JARStructure;
+import org.jboss.deployers.vfs.plugins.vfs.VirtualFileTypeSerializer;
+import org.jboss.deployers.vfs.spi.client.VFSDeployment;
+import org.jboss.deployers.vfs.spi.structure.VFSDeploymentContext;
+import org.jboss.test.deployers.vfs.structure.AbstractStructureTest;
+import org.jboss.virtual.VirtualFile;
+
+/**
+ * VFSDeploymentContextCodecUnitTestCase.
+ */
+public class VFSDeploymentContextCodecUnitTestCase extends AbstractStructureTest
+{
+   public static Test suite()
+   {
+      return new TestSuite(VFSDeploymentContextCodecUnitTestCase.class);
+   }
+
+   public VFSDeploymentContextCodecUnitTestCase(String name)
+   {
+      super(name);
+   }
+
+   protected VFSDeploymentContext determineStructure(VFSDeployment deployment) throws Exception
+   {
+      return determineStructureWithStructureDeployer(deployment, new JARStructure());
+   }
+
+   public void testVirtualFileRoundTrip() throws Exception
+   {
+      VirtualFile jar = getVirtualFile("/structure/jar", "indirectory/archive.jar");
+      VirtualFile zip = getVirtualFile("/structure/jar", "indirectory/archive.zip");
+      AttachmentsImpl attachments = new AttachmentsImpl();
+      attachments.addAttachment("jar", jar);
+      AttachmentsCodec codec = new AttachmentsCodec();
+      codec.addSerializer(new VirtualFileTypeSerializer());
+      byte[] once = encode(codec, attachments);
+      attachments.addAttachment("zip", zip);
+      byte[] twice = encode(codec, attachments);
+
+      AttachmentsImpl result = new AttachmentsImpl();
+      codec.readAttachments(result, new ByteArrayInputStream(twice));
+      assertEquals(jar.toURL(), result.getAttachment("jar", VirtualFile.class).toURL());
+      assertEquals(zip.toURL(), result.getAttachment("zip", VirtualFile.class).toURL());
+
+      String root = jar.getVFS().getRoot().toURL().toExternalForm();
+      int difference = twice.length - once.length;
+      assertTrue("Expected the root url to be shared " + difference, difference < root.length());
+   }
+
+   public void testContextTreeRoundTrip() throws Throwable
+   {
+      VFSDeploymentContext context = assertDeploy("/structure/jar", "indirectory");
+      assertChildContexts(context, "archive.jar", "archive.zip");
+
+      VFSDeploymentContextCodec codec = new VFSDeploymentContextCodec();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      codec.writeDeploymentContext(context, baos);
+      DeploymentContext result = codec.readDeploymentContext(new ByteArrayInputStream(baos.toByteArray()));
+      assertTrue(result instanceof VFSDeploymentContext);
+      assertContext(context, (VFSDeploymentContext) result);
+   }
+
+   protected void assertContext(VFSDeploymentContext expected, VFSDeploymentContext actual) throws Exception
+   {
+      assertEquals(expected.getName(), actual.getName());
+      assertEquals(expected.getSimpleName(), actual.getSimpleName());
+      assertEquals(expected.getRelativePath(), actual.getRelativePath());
+      assertEquals(expected.getRoot().toURL(), actual.getRoot().toURL());
+      assertFiles(expected.getMetaDataLocations(), actual.getMetaDataLocations());
+      assertFiles(expected.getClassPath(), actual.getClassPath());
+      List<DeploymentContext> expectedChildren = expected.getChildren();
+      List<DeploymentContext> actualChildren = actual.getChildren();
+      assertEquals(expectedChildren.size(), actualChildren.size());
+      for (int i = 0; i < expectedChildren.size(); ++i)
+      {
+         assertSame(actual, actualChildren.get(i).getParent());
+         assertContext((VFSDeploymentContext) expectedChildren.get(i), (VFSDeploymentContext) actualChildren.get(i));
+      }
+   }
+
+   protected void assertFiles(List<VirtualFile> expected, List<VirtualFile> actual) throws Exception
+   {
+      if (expected == null || expected.isEmpty())
+      {
+         assertTrue(actual == null || actual.isEmpty());
+         return;
+      }
+      assertNotNull(actual);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i)
+         assertEquals(expected.get(i).toURL(), actual.get(i).toURL());
+   }
+
+   protected static byte[] encode(AttachmentsCodec codec, AttachmentsImpl attachments) throws Exception
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      codec.writeAttachments(attachments, baos);
+      return baos.toByteArray();
+   }
+}